@@ -0,0 +1,58 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue;
+
+import java.util.EventListener;
+
+import org.jfugue.parsers.Parser;
+
+/**
+ * Classes that implement BatchParserListener and add themselves as listeners
+ * to a <code>Parser</code> receive the parsed events a block at a time, instead
+ * of one call per event.  The events in a block are held as arrays of primitives,
+ * so no element objects need to be created for a batch listener, and the cost of
+ * the call is shared by all of the events in the block.
+ *
+ * <p>
+ * Batch listeners and ordinary <code>ParserListener</code>s may be added to the
+ * same parser.  Within a block, events are in the order they were parsed, but a
+ * batch listener hears about them later than the <code>ParserListener</code>s do:
+ * when the block is full (see {@link Parser#setBatchSize(int)}), and at the end
+ * of the parse.
+ * </p>
+ *
+ * @see BatchToListenerAdaptor
+ * @author David Koelle
+ * @version 4.1
+ */
+public interface BatchParserListener extends EventListener
+{
+    /**
+     * Called when the parser has a block of events ready.  The block, and the
+     * arrays it holds, belong to the parser: they are only valid until this method
+     * returns, and must not be modified.  Copy out anything that is needed later.
+     * @param block the events that have been parsed since the last block
+     */
+    public void eventsParsed(EventBlock block);
+}
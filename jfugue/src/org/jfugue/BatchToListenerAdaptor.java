@@ -0,0 +1,71 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue;
+
+/**
+ * Lets existing <code>ParserListener</code>s be used where a
+ * <code>BatchParserListener</code> is expected.  Each block is replayed to the
+ * wrapped listeners one event at a time, creating element objects as it goes.
+ *
+ * <pre>
+ *  parser.addBatchParserListener(new BatchToListenerAdaptor(new MusicXmlRenderer()));
+ * </pre>
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public class BatchToListenerAdaptor implements BatchParserListener
+{
+    private ParserListener[] listeners;
+
+    /**
+     * Creates an adaptor that replays each block to the given listeners.
+     * @param listeners the listeners to receive the events
+     */
+    public BatchToListenerAdaptor(ParserListener... listeners)
+    {
+        setListeners(listeners);
+    }
+
+    /**
+     * Sets the listeners that receive the events.
+     */
+    public void setListeners(ParserListener... listeners)
+    {
+        this.listeners = listeners.clone();
+    }
+
+    /**
+     * Returns the listeners that receive the events.
+     */
+    public ParserListener[] getListeners()
+    {
+        return listeners.clone();
+    }
+
+    public void eventsParsed(EventBlock block)
+    {
+        block.replay(listeners);
+    }
+}
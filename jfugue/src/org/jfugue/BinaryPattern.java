@@ -0,0 +1,459 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import org.jfugue.elements.AbstractPattern;
+import org.jfugue.parsers.MeasureIndex;
+
+/**
+ * A pattern stored in JFugue's binary file format, which holds the events the
+ * parser fires for the pattern, so that loading the file doesn't mean parsing
+ * the music string again.
+ *
+ * <p>
+ * A binary pattern file holds the pattern's properties, its music string, its
+ * events as a {@link CompiledPattern}, and two indexes: the first event of each
+ * measure (with the measure's offset in the music string), and the runs of events
+ * that belong to each voice.  Files are loaded through a memory-mapped
+ * <code>FileChannel</code>; the events are copied straight from the mapped file
+ * into the arrays of a <code>CompiledPattern</code>, and the music string is only
+ * decoded if {@link #getPattern()} is called.
+ * </p>
+ *
+ * <p>
+ * The text format read by {@link AbstractPattern#loadPattern(File)} remains the
+ * format for exchanging patterns; {@link #convertToBinary(File, File)} and
+ * {@link #convertToText(File, File)} convert between the two.
+ * </p>
+ *
+ * <pre>
+ *  BinaryPattern.save(pattern, new File("fugue.jfb"));
+ *  BinaryPattern loaded = BinaryPattern.load(new File("fugue.jfb"));
+ *  player.play(loaded.getCompiledPattern());
+ * </pre>
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class BinaryPattern
+{
+    /** The file extension used for binary pattern files */
+    public static final String FILE_EXTENSION = ".jfb";
+
+    private static final int MAGIC = 0x4A464250;   // "JFBP"
+    private static final short VERSION = 1;
+    private static final int VOICES = 16;
+    private static final Charset UTF8 = Charset.forName("UTF-8");
+
+    private final Map<String, String> properties;
+    private final ByteBuffer musicString;
+    private final CompiledPattern events;
+    private final int[] measureEvents;
+    private final int[] measureOffsets;
+    private final int[][] voiceRuns;
+
+    private BinaryPattern(Map<String, String> properties, ByteBuffer musicString, CompiledPattern events,
+            int[] measureEvents, int[] measureOffsets, int[][] voiceRuns)
+    {
+        this.properties = Collections.unmodifiableMap(properties);
+        this.musicString = musicString;
+        this.events = events;
+        this.measureEvents = measureEvents;
+        this.measureOffsets = measureOffsets;
+        this.voiceRuns = voiceRuns;
+    }
+
+    //
+    // Saving
+    /////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Parses a pattern and saves it, with its events, in the binary format.
+     * @param pattern the pattern to save
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void save(PatternInterface pattern, File file) throws IOException
+    {
+        save(pattern, CompiledPattern.compile(pattern), file);
+    }
+
+    /**
+     * Saves a pattern that has already been compiled in the binary format.
+     * @param pattern the pattern to save
+     * @param compiled the events of the pattern, as compiled by <code>CompiledPattern.compile(pattern)</code>
+     * @param file the file to write
+     * @throws IOException if the file can't be written
+     */
+    public static void save(PatternInterface pattern, CompiledPattern compiled, File file) throws IOException
+    {
+        EventBlock block = compiled.getEvents();
+        int size = block.size();
+
+        DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(file), 65536));
+        try {
+            out.writeInt(MAGIC);
+            out.writeShort(VERSION);
+            out.writeShort(0);
+
+            Map<String, String> properties = pattern.getProperties();
+            out.writeInt(properties.size());
+            for (Map.Entry<String, String> entry : properties.entrySet()) {
+                writeString(out, entry.getKey());
+                writeString(out, entry.getValue());
+            }
+            writeString(out, pattern.getMusicString());
+
+            out.writeInt(size);
+            out.write(block.getKinds(), 0, size);
+            out.write(block.getVoices(), 0, size);
+            out.write(block.getLayers(), 0, size);
+            out.write(block.getAttackVelocities(), 0, size);
+            out.write(block.getDecayVelocities(), 0, size);
+            out.write(block.getFlagBits(), 0, size);
+            int[] values = block.getValues();
+            int[] data = block.getData();
+            long[] durations = block.getDurations();
+            double[] decimalDurations = block.getDecimalDurations();
+            for (int i = 0; i < size; i++) {
+                out.writeInt(values[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeInt(data[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeLong(durations[i]);
+            }
+            for (int i = 0; i < size; i++) {
+                out.writeDouble(decimalDurations[i]);
+            }
+            out.writeInt(block.getSystemExclusiveCount());
+            for (int i = 0; i < block.getSystemExclusiveCount(); i++) {
+                byte[] sysex = block.getSystemExclusiveMessage(i);
+                out.writeInt(sysex.length);
+                out.write(sysex);
+            }
+
+            writeMeasureIndex(out, pattern, block);
+            writeVoiceIndex(out, block);
+        } finally {
+            out.close();
+        }
+    }
+
+    private static void writeString(DataOutputStream out, String s) throws IOException
+    {
+        byte[] bytes = s.getBytes(UTF8);
+        out.writeInt(bytes.length);
+        out.write(bytes);
+    }
+
+    /** Writes the first event of each measure, and the offset of each measure in the music string */
+    private static void writeMeasureIndex(DataOutputStream out, PatternInterface pattern, EventBlock block) throws IOException
+    {
+        List<Integer> firstEvents = new ArrayList<Integer>();
+        firstEvents.add(0);
+        byte[] kinds = block.getKinds();
+        for (int i = 0; i < block.size(); i++) {
+            if (kinds[i] == EventBlock.MEASURE_EVENT) {
+                firstEvents.add(i + 1);
+            }
+        }
+        MeasureIndex index = MeasureIndex.of(pattern);
+        out.writeInt(firstEvents.size());
+        for (int i = 0; i < firstEvents.size(); i++) {
+            out.writeInt(firstEvents.get(i));
+            out.writeInt((i < index.getMeasureCount()) ? index.getCheckpoint(i + 1).getOffset() : -1);
+        }
+    }
+
+    /** Writes, for each voice, the start and end of each run of events in that voice */
+    private static void writeVoiceIndex(DataOutputStream out, EventBlock block) throws IOException
+    {
+        byte[] voices = block.getVoices();
+        int size = block.size();
+        for (int voice = 0; voice < VOICES; voice++) {
+            List<Integer> runs = new ArrayList<Integer>();
+            int i = 0;
+            while (i < size) {
+                if (voices[i] != voice) {
+                    i++;
+                    continue;
+                }
+                int start = i;
+                while ((i < size) && (voices[i] == voice)) {
+                    i++;
+                }
+                runs.add(start);
+                runs.add(i);
+            }
+            out.writeInt(runs.size() / 2);
+            for (int run : runs) {
+                out.writeInt(run);
+            }
+        }
+    }
+
+    //
+    // Loading
+    /////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Loads a binary pattern file.  The file is memory-mapped, and the events are
+     * copied from it into a <code>CompiledPattern</code>; the music string is left
+     * in the mapped file until it is asked for.
+     * @param file the file to read
+     * @return the loaded pattern
+     * @throws IOException if the file can't be read, or isn't a binary pattern file
+     */
+    public static BinaryPattern load(File file) throws IOException
+    {
+        RandomAccessFile raf = new RandomAccessFile(file, "r");
+        MappedByteBuffer buffer;
+        try {
+            FileChannel channel = raf.getChannel();
+            buffer = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+        } finally {
+            raf.close();
+        }
+        return read(buffer);
+    }
+
+    private static BinaryPattern read(ByteBuffer buffer) throws IOException
+    {
+        try {
+            if (buffer.getInt() != MAGIC) {
+                throw new IOException("Not a JFugue binary pattern file");
+            }
+            short version = buffer.getShort();
+            if (version != VERSION) {
+                throw new IOException("Unsupported version " + version + " of the JFugue binary pattern format");
+            }
+            buffer.getShort();
+
+            int propertyCount = readCount(buffer, 8);
+            Map<String, String> properties = new HashMap<String, String>();
+            for (int i = 0; i < propertyCount; i++) {
+                String key = readString(buffer);
+                properties.put(key, readString(buffer));
+            }
+            int musicStringLength = readCount(buffer, 1);
+            ByteBuffer musicString = slice(buffer, musicStringLength);
+
+            int size = readCount(buffer, EVENT_WIDTH);
+            byte[] kinds = readBytes(buffer, size);
+            byte[] voices = readBytes(buffer, size);
+            byte[] layers = readBytes(buffer, size);
+            byte[] attackVelocities = readBytes(buffer, size);
+            byte[] decayVelocities = readBytes(buffer, size);
+            byte[] flags = readBytes(buffer, size);
+            int[] values = new int[size];
+            buffer.asIntBuffer().get(values);
+            buffer.position(buffer.position() + 4 * size);
+            int[] data = new int[size];
+            buffer.asIntBuffer().get(data);
+            buffer.position(buffer.position() + 4 * size);
+            long[] durations = new long[size];
+            buffer.asLongBuffer().get(durations);
+            buffer.position(buffer.position() + 8 * size);
+            double[] decimalDurations = new double[size];
+            buffer.asDoubleBuffer().get(decimalDurations);
+            buffer.position(buffer.position() + 8 * size);
+            int sysexCount = readCount(buffer, 4);
+            List<byte[]> sysex = new ArrayList<byte[]>(sysexCount);
+            for (int i = 0; i < sysexCount; i++) {
+                sysex.add(readBytes(buffer, readCount(buffer, 1)));
+            }
+            EventBlock block = new EventBlock(kinds, voices, layers, values, data, durations, decimalDurations,
+                    attackVelocities, decayVelocities, flags, sysex);
+
+            int measureCount = readCount(buffer, 8);
+            int[] measureEvents = new int[measureCount];
+            int[] measureOffsets = new int[measureCount];
+            for (int i = 0; i < measureCount; i++) {
+                measureEvents[i] = buffer.getInt();
+                measureOffsets[i] = buffer.getInt();
+            }
+            int[][] voiceRuns = new int[VOICES][];
+            for (int voice = 0; voice < VOICES; voice++) {
+                voiceRuns[voice] = new int[2 * readCount(buffer, 8)];
+                buffer.asIntBuffer().get(voiceRuns[voice]);
+                buffer.position(buffer.position() + 4 * voiceRuns[voice].length);
+            }
+
+            return new BinaryPattern(properties, musicString, CompiledPattern.of(block), measureEvents, measureOffsets, voiceRuns);
+        } catch (RuntimeException e) {
+            // A truncated or damaged file runs off the end of the buffer
+            IOException ioe = new IOException("The binary pattern file is damaged: " + e);
+            ioe.initCause(e);
+            throw ioe;
+        }
+    }
+
+    /** The number of bytes each event takes up: six bytes, two ints, a long and a double */
+    private static final int EVENT_WIDTH = 6 + 4 + 4 + 8 + 8;
+
+    /**
+     * Reads the number of items that follow, each taking up at least <code>width</code> bytes.
+     * A count that is negative, or that the rest of the file is too short to hold, means that
+     * the file is damaged; it is caught here, before an array is made for that many items.
+     */
+    private static int readCount(ByteBuffer buffer, int width) throws IOException
+    {
+        int count = buffer.getInt();
+        if ((count < 0) || (count > buffer.remaining() / width)) {
+            throw new IOException("The binary pattern file is damaged: a count of " + count
+                    + " doesn't fit in the " + buffer.remaining() + " bytes that are left");
+        }
+        return count;
+    }
+
+    private static ByteBuffer slice(ByteBuffer buffer, int length)
+    {
+        ByteBuffer slice = buffer.slice();
+        slice.limit(length);
+        buffer.position(buffer.position() + length);
+        return slice;
+    }
+
+    private static byte[] readBytes(ByteBuffer buffer, int length)
+    {
+        byte[] bytes = new byte[length];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    private static String readString(ByteBuffer buffer) throws IOException
+    {
+        return new String(readBytes(buffer, readCount(buffer, 1)), UTF8);
+    }
+
+    //
+    // Contents
+    /////////////////////////////////////////////////////////////////////////
+
+    /** Returns the properties of the pattern, such as its title */
+    public Map<String, String> getProperties()
+    {
+        return properties;
+    }
+
+    /** Returns the events of the pattern, ready to be replayed to <code>ParserListener</code>s or played */
+    public CompiledPattern getCompiledPattern()
+    {
+        return events;
+    }
+
+    /**
+     * Returns the pattern as a <code>Pattern</code>, with its music string and properties.
+     * The music string is decoded each time this is called.
+     */
+    public Pattern getPattern()
+    {
+        Pattern pattern = new Pattern(UTF8.decode(musicString.duplicate()).toString());
+        for (Map.Entry<String, String> entry : properties.entrySet()) {
+            pattern.setProperty(entry.getKey(), entry.getValue());
+        }
+        return pattern;
+    }
+
+    /** Returns the number of measures in the pattern */
+    public int getMeasureCount()
+    {
+        return measureEvents.length;
+    }
+
+    /**
+     * Returns the index of the first event of the given measure, counting measures from 1.
+     * The events from one measure to the next can be replayed with
+     * <code>getCompiledPattern().replay(fromIndex, toIndex, listeners)</code>.
+     */
+    public int getMeasureEventIndex(int measure)
+    {
+        return measureEvents[measure - 1];
+    }
+
+    /** Returns the offset in the music string at which the given measure begins, counting measures from 1 */
+    public int getMeasureOffset(int measure)
+    {
+        return measureOffsets[measure - 1];
+    }
+
+    /**
+     * Returns the runs of events in the given voice, as pairs of indexes: the first event of
+     * each run, then the index just past its last event.
+     * @param voice the voice, from 0 to 15
+     */
+    public int[] getVoiceRuns(int voice)
+    {
+        return voiceRuns[voice].clone();
+    }
+
+    //
+    // Converting
+    /////////////////////////////////////////////////////////////////////////
+
+    /**
+     * Converts a pattern file in the text format to the binary format.
+     * @param textFile the <code>.jfugue</code> file to read
+     * @param binaryFile the binary file to write
+     */
+    public static void convertToBinary(File textFile, File binaryFile) throws IOException
+    {
+        PatternInterface pattern = AbstractPattern.loadPattern(textFile);
+        // loadPattern() puts a space before every line it reads; drop the first one
+        // so that converting back and forth does not keep adding spaces
+        Pattern trimmed = new Pattern(pattern.getMusicString().trim());
+        for (Map.Entry<String, String> entry : pattern.getProperties().entrySet()) {
+            trimmed.setProperty(entry.getKey(), entry.getValue());
+        }
+        save(trimmed, binaryFile);
+    }
+
+    /**
+     * Converts a pattern file in the binary format to the text format.
+     * @param binaryFile the binary file to read
+     * @param textFile the <code>.jfugue</code> file to write
+     */
+    public static void convertToText(File binaryFile, File textFile) throws IOException
+    {
+        load(binaryFile).getPattern().savePattern(textFile);
+    }
+}
@@ -0,0 +1,302 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package org.jfugue;
+
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * The chord types that may follow a note in a music string, such as the
+ * "maj" in "Cmaj" or the "dom7&lt;5&lt;9" in "Cdom7&lt;5&lt;9".  Each chord
+ * type is defined by a name and the number of halfsteps from the root to
+ * each of the other notes in the chord.
+ *
+ * <p>
+ * Chord names are matched without regard to case, and the longest name
+ * that matches wins, so "Cmaj7" is a major seventh chord and not a major
+ * chord followed by a 7.  Matching walks a tree of the names one character
+ * at a time, so finding a chord (or finding that there isn't one) takes a
+ * single pass over the characters after the note, and creates no objects.
+ * </p>
+ *
+ * <p>
+ * New chord types may be added with {@link #register(String, int...)}.  A
+ * registered chord is recognized by every parser from then on.  Take care
+ * not to choose a name that starts like something else that can follow a
+ * note, such as a duration letter or an octave number, because the chord
+ * name will take precedence.
+ * </p>
+ *
+ *@author David Koelle
+ *@version 4.1
+ */
+public final class ChordTable
+{
+    /** A chord type: its name, and the halfsteps that make up the chord */
+    public static final class Entry
+    {
+        private final String name;
+        private final byte[] halfsteps;
+
+        private Entry(String name, byte[] halfsteps)
+        {
+            this.name = name;
+            this.halfsteps = halfsteps;
+        }
+
+        /** Returns the name of this chord type, in upper case */
+        public String getName()
+        {
+            return name;
+        }
+
+        /** Returns the number of characters in the name of this chord type */
+        public int getNameLength()
+        {
+            return name.length();
+        }
+
+        /** Returns the number of notes in this chord type, not counting the root */
+        public int getHalfstepCount()
+        {
+            return halfsteps.length;
+        }
+
+        /** Returns the distance in halfsteps from the root to the given note of this chord type */
+        public byte getHalfstep(int index)
+        {
+            return halfsteps[index];
+        }
+
+        /** Returns a copy of the halfsteps that make up this chord type */
+        public byte[] getHalfsteps()
+        {
+            byte[] copy = new byte[halfsteps.length];
+            System.arraycopy(halfsteps, 0, copy, 0, halfsteps.length);
+            return copy;
+        }
+    }
+
+    /** The characters a chord name may use, which is all of printable ASCII */
+    private static final char FIRST_CHAR = '!';
+    private static final char LAST_CHAR = '~';
+
+    private static final class Node
+    {
+        final Node[] children = new Node[LAST_CHAR - FIRST_CHAR + 1];
+        Entry entry;
+    }
+
+    /** The halfsteps of each chord type, keyed by upper-case name.  Replaced, never modified, once published. */
+    private static Map<String, byte[]> chords = new HashMap<String, byte[]>();
+
+    /** The root of the name tree; replaced whenever a chord type is registered or unregistered */
+    private static volatile Node root;
+
+    /** Counts the changes made by register() and unregister() */
+    private static volatile int version = 0;
+
+    private static final Map<String, byte[]> BUILT_IN_CHORDS;
+
+    static {
+        addBuiltIn("MAJ", 4, 7);
+        addBuiltIn("MIN", 3, 7);
+        addBuiltIn("AUG", 4, 8);
+        addBuiltIn("DIM", 3, 6);
+
+        addBuiltIn("DOM7", 4, 7, 10);
+        addBuiltIn("MAJ7", 4, 7, 11);
+        addBuiltIn("MIN7", 3, 7, 10);
+        addBuiltIn("SUS4", 5, 7);
+        addBuiltIn("SUS2", 2, 7);
+        addBuiltIn("MAJ6", 4, 7, 9);
+        addBuiltIn("MIN6", 3, 7, 9);
+        addBuiltIn("DOM9", 4, 7, 10, 14);
+        addBuiltIn("MAJ9", 4, 7, 11, 14);
+        addBuiltIn("MIN9", 3, 7, 10, 14);
+        addBuiltIn("DIM7", 3, 6, 9);
+        addBuiltIn("ADD9", 4, 7, 14);
+        addBuiltIn("DAVE", 7, 14, 21);
+
+        addBuiltIn("MIN11", 7, 10, 14, 15, 17);
+        addBuiltIn("DOM11", 7, 10, 14, 17);
+        addBuiltIn("DOM13", 7, 10, 14, 16, 21);
+        addBuiltIn("MIN13", 7, 10, 14, 15, 21);
+        addBuiltIn("MAJ13", 7, 11, 14, 16, 21);
+        addBuiltIn("DOM7<5", 4, 6, 10);
+        addBuiltIn("DOM7>5", 4, 8, 10);
+        addBuiltIn("MAJ7<5", 4, 6, 11);
+        addBuiltIn("MAJ7>5", 4, 8, 11);
+        addBuiltIn("MINMAJ7", 3, 7, 11);
+        addBuiltIn("DOM7<5<9", 4, 6, 10, 13);
+        addBuiltIn("DOM7<5>9", 4, 6, 10, 15);
+        addBuiltIn("DOM7>5<9", 4, 8, 10, 13);
+        addBuiltIn("DOM7>5>9", 4, 8, 10, 15);
+
+        BUILT_IN_CHORDS = Collections.unmodifiableMap(chords);
+        root = buildTree(chords);
+    }
+
+    private ChordTable()
+    {
+    }
+
+    private static void addBuiltIn(String name, int... halfsteps)
+    {
+        chords.put(name, toBytes(halfsteps));
+    }
+
+    private static byte[] toBytes(int... halfsteps)
+    {
+        byte[] bytes = new byte[halfsteps.length];
+        for (int i = 0; i < halfsteps.length; i++) {
+            bytes[i] = (byte)halfsteps[i];
+        }
+        return bytes;
+    }
+
+    /**
+     * Adds a chord type, or replaces the halfsteps of an existing one.
+     * @param name the name of the chord type, such as "MAJ7"; case does not matter
+     * @param halfsteps the distance in halfsteps from the root to each of the other notes in the chord
+     * @throws IllegalArgumentException if the name is empty or uses characters other than printable ASCII,
+     *      or if no halfsteps are given
+     */
+    public static synchronized void register(String name, int... halfsteps)
+    {
+        if ((name == null) || (name.length() == 0)) {
+            throw new IllegalArgumentException("A chord type needs a name");
+        }
+        for (int i = 0; i < name.length(); i++) {
+            char ch = name.charAt(i);
+            if ((ch < FIRST_CHAR) || (ch > LAST_CHAR)) {
+                throw new IllegalArgumentException("The chord type " + name + " may only use printable ASCII characters");
+            }
+        }
+        if (halfsteps.length == 0) {
+            throw new IllegalArgumentException("The chord type " + name + " needs at least one halfstep");
+        }
+        Map<String, byte[]> newChords = new HashMap<String, byte[]>(chords);
+        newChords.put(name.toUpperCase(), toBytes(halfsteps));
+        root = buildTree(newChords);
+        chords = newChords;
+        version++;
+    }
+
+    /**
+     * Removes a chord type added with <code>register()</code>.  A built-in chord type
+     * gets back its own halfsteps, and is never removed.  Nothing happens if the name
+     * was never registered.
+     * @param name the name of the chord type; case does not matter
+     */
+    public static synchronized void unregister(String name)
+    {
+        String key = name.toUpperCase();
+        if (!chords.containsKey(key) || (chords.get(key) == BUILT_IN_CHORDS.get(key))) {
+            return;
+        }
+        Map<String, byte[]> newChords = new HashMap<String, byte[]>(chords);
+        if (BUILT_IN_CHORDS.containsKey(key)) {
+            newChords.put(key, BUILT_IN_CHORDS.get(key));
+        } else {
+            newChords.remove(key);
+        }
+        root = buildTree(newChords);
+        chords = newChords;
+        version++;
+    }
+
+    /**
+     * Returns a number that changes every time a chord type is registered or unregistered.
+     * Anything derived from parsing chords may be kept for as long as this
+     * number stays the same.
+     */
+    public static int getVersion()
+    {
+        return version;
+    }
+
+    /**
+     * Returns the chord types that JFugue defines, keyed by upper-case name.
+     * Chord types added with <code>register()</code> are not included.
+     */
+    public static Map<String, byte[]> getBuiltInChords()
+    {
+        return BUILT_IN_CHORDS;
+    }
+
+    /**
+     * Returns every chord type known right now, including registered ones,
+     * keyed by upper-case name.  Later registrations do not change the returned map.
+     */
+    public static synchronized Map<String, byte[]> getChords()
+    {
+        return Collections.unmodifiableMap(chords);
+    }
+
+    /**
+     * Finds the chord type whose name starts at the given position in a music string.
+     * @param s the music string, or a token from it
+     * @param start the position just after the note (and octave, if any)
+     * @return the chord type with the longest name that matches, or <code>null</code> if there is none
+     */
+    public static Entry match(CharSequence s, int start)
+    {
+        Entry longest = null;
+        Node node = root;
+        int length = s.length();
+        for (int i = start; i < length; i++) {
+            char ch = Character.toUpperCase(s.charAt(i));
+            if ((ch < FIRST_CHAR) || (ch > LAST_CHAR)) {
+                break;
+            }
+            node = node.children[ch - FIRST_CHAR];
+            if (node == null) {
+                break;
+            }
+            if (node.entry != null) {
+                longest = node.entry;
+            }
+        }
+        return longest;
+    }
+
+    private static Node buildTree(Map<String, byte[]> chords)
+    {
+        Node top = new Node();
+        for (Map.Entry<String, byte[]> chord : chords.entrySet()) {
+            String name = chord.getKey();
+            Node node = top;
+            for (int i = 0; i < name.length(); i++) {
+                int slot = name.charAt(i) - FIRST_CHAR;
+                if (node.children[slot] == null) {
+                    node.children[slot] = new Node();
+                }
+                node = node.children[slot];
+            }
+            node.entry = new Entry(name, chord.getValue().clone());
+        }
+        return top;
+    }
+}
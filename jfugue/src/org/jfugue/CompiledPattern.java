@@ -0,0 +1,309 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package org.jfugue;
+
+import org.jfugue.elements.ChannelPressure;
+import org.jfugue.elements.Controller;
+import org.jfugue.elements.Instrument;
+import org.jfugue.elements.KeySignature;
+import org.jfugue.elements.Layer;
+import org.jfugue.elements.Measure;
+import org.jfugue.elements.Note;
+import org.jfugue.elements.PitchBend;
+import org.jfugue.elements.PolyphonicPressure;
+import org.jfugue.elements.SystemExclusive;
+import org.jfugue.elements.Tempo;
+import org.jfugue.elements.Time;
+import org.jfugue.elements.Voice;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.parsers.Parser;
+
+/**
+ * The result of parsing a pattern once, kept so that it can be replayed to
+ * any number of <code>ParserListener</code>s without parsing the music string again.
+ *
+ * <p>
+ * The events are kept in an {@link EventBlock}, as parallel arrays of primitives
+ * rather than as element objects.  Element objects are only created while the
+ * events are being replayed to <code>ParserListener</code>s; a
+ * <code>BatchParserListener</code> is given the arrays themselves.
+ * </p>
+ *
+ * <pre>
+ *  CompiledPattern compiled = CompiledPattern.compile(pattern);
+ *  compiled.replay(new MidiRenderer(Sequence.PPQ, 128));
+ *  compiled.replay(new MusicXmlRenderer());
+ * </pre>
+ *
+ * <p>
+ * A CompiledPattern is not changed by replaying it, so once it has been compiled
+ * it may be replayed from several threads at once.
+ * </p>
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class CompiledPattern
+{
+    public static final byte VOICE_EVENT = EventBlock.VOICE_EVENT;
+    public static final byte TEMPO_EVENT = EventBlock.TEMPO_EVENT;
+    public static final byte INSTRUMENT_EVENT = EventBlock.INSTRUMENT_EVENT;
+    public static final byte LAYER_EVENT = EventBlock.LAYER_EVENT;
+    public static final byte MEASURE_EVENT = EventBlock.MEASURE_EVENT;
+    public static final byte TIME_EVENT = EventBlock.TIME_EVENT;
+    public static final byte KEY_SIGNATURE_EVENT = EventBlock.KEY_SIGNATURE_EVENT;
+    public static final byte SYSTEM_EXCLUSIVE_EVENT = EventBlock.SYSTEM_EXCLUSIVE_EVENT;
+    public static final byte CONTROLLER_EVENT = EventBlock.CONTROLLER_EVENT;
+    public static final byte CHANNEL_PRESSURE_EVENT = EventBlock.CHANNEL_PRESSURE_EVENT;
+    public static final byte POLYPHONIC_PRESSURE_EVENT = EventBlock.POLYPHONIC_PRESSURE_EVENT;
+    public static final byte PITCH_BEND_EVENT = EventBlock.PITCH_BEND_EVENT;
+    public static final byte NOTE_EVENT = EventBlock.NOTE_EVENT;
+    public static final byte SEQUENTIAL_NOTE_EVENT = EventBlock.SEQUENTIAL_NOTE_EVENT;
+    public static final byte PARALLEL_NOTE_EVENT = EventBlock.PARALLEL_NOTE_EVENT;
+
+    /** Flag set on a note event that is a rest */
+    public static final byte REST = EventBlock.REST;
+    /** Flag set on a note event that is tied to a following note */
+    public static final byte START_OF_TIE = EventBlock.START_OF_TIE;
+    /** Flag set on a note event that is tied to a previous note */
+    public static final byte END_OF_TIE = EventBlock.END_OF_TIE;
+    /** Flag set on a note event that is followed by other notes in the same token */
+    public static final byte ACCOMPANYING_NOTES = EventBlock.ACCOMPANYING_NOTES;
+
+    private final EventBlock events;
+
+    private CompiledPattern(EventBlock events)
+    {
+        this.events = events;
+    }
+
+    /**
+     * Returns a CompiledPattern that holds the given events.
+     */
+    static CompiledPattern of(EventBlock events)
+    {
+        return new CompiledPattern(events);
+    }
+
+    /**
+     * Returns the events in this compiled pattern.  The block must not be changed.
+     */
+    EventBlock getEvents()
+    {
+        return events;
+    }
+
+    /**
+     * Parses the given pattern with a new <code>MusicStringParser</code> and keeps the result.
+     * @param pattern the pattern to compile
+     * @return the compiled form of the pattern
+     */
+    public static CompiledPattern compile(PatternInterface pattern)
+    {
+        return compile(pattern, new MusicStringParser());
+    }
+
+    /**
+     * Parses the given pattern with the given parser and keeps the result.  This lets
+     * callers compile with a parser that has been set up in a particular way, for
+     * example with default tempo turned off or with dictionary entries added.
+     * Only the events fired during this call are kept.
+     * @param pattern the pattern to compile
+     * @param parser the parser to use
+     * @return the compiled form of the pattern
+     */
+    public static CompiledPattern compile(PatternInterface pattern, MusicStringParser parser)
+    {
+        Recorder recorder = new Recorder();
+        parser.addParserListener(recorder);
+        try {
+            parser.parse(pattern);
+        } finally {
+            parser.removeParserListener(recorder);
+        }
+        return recorder.getCompiledPattern();
+    }
+
+    /**
+     * Returns a <code>ParserListener</code> that records every event it receives
+     * into a new CompiledPattern.  This is how events from parsers other than the
+     * <code>MusicStringParser</code>, such as the <code>MidiParser</code>, may be compiled.
+     */
+    public static Recorder newRecorder()
+    {
+        return new Recorder();
+    }
+
+    /**
+     * Returns the number of events in this compiled pattern.
+     */
+    public int size()
+    {
+        return events.size();
+    }
+
+    /**
+     * Fires every event in this compiled pattern to the given listeners, in the same
+     * order in which the parser originally fired them.  Each event is sent to every
+     * listener before the next event is sent.
+     * @param listeners the listeners to receive the events
+     */
+    public void replay(ParserListener... listeners)
+    {
+        events.replay(listeners);
+    }
+
+    /**
+     * Fires every event in this compiled pattern to the <code>ParserListener</code>s
+     * registered with the given parser, as though the parser had just parsed the pattern.
+     * The parser's <code>BatchParserListener</code>s are given the events as a single block.
+     * @param parser the parser whose listeners should receive the events
+     */
+    public void replay(Parser parser)
+    {
+        replay(parser.getParserListeners());
+        for (BatchParserListener listener : parser.getBatchParserListeners()) {
+            listener.eventsParsed(events);
+        }
+    }
+
+    /**
+     * Hands every event in this compiled pattern to the given listener as a single block,
+     * without creating any element objects.
+     * @param listener the listener to receive the events
+     */
+    public void replay(BatchParserListener listener)
+    {
+        listener.eventsParsed(events);
+    }
+
+    /**
+     * Fires the events from <code>fromIndex</code> (inclusive) to <code>toIndex</code>
+     * (exclusive) to the given listeners.
+     */
+    public void replay(int fromIndex, int toIndex, ParserListener... listeners)
+    {
+        events.replay(fromIndex, toIndex, listeners);
+    }
+
+    //
+    // Accessors for the raw event data
+    /////////////////////////////////////////////////////////////////////////
+
+    /** Returns the kind of the event at the given index, such as <code>NOTE_EVENT</code> */
+    public byte getKind(int index) { return events.getKind(index); }
+
+    /** Returns the voice that was current when the event at the given index was parsed */
+    public byte getVoice(int index) { return events.getVoice(index); }
+
+    /** Returns the layer that was current when the event at the given index was parsed */
+    public byte getLayer(int index) { return events.getLayer(index); }
+
+    /**
+     * Returns the main value of the event at the given index: the voice, tempo, instrument,
+     * layer, key signature, controller index, pressure, polyphonic key, pitch bend LSB or note value.
+     */
+    public int getValue(int index) { return events.getValue(index); }
+
+    /**
+     * Returns the secondary value of the event at the given index: the key signature
+     * scale, controller value, polyphonic pressure or pitch bend MSB.
+     */
+    public int getData(int index) { return events.getData(index); }
+
+    /** Returns the duration of a note event, or the time of a time event, in pulses */
+    public long getDuration(int index) { return events.getDuration(index); }
+
+    /** Returns the duration of a note event, as a decimal fraction of a whole note */
+    public double getDecimalDuration(int index) { return events.getDecimalDuration(index); }
+
+    /** Returns the attack velocity of a note event */
+    public byte getAttackVelocity(int index) { return events.getAttackVelocity(index); }
+
+    /** Returns the decay velocity of a note event */
+    public byte getDecayVelocity(int index) { return events.getDecayVelocity(index); }
+
+    /**
+     * Returns the flags of a note event, a combination of <code>REST</code>,
+     * <code>START_OF_TIE</code>, <code>END_OF_TIE</code> and <code>ACCOMPANYING_NOTES</code>.
+     */
+    public byte getFlags(int index) { return events.getFlags(index); }
+
+    /** Returns a copy of the data of a system exclusive event */
+    public byte[] getSystemExclusiveData(int index) { return events.getSystemExclusiveData(index); }
+
+    /**
+     * A <code>ParserListener</code> that records the events it receives into a CompiledPattern.
+     * @see CompiledPattern#newRecorder()
+     */
+    public static final class Recorder implements PrimitiveParserListener
+    {
+        private EventBlock events = new EventBlock();
+
+        private Recorder()
+        {
+        }
+
+        /**
+         * Returns the events recorded so far as a CompiledPattern, and starts a new
+         * recording.  The returned CompiledPattern is not changed by later events.
+         */
+        public CompiledPattern getCompiledPattern()
+        {
+            CompiledPattern result = new CompiledPattern(events.trim());
+            events = new EventBlock();
+            return result;
+        }
+
+        public void voiceEvent(Voice voice) { events.voiceEvent(voice); }
+        public void tempoEvent(Tempo tempo) { events.tempoEvent(tempo); }
+        public void instrumentEvent(Instrument instrument) { events.instrumentEvent(instrument); }
+        public void layerEvent(Layer layer) { events.layerEvent(layer); }
+        public void measureEvent(Measure measure) { events.measureEvent(measure); }
+        public void timeEvent(Time time) { events.timeEvent(time); }
+        public void keySignatureEvent(KeySignature keySig) { events.keySignatureEvent(keySig); }
+        public void systemExclusiveEvent(SystemExclusive sysex) { events.systemExclusiveEvent(sysex); }
+        public void controllerEvent(Controller controller) { events.controllerEvent(controller); }
+        public void channelPressureEvent(ChannelPressure channelPressure) { events.channelPressureEvent(channelPressure); }
+        public void polyphonicPressureEvent(PolyphonicPressure polyphonicPressure) { events.polyphonicPressureEvent(polyphonicPressure); }
+        public void pitchBendEvent(PitchBend pitchBend) { events.pitchBendEvent(pitchBend); }
+        public void noteEvent(Note note) { events.noteEvent(note); }
+        public void sequentialNoteEvent(Note note) { events.sequentialNoteEvent(note); }
+        public void parallelNoteEvent(Note note) { events.parallelNoteEvent(note); }
+
+        public void noteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+        {
+            events.noteEvent(value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+        }
+
+        public void sequentialNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+        {
+            events.sequentialNoteEvent(value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+        }
+
+        public void parallelNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+        {
+            events.parallelNoteEvent(value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+        }
+    }
+}
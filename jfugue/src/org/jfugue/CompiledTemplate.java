@@ -0,0 +1,393 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * A template that has been broken, once, into literal text and slots, so that it
+ * can be filled in any number of times without being scanned again.
+ *
+ * <p>
+ * A slot is a key written between an opening and a closing marker, such as
+ * <code>{melody}</code> or <code>&lt;3&gt;</code>.  A marker must close before the end
+ * of the token it opens in; an opening marker with no closing marker in its token
+ * is kept as literal text, so chord names like "Cdom7&lt;5&lt;9" pass through untouched.
+ * Markers may be nested, as in <code>{chord{n}}</code>: the inner slot is filled first,
+ * and the text it produces becomes part of the outer key.
+ * </p>
+ *
+ * <p>
+ * A slot whose value is unknown is written back out exactly as it was in the template.
+ * {@link #fill(Resolver)} puts each value in as it is; {@link #expand(Resolver)}
+ * also fills in any slots that the values themselves contain, and throws a
+ * <code>JFugueException</code> if a key leads back to itself.
+ * </p>
+ *
+ * <pre>
+ *  CompiledTemplate template = CompiledTemplate.compile("{intro} {verse} {verse}", '{', '}');
+ *  String music = template.expand(CompiledTemplate.resolverFor(patterns));
+ * </pre>
+ *
+ * <p>
+ * A CompiledTemplate is not changed by filling it, so it may be shared between threads.
+ * </p>
+ *
+ * @see Pattern#createPattern(Map, PatternInterface)
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class CompiledTemplate
+{
+    /**
+     * Supplies the value for a key in a template.
+     */
+    public interface Resolver
+    {
+        /**
+         * Returns the value for the given key, or <code>null</code> if the key
+         * is unknown and its slot should be left as it is.
+         */
+        CharSequence resolve(String key);
+    }
+
+    private final String template;
+    private final char open;
+    private final char close;
+    private final boolean byToken;
+
+    /** The text before each slot, and after the last one; one longer than <code>keys</code> */
+    private final String[] literals;
+    /** The key written in each slot, between the markers */
+    private final String[] keys;
+    /** For each slot whose key contains slots of its own, the compiled key; otherwise <code>null</code> */
+    private final CompiledTemplate[] keyTemplates;
+    /** For templates compiled by token, the rest of the token that follows each slot */
+    private final String[] suffixes;
+    /** The number of characters in the literal text, used to size the result */
+    private final int literalLength;
+
+    private CompiledTemplate(String template, char open, char close, boolean byToken)
+    {
+        this.template = template;
+        this.open = open;
+        this.close = close;
+        this.byToken = byToken;
+
+        List<String> literalList = new ArrayList<String>();
+        List<String> keyList = new ArrayList<String>();
+        List<String> suffixList = new ArrayList<String>();
+        int length = template.length();
+        int literalStart = 0;
+        int i = 0;
+        while (i < length) {
+            if ((template.charAt(i) == open) && (!byToken || (i == 0) || isSpace(template.charAt(i - 1)))) {
+                int end = findClose(template, i);
+                if (end != -1) {
+                    literalList.add(template.substring(literalStart, i));
+                    keyList.add(template.substring(i + 1, end));
+                    i = end + 1;
+                    if (byToken) {
+                        int tokenEnd = i;
+                        while ((tokenEnd < length) && !isSpace(template.charAt(tokenEnd))) {
+                            tokenEnd++;
+                        }
+                        suffixList.add(template.substring(i, tokenEnd));
+                        i = tokenEnd;
+                    }
+                    literalStart = i;
+                    continue;
+                }
+            }
+            i++;
+        }
+        literalList.add(template.substring(literalStart));
+
+        this.literals = literalList.toArray(new String[literalList.size()]);
+        this.keys = keyList.toArray(new String[keyList.size()]);
+        this.suffixes = byToken ? suffixList.toArray(new String[suffixList.size()]) : null;
+        this.keyTemplates = new CompiledTemplate[keys.length];
+        for (int k = 0; k < keys.length; k++) {
+            if (keys[k].indexOf(open) != -1) {
+                CompiledTemplate keyTemplate = new CompiledTemplate(keys[k], open, close, false);
+                if (keyTemplate.getSlotCount() > 0) {
+                    keyTemplates[k] = keyTemplate;
+                }
+            }
+        }
+        int count = 0;
+        for (String literal : literals) {
+            count += literal.length();
+        }
+        this.literalLength = count;
+    }
+
+    /**
+     * Compiles a template in which a slot may appear anywhere.
+     * @param template the template
+     * @param open the character that opens a slot, such as '{'
+     * @param close the character that closes a slot, such as '}'
+     * @return the compiled template
+     */
+    public static CompiledTemplate compile(CharSequence template, char open, char close)
+    {
+        return new CompiledTemplate(template.toString(), open, close, false);
+    }
+
+    /**
+     * Compiles a template in which only a marker that begins a token is a slot.
+     * The rest of that token is kept with the slot, as its suffix, rather than
+     * as literal text; see {@link #getSuffix(int)}.
+     * @param template the template
+     * @param open the character that opens a slot, such as '&lt;'
+     * @param close the character that closes a slot, such as '&gt;'
+     * @return the compiled template
+     */
+    public static CompiledTemplate compileByToken(CharSequence template, char open, char close)
+    {
+        return new CompiledTemplate(template.toString(), open, close, true);
+    }
+
+    /**
+     * Returns the index of the marker that closes the slot opened at the given position,
+     * or -1 if the token ends first.
+     */
+    private int findClose(String s, int start)
+    {
+        int depth = 0;
+        for (int i = start; i < s.length(); i++) {
+            char ch = s.charAt(i);
+            if (ch == open) {
+                depth++;
+            } else if (ch == close) {
+                depth--;
+                if (depth == 0) {
+                    return i;
+                }
+            } else if (isSpace(ch)) {
+                return -1;
+            }
+        }
+        return -1;
+    }
+
+    private static boolean isSpace(char ch)
+    {
+        return (ch == ' ') || (ch == '\t') || (ch == '\n') || (ch == '\r');
+    }
+
+    /** Returns the template this was compiled from */
+    public String getTemplate()
+    {
+        return template;
+    }
+
+    /** Returns the number of slots in this template */
+    public int getSlotCount()
+    {
+        return keys.length;
+    }
+
+    /** Returns the key written in the given slot, without its markers */
+    public String getKey(int slot)
+    {
+        return keys[slot];
+    }
+
+    /**
+     * Returns the literal text before the given slot.  Passing the number of slots
+     * returns the text after the last slot.
+     */
+    public String getLiteral(int index)
+    {
+        return literals[index];
+    }
+
+    /**
+     * Returns the rest of the token that follows the given slot, for a template
+     * compiled with {@link #compileByToken}; otherwise returns an empty string.
+     */
+    public String getSuffix(int slot)
+    {
+        return byToken ? suffixes[slot] : "";
+    }
+
+    /**
+     * Fills the template with one value per slot, in order.  A <code>null</code>
+     * value leaves its slot as it was written.
+     * @param values the value of each slot
+     * @return the filled template
+     */
+    public String fill(CharSequence[] values)
+    {
+        if (values.length != keys.length) {
+            throw new IllegalArgumentException("The template has " + keys.length + " slots, but " + values.length + " values were given");
+        }
+        int capacity = literalLength;
+        for (CharSequence value : values) {
+            capacity += (value == null) ? 16 : value.length();
+        }
+        StringBuilder buddy = new StringBuilder(capacity);
+        for (int i = 0; i < keys.length; i++) {
+            buddy.append(literals[i]);
+            appendSlot(buddy, i, values[i]);
+        }
+        buddy.append(literals[keys.length]);
+        return buddy.toString();
+    }
+
+    /**
+     * Fills the template with the values given by the resolver.  The values are
+     * put in as they are, even if they contain slots of their own.
+     * @param resolver supplies the value of each key
+     * @return the filled template
+     */
+    public String fill(Resolver resolver)
+    {
+        StringBuilder buddy = new StringBuilder(literalLength + 16 * keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            buddy.append(literals[i]);
+            String key = (keyTemplates[i] == null) ? keys[i] : keyTemplates[i].fill(resolver);
+            appendSlot(buddy, i, resolver.resolve(key));
+        }
+        buddy.append(literals[keys.length]);
+        return buddy.toString();
+    }
+
+    /**
+     * Fills the template with the values given by the resolver, and fills any slots
+     * in those values in turn, until no known keys are left.  Each key is expanded
+     * only once per call, however many times it is used.
+     * @param resolver supplies the value of each key
+     * @return the fully expanded template
+     * @throws JFugueException if a key's value leads back to the same key
+     */
+    public String expand(Resolver resolver)
+    {
+        return expand(new Expander(resolver));
+    }
+
+    private String expand(Expander expander)
+    {
+        StringBuilder buddy = new StringBuilder(literalLength + 16 * keys.length);
+        for (int i = 0; i < keys.length; i++) {
+            buddy.append(literals[i]);
+            String key = (keyTemplates[i] == null) ? keys[i] : keyTemplates[i].expand(expander);
+            appendSlot(buddy, i, expander.valueOf(key, this));
+        }
+        buddy.append(literals[keys.length]);
+        return buddy.toString();
+    }
+
+    private void appendSlot(StringBuilder buddy, int slot, CharSequence value)
+    {
+        if (value == null) {
+            buddy.append(open).append(keys[slot]).append(close);
+        } else {
+            buddy.append(value);
+        }
+        if (byToken) {
+            buddy.append(suffixes[slot]);
+        }
+    }
+
+    /**
+     * Returns a resolver that looks keys up in the given map.  A value that is a
+     * <code>PatternInterface</code> stands for its music string; any other value
+     * stands for its <code>toString()</code>.
+     */
+    public static Resolver resolverFor(final Map<String, ?> values)
+    {
+        return new Resolver() {
+            public CharSequence resolve(String key)
+            {
+                Object value = values.get(key);
+                if (value == null) {
+                    return null;
+                }
+                if (value instanceof PatternInterface) {
+                    return ((PatternInterface)value).getMusicCharSequence();
+                }
+                if (value instanceof CharSequence) {
+                    return (CharSequence)value;
+                }
+                return value.toString();
+            }
+        };
+    }
+
+    public String toString()
+    {
+        return "CompiledTemplate[" + template + ", slots=" + keys.length + "]";
+    }
+
+    /**
+     * Keeps track of one call to <code>expand()</code>: the keys already expanded,
+     * and the keys being expanded right now, which are used to find cycles.
+     */
+    private static final class Expander
+    {
+        private final Resolver resolver;
+        private final Map<String, String> expanded = new HashMap<String, String>();
+        private final Set<String> inProgress = new LinkedHashSet<String>();
+
+        Expander(Resolver resolver)
+        {
+            this.resolver = resolver;
+        }
+
+        String valueOf(String key, CompiledTemplate outer)
+        {
+            String value = expanded.get(key);
+            if (value != null) {
+                return value;
+            }
+            if (inProgress.contains(key)) {
+                StringBuilder path = new StringBuilder();
+                for (String k : inProgress) {
+                    path.append(k).append(" -> ");
+                }
+                path.append(key);
+                throw new JFugueException(JFugueException.TEMPLATE_CYCLE_EXC, (Object)path.toString());
+            }
+            CharSequence raw = resolver.resolve(key);
+            if (raw == null) {
+                return null;
+            }
+            inProgress.add(key);
+            try {
+                value = new CompiledTemplate(raw.toString(), outer.open, outer.close, false).expand(this);
+            } finally {
+                inProgress.remove(key);
+            }
+            expanded.put(key, value);
+            return value;
+        }
+    }
+}
@@ -6,29 +6,62 @@ package org.jfugue;
 import java.util.List;
 
 import org.jfugue.elements.JFugueElement;
+import org.jfugue.util.Rope;
+import org.jfugue.visitors.ElementVisitor;
 
 /**
- * @author joshua
+ * A pattern that keeps the elements added to it, rather than their music strings.
+ *
+ * <p>
+ * {@link #addElement(JFugueElement)} appends the element itself.  The music string
+ * is only rendered from the elements when something asks for it, and is then kept
+ * until more elements are added, so adding elements one at a time costs no more
+ * than keeping a list.  The <code>MusicStringParser</code> fires events straight from
+ * the elements, without parsing a music string, and a <code>MidiRenderer</code> can
+ * render the elements directly with {@link MidiRenderer#render(ElementPattern)}.
+ * This lets a chain of <code>PatternTransformer</code>s, each of which builds an
+ * ElementPattern, pass the music along without parsing it again at every stage.
+ * </p>
+ *
+ * <p>
+ * The elements are kept as they are, not copied, so an element must not be changed
+ * once it has been added.  The parser fires copies of the elements, so listeners
+ * that change the elements they are given do not change the pattern.
+ * </p>
+ *
+ * <p>
+ * Changes that can't be described as added elements, such as inserting or repeating
+ * music strings, turn the pattern back into a plain music string: from then on it
+ * behaves just like a <code>Pattern</code>, and {@link #isElementBacked()} returns false.
+ * </p>
  *
+ * @author joshua
+ * @author David Koelle
+ * @version 4.1
  */
 @SuppressWarnings("serial")
 public class ElementPattern extends Pattern {
 
-	protected List<JFugueElement> elements;
-	
+	/** The number of elements whose music strings are already in the music string */
+	private int renderedCount;
+
+	/** Set once the elements no longer describe the whole music string */
+	private boolean detached;
+
 	/**
-	 * 
+	 * Instantiates a new, empty pattern.
 	 */
 	public ElementPattern() {
-		// TODO Auto-generated constructor stub
+		super();
 	}
 
 	/**
+	 * Instantiates a pattern that holds the given music string, and no elements.
 	 * @param musicString
 	 */
 	public ElementPattern(String musicString) {
 		super(musicString);
-		// TODO Auto-generated constructor stub
+		detachIfNotEmpty();
 	}
 
 	/**
@@ -36,7 +69,7 @@ public class ElementPattern extends Pattern {
 	 */
 	public ElementPattern(String... strings) {
 		super(strings);
-		// TODO Auto-generated constructor stub
+		detachIfNotEmpty();
 	}
 
 	/**
@@ -44,15 +77,179 @@ public class ElementPattern extends Pattern {
 	 */
 	public ElementPattern(Pattern pattern) {
 		super(pattern);
-		// TODO Auto-generated constructor stub
+		detachIfNotEmpty();
 	}
 
 	/**
+	 * Instantiates a pattern that holds the given elements.
 	 * @param elements
 	 */
 	public ElementPattern(JFugueElement... elements) {
 		super(elements);
-		// TODO Auto-generated constructor stub
 	}
 
+	private void detachIfNotEmpty() {
+		if (elements.isEmpty() && (musicString.length() > 0)) {
+			detached = true;
+		}
+	}
+
+	/**
+	 * Returns true if this pattern is still described by its elements, and false
+	 * once it has been changed in a way that could only be kept as a music string.
+	 */
+	public boolean isElementBacked() {
+		return !detached;
+	}
+
+	/**
+	 * Returns the elements that make up this pattern, in order.  The list can't be
+	 * changed, and is only meaningful while {@link #isElementBacked()} returns true.
+	 */
+	public List<JFugueElement> getElements() {
+		return iElements;
+	}
+
+	/**
+	 * Adds the music strings of any elements that have been added since the
+	 * music string was last asked for.  An element's music string is preceded by
+	 * a space, unless it continues the previous note, just as in <code>Pattern</code>.
+	 */
+	private void render() {
+		int size = elements.size();
+		if (renderedCount == size) {
+			return;
+		}
+		StringBuilder buddy = new StringBuilder();
+		for (JFugueElement element : elements.subList(renderedCount, size)) {
+			String elementMusicString = element.getMusicString();
+			if ((elementMusicString.charAt(0) != '+') && (elementMusicString.charAt(0) != '_')) {
+				buddy.append(' ');
+			}
+			buddy.append(elementMusicString);
+		}
+		musicString = musicString.concat(buddy);
+		renderedCount = size;
+	}
+
+	/**
+	 * Renders any outstanding elements and forgets the element list, so that the
+	 * music string can be changed the way <code>Pattern</code> changes it.
+	 */
+	private void detach() {
+		if (!detached) {
+			render();
+			elements.clear();
+			renderedCount = 0;
+			detached = true;
+		}
+	}
+
+	@Override
+	protected Rope getMusicRope() {
+		render();
+		return musicString;
+	}
+
+	@Override
+	public String getMusicString() {
+		return getMusicRope().toString();
+	}
+
+	@Override
+	public CharSequence getMusicCharSequence() {
+		return getMusicRope();
+	}
+
+	/**
+	 * Adds an element to the end of this pattern.  While the pattern is element-backed,
+	 * the element is simply kept; its music string is rendered when it is needed.
+	 * A <code>Pattern</code> is added as a pattern, with {@link #add(PatternInterface)}.
+	 */
+	@Override
+	public void addElement(JFugueElement element) {
+		if (element instanceof PatternInterface) {
+			add((PatternInterface)element);
+			return;
+		}
+		if (detached) {
+			super.addElement(element);
+			return;
+		}
+		elements.add(element);
+		if ((listenerList != null) && (listenerList.getListenerCount(PatternListener.class) > 0)) {
+			String elementMusicString = element.getMusicString();
+			if ((elementMusicString.charAt(0) != '+') && (elementMusicString.charAt(0) != '_')) {
+				fireFragmentAdded(new ElementPattern(element));
+			}
+		}
+	}
+
+	/**
+	 * Adds a pattern to the end of this one.  If both patterns are element-backed,
+	 * the other pattern's elements are added to this one's; otherwise this pattern
+	 * becomes a plain music string.
+	 */
+	@Override
+	public void add(PatternInterface pattern) {
+		if (!detached && (pattern instanceof ElementPattern) && ((ElementPattern)pattern).isElementBacked()) {
+			fireFragmentAdded(pattern);
+			elements.addAll(((ElementPattern)pattern).getElements());
+			return;
+		}
+		detach();
+		super.add(pattern);
+	}
+
+	@Override
+	public void add(PatternInterface pattern, int numTimes) {
+		detach();
+		super.add(pattern, numTimes);
+	}
+
+	@Override
+	public void setMusicString(String musicString) {
+		detach();
+		super.setMusicString(musicString);
+	}
+
+	@Override
+	public void insert(String musicString) {
+		detach();
+		super.insert(musicString);
+	}
+
+	@Override
+	public void repeat(int times) {
+		detach();
+		super.repeat(times);
+	}
+
+	@Override
+	public void repeat(int times, int beginIndex) {
+		detach();
+		super.repeat(times, beginIndex);
+	}
+
+	@Override
+	public void repeat(int times, int beginIndex, int endIndex) {
+		detach();
+		super.repeat(times, beginIndex, endIndex);
+	}
+
+	/**
+	 * Visits this pattern and then each of its elements, without parsing the
+	 * music string if the pattern is element-backed.
+	 */
+	@Override
+	public void acceptVisitor(ElementVisitor visitor) {
+		if (detached) {
+			super.acceptVisitor(visitor);
+			return;
+		}
+		visitor.visit(this);
+		for (JFugueElement element : elements) {
+			element.acceptVisitor(visitor);
+		}
+	}
 }
@@ -2,6 +2,7 @@ package org.jfugue;
 
 import java.util.HashMap;
 import java.util.Map;
+import java.util.concurrent.atomic.AtomicInteger;
 
 import org.jfugue.elements.ChannelPressure;
 import org.jfugue.elements.Chord;
@@ -55,32 +56,112 @@ public class Environment implements FireEventProxy, ElementVisitor {
 		return instance;
 	}
 	
-	private Map<String, String> dictionaryMap;
+	/**
+	 * The words every Environment starts with. This map is shared and is never
+	 * modified, and its keys are upper case.
+	 */
+	private final Map<String, String> baseDictionary;
+
+	/**
+	 * Words added with {@link #addToDict(String, String)}. These hide words of
+	 * the same name in the base dictionary. Created when the first word is added.
+	 */
+	private Map<String, String> localDictionary;
+
+	/**
+	 * The end of each definition chain looked up so far, keyed by the upper case
+	 * word. Cleared whenever a word is added.
+	 */
+	private Map<String, String> resolvedWords;
 
 	private FireEventProxy proxy;
 
+	private static final AtomicInteger dictionaryVersions = new AtomicInteger();
+
+	private int dictionaryVersion;
+
 	protected KeySignature keySig = new KeySignature(0, 0);
 
 	public Environment() {
-		this(new HashMap<String, String>(JFugueDefinitions.DICT_MAP),
-				new DummyParserEventProxy());
+		this(JFugueDefinitions.DICT_MAP, new DummyParserEventProxy());
 	}
 	/**
+	 * Creates an Environment whose dictionary starts out with the words in the
+	 * given map. The map is not copied and is never modified, so the same map
+	 * (usually {@link JFugueDefinitions#DICT_MAP}) may be shared by any number
+	 * of Environments. Its keys must be upper case. Any map other than
+	 * {@link JFugueDefinitions#DICT_MAP} is given a dictionary version of its
+	 * own, so nothing derived from it is mistaken for something derived from
+	 * another Environment's dictionary.
+	 * 
 	 * @param dictionary
+	 *            the base dictionary
 	 * @param proxy
 	 */
 	public Environment(Map<String, String> dictionary, FireEventProxy proxy) {
+		this(dictionary, (dictionary == JFugueDefinitions.DICT_MAP) ? 0
+				: newDictionaryVersion(), proxy);
+	}
+
+	/**
+	 * Creates an Environment whose dictionary starts out with the words in the
+	 * given map, which has the given version. Environments that share a base
+	 * map may share its version, so that what one of them derives from the map
+	 * can be used by the others; the version should come from
+	 * {@link #newDictionaryVersion()} when the map is made.
+	 * 
+	 * @param dictionary
+	 *            the base dictionary
+	 * @param dictionaryVersion
+	 *            the version of the base dictionary
+	 * @param proxy
+	 */
+	public Environment(Map<String, String> dictionary, int dictionaryVersion,
+			FireEventProxy proxy) {
 		super();
-		this.dictionaryMap = dictionary;
+		this.baseDictionary = dictionary;
+		this.dictionaryVersion = dictionaryVersion;
 		this.proxy = proxy;
 	}
+
+	/**
+	 * Returns a dictionary version that no Environment has had yet.
+	 * 
+	 * @return a new dictionary version
+	 */
+	public static int newDictionaryVersion() {
+		return dictionaryVersions.incrementAndGet();
+	}
 	public void addToDict(String key, String val) {
 		key = key.toUpperCase();
 		// TODO Should we allow arbitrary Objects?
-		dictionaryMap.put(key, val);
+		if (localDictionary == null)
+			localDictionary = new HashMap<String, String>();
+		localDictionary.put(key, val);
+		resolvedWords = null;
+		dictionaryVersion = newDictionaryVersion();
+	}
+
+	/**
+	 * Returns a number that changes every time a word is added to the
+	 * dictionary. Anything derived from dictionary lookups may be kept for as
+	 * long as this number stays the same. The number is 0 for an Environment
+	 * that starts from {@link JFugueDefinitions#DICT_MAP} until the first word
+	 * is added, and is never reused by another Environment after that, so it
+	 * can be compared between any two Environments.
+	 * 
+	 * @return the current dictionary version
+	 */
+	public int getDictionaryVersion() {
+		return dictionaryVersion;
 	}
 	public String getFromDict(String key) {
-		return dictionaryMap.get(key);
+		if (localDictionary != null) {
+			String definition = localDictionary.get(key);
+			if (definition != null)
+				return definition;
+		}
+		return baseDictionary.get(key);
 	}
 
 	/**
@@ -235,11 +316,7 @@ public class Environment implements FireEventProxy, ElementVisitor {
 		}
 		word = word.toUpperCase();
 
-		String definition = (String) dictionaryMap.get(word);
-		while ((definition != null)
-				&& (dictionaryMap.containsKey(definition.toUpperCase()))) {
-			definition = dictionaryMap.get(definition.toUpperCase());
-		}
+		String definition = resolve(word);
 
 		// If there is no definition for this word, see if the word is actually
 		// a number.
@@ -264,6 +341,30 @@ public class Environment implements FireEventProxy, ElementVisitor {
 		return definition;
 	}
 
+	/**
+	 * Follows the chain of definitions that starts at the given upper case word,
+	 * and returns the last definition in the chain, or null if the word is not
+	 * defined. Chains are remembered, so each one is only followed once.
+	 */
+	private String resolve(String word) {
+		if (resolvedWords != null) {
+			String definition = resolvedWords.get(word);
+			if (definition != null)
+				return definition;
+		}
+		String definition = getFromDict(word);
+		if (definition == null)
+			return null;
+		String next;
+		while ((next = getFromDict(definition.toUpperCase())) != null) {
+			definition = next;
+		}
+		if (resolvedWords == null)
+			resolvedWords = new HashMap<String, String>();
+		resolvedWords.put(word, definition);
+		return definition;
+	}
+
 	/**
 	 * @author joshua
 	 *
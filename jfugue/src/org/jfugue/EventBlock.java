@@ -0,0 +1,612 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package org.jfugue;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jfugue.elements.ChannelPressure;
+import org.jfugue.elements.Controller;
+import org.jfugue.elements.Instrument;
+import org.jfugue.elements.KeySignature;
+import org.jfugue.elements.Layer;
+import org.jfugue.elements.Measure;
+import org.jfugue.elements.Note;
+import org.jfugue.elements.PitchBend;
+import org.jfugue.elements.PolyphonicPressure;
+import org.jfugue.elements.SystemExclusive;
+import org.jfugue.elements.Tempo;
+import org.jfugue.elements.Time;
+import org.jfugue.elements.Voice;
+import org.jfugue.elements.AbstractNote.NoteTypes;
+
+/**
+ * A run of parser events, stored as parallel arrays of primitives - one entry
+ * per event - rather than as element objects.  Each entry also records the
+ * voice and layer that were current when the event was parsed.
+ *
+ * <p>
+ * An EventBlock is a <code>ParserListener</code>: it appends every event it
+ * receives.  As a <code>PrimitiveParserListener</code>, it records notes without
+ * needing <code>Note</code> objects.  It can hand its events on to other <code>ParserListener</code>s with
+ * <code>replay()</code>, which creates element objects as it goes, or code that
+ * wants to avoid creating objects can read the arrays directly:
+ * </p>
+ *
+ * <pre>
+ *  byte[] kinds = block.getKinds();
+ *  int[] values = block.getValues();
+ *  for (int i = 0; i &lt; block.size(); i++) {
+ *      if (kinds[i] == EventBlock.NOTE_EVENT) { ... values[i] ... }
+ *  }
+ * </pre>
+ *
+ * <p>
+ * Blocks are reused: <code>clear()</code> empties a block without giving up its
+ * arrays, and without forgetting the current voice and layer.
+ * </p>
+ *
+ * @see CompiledPattern
+ * @see BatchParserListener
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class EventBlock implements PrimitiveParserListener
+{
+    public static final byte VOICE_EVENT = 0;
+    public static final byte TEMPO_EVENT = 1;
+    public static final byte INSTRUMENT_EVENT = 2;
+    public static final byte LAYER_EVENT = 3;
+    public static final byte MEASURE_EVENT = 4;
+    public static final byte TIME_EVENT = 5;
+    public static final byte KEY_SIGNATURE_EVENT = 6;
+    public static final byte SYSTEM_EXCLUSIVE_EVENT = 7;
+    public static final byte CONTROLLER_EVENT = 8;
+    public static final byte CHANNEL_PRESSURE_EVENT = 9;
+    public static final byte POLYPHONIC_PRESSURE_EVENT = 10;
+    public static final byte PITCH_BEND_EVENT = 11;
+    public static final byte NOTE_EVENT = 12;
+    public static final byte SEQUENTIAL_NOTE_EVENT = 13;
+    public static final byte PARALLEL_NOTE_EVENT = 14;
+
+    /** Flag set on a note event that is a rest */
+    public static final byte REST = 0x01;
+    /** Flag set on a note event that is tied to a following note */
+    public static final byte START_OF_TIE = 0x02;
+    /** Flag set on a note event that is tied to a previous note */
+    public static final byte END_OF_TIE = 0x04;
+    /** Flag set on a note event that is followed by other notes in the same token */
+    public static final byte ACCOMPANYING_NOTES = 0x08;
+
+    private static final int FIRST_TYPE_SHIFT = 4;
+
+    private int size;
+    private byte[] kinds;
+    private byte[] voices;
+    private byte[] layers;
+    private int[] values;
+    private int[] data;
+    private long[] durations;
+    private double[] decimalDurations;
+    private byte[] attackVelocities;
+    private byte[] decayVelocities;
+    private byte[] flags;
+    private final List<byte[]> sysexData = new ArrayList<byte[]>();
+    private byte currentVoice = 0;
+    private byte[] currentLayer = new byte[16];
+
+    /**
+     * Creates an empty block with room for the given number of events.  The block
+     * grows as needed.
+     */
+    public EventBlock(int capacity)
+    {
+        kinds = new byte[capacity];
+        voices = new byte[capacity];
+        layers = new byte[capacity];
+        values = new int[capacity];
+        data = new int[capacity];
+        durations = new long[capacity];
+        decimalDurations = new double[capacity];
+        attackVelocities = new byte[capacity];
+        decayVelocities = new byte[capacity];
+        flags = new byte[capacity];
+    }
+
+    /**
+     * Creates an empty block.
+     */
+    public EventBlock()
+    {
+        this(64);
+    }
+
+    /**
+     * Creates a block that holds the given events.  The arrays become the block's
+     * own, and must all be the same length.  Used when reading events back from a file.
+     */
+    EventBlock(byte[] kinds, byte[] voices, byte[] layers, int[] values, int[] data, long[] durations, double[] decimalDurations,
+            byte[] attackVelocities, byte[] decayVelocities, byte[] flags, List<byte[]> sysexData)
+    {
+        this.size = kinds.length;
+        this.kinds = kinds;
+        this.voices = voices;
+        this.layers = layers;
+        this.values = values;
+        this.data = data;
+        this.durations = durations;
+        this.decimalDurations = decimalDurations;
+        this.attackVelocities = attackVelocities;
+        this.decayVelocities = decayVelocities;
+        this.flags = flags;
+        this.sysexData.addAll(sysexData);
+    }
+
+    /** Returns the number of system exclusive messages in this block */
+    int getSystemExclusiveCount()
+    {
+        return sysexData.size();
+    }
+
+    /** Returns the data of the given system exclusive message, by the number kept in its event's value */
+    byte[] getSystemExclusiveMessage(int number)
+    {
+        return sysexData.get(number);
+    }
+
+    /**
+     * Returns the number of events in this block.
+     */
+    public int size()
+    {
+        return size;
+    }
+
+    /**
+     * Returns true if this block has no events.
+     */
+    public boolean isEmpty()
+    {
+        return size == 0;
+    }
+
+    /**
+     * Removes all of the events from this block.  The voice and layer that later
+     * events are recorded against are not changed, so a block that is cleared
+     * part way through a parse carries on with the right voice.
+     */
+    public void clear()
+    {
+        size = 0;
+        sysexData.clear();
+    }
+
+    /**
+     * Removes all of the events from this block, and sets the current voice and
+     * layers back to 0, as at the start of a parse.
+     */
+    public void reset()
+    {
+        clear();
+        currentVoice = 0;
+        Arrays.fill(currentLayer, (byte)0);
+    }
+
+    /**
+     * Fires every event in this block to the given listeners, in the order in which
+     * they were recorded.  Each event is sent to every listener before the next
+     * event is sent.
+     * @param listeners the listeners to receive the events
+     */
+    public void replay(ParserListener... listeners)
+    {
+        replay(0, size, listeners);
+    }
+
+    /**
+     * Fires the events from <code>fromIndex</code> (inclusive) to <code>toIndex</code>
+     * (exclusive) to the given listeners.
+     */
+    public void replay(int fromIndex, int toIndex, ParserListener... listeners)
+    {
+        if ((fromIndex < 0) || (toIndex > size) || (fromIndex > toIndex)) {
+            throw new IndexOutOfBoundsException(fromIndex + "," + toIndex);
+        }
+        for (int i = fromIndex; i < toIndex; i++) {
+            fireEvent(i, listeners);
+        }
+    }
+
+    private void fireEvent(int i, ParserListener[] listeners)
+    {
+        switch (kinds[i]) {
+            case VOICE_EVENT : {
+                Voice event = new Voice((byte)values[i]);
+                for (ParserListener listener : listeners) listener.voiceEvent(event);
+                break;
+            }
+            case TEMPO_EVENT : {
+                Tempo event = new Tempo(values[i]);
+                for (ParserListener listener : listeners) listener.tempoEvent(event);
+                break;
+            }
+            case INSTRUMENT_EVENT : {
+                Instrument event = new Instrument((byte)values[i]);
+                for (ParserListener listener : listeners) listener.instrumentEvent(event);
+                break;
+            }
+            case LAYER_EVENT : {
+                Layer event = new Layer((byte)values[i]);
+                for (ParserListener listener : listeners) listener.layerEvent(event);
+                break;
+            }
+            case MEASURE_EVENT : {
+                Measure event = new Measure();
+                for (ParserListener listener : listeners) listener.measureEvent(event);
+                break;
+            }
+            case TIME_EVENT : {
+                Time event = new Time(durations[i]);
+                for (ParserListener listener : listeners) listener.timeEvent(event);
+                break;
+            }
+            case KEY_SIGNATURE_EVENT : {
+                KeySignature event = new KeySignature((byte)values[i], (byte)data[i]);
+                for (ParserListener listener : listeners) listener.keySignatureEvent(event);
+                break;
+            }
+            case SYSTEM_EXCLUSIVE_EVENT : {
+                byte[] bytes = sysexData.get(values[i]);
+                SystemExclusive event = new SystemExclusive(Arrays.copyOf(bytes, bytes.length));
+                for (ParserListener listener : listeners) listener.systemExclusiveEvent(event);
+                break;
+            }
+            case CONTROLLER_EVENT : {
+                Controller event = new Controller((byte)values[i], (byte)data[i]);
+                for (ParserListener listener : listeners) listener.controllerEvent(event);
+                break;
+            }
+            case CHANNEL_PRESSURE_EVENT : {
+                ChannelPressure event = new ChannelPressure((byte)values[i]);
+                for (ParserListener listener : listeners) listener.channelPressureEvent(event);
+                break;
+            }
+            case POLYPHONIC_PRESSURE_EVENT : {
+                PolyphonicPressure event = new PolyphonicPressure((byte)values[i], (byte)data[i]);
+                for (ParserListener listener : listeners) listener.polyphonicPressureEvent(event);
+                break;
+            }
+            case PITCH_BEND_EVENT : {
+                PitchBend event = new PitchBend((byte)values[i], (byte)data[i]);
+                for (ParserListener listener : listeners) listener.pitchBendEvent(event);
+                break;
+            }
+            case NOTE_EVENT :
+            case SEQUENTIAL_NOTE_EVENT :
+            case PARALLEL_NOTE_EVENT :
+                fireNoteEvent(i, listeners);
+                break;
+            default : break;
+        }
+    }
+
+    /**
+     * Fires a note event.  <code>PrimitiveParserListener</code>s are given the note's
+     * values; a <code>Note</code> is only created if another listener needs one.
+     */
+    private void fireNoteEvent(int i, ParserListener[] listeners)
+    {
+        Note event = null;
+        for (ParserListener listener : listeners) {
+            if (listener instanceof PrimitiveParserListener) {
+                PrimitiveParserListener primitive = (PrimitiveParserListener)listener;
+                int noteFlags = flags[i] & 0x0F;
+                switch (kinds[i]) {
+                    case NOTE_EVENT : primitive.noteEvent(values[i], durations[i], decimalDurations[i], attackVelocities[i], decayVelocities[i], noteFlags); break;
+                    case SEQUENTIAL_NOTE_EVENT : primitive.sequentialNoteEvent(values[i], durations[i], decimalDurations[i], attackVelocities[i], decayVelocities[i], noteFlags); break;
+                    default : primitive.parallelNoteEvent(values[i], durations[i], decimalDurations[i], attackVelocities[i], decayVelocities[i], noteFlags); break;
+                }
+            } else {
+                if (event == null) {
+                    event = createNote(i);
+                }
+                switch (kinds[i]) {
+                    case NOTE_EVENT : listener.noteEvent(event); break;
+                    case SEQUENTIAL_NOTE_EVENT : listener.sequentialNoteEvent(event); break;
+                    default : listener.parallelNoteEvent(event); break;
+                }
+            }
+        }
+    }
+
+    private Note createNote(int i)
+    {
+        Note note = new Note();
+        note.setValue(values[i]);
+        note.setDecimalDuration(decimalDurations[i]);
+        if (note.getMillisDuration() != durations[i]) {
+            note.setMillisDuration(durations[i]);
+        }
+        note.setAttackVelocity(attackVelocities[i]);
+        note.setDecayVelocity(decayVelocities[i]);
+        note.setRest((flags[i] & REST) != 0);
+        note.setStartOfTie((flags[i] & START_OF_TIE) != 0);
+        note.setEndOfTie((flags[i] & END_OF_TIE) != 0);
+        note.setAccompanyingNotes((flags[i] & ACCOMPANYING_NOTES) != 0);
+        note.setType(NoteTypes.values()[flags[i] >> FIRST_TYPE_SHIFT]);
+        return note;
+    }
+
+    //
+    // Accessors for the raw event data
+    /////////////////////////////////////////////////////////////////////////
+
+    /** Returns the kind of the event at the given index, such as <code>NOTE_EVENT</code> */
+    public byte getKind(int index) { checkIndex(index); return kinds[index]; }
+
+    /** Returns the voice that was current when the event at the given index was parsed */
+    public byte getVoice(int index) { checkIndex(index); return voices[index]; }
+
+    /** Returns the layer that was current when the event at the given index was parsed */
+    public byte getLayer(int index) { checkIndex(index); return layers[index]; }
+
+    /**
+     * Returns the main value of the event at the given index: the voice, tempo, instrument,
+     * layer, key signature, controller index, pressure, polyphonic key, pitch bend LSB or note value.
+     */
+    public int getValue(int index) { checkIndex(index); return values[index]; }
+
+    /**
+     * Returns the secondary value of the event at the given index: the key signature
+     * scale, controller value, polyphonic pressure or pitch bend MSB.
+     */
+    public int getData(int index) { checkIndex(index); return data[index]; }
+
+    /** Returns the duration of a note event, or the time of a time event, in pulses */
+    public long getDuration(int index) { checkIndex(index); return durations[index]; }
+
+    /** Returns the duration of a note event, as a decimal fraction of a whole note */
+    public double getDecimalDuration(int index) { checkIndex(index); return decimalDurations[index]; }
+
+    /** Returns the attack velocity of a note event */
+    public byte getAttackVelocity(int index) { checkIndex(index); return attackVelocities[index]; }
+
+    /** Returns the decay velocity of a note event */
+    public byte getDecayVelocity(int index) { checkIndex(index); return decayVelocities[index]; }
+
+    /**
+     * Returns the flags of a note event, a combination of <code>REST</code>,
+     * <code>START_OF_TIE</code>, <code>END_OF_TIE</code> and <code>ACCOMPANYING_NOTES</code>.
+     */
+    public byte getFlags(int index) { checkIndex(index); return (byte)(flags[index] & 0x0F); }
+
+    /** Returns the type of a note event: first, sequential or parallel */
+    public NoteTypes getNoteType(int index) { checkIndex(index); return NoteTypes.values()[flags[index] >> FIRST_TYPE_SHIFT]; }
+
+    /** Returns a copy of the data of a system exclusive event */
+    public byte[] getSystemExclusiveData(int index)
+    {
+        checkIndex(index);
+        byte[] bytes = sysexData.get(values[index]);
+        return Arrays.copyOf(bytes, bytes.length);
+    }
+
+    private void checkIndex(int index)
+    {
+        if ((index < 0) || (index >= size)) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+    }
+
+    //
+    // The arrays themselves.  Only the first size() entries are meaningful.
+    // The arrays belong to this block, and must not be modified.
+    /////////////////////////////////////////////////////////////////////////
+
+    public byte[] getKinds() { return kinds; }
+    public byte[] getVoices() { return voices; }
+    public byte[] getLayers() { return layers; }
+    public int[] getValues() { return values; }
+    public int[] getData() { return data; }
+    public long[] getDurations() { return durations; }
+    public double[] getDecimalDurations() { return decimalDurations; }
+    public byte[] getAttackVelocities() { return attackVelocities; }
+    public byte[] getDecayVelocities() { return decayVelocities; }
+
+    /**
+     * Returns the flags of each event.  The low four bits are the flags returned by
+     * <code>getFlags(int)</code>; use <code>getNoteType(int)</code> for the rest.
+     */
+    public byte[] getFlagBits() { return flags; }
+
+    //
+    // Recording
+    /////////////////////////////////////////////////////////////////////////
+
+    private int append(byte kind, byte voice, byte layer, int value, int datum)
+    {
+        if (size == kinds.length) {
+            int capacity = Math.max(16, size * 2);
+            kinds = Arrays.copyOf(kinds, capacity);
+            voices = Arrays.copyOf(voices, capacity);
+            layers = Arrays.copyOf(layers, capacity);
+            values = Arrays.copyOf(values, capacity);
+            data = Arrays.copyOf(data, capacity);
+            durations = Arrays.copyOf(durations, capacity);
+            decimalDurations = Arrays.copyOf(decimalDurations, capacity);
+            attackVelocities = Arrays.copyOf(attackVelocities, capacity);
+            decayVelocities = Arrays.copyOf(decayVelocities, capacity);
+            flags = Arrays.copyOf(flags, capacity);
+        }
+        int i = size++;
+        kinds[i] = kind;
+        voices[i] = voice;
+        layers[i] = layer;
+        values[i] = value;
+        data[i] = datum;
+        return i;
+    }
+
+    /**
+     * Shrinks the arrays to the number of events in this block, and returns this block.
+     */
+    EventBlock trim()
+    {
+        if (size < kinds.length) {
+            kinds = Arrays.copyOf(kinds, size);
+            voices = Arrays.copyOf(voices, size);
+            layers = Arrays.copyOf(layers, size);
+            values = Arrays.copyOf(values, size);
+            data = Arrays.copyOf(data, size);
+            durations = Arrays.copyOf(durations, size);
+            decimalDurations = Arrays.copyOf(decimalDurations, size);
+            attackVelocities = Arrays.copyOf(attackVelocities, size);
+            decayVelocities = Arrays.copyOf(decayVelocities, size);
+            flags = Arrays.copyOf(flags, size);
+        }
+        return this;
+    }
+
+    private int append(byte kind, int value, int datum)
+    {
+        return append(kind, currentVoice, currentLayer[currentVoice & 0x0F], value, datum);
+    }
+
+    private void appendNote(byte kind, Note note)
+    {
+        int noteFlags = 0;
+        if (note.isRest()) noteFlags |= REST;
+        if (note.isStartOfTie()) noteFlags |= START_OF_TIE;
+        if (note.isEndOfTie()) noteFlags |= END_OF_TIE;
+        if (note.hasAccompanyingNotes()) noteFlags |= ACCOMPANYING_NOTES;
+        appendNote(kind, note.getType(), note.getValue(), note.getMillisDuration(), note.getDecimalDuration(),
+                note.getAttackVelocity(), note.getDecayVelocity(), noteFlags);
+    }
+
+    private void appendNote(byte kind, NoteTypes type, int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int noteFlags)
+    {
+        int i = append(kind, value, 0);
+        durations[i] = duration;
+        decimalDurations[i] = decimalDuration;
+        attackVelocities[i] = attackVelocity;
+        decayVelocities[i] = decayVelocity;
+        flags[i] = (byte)((type.ordinal() << FIRST_TYPE_SHIFT) | (noteFlags & 0x0F));
+    }
+
+    public void voiceEvent(Voice voice)
+    {
+        currentVoice = voice.getVoice();
+        append(VOICE_EVENT, voice.getVoice(), 0);
+    }
+
+    public void tempoEvent(Tempo tempo)
+    {
+        append(TEMPO_EVENT, tempo.getTempo(), 0);
+    }
+
+    public void instrumentEvent(Instrument instrument)
+    {
+        append(INSTRUMENT_EVENT, instrument.getInstrument(), 0);
+    }
+
+    public void layerEvent(Layer layer)
+    {
+        currentLayer[currentVoice & 0x0F] = layer.getLayer();
+        append(LAYER_EVENT, layer.getLayer(), 0);
+    }
+
+    public void measureEvent(Measure measure)
+    {
+        append(MEASURE_EVENT, 0, 0);
+    }
+
+    public void timeEvent(Time time)
+    {
+        int i = append(TIME_EVENT, 0, 0);
+        durations[i] = time.getTime();
+    }
+
+    public void keySignatureEvent(KeySignature keySig)
+    {
+        append(KEY_SIGNATURE_EVENT, keySig.getKeySig(), keySig.getScale());
+    }
+
+    public void systemExclusiveEvent(SystemExclusive sysex)
+    {
+        byte[] bytes = sysex.getBytes();
+        sysexData.add(Arrays.copyOf(bytes, bytes.length));
+        append(SYSTEM_EXCLUSIVE_EVENT, sysexData.size() - 1, 0);
+    }
+
+    public void controllerEvent(Controller controller)
+    {
+        append(CONTROLLER_EVENT, controller.getIndex(), controller.getValue());
+    }
+
+    public void channelPressureEvent(ChannelPressure channelPressure)
+    {
+        append(CHANNEL_PRESSURE_EVENT, channelPressure.getPressure(), 0);
+    }
+
+    public void polyphonicPressureEvent(PolyphonicPressure polyphonicPressure)
+    {
+        append(POLYPHONIC_PRESSURE_EVENT, polyphonicPressure.getKey(), polyphonicPressure.getPressure());
+    }
+
+    public void pitchBendEvent(PitchBend pitchBend)
+    {
+        byte[] bend = pitchBend.getBend();
+        append(PITCH_BEND_EVENT, bend[0], bend[1]);
+    }
+
+    public void noteEvent(Note note)
+    {
+        appendNote(NOTE_EVENT, note);
+    }
+
+    public void sequentialNoteEvent(Note note)
+    {
+        appendNote(SEQUENTIAL_NOTE_EVENT, note);
+    }
+
+    public void parallelNoteEvent(Note note)
+    {
+        appendNote(PARALLEL_NOTE_EVENT, note);
+    }
+
+    public void noteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+    {
+        appendNote(NOTE_EVENT, NoteTypes.FIRST, value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+    }
+
+    public void sequentialNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+    {
+        appendNote(SEQUENTIAL_NOTE_EVENT, NoteTypes.SEQUENTIAL, value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+    }
+
+    public void parallelNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+    {
+        appendNote(PARALLEL_NOTE_EVENT, NoteTypes.PARALLEL, value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+    }
+}
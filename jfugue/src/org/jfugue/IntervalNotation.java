@@ -30,12 +30,16 @@ import org.jfugue.parsers.MusicStringParser;
  * A IntervalNotation is a MusicString that only contains interval information and durations, not actual notes.
  * A riff is converted into an actual MusicString by applying a root note.
  *
+ * The MusicString is compiled into a {@link CompiledTemplate} the first time it is used,
+ * so applying many root notes to the same IntervalNotation only scans it once.
+ *
  * @author David Koelle
  * @version 4.0
  */
 public class IntervalNotation
 {
     private String musicStringWithIntervals;
+    private volatile Compiled compiled;
 
     public IntervalNotation(String musicStringWithIntervals)
     {
@@ -45,6 +49,7 @@ public class IntervalNotation
     public void setMusicStringWithIntervals(String musicStringWithIntervals)
     {
         this.musicStringWithIntervals = musicStringWithIntervals;
+        this.compiled = null;
     }
 
     public String getMusicStringWithIntervals()
@@ -66,51 +71,49 @@ public class IntervalNotation
 
     public PatternInterface getPatternForRootNote(Note rootNote)
     {
-        StringBuilder buddy = new StringBuilder();
-        String[] tokens = getMusicStringWithIntervals().split(" ");
+        Compiled c = getCompiled();
         byte rootNoteValue = rootNote.getValue();
 
-        // Go through the Pattern, and replace intervals specified within < and > with the root note plus the interval value, minus 1
-        for (int i=0; i < tokens.length; i++)
+        // Replace intervals specified within < and > with the root note plus the interval value, minus 1
+        CharSequence[] notes = new CharSequence[c.intervals.length];
+        for (int i=0; i < notes.length; i++)
         {
-            int lastAngleBracketPosition = -1;
-            boolean leftAngleBracketExists = (tokens[i].indexOf('<') != -1);
+            notes[i] = "[" + (rootNoteValue + c.intervals[i] - 1) + "]";
+        }
+
+        return new Pattern(c.template.fill(notes) + " ");
+    }
 
-            if (leftAngleBracketExists) {
-                while (leftAngleBracketExists)
+    private Compiled getCompiled()
+    {
+        Compiled c = this.compiled;
+        if (c == null) {
+            c = new Compiled(getMusicStringWithIntervals());
+            this.compiled = c;
+        }
+        return c;
+    }
+
+    /** The compiled MusicString, with the interval in each slot already read */
+    private static final class Compiled
+    {
+        final CompiledTemplate template;
+        final byte[] intervals;
+
+        Compiled(String musicStringWithIntervals)
+        {
+            template = CompiledTemplate.compile(musicStringWithIntervals.trim(), '<', '>');
+            intervals = new byte[template.getSlotCount()];
+            for (int i=0; i < intervals.length; i++)
+            {
+                String intervalString = template.getKey(i);
+                try {
+                    intervals[i] = Byte.valueOf(intervalString);
+                } catch (NumberFormatException e)
                 {
-                    int start = tokens[i].indexOf('<', lastAngleBracketPosition);
-                    int end = tokens[i].indexOf('>', start);
-                    String intervalString = tokens[i].substring(start+1, end);
-                    byte intervalValue = 0;
-                    try {
-                        intervalValue = Byte.valueOf(intervalString);
-                    } catch (NumberFormatException e)
-                    {
-                        throw new JFugueException(JFugueException.EXPECTED_BYTE, intervalString, tokens[i]); // TODO Something else
-                    }
-
-                    buddy.append("[");
-                    buddy.append(rootNoteValue + intervalValue - 1);
-                    buddy.append("]");
-
-                    lastAngleBracketPosition = end;
-                    int nextLeftAngleBracketPosition = tokens[i].indexOf('<', lastAngleBracketPosition-1);
-                    if (nextLeftAngleBracketPosition == -1) {
-                        buddy.append(tokens[i].substring(end+1, tokens[i].length())); // Add the rest of the token
-                        leftAngleBracketExists = false;
-                    } else {
-                        buddy.append(tokens[i].substring(end+1, nextLeftAngleBracketPosition)); // Add the rest of the token up to the next angle
-                        leftAngleBracketExists = true;
-                    }
+                    throw new JFugueException(JFugueException.EXPECTED_BYTE, (Object)intervalString);
                 }
-            } else {
-                buddy.append(tokens[i]);
             }
-            buddy.append(" ");
         }
-
-        return new Pattern(buddy.toString());
-
     }
 }
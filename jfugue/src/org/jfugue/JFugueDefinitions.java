@@ -473,7 +473,8 @@ public final class JFugueDefinitions
     };
 
     /**
-     * The default dictionary map.
+     * The default dictionary map.  This map cannot be modified, and its keys are
+     * upper case.
      */
     public static final Map<String, String> DICT_MAP = initDict();
  
@@ -487,9 +488,19 @@ public final class JFugueDefinitions
     private static Map<String, String> initDict() {
        	Map<String, String> map = new HashMap<String, String>(Instrument.DICT_MAP.size()
        			+ Controller.DICT_MAP.size() + Tempo.DICT_MAP.size());
-    	map.putAll(Instrument.DICT_MAP);
-    	map.putAll(Controller.DICT_MAP);
-       	map.putAll(Tempo.DICT_MAP);
+    	putAllUpperCase(map, Instrument.DICT_MAP);
+    	putAllUpperCase(map, Controller.DICT_MAP);
+    	putAllUpperCase(map, Tempo.DICT_MAP);
     	return Collections.unmodifiableMap(map);
 	}
+
+    /**
+     * Environments share DICT_MAP instead of copying it, and look words up
+     * in upper case, so the keys are upper-cased once here.
+     */
+    private static void putAllUpperCase(Map<String, String> map, Map<String, String> entries) {
+    	for (Map.Entry<String, String> entry : entries.entrySet()) {
+    		map.put(entry.getKey().toUpperCase(), entry.getValue());
+    	}
+    }
 }
\ No newline at end of file
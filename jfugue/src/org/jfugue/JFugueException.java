@@ -165,6 +165,9 @@ public class JFugueException extends RuntimeException
     public static final String EXPECTED_INT    = "The JFugue Parser expected an int, but encountered the value %s which is not an int.";
     /** The parser expected a double. */
     public static final String EXPECTED_DOUBLE = "The JFugue Parser expected a double, but encountered the value %s which is not a double.";
+
+    /** A key in a template expands, directly or through other keys, to a value that contains the same key. */
+    public static final String TEMPLATE_CYCLE_EXC = "The template keys %s refer to each other in a cycle, so they cannot be expanded.";
     
     /** The MIDI System cannot instantiate a sequencer. */
     public static final String SEQUENCER_DEVICE_NOT_SUPPORTED_WITH_EXCEPTION = "The MIDI System cannot instantiate a sequencer.  Although this error is reported by JFugue, the problem is not with JFugue itself.  Find resources for using MIDI on your specific system.  The exception message from MidiSystem.getSequencer() is: ";
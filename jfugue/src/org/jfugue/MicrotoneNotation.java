@@ -39,6 +39,7 @@ public class MicrotoneNotation
 {
     private Map<String, Double> keyToFreqDict;
     private Map<String, String> keyToMusicStringDict;
+    private volatile CompiledTemplate lastTemplate;
 
     public MicrotoneNotation()
     {
@@ -96,30 +97,39 @@ public class MicrotoneNotation
         return (" &8192"); // Reset the pitch wheel.  8192 = original pitch wheel position
     }
 
+    /**
+     * Returns the given notation with each token that starts with a known microtone key,
+     * such as &lt;Saa&gt;, replaced by the music string for its frequency, followed by the rest
+     * of the token and a reset of the pitch wheel.  The notation is compiled into a
+     * {@link CompiledTemplate}, which is kept for as long as the same notation is passed in.
+     */
     public PatternInterface getPattern(String notation)
     {
-        StringBuilder buddy = new StringBuilder();
-        String[] tokens = notation.split(" ");
+        CompiledTemplate template = this.lastTemplate;
+        if ((template == null) || !template.getTemplate().equals(notation)) {
+            template = CompiledTemplate.compileByToken(notation, '<', '>');
+            this.lastTemplate = template;
+        }
 
-        // Go through the Pattern, and replace known microtone keys with microtone music strings
-        for (int i=0; i < tokens.length; i++)
+        // Go through the slots, and replace known microtone keys with microtone music strings
+        StringBuilder buddy = new StringBuilder(notation.length() * 2);
+        int slotCount = template.getSlotCount();
+        for (int i=0; i < slotCount; i++)
         {
-            if ((tokens[i].length() > 0) && (tokens[i].charAt(0) == '<')) {
-                int end = tokens[i].indexOf('>');
-                String possibleKey = tokens[i].substring(1, end);
-                if (keyToMusicStringDict.containsKey(possibleKey))
-                {
-                    buddy.append(keyToMusicStringDict.get(possibleKey));
-                    buddy.append(tokens[i].substring(end+1, tokens[i].length())); // Add the rest of the token
-                    buddy.append(getResetPitchWheelString());
-                } else {
-                    buddy.append(tokens[i]);
-                }
+            buddy.append(template.getLiteral(i));
+            String musicString = keyToMusicStringDict.get(template.getKey(i));
+            if (musicString != null)
+            {
+                buddy.append(musicString);
+                buddy.append(template.getSuffix(i)); // Add the rest of the token
+                buddy.append(getResetPitchWheelString());
             } else {
-                buddy.append(tokens[i]);
+                buddy.append('<').append(template.getKey(i)).append('>');
+                buddy.append(template.getSuffix(i));
             }
-            buddy.append(" ");
         }
+        buddy.append(template.getLiteral(slotCount));
+        buddy.append(" ");
 
         return new Pattern(buddy.toString());
     }
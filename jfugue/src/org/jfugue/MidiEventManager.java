@@ -28,6 +28,17 @@ import javax.sound.midi.*;
  * Places musical data into the MIDI sequence.
  *
  * <p>
+ * Events are not turned into <code>MidiEvent</code> objects as they arrive.  They are
+ * appended, as packed primitives, to a {@link MidiTrackBuffer} for the current layer of
+ * the current channel, so adding an event takes the same short time whether or not the
+ * layer has jumped back in time.  A channel's layers are merged into one track, in
+ * order of time, only when the sequence or the track buffers are asked for; the
+ * sequence is then built from the merged tracks, and kept until more events are added.
+ * The result is the same sequence that adding each event to a <code>Track</code> as it
+ * arrived would have produced.
+ * </p>
+ *
+ * <p>
  * This class was named EventManager in versions of JFugue earlier than 3.0.  
  * </p>
  *
@@ -42,25 +53,22 @@ public final class MidiEventManager
     private byte currentTrack = 0;
     private byte[] currentLayer = new byte[CHANNELS];
     private long time[][] = new long[CHANNELS][LAYERS];
+    private final float sequenceTiming;
+    private final int resolution;
+
+    /** The events of each layer of each channel, created when the layer gets its first event */
+    private MidiTrackBuffer layers[][] = new MidiTrackBuffer[CHANNELS][LAYERS];
+    /** For each channel, the number of events added so far, which orders events across layers */
+    private int eventCounts[][] = new int[CHANNELS][1];
+    /** For each channel, its layers merged together, or null if events have been added since */
+    private MidiTrackBuffer merged[] = new MidiTrackBuffer[CHANNELS];
+    /** The sequence built from the merged tracks, or null if events have been added since */
     private Sequence sequence;
-    private Track track[] = new Track[CHANNELS];
 
     public MidiEventManager(float sequenceTiming, int resolution)
     {
-        try {
-            this.sequence = new Sequence(sequenceTiming, resolution);
-        } catch (Exception e) {
-            e.printStackTrace();
-        }
-        
-        for (int i=0; i < CHANNELS; i++) {
-            for (int u=0; u < LAYERS; u++) {
-                time[i][u] = 0;
-            }
-            currentLayer[i] = 0;
-            track[i] = sequence.createTrack();
-        }
-        currentTrack = 0;
+        this.sequenceTiming = sequenceTiming;
+        this.resolution = resolution;
     }
 
     /**
@@ -110,6 +118,22 @@ public final class MidiEventManager
         return time[currentTrack][currentLayer[currentTrack]];
     }
 
+    /**
+     * Returns the buffer for the current layer of the current track, ready for a new event.
+     */
+    private MidiTrackBuffer getCurrentBuffer()
+    {
+        byte layer = currentLayer[currentTrack];
+        MidiTrackBuffer buffer = layers[currentTrack][layer];
+        if (buffer == null) {
+            buffer = new MidiTrackBuffer(64, eventCounts[currentTrack]);
+            layers[currentTrack][layer] = buffer;
+        }
+        merged[currentTrack] = null;
+        sequence = null;
+        return buffer;
+    }
+
     /**
      * Adds a MetaMessage to the current track.  
      *
@@ -118,16 +142,7 @@ public final class MidiEventManager
      */
     public void addMetaMessage(int type, byte[] bytes)
     {
-        try {
-            MetaMessage message = new MetaMessage();
-            message.setMessage(type, bytes, bytes.length);
-            MidiEvent event = new MidiEvent(message, getTrackTimer());
-            track[currentTrack].add(event);
-        } catch (InvalidMidiDataException e)
-        {
-            // We've kept a good eye on the data.  This exception won't happen.
-            e.printStackTrace();
-        }
+        getCurrentBuffer().addMetaMessage(getTrackTimer(), type, bytes);
     }
     
     /**
@@ -137,16 +152,7 @@ public final class MidiEventManager
      */
     public void addSystemExclusiveEvent(byte[] bytes)
     {
-    	try {
-    		SysexMessage message = new SysexMessage();
-    		message.setMessage(bytes, bytes.length);
-            MidiEvent event = new MidiEvent(message, getTrackTimer());
-            track[currentTrack].add(event);
-        } catch (InvalidMidiDataException e)
-        {
-            // We've kept a good eye on the data.  This exception won't happen.
-            e.printStackTrace();
-        }
+        getCurrentBuffer().addSystemExclusive(getTrackTimer(), bytes);
     }
 
     /**
@@ -157,22 +163,12 @@ public final class MidiEventManager
      */
     public void addEvent(int command, int data1)
     {
-        try {
-            ShortMessage message = new ShortMessage();
-            message.setMessage(command, currentTrack, data1);
-            track[currentTrack].add(createMIDIEvent(message));
-        } catch (InvalidMidiDataException e)
-        {
-            // We've kept a good eye on the data.  This exception won't happen.
-            e.printStackTrace();
-        }
+        // This has always built its message with ShortMessage.setMessage(status, data1, data2),
+        // which puts the message on channel 0 with the track as its data byte.  Sequences
+        // rendered by earlier versions are kept the same by doing likewise.
+        getCurrentBuffer().addShortMessage(getTrackTimer(), command, 0, currentTrack, data1);
     }
 
-    private MidiEvent createMIDIEvent(MidiMessage message) {
-        return new MidiEvent(message,getTrackTimer());
-    }
-
-
     /**
      * Adds a MIDI event to the current track.  
      *
@@ -182,19 +178,7 @@ public final class MidiEventManager
      */
     public void addEvent(int command, int data1, int data2)
     {
-        try {
-            track[currentTrack].add(createMIDIEvent(createShortMessage(command, data1, data2)));
-        } catch (InvalidMidiDataException e)
-        {
-            // We've kept a good eye on the data.  This exception won't happen.
-            e.printStackTrace();
-        }
-    }
-
-    private ShortMessage createShortMessage(int status,int data1, int data2) throws InvalidMidiDataException {
-        ShortMessage message = new ShortMessage();
-        message.setMessage(status, currentTrack, data1, data2);
-        return message;
+        getCurrentBuffer().addShortMessage(getTrackTimer(), command, currentTrack, data1, data2);
     }
 
     /**
@@ -239,10 +223,53 @@ public final class MidiEventManager
      * Returns the current sequence, which is a collection of tracks.
      * If your goal is to add events to the sequence, you don't want to use this method to
      * get the sequence; instead, use the addEvent methods to add your events.
+     * The sequence is built from the events added so far; events added later
+     * go into a new sequence, the next time one is asked for.
      * @return the current sequence
      */
     public Sequence getSequence()
     {
+        if (sequence == null) {
+            sequence = MidiTrackBuffer.createSequence(getTrackBuffers(), sequenceTiming, resolution);
+        }
         return sequence;
     }
+
+    /**
+     * Returns one track buffer for each channel, holding the events added so far with
+     * the channel's layers merged in order of time.  The buffers are ready to be written
+     * by a {@link MidiFileWriter}, and must not be changed.
+     * @since 4.1
+     */
+    public MidiTrackBuffer[] getTrackBuffers()
+    {
+        MidiTrackBuffer[] tracks = new MidiTrackBuffer[CHANNELS];
+        for (int i=0; i < CHANNELS; i++) {
+            if (merged[i] == null) {
+                merged[i] = mergeLayers(i);
+            }
+            tracks[i] = merged[i];
+        }
+        return tracks;
+    }
+
+    private MidiTrackBuffer mergeLayers(int channel)
+    {
+        MidiTrackBuffer only = null;
+        int used = 0;
+        for (MidiTrackBuffer layer : layers[channel]) {
+            if (layer != null) {
+                only = layer;
+                used++;
+            }
+        }
+        if (used == 0) {
+            return new MidiTrackBuffer(0);
+        }
+        if (used == 1) {
+            only.sort();
+            return only;
+        }
+        return MidiTrackBuffer.merge(layers[channel]);
+    }
 }
\ No newline at end of file
@@ -0,0 +1,422 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.midi.Sequence;
+
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.parsers.TokenCache;
+
+/**
+ * Turns patterns into MIDI without using any MIDI device.  An exporter makes
+ * sequences, Standard MIDI Files and track buffers, and never calls
+ * <code>MidiSystem</code>, so it works on a machine with no sound hardware.
+ *
+ * <pre>
+ *  MidiExporter exporter = new MidiExporter();
+ *  Sequence sequence = exporter.getSequence(pattern);
+ *  byte[] midiFile = exporter.toMidiBytes(pattern);
+ *  exporter.saveMidi(pattern, new File("song.mid"));
+ * </pre>
+ *
+ * <p>
+ * Each call parses the pattern with a new <code>MusicStringParser</code> and renders
+ * it with a new <code>MidiRenderer</code>, so an exporter holds nothing but its
+ * settings, and costs next to nothing to create.  The music is the same as that of
+ * <code>Player.getSequence()</code> and <code>Player.saveMidi()</code> for the same
+ * timing and resolution; a new exporter uses those of a new <code>Player</code>.
+ * Patterns may also be exported to other kinds of output, such as MusicXML, by
+ * giving the parsed events to other listeners with {@link #export(PatternInterface, ParserListener...)}.
+ * </p>
+ *
+ * <p>
+ * Since nothing is kept from one call to the next, an exporter may be used by
+ * any number of threads at once.  The dictionary words set with
+ * {@link #setDictionary(Map)} are kept in a map that never changes, and are given
+ * to each call's parser; words that a pattern defines are only known to that
+ * pattern.  Changing a setting affects the calls that start after the change.
+ * {@link #renderAll(Collection)} renders many patterns at once, on virtual threads
+ * where the Java runtime has them.
+ * </p>
+ *
+ * @see Player
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class MidiExporter
+{
+    private final float sequenceTiming;
+    private final int resolution;
+    private volatile MidiOptimizer optimizer;
+    private volatile TokenCache tokenCache;
+    private volatile Dictionary dictionary = Dictionary.EMPTY;
+
+    /**
+     * Creates an exporter with the timing and resolution that a <code>Player</code> uses.
+     */
+    public MidiExporter()
+    {
+        this(Sequence.PPQ, 128);
+    }
+
+    /**
+     * Creates an exporter for sequences with the given timing and resolution.
+     * @see Sequence#Sequence(float, int)
+     */
+    public MidiExporter(float sequenceTiming, int resolution)
+    {
+        this.sequenceTiming = sequenceTiming;
+        this.resolution = resolution;
+    }
+
+    /** Returns the timing of the sequences this exporter makes, such as <code>Sequence.PPQ</code> */
+    public float getSequenceTiming()
+    {
+        return this.sequenceTiming;
+    }
+
+    /** Returns the resolution of the sequences this exporter makes */
+    public int getResolution()
+    {
+        return this.resolution;
+    }
+
+    /**
+     * Sets the optimizer that removes events with no effect from the rendered tracks,
+     * or <code>null</code> for none.  There is no optimizer unless one is set.
+     * @see MidiRenderer#setOptimizer(MidiOptimizer)
+     */
+    public void setOptimizer(MidiOptimizer optimizer)
+    {
+        this.optimizer = optimizer;
+    }
+
+    /** Returns the optimizer set with {@link #setOptimizer(MidiOptimizer)}, or <code>null</code> */
+    public MidiOptimizer getOptimizer()
+    {
+        return this.optimizer;
+    }
+
+    /**
+     * Sets a token cache for the parsers to share, or <code>null</code> for none.
+     * @see MusicStringParser#setTokenCache(TokenCache)
+     */
+    public void setTokenCache(TokenCache tokenCache)
+    {
+        this.tokenCache = tokenCache;
+    }
+
+    /** Returns the token cache set with {@link #setTokenCache(TokenCache)}, or <code>null</code> */
+    public TokenCache getTokenCache()
+    {
+        return this.tokenCache;
+    }
+
+    /**
+     * Sets dictionary words that every pattern may use, as though each pattern began
+     * by defining them.  The words are copied, so later changes to the given map
+     * have no effect.
+     * @param words the definition of each word, keyed by the word
+     */
+    public void setDictionary(Map<String, String> words)
+    {
+        Map<String, String> copy = new LinkedHashMap<String, String>();
+        for (Map.Entry<String, String> word : words.entrySet()) {
+            copy.put(word.getKey().toUpperCase(), word.getValue());
+        }
+        Map<String, String> merged = new HashMap<String, String>(JFugueDefinitions.DICT_MAP);
+        merged.putAll(copy);
+        this.dictionary = new Dictionary(Collections.unmodifiableMap(copy),
+                Collections.unmodifiableMap(merged), Environment.newDictionaryVersion());
+    }
+
+    /**
+     * Returns the words set with {@link #setDictionary(Map)}, keyed by upper-case word.
+     * The map can't be changed.
+     */
+    public Map<String, String> getDictionary()
+    {
+        return this.dictionary.words;
+    }
+
+    /**
+     * Returns the sequence containing the MIDI data from the given pattern.
+     * @param pattern the pattern to render
+     * @return the rendered sequence
+     */
+    public Sequence getSequence(PatternInterface pattern)
+    {
+        return render(pattern).getSequence();
+    }
+
+    /**
+     * Returns the sequence containing the MIDI data from the given measures of a pattern,
+     * starting at time zero.
+     * @param pattern the pattern to render
+     * @param firstMeasure the first measure to render, counting from 1
+     * @param lastMeasure the last measure to render
+     * @return the rendered sequence
+     * @see MusicStringParser#parseMeasures(PatternInterface, int, int)
+     */
+    public Sequence getSequence(PatternInterface pattern, int firstMeasure, int lastMeasure)
+    {
+        MidiRenderer renderer = newRenderer();
+        MusicStringParser parser = newParser();
+        parser.addBatchParserListener(renderer);
+        parser.parseMeasures(pattern, firstMeasure, lastMeasure);
+        return renderer.getSequence();
+    }
+
+    /**
+     * Returns the sequence containing the MIDI data from the given compiled pattern,
+     * without parsing the pattern again.
+     * @param compiledPattern the compiled pattern to render
+     * @return the rendered sequence
+     */
+    public Sequence getSequence(CompiledPattern compiledPattern)
+    {
+        MidiRenderer renderer = newRenderer();
+        compiledPattern.replay(renderer);
+        return renderer.getSequence();
+    }
+
+    /**
+     * Returns the track buffers holding the MIDI data from the given pattern, one
+     * for each channel, ready to be written by a {@link MidiFileWriter}.
+     * @param pattern the pattern to render
+     * @return the rendered tracks
+     */
+    public MidiTrackBuffer[] getTrackBuffers(PatternInterface pattern)
+    {
+        return render(pattern).getTrackBuffers();
+    }
+
+    /**
+     * Returns the MIDI data from the given pattern as the bytes of a type 1 Standard MIDI File.
+     * @param pattern the pattern to render
+     * @return the bytes of the MIDI file
+     */
+    public byte[] toMidiBytes(PatternInterface pattern)
+    {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try {
+            writeMidi(pattern, out);
+        } catch (IOException e) {
+            throw new JFugueException(e);  // A ByteArrayOutputStream doesn't throw
+        }
+        return out.toByteArray();
+    }
+
+    /**
+     * Writes the MIDI data from the given pattern to a stream, as a type 1 Standard
+     * MIDI File.  The stream is not closed.
+     * @param pattern the pattern to render
+     * @param out the stream to write to
+     */
+    public void writeMidi(PatternInterface pattern, OutputStream out) throws IOException
+    {
+        render(pattern).writeMidiFile(out);
+    }
+
+    /**
+     * Saves the MIDI data from a pattern into a file.
+     * @param pattern the pattern to save
+     * @param file the File to save the pattern to.  Should include file extension, such as .mid
+     */
+    public void saveMidi(PatternInterface pattern, File file) throws IOException
+    {
+        render(pattern).writeMidiFile(file);
+    }
+
+    /**
+     * Saves the MIDI data from a MusicString into a file.
+     * @param musicString the MusicString to save
+     * @param file the File to save the MusicString to.  Should include file extension, such as .mid
+     */
+    public void saveMidi(String musicString, File file) throws IOException
+    {
+        saveMidi(new Pattern(musicString), file);
+    }
+
+    /**
+     * Parses the given pattern, and gives the events to the given listeners, such as
+     * a <code>MusicXmlRenderer</code> or a <code>MusicStringRenderer</code>.
+     * @param pattern the pattern to parse
+     * @param listeners the listeners to receive the events
+     */
+    public void export(PatternInterface pattern, ParserListener... listeners)
+    {
+        MusicStringParser parser = newParser();
+        for (ParserListener listener : listeners) {
+            parser.addParserListener(listener);
+        }
+        parser.parse(pattern);
+    }
+
+    /**
+     * Renders each of the given patterns, several at once, and returns the sequences
+     * in the same order as the patterns.  Where the Java runtime has virtual threads,
+     * each pattern is rendered on a virtual thread of its own; otherwise one thread is
+     * used for each available processor.
+     * @param patterns the patterns to render
+     * @return the sequence for each pattern
+     * @throws JFugueException if a pattern can't be rendered, or if the work is interrupted
+     */
+    public List<Sequence> renderAll(Collection<? extends PatternInterface> patterns)
+    {
+        if (patterns.size() <= 1) {
+            List<Sequence> sequences = new ArrayList<Sequence>(patterns.size());
+            for (PatternInterface pattern : patterns) {
+                sequences.add(getSequence(pattern));
+            }
+            return sequences;
+        }
+        ExecutorService executor = newExecutor(patterns.size());
+        try {
+            return renderAll(patterns, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Renders each of the given patterns on the threads of the given executor, and
+     * returns the sequences in the same order as the patterns.  The executor is not shut down.
+     * @param patterns the patterns to render
+     * @param executor the executor to render the patterns on
+     * @return the sequence for each pattern
+     * @throws JFugueException if a pattern can't be rendered, or if the work is interrupted
+     */
+    public List<Sequence> renderAll(Collection<? extends PatternInterface> patterns, ExecutorService executor)
+    {
+        List<Callable<Sequence>> tasks = new ArrayList<Callable<Sequence>>(patterns.size());
+        for (final PatternInterface pattern : patterns) {
+            tasks.add(new Callable<Sequence>() {
+                public Sequence call()
+                {
+                    return getSequence(pattern);
+                }
+            });
+        }
+
+        List<Sequence> sequences = new ArrayList<Sequence>(patterns.size());
+        try {
+            for (Future<Sequence> future : executor.invokeAll(tasks)) {
+                sequences.add(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JFugueException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof JFugueException) {
+                throw (JFugueException)e.getCause();
+            }
+            throw new JFugueException(e.getCause());
+        }
+        return sequences;
+    }
+
+    /**
+     * Returns an executor that starts a virtual thread for each task, if the Java runtime
+     * has virtual threads, or else a pool with a thread for each available processor.
+     * Virtual threads are looked up by reflection, since JFugue is built for older runtimes.
+     */
+    private static ExecutorService newExecutor(int tasks)
+    {
+        try {
+            return (ExecutorService)Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            // No virtual threads before Java 21
+        } catch (IllegalAccessException e) {
+            // Fall through to a thread pool
+        } catch (InvocationTargetException e) {
+            // Virtual threads are a preview feature that hasn't been enabled
+        }
+        return Executors.newFixedThreadPool(Math.min(Runtime.getRuntime().availableProcessors(), tasks));
+    }
+
+    private MidiRenderer render(PatternInterface pattern)
+    {
+        MidiRenderer renderer = newRenderer();
+        MusicStringParser parser = newParser();
+        parser.addBatchParserListener(renderer);
+        parser.parse(pattern);
+        return renderer;
+    }
+
+    private MusicStringParser newParser()
+    {
+        Dictionary dictionary = this.dictionary;
+        MusicStringParser parser = new MusicStringParser(dictionary.merged, dictionary.version);
+        parser.setTokenCache(this.tokenCache);
+        return parser;
+    }
+
+    private MidiRenderer newRenderer()
+    {
+        MidiRenderer renderer = new MidiRenderer(this.sequenceTiming, this.resolution);
+        renderer.setOptimizer(this.optimizer);
+        return renderer;
+    }
+
+    /**
+     * The words set with {@link #setDictionary(Map)}, and the dictionary every parser
+     * starts from: the words of <code>JFugueDefinitions</code> with the set words in
+     * place.  Every parser is given the same merged map and version, so tokens cached
+     * while rendering one pattern can be used for the next.
+     */
+    private static final class Dictionary
+    {
+        static final Dictionary EMPTY = new Dictionary(Collections.<String, String>emptyMap(), JFugueDefinitions.DICT_MAP, 0);
+
+        final Map<String, String> words;
+        final Map<String, String> merged;
+        final int version;
+
+        Dictionary(Map<String, String> words, Map<String, String> merged, int version)
+        {
+            this.words = words;
+            this.merged = merged;
+            this.version = version;
+        }
+    }
+}
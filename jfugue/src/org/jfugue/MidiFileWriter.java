@@ -0,0 +1,334 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.WritableByteChannel;
+
+import javax.sound.midi.Sequence;
+
+/**
+ * Writes Standard MIDI Files straight from {@link MidiTrackBuffer}s, without
+ * building a <code>javax.sound.midi.Sequence</code> first.
+ *
+ * <p>
+ * Each track is encoded, with delta times and running status, into a byte buffer
+ * that the writer keeps and reuses for the next track and the next file, so writing
+ * a long piece needs little more memory than its largest track.  A type 1 file holds
+ * one MTrk chunk for each track buffer; a type 0 file merges the tracks into a single
+ * chunk, in order of tick, taking events with the same tick from the lower-numbered
+ * track first.  A type 1 file has the same bytes that <code>MidiSystem.write()</code>
+ * produces from a <code>Sequence</code> holding the same events.
+ * </p>
+ *
+ * <pre>
+ *  MidiRenderer renderer = new MidiRenderer(Sequence.PPQ, 128);
+ *  parser.addParserListener(renderer);
+ *  parser.parse(pattern);
+ *  renderer.writeMidiFile(new FileOutputStream("song.mid"));
+ * </pre>
+ *
+ * <p>
+ * A MidiFileWriter is not thread-safe, since it reuses its buffer; use one per thread.
+ * </p>
+ *
+ * @see MidiRenderer#writeMidiFile(OutputStream)
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class MidiFileWriter
+{
+    private final int type;
+    private final float divisionType;
+    private final int resolution;
+    private byte[] buffer = new byte[4096];
+    private int length;
+
+    /**
+     * Creates a writer for type 1 files.
+     * @param divisionType the timing of the file, such as <code>Sequence.PPQ</code>
+     * @param resolution the number of ticks per quarter note, or per frame
+     */
+    public MidiFileWriter(float divisionType, int resolution)
+    {
+        this(1, divisionType, resolution);
+    }
+
+    /**
+     * Creates a writer for files of the given type.
+     * @param type 0 for a single merged track, or 1 for one track per buffer
+     * @param divisionType the timing of the file, such as <code>Sequence.PPQ</code>
+     * @param resolution the number of ticks per quarter note, or per frame
+     */
+    public MidiFileWriter(int type, float divisionType, int resolution)
+    {
+        if ((type != 0) && (type != 1)) {
+            throw new IllegalArgumentException("Only type 0 and type 1 MIDI files may be written, not type " + type);
+        }
+        if ((divisionType != Sequence.PPQ) && (divisionType != Sequence.SMPTE_24) && (divisionType != Sequence.SMPTE_25)
+                && (divisionType != Sequence.SMPTE_30DROP) && (divisionType != Sequence.SMPTE_30)) {
+            throw new IllegalArgumentException("Unknown division type " + divisionType);
+        }
+        this.type = type;
+        this.divisionType = divisionType;
+        this.resolution = resolution;
+    }
+
+    /** Returns the type of file this writer writes, 0 or 1 */
+    public int getType()
+    {
+        return type;
+    }
+
+    /**
+     * Writes the tracks to the given stream as a Standard MIDI File.  The tracks are
+     * sorted first, if they need to be.  The stream is not closed.
+     * @param tracks the tracks to write
+     * @param out the stream to write to
+     */
+    public void write(MidiTrackBuffer[] tracks, OutputStream out) throws IOException
+    {
+        for (MidiTrackBuffer track : tracks) {
+            track.sort();
+        }
+        out.write(createHeader((type == 0) ? 1 : tracks.length));
+        if (type == 0) {
+            encodeMerged(tracks);
+            writeChunk(out);
+        } else {
+            for (MidiTrackBuffer track : tracks) {
+                encode(track);
+                writeChunk(out);
+            }
+        }
+        out.flush();
+    }
+
+    /**
+     * Writes the tracks to the given channel as a Standard MIDI File.
+     * The channel is not closed.
+     * @param tracks the tracks to write
+     * @param channel the channel to write to, such as a <code>FileChannel</code>
+     */
+    public void write(MidiTrackBuffer[] tracks, WritableByteChannel channel) throws IOException
+    {
+        for (MidiTrackBuffer track : tracks) {
+            track.sort();
+        }
+        writeFully(channel, ByteBuffer.wrap(createHeader((type == 0) ? 1 : tracks.length)));
+        if (type == 0) {
+            encodeMerged(tracks);
+            writeChunk(channel);
+        } else {
+            for (MidiTrackBuffer track : tracks) {
+                encode(track);
+                writeChunk(channel);
+            }
+        }
+    }
+
+    /**
+     * Writes the tracks to the given file as a Standard MIDI File.
+     * @param tracks the tracks to write
+     * @param file the file to write
+     */
+    public void write(MidiTrackBuffer[] tracks, File file) throws IOException
+    {
+        OutputStream out = new BufferedOutputStream(new FileOutputStream(file), 65536);
+        try {
+            write(tracks, out);
+        } finally {
+            out.close();
+        }
+    }
+
+    private byte[] createHeader(int trackCount)
+    {
+        int division;
+        if (divisionType == Sequence.PPQ) {
+            division = resolution & 0x7FFF;
+        } else {
+            division = ((-(int)divisionType) << 8) | (resolution & 0xFF);
+        }
+        return new byte[] {
+                'M', 'T', 'h', 'd',
+                0, 0, 0, 6,
+                0, (byte)type,
+                (byte)(trackCount >> 8), (byte)trackCount,
+                (byte)(division >> 8), (byte)division
+        };
+    }
+
+    private void writeChunk(OutputStream out) throws IOException
+    {
+        out.write(createChunkHeader());
+        out.write(buffer, 0, length);
+    }
+
+    private void writeChunk(WritableByteChannel channel) throws IOException
+    {
+        writeFully(channel, ByteBuffer.wrap(createChunkHeader()));
+        writeFully(channel, ByteBuffer.wrap(buffer, 0, length));
+    }
+
+    private byte[] createChunkHeader()
+    {
+        return new byte[] { 'M', 'T', 'r', 'k', (byte)(length >> 24), (byte)(length >> 16), (byte)(length >> 8), (byte)length };
+    }
+
+    private static void writeFully(WritableByteChannel channel, ByteBuffer bytes) throws IOException
+    {
+        while (bytes.hasRemaining()) {
+            channel.write(bytes);
+        }
+    }
+
+    //
+    // Track encoding
+    /////////////////////////////////////////////////////////////////////////
+
+    /** The state carried from one event to the next while a track is encoded */
+    private long previousTick;
+    private int runningStatus;
+
+    private void startTrack()
+    {
+        length = 0;
+        previousTick = 0;
+        runningStatus = -1;
+    }
+
+    private void encode(MidiTrackBuffer track)
+    {
+        startTrack();
+        int size = track.size();
+        for (int i = 0; i < size; i++) {
+            encodeEvent(track, i);
+        }
+        endTrack(track.getEndTick());
+    }
+
+    private void encodeMerged(MidiTrackBuffer[] tracks)
+    {
+        startTrack();
+        int[] positions = new int[tracks.length];
+        long endTick = 0;
+        for (MidiTrackBuffer track : tracks) {
+            endTick = Math.max(endTick, track.getEndTick());
+        }
+        while (true) {
+            int next = -1;
+            for (int t = 0; t < tracks.length; t++) {
+                if ((positions[t] < tracks[t].size()) && ((next == -1) || (tracks[t].getTick(positions[t]) < tracks[next].getTick(positions[next])))) {
+                    next = t;
+                }
+            }
+            if (next == -1) {
+                break;
+            }
+            encodeEvent(tracks[next], positions[next]++);
+        }
+        endTrack(endTick);
+    }
+
+    private void encodeEvent(MidiTrackBuffer track, int index)
+    {
+        long tick = track.getTick(index);
+        writeVariableLength(tick - previousTick);
+        previousTick = tick;
+        if (track.isShortMessage(index)) {
+            int status = track.getStatus(index);
+            if (status != runningStatus) {
+                writeByte(status);
+                runningStatus = status;
+            }
+            writeByte(track.getData1(index));
+            if (MidiTrackBuffer.getDataLength(status) == 2) {
+                writeByte(track.getData2(index));
+            }
+            return;
+        }
+        byte[] extra = track.getExtra(index);
+        runningStatus = -1;
+        if (MidiTrackBuffer.isSysex(extra)) {
+            writeByte(extra[0] & 0xFF);
+            writeVariableLength(extra.length - 1);
+            writeBytes(extra, 1, extra.length - 1);
+        } else {
+            writeByte(0xFF);
+            writeByte(extra[0] & 0xFF);
+            writeVariableLength(extra.length - 1);
+            writeBytes(extra, 1, extra.length - 1);
+        }
+    }
+
+    private void endTrack(long lastTick)
+    {
+        writeVariableLength(lastTick - previousTick);
+        writeByte(0xFF);
+        writeByte(MidiTrackBuffer.END_OF_TRACK);
+        writeByte(0);
+    }
+
+    private void writeVariableLength(long value)
+    {
+        ensureCapacity(5);
+        int shift = 28;
+        while ((shift > 0) && ((value >> shift) == 0)) {
+            shift -= 7;
+        }
+        while (shift > 0) {
+            buffer[length++] = (byte)(((value >> shift) & 0x7F) | 0x80);
+            shift -= 7;
+        }
+        buffer[length++] = (byte)(value & 0x7F);
+    }
+
+    private void writeByte(int b)
+    {
+        ensureCapacity(1);
+        buffer[length++] = (byte)b;
+    }
+
+    private void writeBytes(byte[] bytes, int offset, int count)
+    {
+        ensureCapacity(count);
+        System.arraycopy(bytes, offset, buffer, length, count);
+        length += count;
+    }
+
+    private void ensureCapacity(int extra)
+    {
+        if (length + extra > buffer.length) {
+            byte[] larger = new byte[Math.max(buffer.length * 2, length + extra)];
+            System.arraycopy(buffer, 0, larger, 0, length);
+            buffer = larger;
+        }
+    }
+}
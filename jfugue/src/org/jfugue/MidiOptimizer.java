@@ -0,0 +1,381 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue;
+
+import java.util.Arrays;
+
+import javax.sound.midi.ShortMessage;
+
+/**
+ * Removes MIDI events that have no effect from rendered tracks, before
+ * they are turned into a <code>Sequence</code> or written to a MIDI file.
+ *
+ * <p>
+ * Each kind of clean-up is turned on by its own option:
+ * </p>
+ * <ul>
+ * <li><code>DROP_RESTS</code> removes the silent note-on and note-off for note 0 that
+ *     the <code>MidiEventManager</code> adds for each rest.  The tracks keep their length,
+ *     so a piece that ends with a rest is still as long.</li>
+ * <li><code>REDUNDANT_PROGRAM_CHANGES</code> removes a program change to the instrument
+ *     a channel already has.  A change of bank makes the next program change count.</li>
+ * <li><code>REDUNDANT_CONTROLLERS</code> removes a controller event that sets a controller
+ *     to the value it already has.  Data entry and data increment and decrement are
+ *     always kept, since they act each time they are sent.</li>
+ * <li><code>REDUNDANT_TEMPOS</code> removes a tempo change to the tempo already in effect,
+ *     starting from the MIDI default of 500,000 microseconds per quarter note.</li>
+ * <li><code>ZERO_LENGTH_NOTES</code> removes a note-on and note-off for the same note
+ *     at the same tick.</li>
+ * <li><code>NOTE_OFF_AS_NOTE_ON</code> turns each note-off into a note-on with a velocity
+ *     of 0, which running status can then write without a status byte.  This loses
+ *     the decay velocity, so it is not one of the <code>DEFAULT</code> options.</li>
+ * </ul>
+ *
+ * <p>
+ * The events of all tracks are taken in order of tick, and then of track, so a
+ * channel or a tempo may be spread over several tracks.  The tracks given to the
+ * optimizer are not changed.  A MidiOptimizer keeps no state between calls, so it
+ * may be shared between threads.
+ * </p>
+ *
+ * <pre>
+ *  MidiRenderer renderer = new MidiRenderer(Sequence.PPQ, 128);
+ *  renderer.setOptimizer(new MidiOptimizer());
+ *  ...
+ *  Sequence sequence = renderer.getSequence();
+ *  System.out.println(renderer.getLastOptimization());
+ * </pre>
+ *
+ * @see MidiRenderer#setOptimizer(MidiOptimizer)
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class MidiOptimizer
+{
+    /** Removes the placeholder events for rests */
+    public static final int DROP_RESTS = 1;
+    /** Removes program changes that don't change the program */
+    public static final int REDUNDANT_PROGRAM_CHANGES = 2;
+    /** Removes controller events that don't change the controller */
+    public static final int REDUNDANT_CONTROLLERS = 4;
+    /** Removes tempo changes that don't change the tempo */
+    public static final int REDUNDANT_TEMPOS = 8;
+    /** Removes notes that end at the tick they start */
+    public static final int ZERO_LENGTH_NOTES = 16;
+    /** Turns note-offs into note-ons with a velocity of 0 */
+    public static final int NOTE_OFF_AS_NOTE_ON = 32;
+
+    /** The options that don't change how the music sounds */
+    public static final int DEFAULT = DROP_RESTS | REDUNDANT_PROGRAM_CHANGES | REDUNDANT_CONTROLLERS | REDUNDANT_TEMPOS | ZERO_LENGTH_NOTES;
+    /** Every option */
+    public static final int ALL = DEFAULT | NOTE_OFF_AS_NOTE_ON;
+
+    private static final int TEMPO = 0x51;
+    private static final int DEFAULT_MICROSECONDS_PER_QUARTER = 500000;
+
+    private final int options;
+
+    /**
+     * Creates an optimizer with the <code>DEFAULT</code> options.
+     */
+    public MidiOptimizer()
+    {
+        this(DEFAULT);
+    }
+
+    /**
+     * Creates an optimizer with the given options.
+     * @param options the options to use, combined with '|', such as <code>DROP_RESTS | REDUNDANT_TEMPOS</code>
+     */
+    public MidiOptimizer(int options)
+    {
+        if ((options & ~ALL) != 0) {
+            throw new IllegalArgumentException("Unknown MidiOptimizer options " + (options & ~ALL));
+        }
+        this.options = options;
+    }
+
+    /** Returns the options this optimizer uses */
+    public int getOptions()
+    {
+        return options;
+    }
+
+    private boolean isOn(int option)
+    {
+        return (options & option) != 0;
+    }
+
+    /**
+     * Removes the events that have no effect from the given tracks.
+     * @param tracks the tracks to optimize, which are sorted if they need to be but are otherwise not changed
+     * @return the optimized tracks, and the number of events removed
+     */
+    public Result optimize(MidiTrackBuffer[] tracks)
+    {
+        Result result = new Result();
+        boolean[][] dropped = new boolean[tracks.length][];
+        boolean[][] converted = new boolean[tracks.length][];
+        for (int t = 0; t < tracks.length; t++) {
+            tracks[t].sort();
+            dropped[t] = new boolean[tracks[t].size()];
+            converted[t] = new boolean[tracks[t].size()];
+        }
+
+        int[] programs = new int[16];
+        int[][] controllers = new int[16][128];
+        int[][] sounding = new int[16][128];
+        Arrays.fill(programs, -1);
+        for (int[] values : controllers) {
+            Arrays.fill(values, -1);
+        }
+        int tempo = DEFAULT_MICROSECONDS_PER_QUARTER;
+
+        int[] positions = new int[tracks.length];
+        while (true) {
+            int t = -1;
+            for (int u = 0; u < tracks.length; u++) {
+                if ((positions[u] < tracks[u].size()) && ((t == -1) || (tracks[u].getTick(positions[u]) < tracks[t].getTick(positions[t])))) {
+                    t = u;
+                }
+            }
+            if (t == -1) {
+                break;
+            }
+            MidiTrackBuffer track = tracks[t];
+            int i = positions[t]++;
+            if (dropped[t][i]) {
+                continue;
+            }
+
+            if (!track.isShortMessage(i)) {
+                byte[] extra = track.getExtra(i);
+                if (!MidiTrackBuffer.isSysex(extra) && (extra[0] == TEMPO) && (extra.length == 4)) {
+                    int microseconds = ((extra[1] & 0xFF) << 16) | ((extra[2] & 0xFF) << 8) | (extra[3] & 0xFF);
+                    if (isOn(REDUNDANT_TEMPOS) && (microseconds == tempo)) {
+                        dropped[t][i] = true;
+                        result.tempos++;
+                    }
+                    tempo = microseconds;
+                }
+                continue;
+            }
+
+            int status = track.getStatus(i);
+            int command = status & 0xF0;
+            int channel = status & 0x0F;
+            int data1 = track.getData1(i);
+            int data2 = track.getData2(i);
+            switch (command) {
+                case ShortMessage.NOTE_ON :
+                    if (data2 == 0) {
+                        noteOff(track, t, i, channel, data1, data2, dropped, converted, sounding, result);
+                    } else if (isOn(ZERO_LENGTH_NOTES) && (sounding[channel][data1] == 0) && dropZeroLengthNote(track, t, i, status, data1, dropped)) {
+                        result.zeroLengthNotes += 2;
+                    } else {
+                        sounding[channel][data1]++;
+                    }
+                    break;
+                case ShortMessage.NOTE_OFF :
+                    noteOff(track, t, i, channel, data1, data2, dropped, converted, sounding, result);
+                    break;
+                case ShortMessage.PROGRAM_CHANGE :
+                    if (isOn(REDUNDANT_PROGRAM_CHANGES) && (programs[channel] == data1)) {
+                        dropped[t][i] = true;
+                        result.programChanges++;
+                    }
+                    programs[channel] = data1;
+                    break;
+                case ShortMessage.CONTROL_CHANGE :
+                    if (isOn(REDUNDANT_CONTROLLERS) && isState(data1) && (controllers[channel][data1] == data2)) {
+                        dropped[t][i] = true;
+                        result.controllers++;
+                        break;
+                    }
+                    if (((data1 == 0) || (data1 == 32)) && (controllers[channel][data1] != data2)) {
+                        programs[channel] = -1;  // The next program change picks from the new bank
+                    }
+                    if ((data1 < 32) && (controllers[channel][data1] != data2)) {
+                        controllers[channel][data1 + 32] = -1;  // Receivers set the LSB to 0 when the MSB changes
+                    }
+                    if (data1 == 121) {
+                        Arrays.fill(controllers[channel], -1);  // Reset All Controllers: no value is known any more
+                        break;
+                    }
+                    controllers[channel][data1] = data2;
+                    break;
+                default :
+                    break;
+            }
+        }
+
+        MidiTrackBuffer[] optimized = new MidiTrackBuffer[tracks.length];
+        for (int t = 0; t < tracks.length; t++) {
+            MidiTrackBuffer track = tracks[t];
+            MidiTrackBuffer copy = new MidiTrackBuffer(track.size());
+            for (int i = 0; i < track.size(); i++) {
+                if (dropped[t][i]) {
+                    continue;
+                }
+                if (converted[t][i]) {
+                    copy.addShortMessage(track.getTick(i), ShortMessage.NOTE_ON, track.getStatus(i) & 0x0F, track.getData1(i), 0);
+                } else {
+                    copy.appendCopy(track, i);
+                }
+            }
+            copy.extendTo(track.getEndTick());
+            optimized[t] = copy;
+        }
+        result.tracks = optimized;
+        return result;
+    }
+
+    private void noteOff(MidiTrackBuffer track, int t, int i, int channel, int note, int velocity,
+            boolean[][] dropped, boolean[][] converted, int[][] sounding, Result result)
+    {
+        if (sounding[channel][note] > 0) {
+            sounding[channel][note]--;
+        } else if (isOn(DROP_RESTS) && (note == 0) && (velocity == 0)) {
+            dropped[t][i] = true;
+            result.rests++;
+            return;
+        }
+        if (isOn(NOTE_OFF_AS_NOTE_ON) && ((track.getStatus(i) & 0xF0) == ShortMessage.NOTE_OFF)) {
+            converted[t][i] = true;
+            result.noteOffs++;
+        }
+    }
+
+    /**
+     * Looks for the note-off that ends the note started at the given index, among the
+     * events at the same tick, and marks both events as dropped if it is there.
+     */
+    private static boolean dropZeroLengthNote(MidiTrackBuffer track, int t, int i, int status, int note, boolean[][] dropped)
+    {
+        long tick = track.getTick(i);
+        int channel = status & 0x0F;
+        for (int j = i + 1; (j < track.size()) && (track.getTick(j) == tick); j++) {
+            if (!track.isShortMessage(j) || dropped[t][j]) {
+                continue;
+            }
+            int otherStatus = track.getStatus(j);
+            int otherCommand = otherStatus & 0xF0;
+            if (((otherStatus & 0x0F) != channel) || (track.getData1(j) != note)) {
+                continue;
+            }
+            if ((otherCommand == ShortMessage.NOTE_OFF) || ((otherCommand == ShortMessage.NOTE_ON) && (track.getData2(j) == 0))) {
+                dropped[t][i] = true;
+                dropped[t][j] = true;
+                return true;
+            }
+            if (otherCommand == ShortMessage.NOTE_ON) {
+                return false;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Returns true if the given controller holds a value, so that sending the same
+     * value again does nothing.  Data entry (6 and 38), data increment and decrement
+     * (96 and 97), and the channel mode messages (120 and up) act each time.
+     */
+    private static boolean isState(int controller)
+    {
+        return (controller != 6) && (controller != 38) && (controller != 96) && (controller != 97) && (controller < 120);
+    }
+
+    /**
+     * The optimized tracks, and a count of the events that were removed or changed.
+     */
+    public static final class Result
+    {
+        private MidiTrackBuffer[] tracks;
+        private int rests;
+        private int programChanges;
+        private int controllers;
+        private int tempos;
+        private int zeroLengthNotes;
+        private int noteOffs;
+
+        private Result()
+        {
+        }
+
+        /** Returns the optimized tracks */
+        public MidiTrackBuffer[] getTracks()
+        {
+            return tracks;
+        }
+
+        /** Returns the total number of events removed */
+        public int getRemovedCount()
+        {
+            return rests + programChanges + controllers + tempos + zeroLengthNotes;
+        }
+
+        /** Returns the number of note-on and note-off events removed for rests */
+        public int getRemovedRests()
+        {
+            return rests;
+        }
+
+        /** Returns the number of program changes removed */
+        public int getRemovedProgramChanges()
+        {
+            return programChanges;
+        }
+
+        /** Returns the number of controller events removed */
+        public int getRemovedControllers()
+        {
+            return controllers;
+        }
+
+        /** Returns the number of tempo changes removed */
+        public int getRemovedTempos()
+        {
+            return tempos;
+        }
+
+        /** Returns the number of note-on and note-off events removed for notes with no length */
+        public int getRemovedZeroLengthNotes()
+        {
+            return zeroLengthNotes;
+        }
+
+        /** Returns the number of note-offs that were turned into note-ons */
+        public int getConvertedNoteOffs()
+        {
+            return noteOffs;
+        }
+
+        public String toString()
+        {
+            return "MidiOptimizer.Result[removed=" + getRemovedCount() + ", rests=" + rests + ", programChanges=" + programChanges
+                    + ", controllers=" + controllers + ", tempos=" + tempos + ", zeroLengthNotes=" + zeroLengthNotes
+                    + ", convertedNoteOffs=" + noteOffs + "]";
+        }
+    }
+}
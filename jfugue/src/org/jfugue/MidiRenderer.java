@@ -22,12 +22,18 @@
 
 package org.jfugue;
 
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
 import javax.sound.midi.Sequence;
 import javax.sound.midi.ShortMessage;
 
 import org.jfugue.elements.ChannelPressure;
 import org.jfugue.elements.Controller;
 import org.jfugue.elements.Instrument;
+import org.jfugue.elements.JFugueElement;
 import org.jfugue.elements.KeySignature;
 import org.jfugue.elements.Layer;
 import org.jfugue.elements.Measure;
@@ -38,6 +44,9 @@ import org.jfugue.elements.SystemExclusive;
 import org.jfugue.elements.Tempo;
 import org.jfugue.elements.Time;
 import org.jfugue.elements.Voice;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.visitors.ElementVisitor;
+import org.jfugue.visitors.VisitorToListenerAdaptor;
 
 
 /**
@@ -51,6 +60,23 @@ import org.jfugue.elements.Voice;
  * </p>
  * 
  * <p>
+ * A MidiRenderer may be added to a parser either as a <code>ParserListener</code>
+ * or as a <code>BatchParserListener</code>.  As a batch listener, it reads the
+ * parsed events straight from each <code>EventBlock</code>, without any element
+ * objects being created for it.  As a <code>PrimitiveParserListener</code>, it
+ * takes notes as plain values.  Whichever way it is used, the same sequence is
+ * produced.
+ * </p>
+ *
+ * <p>
+ * The renderer keeps its events in packed track buffers, and only builds a
+ * <code>Sequence</code> when {@link #getSequence()} is called.  When the music is only
+ * going to be saved, {@link #writeMidiFile(OutputStream)} streams the buffers out as
+ * a Standard MIDI File without building a <code>Sequence</code> at all.  A
+ * {@link MidiOptimizer} may be set to remove events that have no effect first.
+ * </p>
+ *
+ * <p>
  * This was named Renderer in previous versions of JFugue.  The name has been
  * changed to differentiate it from other types of renderers.
  * </p>
@@ -59,12 +85,14 @@ import org.jfugue.elements.Voice;
  *@version 2.0
  *@version 3.0 - Renderer renamed to MidiRenderer
  */
-public final class MidiRenderer extends ParserListenerAdapter
+public final class MidiRenderer extends ParserListenerAdapter implements PrimitiveParserListener, BatchParserListener
 {
     private MidiEventManager eventManager;
     long initialNoteTime = 0;
     private float sequenceTiming;
     private int resolution;
+    private MidiOptimizer optimizer;
+    private MidiOptimizer.Result lastOptimization;
 
     /**
      * Instantiates a Renderer
@@ -104,13 +132,114 @@ public final class MidiRenderer extends ParserListenerAdapter
     {
         this.eventManager = new MidiEventManager(this.sequenceTiming, this.resolution);
     }
+
+    /**
+     * Writes the events rendered since the last reset to the given stream,
+     * as a type 1 Standard MIDI File.  The stream is not closed.
+     * @param out the stream to write to
+     * @since 4.1
+     */
+    public void writeMidiFile(OutputStream out) throws IOException
+    {
+        new MidiFileWriter(this.sequenceTiming, this.resolution).write(getTrackBuffers(), out);
+    }
+
+    /**
+     * Writes the events rendered since the last reset to the given file,
+     * as a type 1 Standard MIDI File.
+     * @param file the file to write
+     * @since 4.1
+     */
+    public void writeMidiFile(File file) throws IOException
+    {
+        new MidiFileWriter(this.sequenceTiming, this.resolution).write(getTrackBuffers(), file);
+    }
+
+    /**
+     * Returns the track buffers holding the events rendered since the last reset,
+     * one for each channel.  If an optimizer has been set, the tracks are optimized.
+     * @see MidiEventManager#getTrackBuffers()
+     * @since 4.1
+     */
+    public MidiTrackBuffer[] getTrackBuffers()
+    {
+        MidiTrackBuffer[] buffers = this.eventManager.getTrackBuffers();
+        if (this.optimizer == null) {
+            return buffers;
+        }
+        this.lastOptimization = this.optimizer.optimize(buffers);
+        return this.lastOptimization.getTracks();
+    }
     
     /**
-     * Returns the last sequence generated by this renderer
+     * Returns the last sequence generated by this renderer.  If an optimizer
+     * has been set, the sequence is built from the optimized tracks.
      */
     public Sequence getSequence()
     {
-        return this.eventManager.getSequence();
+        if (this.optimizer == null) {
+            return this.eventManager.getSequence();
+        }
+        return MidiTrackBuffer.createSequence(getTrackBuffers(), this.sequenceTiming, this.resolution);
+    }
+
+    /**
+     * Sets the optimizer that removes events with no effect from the rendered tracks
+     * before they become a sequence or a MIDI file.  There is no optimizer unless one is set.
+     * @param optimizer the optimizer to use, or <code>null</code> for none
+     * @since 4.1
+     */
+    public void setOptimizer(MidiOptimizer optimizer)
+    {
+        this.optimizer = optimizer;
+    }
+
+    /**
+     * Returns the optimizer set with {@link #setOptimizer(MidiOptimizer)}, or <code>null</code>
+     * @since 4.1
+     */
+    public MidiOptimizer getOptimizer()
+    {
+        return this.optimizer;
+    }
+
+    /**
+     * Returns what the optimizer removed the last time it ran, or <code>null</code>
+     * if it hasn't run.
+     * @since 4.1
+     */
+    public MidiOptimizer.Result getLastOptimization()
+    {
+        return this.lastOptimization;
+    }
+
+    /**
+     * Renders an <code>ElementPattern</code> by visiting its elements directly,
+     * without parsing a music string, and returns the sequence.  As when the
+     * pattern is parsed, a tempo of 120 is used unless the pattern begins with a
+     * tempo, so the sequence is the same one a parser would have produced.
+     * A pattern that is no longer element-backed is parsed.
+     * @param pattern the pattern to render
+     * @return the sequence generated by this renderer
+     * @since 4.1
+     */
+    public Sequence render(ElementPattern pattern)
+    {
+        if (!pattern.isElementBacked()) {
+            MusicStringParser parser = new MusicStringParser();
+            parser.addParserListener(this);
+            parser.parse(pattern);
+            return getSequence();
+        }
+        List<JFugueElement> elements = pattern.getElements();
+        if (!elements.isEmpty() && !(elements.get(0) instanceof Tempo)) {
+            tempoEvent(new Tempo(120));
+        }
+        ElementVisitor visitor = new VisitorToListenerAdaptor(this);
+        for (JFugueElement element : elements) {
+            element.acceptVisitor(visitor);
+        }
+        return getSequence();
     }
 
     // ParserListener methods
@@ -225,4 +354,100 @@ public final class MidiRenderer extends ParserListenerAdapter
             this.eventManager.addNoteEvent(note.getValue(), attackVelocity, decayVelocity, duration, !note.isEndOfTie(), !note.isStartOfTie());
         }
     }
+
+    // PrimitiveParserListener methods
+    ////////////////////////////
+
+    public void noteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+    {
+        this.initialNoteTime = this.eventManager.getTrackTimer();
+        if (duration != 0) {
+            addNote(value, attackVelocity, decayVelocity, duration, flags);
+        }
+    }
+
+    public void sequentialNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+    {
+        addNote(value, attackVelocity, decayVelocity, duration, flags);
+    }
+
+    public void parallelNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+    {
+        this.eventManager.setTrackTimer(this.initialNoteTime);
+        addNote(value, attackVelocity, decayVelocity, duration, flags);
+    }
+
+    private void addNote(int value, byte attackVelocity, byte decayVelocity, long duration, int flags)
+    {
+        if ((flags & EventBlock.REST) != 0) {
+            this.eventManager.addRest(duration);
+        } else {
+            this.eventManager.addNoteEvent(value, attackVelocity, decayVelocity, duration, (flags & EventBlock.END_OF_TIE) == 0, (flags & EventBlock.START_OF_TIE) == 0);
+        }
+    }
+
+    // BatchParserListener method
+    ////////////////////////////
+
+    public void eventsParsed(EventBlock block)
+    {
+        byte[] kinds = block.getKinds();
+        int[] values = block.getValues();
+        int[] data = block.getData();
+        long[] durations = block.getDurations();
+        double[] decimalDurations = block.getDecimalDurations();
+        byte[] attackVelocities = block.getAttackVelocities();
+        byte[] decayVelocities = block.getDecayVelocities();
+        byte[] flags = block.getFlagBits();
+        int size = block.size();
+        for (int i = 0; i < size; i++) {
+            switch (kinds[i]) {
+                case EventBlock.VOICE_EVENT :
+                    this.eventManager.setCurrentTrack((byte)values[i]);
+                    break;
+                case EventBlock.TEMPO_EVENT :
+                    this.eventManager.addMetaMessage(0x51, TimeFactor.convertBPMToBytes(values[i]));
+                    break;
+                case EventBlock.INSTRUMENT_EVENT :
+                    this.eventManager.addEvent(ShortMessage.PROGRAM_CHANGE, (byte)values[i], 0);
+                    break;
+                case EventBlock.LAYER_EVENT :
+                    this.eventManager.setCurrentLayer((byte)values[i]);
+                    break;
+                case EventBlock.TIME_EVENT :
+                    this.eventManager.setTrackTimer(durations[i]);
+                    break;
+                case EventBlock.KEY_SIGNATURE_EVENT :
+                    this.eventManager.addMetaMessage(0x59, new byte[] { (byte)values[i], (byte)data[i] });
+                    break;
+                case EventBlock.SYSTEM_EXCLUSIVE_EVENT :
+                    this.eventManager.addSystemExclusiveEvent(block.getSystemExclusiveData(i));
+                    break;
+                case EventBlock.CONTROLLER_EVENT :
+                    this.eventManager.addEvent(ShortMessage.CONTROL_CHANGE, (byte)values[i], (byte)data[i]);
+                    break;
+                case EventBlock.CHANNEL_PRESSURE_EVENT :
+                    this.eventManager.addEvent(ShortMessage.CHANNEL_PRESSURE, (byte)values[i]);
+                    break;
+                case EventBlock.POLYPHONIC_PRESSURE_EVENT :
+                    this.eventManager.addEvent(ShortMessage.POLY_PRESSURE, (byte)values[i], (byte)data[i]);
+                    break;
+                case EventBlock.PITCH_BEND_EVENT :
+                    this.eventManager.addEvent(ShortMessage.PITCH_BEND, (byte)values[i], (byte)data[i]);
+                    break;
+                case EventBlock.NOTE_EVENT :
+                    noteEvent(values[i], durations[i], decimalDurations[i], attackVelocities[i], decayVelocities[i], flags[i]);
+                    break;
+                case EventBlock.SEQUENTIAL_NOTE_EVENT :
+                    sequentialNoteEvent(values[i], durations[i], decimalDurations[i], attackVelocities[i], decayVelocities[i], flags[i]);
+                    break;
+                case EventBlock.PARALLEL_NOTE_EVENT :
+                    parallelNoteEvent(values[i], durations[i], decimalDurations[i], attackVelocities[i], decayVelocities[i], flags[i]);
+                    break;
+                default :
+                    // No MIDI is generated for a measure
+                    break;
+            }
+        }
+    }
 }
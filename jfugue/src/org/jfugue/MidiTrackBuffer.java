@@ -0,0 +1,497 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue;
+
+import javax.sound.midi.InvalidMidiDataException;
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.MidiMessage;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.SysexMessage;
+import javax.sound.midi.Track;
+
+/**
+ * The events of one MIDI track, kept as packed primitives rather than as
+ * <code>MidiEvent</code> objects.
+ *
+ * <p>
+ * Each event is a tick and an <code>int</code>.  A channel message is packed
+ * into the <code>int</code> as its status and data bytes; a meta or system exclusive
+ * message is kept in a side table, and the <code>int</code> refers to it.  Events are
+ * appended in whatever order they arrive.  {@link #sort()} puts them in order of
+ * tick once, at the end, keeping events with the same tick in the order they were
+ * added, which is the order a <code>javax.sound.midi.Track</code> would have given them.
+ * </p>
+ *
+ * <p>
+ * Messages are checked the same way <code>ShortMessage</code>, <code>MetaMessage</code>
+ * and <code>SysexMessage</code> check them, and a message that they would refuse
+ * is dropped.
+ * </p>
+ *
+ * <p>
+ * The <code>MidiEventManager</code> keeps one buffer for each layer of each channel,
+ * so that a layer that jumps back in time only has to be sorted against itself.
+ * Those buffers also number their events across the whole channel, and
+ * {@link #merge(MidiTrackBuffer[])} uses the numbers to interleave the layers into
+ * the order the channel's events would have had in a single buffer.
+ * </p>
+ *
+ * @see MidiFileWriter
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class MidiTrackBuffer
+{
+    /** The meta message type that ends a track */
+    public static final int END_OF_TRACK = 0x2F;
+
+    private long[] ticks;
+    private int[] messages;
+    private int size;
+    private byte[][] extras;
+    private int extraCount;
+    private long lastTick;
+    private long endTick;
+    private boolean sorted = true;
+
+    /** The position of each event among all of the events numbered by <code>counter</code>, or <code>null</code> */
+    private int[] orders;
+    /** The count shared by the buffers of a channel's layers, or <code>null</code> */
+    private final int[] counter;
+
+    /**
+     * Creates an empty track buffer.
+     */
+    public MidiTrackBuffer()
+    {
+        this(64);
+    }
+
+    /**
+     * Creates an empty track buffer with room for the given number of events.
+     * @param capacity the number of events to make room for
+     */
+    public MidiTrackBuffer(int capacity)
+    {
+        this(capacity, null);
+    }
+
+    /**
+     * Creates an empty track buffer that numbers its events with the given counter,
+     * which is shared by all of the buffers that will later be merged together.
+     */
+    MidiTrackBuffer(int capacity, int[] counter)
+    {
+        ticks = new long[Math.max(capacity, 4)];
+        messages = new int[ticks.length];
+        extras = new byte[4][];
+        this.counter = counter;
+        if (counter != null) {
+            orders = new int[ticks.length];
+        }
+    }
+
+    /**
+     * Adds a channel message, such as a note on or a program change.
+     * @param tick the time of the message, in ticks
+     * @param command the command, such as <code>ShortMessage.NOTE_ON</code>
+     * @param channel the channel, from 0 to 15
+     * @param data1 the first data byte
+     * @param data2 the second data byte, ignored by commands that take only one
+     */
+    public void addShortMessage(long tick, int command, int channel, int data1, int data2)
+    {
+        if ((command < 0x80) || (command >= 0xF0) || ((channel & 0xFFFFFFF0) != 0)) {
+            return;
+        }
+        if ((data1 & 0xFFFFFF80) != 0) {
+            return;
+        }
+        if (getDataLength(command) == 1) {
+            data2 = 0;
+        } else if ((data2 & 0xFFFFFF80) != 0) {
+            return;
+        }
+        append(tick, ((command | channel) << 16) | (data1 << 8) | data2);
+    }
+
+    /**
+     * Adds a meta message, such as a tempo or key signature.
+     * @param tick the time of the message, in ticks
+     * @param type the meta message type, from 0 to 127
+     * @param data the data of the message, which is copied
+     */
+    public void addMetaMessage(long tick, int type, byte[] data)
+    {
+        if ((type & 0xFFFFFF80) != 0) {
+            return;
+        }
+        byte[] extra = new byte[data.length + 1];
+        extra[0] = (byte)type;
+        System.arraycopy(data, 0, extra, 1, data.length);
+        append(tick, -1 - addExtra(extra));
+    }
+
+    /**
+     * Adds a system exclusive message.
+     * @param tick the time of the message, in ticks
+     * @param data the message, starting with its 0xF0 or 0xF7 status byte, which is copied
+     */
+    public void addSystemExclusive(long tick, byte[] data)
+    {
+        if ((data.length == 0) || (((data[0] & 0xFF) != 0xF0) && ((data[0] & 0xFF) != 0xF7))) {
+            return;
+        }
+        append(tick, -1 - addExtra(data.clone()));
+    }
+
+    private int addExtra(byte[] extra)
+    {
+        if (extraCount == extras.length) {
+            byte[][] larger = new byte[extraCount * 2][];
+            System.arraycopy(extras, 0, larger, 0, extraCount);
+            extras = larger;
+        }
+        extras[extraCount] = extra;
+        return extraCount++;
+    }
+
+    private void append(long tick, int message)
+    {
+        if (size == ticks.length) {
+            long[] largerTicks = new long[size * 2];
+            System.arraycopy(ticks, 0, largerTicks, 0, size);
+            ticks = largerTicks;
+            int[] largerMessages = new int[size * 2];
+            System.arraycopy(messages, 0, largerMessages, 0, size);
+            messages = largerMessages;
+            if (orders != null) {
+                int[] largerOrders = new int[size * 2];
+                System.arraycopy(orders, 0, largerOrders, 0, size);
+                orders = largerOrders;
+            }
+        }
+        if (tick < lastTick) {
+            sorted = false;
+        } else {
+            lastTick = tick;
+        }
+        ticks[size] = tick;
+        messages[size] = message;
+        if (orders != null) {
+            orders[size] = counter[0]++;
+        }
+        size++;
+    }
+
+    /** Returns the number of events in this track, not counting the end of track */
+    public int size()
+    {
+        return size;
+    }
+
+    /** Returns the tick of the latest event */
+    public long getLastTick()
+    {
+        return lastTick;
+    }
+
+    /**
+     * Returns the tick at which the track ends: the tick of the latest event,
+     * or a later tick given to {@link #extendTo(long)}.
+     */
+    public long getEndTick()
+    {
+        return Math.max(lastTick, endTick);
+    }
+
+    /**
+     * Makes the track last at least until the given tick, even if it has no
+     * events that late.  This keeps the length of a track whose last events
+     * have been removed, such as a track that ends with a rest.
+     * @param tick the earliest tick at which the track may end
+     */
+    public void extendTo(long tick)
+    {
+        endTick = Math.max(endTick, tick);
+    }
+
+    /** Returns the tick of the given event */
+    public long getTick(int index)
+    {
+        return ticks[index];
+    }
+
+    /** Returns true if the given event is a channel message */
+    public boolean isShortMessage(int index)
+    {
+        return messages[index] >= 0;
+    }
+
+    /** Returns the status byte of the given event: the command and channel, or 0xFF or 0xF0 */
+    public int getStatus(int index)
+    {
+        int message = messages[index];
+        if (message >= 0) {
+            return message >> 16;
+        }
+        byte[] extra = extras[-1 - message];
+        return isSysex(extra) ? (extra[0] & 0xFF) : 0xFF;
+    }
+
+    /** Returns the first data byte of a channel message */
+    public int getData1(int index)
+    {
+        return (messages[index] >> 8) & 0xFF;
+    }
+
+    /** Returns the second data byte of a channel message */
+    public int getData2(int index)
+    {
+        return messages[index] & 0xFF;
+    }
+
+    /** Returns the number of data bytes that follow the given channel message status */
+    static int getDataLength(int status)
+    {
+        switch (status & 0xF0) {
+            case 0xC0 :
+            case 0xD0 :
+                return 1;
+            default :
+                return 2;
+        }
+    }
+
+    /**
+     * Returns the meta type followed by the data of a meta message, or the
+     * whole of a system exclusive message.  The array must not be changed.
+     */
+    byte[] getExtra(int index)
+    {
+        return extras[-1 - messages[index]];
+    }
+
+    static boolean isSysex(byte[] extra)
+    {
+        return (extra.length > 0) && (((extra[0] & 0xFF) == 0xF0) || ((extra[0] & 0xFF) == 0xF7));
+    }
+
+    /**
+     * Puts the events in order of tick.  Events with the same tick stay in
+     * the order in which they were added.  Does nothing if the events were
+     * added in order, which is the usual case.
+     */
+    public void sort()
+    {
+        if (sorted) {
+            return;
+        }
+        int[] order = new int[size];
+        int[] work = new int[size];
+        for (int i = 0; i < size; i++) {
+            order[i] = i;
+        }
+        // A bottom-up merge sort, which is stable
+        for (int width = 1; width < size; width *= 2) {
+            for (int left = 0; left < size; left += 2 * width) {
+                int mid = Math.min(left + width, size);
+                int right = Math.min(left + 2 * width, size);
+                int i = left;
+                int j = mid;
+                for (int k = left; k < right; k++) {
+                    if ((i < mid) && ((j >= right) || (ticks[order[i]] <= ticks[order[j]]))) {
+                        work[k] = order[i++];
+                    } else {
+                        work[k] = order[j++];
+                    }
+                }
+            }
+            int[] swap = order;
+            order = work;
+            work = swap;
+        }
+        long[] sortedTicks = new long[ticks.length];
+        int[] sortedMessages = new int[messages.length];
+        for (int i = 0; i < size; i++) {
+            sortedTicks[i] = ticks[order[i]];
+            sortedMessages[i] = messages[order[i]];
+        }
+        ticks = sortedTicks;
+        messages = sortedMessages;
+        if (orders != null) {
+            int[] sortedOrders = new int[orders.length];
+            for (int i = 0; i < size; i++) {
+                sortedOrders[i] = orders[order[i]];
+            }
+            orders = sortedOrders;
+        }
+        sorted = true;
+    }
+
+    /**
+     * Merges buffers that were numbered by the same counter into a single new buffer,
+     * in order of tick.  Events with the same tick are taken in the order in which they
+     * were added to any of the buffers, so the result is the same as if every event had
+     * been added to one buffer and sorted.  The buffers are sorted first, if they need to be,
+     * and are otherwise left as they are.
+     * @param parts the buffers to merge; <code>null</code> entries are skipped
+     * @return a buffer holding all of the events
+     */
+    static MidiTrackBuffer merge(MidiTrackBuffer[] parts)
+    {
+        int total = 0;
+        for (MidiTrackBuffer part : parts) {
+            if (part != null) {
+                part.sort();
+                total += part.size;
+            }
+        }
+        MidiTrackBuffer merged = new MidiTrackBuffer(total);
+        int[] positions = new int[parts.length];
+        for (int n = 0; n < total; n++) {
+            int next = -1;
+            for (int p = 0; p < parts.length; p++) {
+                MidiTrackBuffer part = parts[p];
+                if ((part == null) || (positions[p] == part.size)) {
+                    continue;
+                }
+                if (next == -1) {
+                    next = p;
+                    continue;
+                }
+                MidiTrackBuffer best = parts[next];
+                long tick = part.ticks[positions[p]];
+                long bestTick = best.ticks[positions[next]];
+                if ((tick < bestTick) || ((tick == bestTick) && (part.orders[positions[p]] < best.orders[positions[next]]))) {
+                    next = p;
+                }
+            }
+            merged.appendCopy(parts[next], positions[next]++);
+        }
+        return merged;
+    }
+
+    /**
+     * Removes every event, keeping the space they used.
+     */
+    public void clear()
+    {
+        size = 0;
+        for (int i = 0; i < extraCount; i++) {
+            extras[i] = null;
+        }
+        extraCount = 0;
+        lastTick = 0;
+        endTick = 0;
+        sorted = true;
+    }
+
+    /**
+     * Adds this buffer's events to a <code>javax.sound.midi.Track</code>, creating
+     * a <code>MidiEvent</code> for each of them.
+     * @param track the track to add the events to
+     */
+    public void addTo(Track track)
+    {
+        sort();
+        for (int i = 0; i < size; i++) {
+            track.add(new MidiEvent(createMessage(i), ticks[i]));
+        }
+        MidiEvent endOfTrack = track.get(track.size() - 1);
+        if (endOfTrack.getTick() < getEndTick()) {
+            endOfTrack.setTick(getEndTick());
+        }
+    }
+
+    /**
+     * Creates a <code>Sequence</code> with one track for each of the given buffers.
+     * @param tracks the buffers holding the events of each track
+     * @param divisionType the timing of the sequence, such as <code>Sequence.PPQ</code>
+     * @param resolution the timing resolution
+     * @return the new sequence
+     */
+    public static Sequence createSequence(MidiTrackBuffer[] tracks, float divisionType, int resolution)
+    {
+        try {
+            Sequence sequence = new Sequence(divisionType, resolution);
+            for (MidiTrackBuffer track : tracks) {
+                track.addTo(sequence.createTrack());
+            }
+            return sequence;
+        } catch (InvalidMidiDataException e) {
+            throw new JFugueException(e);
+        }
+    }
+
+    /**
+     * Adds a copy of an event from another buffer to the end of this one.
+     */
+    void appendCopy(MidiTrackBuffer from, int index)
+    {
+        int message = from.messages[index];
+        if (message < 0) {
+            message = -1 - addExtra(from.getExtra(index));
+        }
+        append(from.ticks[index], message);
+    }
+
+    private MidiMessage createMessage(int index)
+    {
+        try {
+            int message = messages[index];
+            if (message >= 0) {
+                ShortMessage shortMessage = new ShortMessage();
+                shortMessage.setMessage(message >> 16, (message >> 8) & 0xFF, message & 0xFF);
+                return shortMessage;
+            }
+            byte[] extra = getExtra(index);
+            if (isSysex(extra)) {
+                SysexMessage sysexMessage = new SysexMessage();
+                sysexMessage.setMessage(extra, extra.length);
+                return sysexMessage;
+            }
+            MetaMessage metaMessage = new MetaMessage();
+            metaMessage.setMessage(extra[0], copyOfRange(extra, 1), extra.length - 1);
+            return metaMessage;
+        } catch (InvalidMidiDataException e) {
+            // The messages were checked when they were added.  This exception won't happen.
+            throw new JFugueException(e);
+        }
+    }
+
+    private static byte[] copyOfRange(byte[] bytes, int from)
+    {
+        byte[] copy = new byte[bytes.length - from];
+        System.arraycopy(bytes, from, copy, 0, copy.length);
+        return copy;
+    }
+
+    public String toString()
+    {
+        return "MidiTrackBuffer[events=" + size + ", lastTick=" + lastTick + "]";
+    }
+}
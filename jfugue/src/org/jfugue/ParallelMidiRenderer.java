@@ -0,0 +1,272 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.midi.Sequence;
+
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.parsers.TokenCache;
+import org.jfugue.parsers.VoiceSplitter;
+
+/**
+ * Renders the voices of a pattern at the same time, each on a thread of its own,
+ * and puts the tracks together into one sequence or MIDI file.
+ *
+ * <p>
+ * Each voice of a pattern is rendered to a track of its own, with its own time for
+ * each layer, so the voices don't depend on each other once the music string has
+ * been split by voice (see {@link VoiceSplitter}).  Each voice is then parsed by its
+ * own parser and rendered by its own <code>MidiRenderer</code>.  The tracks, and so
+ * the sequence or MIDI file, are exactly those that a single <code>MidiRenderer</code>
+ * produces when the whole pattern is parsed on one thread.
+ * </p>
+ *
+ * <pre>
+ *  ParallelMidiRenderer renderer = new ParallelMidiRenderer(Sequence.PPQ, 120);
+ *  Sequence sequence = renderer.render(pattern);
+ * </pre>
+ *
+ * <p>
+ * A pattern whose voices can't be split without parsing it, or that has an error in
+ * it, is parsed and rendered on the calling thread, so that the same error is reported.
+ * A ParallelMidiRenderer keeps no state between calls, and may be used by several
+ * threads at once once it has been set up.
+ * </p>
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class ParallelMidiRenderer
+{
+    private static final int CHANNELS = 16;
+
+    private final float sequenceTiming;
+    private final int resolution;
+    private volatile MidiOptimizer optimizer;
+    private volatile TokenCache tokenCache;
+
+    /**
+     * Creates a renderer for sequences with the given timing and resolution.
+     * @see Sequence#Sequence(float, int)
+     */
+    public ParallelMidiRenderer(float sequenceTiming, int resolution)
+    {
+        this.sequenceTiming = sequenceTiming;
+        this.resolution = resolution;
+    }
+
+    /**
+     * Sets the optimizer that is run over the tracks once they have been put together,
+     * or <code>null</code> for none.  There is no optimizer unless one is set.
+     */
+    public void setOptimizer(MidiOptimizer optimizer)
+    {
+        this.optimizer = optimizer;
+    }
+
+    /** Returns the optimizer set with {@link #setOptimizer(MidiOptimizer)}, or <code>null</code> */
+    public MidiOptimizer getOptimizer()
+    {
+        return this.optimizer;
+    }
+
+    /**
+     * Sets a token cache for the parsers of the voices to share, or <code>null</code> for none.
+     * @see MusicStringParser#setTokenCache(TokenCache)
+     */
+    public void setTokenCache(TokenCache tokenCache)
+    {
+        this.tokenCache = tokenCache;
+    }
+
+    /** Returns the token cache set with {@link #setTokenCache(TokenCache)}, or <code>null</code> */
+    public TokenCache getTokenCache()
+    {
+        return this.tokenCache;
+    }
+
+    /**
+     * Renders the given pattern, using one thread for each voice, up to the number of
+     * available processors, and returns the sequence.
+     * @param pattern the pattern to render
+     * @return the rendered sequence
+     */
+    public Sequence render(PatternInterface pattern)
+    {
+        return MidiTrackBuffer.createSequence(renderTracks(pattern), this.sequenceTiming, this.resolution);
+    }
+
+    /**
+     * Renders the given pattern on the threads of the given executor, and returns the
+     * sequence.  The executor is not shut down.
+     * @param pattern the pattern to render
+     * @param executor the executor to render the voices on
+     * @return the rendered sequence
+     */
+    public Sequence render(PatternInterface pattern, ExecutorService executor)
+    {
+        return MidiTrackBuffer.createSequence(renderTracks(pattern, executor), this.sequenceTiming, this.resolution);
+    }
+
+    /**
+     * Renders the given pattern, as {@link #render(PatternInterface)} does, and writes
+     * it to the given stream as a type 1 Standard MIDI File.  The stream is not closed.
+     * @param pattern the pattern to render
+     * @param out the stream to write to
+     */
+    public void writeMidiFile(PatternInterface pattern, OutputStream out) throws IOException
+    {
+        new MidiFileWriter(this.sequenceTiming, this.resolution).write(renderTracks(pattern), out);
+    }
+
+    /**
+     * Renders the given pattern, using one thread for each voice, up to the number of
+     * available processors, and returns one track buffer for each channel.
+     * @param pattern the pattern to render
+     * @return the rendered tracks, ready for a {@link MidiFileWriter}
+     */
+    public MidiTrackBuffer[] renderTracks(PatternInterface pattern)
+    {
+        VoiceSplitter voices = VoiceSplitter.split(pattern);
+        if (voices == null) {
+            return renderSequentially(pattern);
+        }
+        int threads = Math.min(Runtime.getRuntime().availableProcessors(), voices.getVoiceCount());
+        if (threads <= 1) {
+            return renderVoices(pattern, voices, null);
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            return renderVoices(pattern, voices, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Renders the given pattern on the threads of the given executor, such as a
+     * <code>ForkJoinPool</code>, and returns one track buffer for each channel.
+     * The executor is not shut down.
+     * @param pattern the pattern to render
+     * @param executor the executor to render the voices on
+     * @return the rendered tracks, ready for a {@link MidiFileWriter}
+     * @throws JFugueException if the rendering is interrupted
+     */
+    public MidiTrackBuffer[] renderTracks(PatternInterface pattern, ExecutorService executor)
+    {
+        VoiceSplitter voices = VoiceSplitter.split(pattern);
+        if (voices == null) {
+            return renderSequentially(pattern);
+        }
+        return renderVoices(pattern, voices, executor);
+    }
+
+    /**
+     * Renders each voice, on the executor if there is one, and puts each voice's track
+     * in its channel.  If a voice fails to parse, the whole pattern is rendered again on
+     * this thread, which reports the error that parsing the whole pattern reports.
+     */
+    private MidiTrackBuffer[] renderVoices(PatternInterface pattern, final VoiceSplitter voices, ExecutorService executor)
+    {
+        List<Integer> used = new ArrayList<Integer>();
+        List<Callable<MidiTrackBuffer>> tasks = new ArrayList<Callable<MidiTrackBuffer>>();
+        for (int voice = 0; voice < CHANNELS; voice++) {
+            if (voices.isVoiceUsed(voice)) {
+                final int v = voice;
+                used.add(Integer.valueOf(voice));
+                tasks.add(new Callable<MidiTrackBuffer>() {
+                    public MidiTrackBuffer call()
+                    {
+                        return renderVoice(voices, v);
+                    }
+                });
+            }
+        }
+
+        MidiTrackBuffer[] tracks = new MidiTrackBuffer[CHANNELS];
+        try {
+            if (executor == null) {
+                for (int voice : used) {
+                    tracks[voice] = renderVoice(voices, voice);
+                }
+            } else {
+                List<Future<MidiTrackBuffer>> futures = executor.invokeAll(tasks);
+                for (int i = 0; i < futures.size(); i++) {
+                    tracks[used.get(i)] = futures.get(i).get();
+                }
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JFugueException(e);
+        } catch (ExecutionException e) {
+            return renderSequentially(pattern);
+        } catch (RuntimeException e) {
+            return renderSequentially(pattern);
+        }
+        for (int i = 0; i < CHANNELS; i++) {
+            if (tracks[i] == null) {
+                tracks[i] = new MidiTrackBuffer(0);
+            }
+        }
+        return optimize(tracks);
+    }
+
+    /** Parses and renders one voice with a parser and renderer of its own, and returns its track */
+    private MidiTrackBuffer renderVoice(VoiceSplitter voices, int voice)
+    {
+        MusicStringParser parser = new MusicStringParser();
+        parser.setTokenCache(this.tokenCache);
+        MidiRenderer renderer = new MidiRenderer(this.sequenceTiming, this.resolution);
+        parser.addBatchParserListener(renderer);
+        voices.parse(voice, parser);
+        return renderer.getTrackBuffers()[voice];
+    }
+
+    /** Parses and renders the whole pattern on this thread */
+    private MidiTrackBuffer[] renderSequentially(PatternInterface pattern)
+    {
+        MusicStringParser parser = new MusicStringParser();
+        parser.setTokenCache(this.tokenCache);
+        MidiRenderer renderer = new MidiRenderer(this.sequenceTiming, this.resolution);
+        parser.addBatchParserListener(renderer);
+        parser.parse(pattern);
+        return optimize(renderer.getTrackBuffers());
+    }
+
+    private MidiTrackBuffer[] optimize(MidiTrackBuffer[] tracks)
+    {
+        MidiOptimizer optimizer = this.optimizer;
+        return (optimizer == null) ? tracks : optimizer.optimize(tracks).getTracks();
+    }
+}
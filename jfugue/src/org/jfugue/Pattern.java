@@ -22,7 +22,12 @@
 
 package org.jfugue;
 
+import java.io.IOException;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamField;
 import java.util.Collections;
+import java.util.HashMap;
 import java.util.Iterator;
 import java.util.LinkedList;
 import java.util.List;
@@ -31,8 +36,10 @@ import java.util.Map;
 
 import org.jfugue.elements.AbstractPattern;
 import org.jfugue.elements.JFugueElement;
+import org.jfugue.elements.TokenIndex;
 import org.jfugue.extras.GetInstrumentsUsedTool;
 import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.util.Rope;
 import org.jfugue.visitors.ElementVisitor;
 import org.jfugue.visitors.ListenerToVisitorAdaptor;
 
@@ -42,6 +49,12 @@ import org.jfugue.visitors.ListenerToVisitorAdaptor;
  * of music in new and interesting ways.  Patterns may be added together, transformed,
  * or otherwise manipulated to expand the possibilities of creative music.
  * 
+ * The music string is kept as a {@link Rope}, so adding, inserting and repeating
+ * share the text of the patterns involved instead of copying it, and take time
+ * proportional to the logarithm of the pattern's length.  A repeated section is
+ * kept once along with its count, and the <code>MusicStringParser</code> parses it
+ * once, replaying its events for the other repetitions.
+ * 
  * TODO Some methods such as <code>repeat</code> may belong elsewhere?
  *
  * @author David Koelle
@@ -50,6 +63,7 @@ import org.jfugue.visitors.ListenerToVisitorAdaptor;
  * @version 4.0.3 - Now implements Serializable
  * @version 4.0.4 - properties and listenerList now use lazy initialization
  * @version 4.1 - Improved substring/replace methods to work on token index, instead of character index
+ * @version 4.1 - Music string is kept as a Rope
  */
 public class Pattern extends AbstractPattern implements JFugueElement, PatternInterface
 {
@@ -58,10 +72,39 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
 	 * 
 	 */
 	private static final long serialVersionUID = 4334276178935154938L;
-	protected StringBuilder musicString;
+	protected Rope musicString;
 	protected List<JFugueElement> elements = new LinkedList<JFugueElement>();
 	protected List<JFugueElement> iElements = Collections.unmodifiableList(elements);
 
+    /**
+     * The serial form keeps the music string as a StringBuilder, as it was before
+     * the music string became a Rope, so that saved patterns can still be read.
+     */
+    private static final ObjectStreamField[] serialPersistentFields = {
+        new ObjectStreamField("musicString", StringBuilder.class),
+        new ObjectStreamField("elements", List.class),
+        new ObjectStreamField("iElements", List.class)
+    };
+
+    private void writeObject(ObjectOutputStream out) throws IOException
+    {
+        ObjectOutputStream.PutField fields = out.putFields();
+        fields.put("musicString", new StringBuilder(this.musicString.toString()));
+        fields.put("elements", this.elements);
+        fields.put("iElements", this.iElements);
+        out.writeFields();
+    }
+
+    @SuppressWarnings("unchecked")
+    private void readObject(ObjectInputStream in) throws IOException, ClassNotFoundException
+    {
+        ObjectInputStream.GetField fields = in.readFields();
+        StringBuilder string = (StringBuilder)fields.get("musicString", null);
+        this.musicString = Rope.of((string == null) ? "" : string.toString());
+        this.elements = (List<JFugueElement>)fields.get("elements", null);
+        this.iElements = (List<JFugueElement>)fields.get("iElements", null);
+    }
+
     /**
      * Instantiates a new pattern
      */
@@ -80,8 +123,18 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
     	 * not quite sure why I need this.  -ska
     	 */
 //        setMusicString(musicString);
-    	this.musicString = new StringBuilder();
-        this.musicString.append(musicString);
+    	this.musicString = Rope.of(musicString);
+    }
+
+    /**
+     * Instantiates a new pattern that keeps the given rope as its music string.
+     * Repetitions in the rope are kept as they are, so the parser only needs to
+     * parse each repeated section once.
+     * @param musicString the music string
+     */
+    protected Pattern(Rope musicString)
+    {
+        this.musicString = musicString;
     }
     
     public Pattern(String... strings) {
@@ -119,25 +172,50 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
     	add(elements);
     }
 
+    /**
+     * Returns a new pattern in which each token of the given pattern that is a {key} is
+     * replaced by the music string of the pattern that the context holds for that key.
+     * Those music strings may hold {key}s of their own, which are replaced in turn, and
+     * keys may be nested, as in {chord{n}}.  A key that the context does not hold is left
+     * as it is, and so is a key inside a longer token.  The tokens of the new pattern are
+     * separated by single spaces, and followed by one.
+     * @throws JFugueException if a key leads back to itself
+     */
     public static PatternInterface createPattern(Map<String, Pattern> context, PatternInterface pattern)
     {
+    	CompiledTemplate.Resolver resolver = CompiledTemplate.resolverFor(context);
+    	Map<String, String> expansions = new HashMap<String, String>();
     	StringBuilder buddy = new StringBuilder();
     	
     	String[] tokens = pattern.getTokens();
     	for (String token : tokens) {
     		if ((token.charAt(0) == '{') && (token.charAt(token.length()-1) == '}')) {
-    			String key = token.substring(1, token.length()-1);
-    			Pattern p = context.get(key);
-    			buddy.append(p.getMusicString());
-    			buddy.append(" ");
+    			String expansion = expansions.get(token);
+    			if (expansion == null) {
+    				expansion = CompiledTemplate.compile(token, '{', '}').expand(resolver);
+    				expansions.put(token, expansion);
+    			}
+    			buddy.append(expansion);
     		} else { 
     			buddy.append(token);
-    			buddy.append(" ");
     		}
+    		buddy.append(" ");
     	}
     	
     	return new Pattern(buddy.toString());
     }
+
+    /**
+     * Returns a new pattern made by expanding the given template with the patterns in the context.
+     * Unlike {@link #createPattern(Map, PatternInterface)}, every slot of the template is expanded,
+     * wherever it is, and the template's own spacing is kept.  Compile the template once, with
+     * <code>CompiledTemplate.compile(musicString, '{', '}')</code>, to create many patterns from it.
+     * @throws JFugueException if a key leads back to itself
+     */
+    public static PatternInterface createPattern(Map<String, Pattern> context, CompiledTemplate template)
+    {
+    	return new Pattern(template.expand(CompiledTemplate.resolverFor(context)));
+    }
     
     public static PatternInterface createPattern(Map<String, Pattern> context, Pattern... patterns)
     {
@@ -155,17 +233,37 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
 	 */
     public void setMusicString(String musicString)
     {
-        this.musicString = new StringBuilder();
-        this.musicString.append(musicString);
+        this.musicString = Rope.of(musicString);
     }
 
     /**
      * Adds to the music string kept by this pattern.
      * @param appendString the music string to add
      */
-    private void appendMusicString(String appendString)
+    private void appendMusicString(CharSequence appendString)
     {
-        this.musicString.append(appendString);
+        this.musicString = this.musicString.concat(appendString);
+    }
+
+    /**
+     * Returns the music string of the given pattern as a rope, without copying it
+     * if the pattern is itself a <code>Pattern</code>.
+     */
+    private static Rope musicStringOf(PatternInterface pattern)
+    {
+        if (pattern instanceof Pattern) {
+            return ((Pattern)pattern).getMusicRope();
+        }
+        return Rope.of(pattern.getMusicCharSequence());
+    }
+
+    /**
+     * Returns the rope that holds this pattern's music string.  Subclasses that
+     * build their music string lazily bring it up to date first.
+     */
+    protected Rope getMusicRope()
+    {
+        return this.musicString;
     }
 
     /**
@@ -177,13 +275,20 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
         return this.musicString.toString();
     }
 
+    /* (non-Javadoc)
+	 * @see org.jfugue.PatternInterface#getMusicCharSequence()
+	 */
+    public CharSequence getMusicCharSequence()
+    {
+        return this.musicString;
+    }
+
     /* (non-Javadoc)
 	 * @see org.jfugue.PatternInterface#insert(java.lang.String)
 	 */
     public void insert(String musicString)
     {
-       this.musicString.insert(0, " ");
-       this.musicString.insert(0, musicString);
+       this.musicString = Rope.of(musicString).concat(" ").concat(this.musicString);
     }
 
     /* (non-Javadoc)
@@ -193,7 +298,7 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
     {
         fireFragmentAdded(pattern);
         appendMusicString(" ");
-        appendMusicString(pattern.getMusicString());
+        appendMusicString(musicStringOf(pattern));
     }
 
     /* (non-Javadoc)
@@ -212,9 +317,8 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
         for (int i=0; i < numTimes; i++)
         {
             fireFragmentAdded(pattern);
-            appendMusicString(" ");
-            appendMusicString(pattern.getMusicString());
         }
+        appendMusicString(Rope.of(" ").concat(musicStringOf(pattern)).repeat(numTimes));
     }
 
     /* (non-Javadoc)
@@ -318,7 +422,7 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
 	 */
     public void repeat(int times)
     {
-        repeat(null, getMusicString(), times, null);
+        repeat(null, this.musicString, times, null);
     }
 
     /* (non-Javadoc)
@@ -329,7 +433,7 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
         PatternInterface patternUpToBeingIndex = getSubPattern(0, beginIndex-1);
         PatternInterface repeatingPattern = getSubPattern(beginIndex);
         
-        repeat(patternUpToBeingIndex.toString(), repeatingPattern.toString(), times, null);
+        repeat(musicStringOf(patternUpToBeingIndex), musicStringOf(repeatingPattern), times, null);
     }
 
     /* (non-Javadoc)
@@ -341,36 +445,32 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
         PatternInterface repeatingPattern = getSubPattern(beginIndex, endIndex);
         PatternInterface patternAfterEndIndex = getSubPattern(endIndex + 1);
         
-        repeat(patternUpToBeingIndex.toString(), repeatingPattern.toString(), times, patternAfterEndIndex.toString());
+        repeat(musicStringOf(patternUpToBeingIndex), musicStringOf(repeatingPattern), times, musicStringOf(patternAfterEndIndex));
     }
 
-    private void repeat(String header, String repeater, int times, String trailer)
+    private void repeat(Rope header, Rope repeater, int times, Rope trailer)
     {
-        StringBuilder buddy = new StringBuilder();
+        Rope buddy = Rope.EMPTY;
 
         // Add the header, if it exists
         if (header != null)
         {
-            buddy.append(header);
+            buddy = buddy.concat(header);
         }
 
-        // Repeat and add the repeater
-        for (int i=0; i < times; i++)
+        // Repeat and add the repeater; the copies share the repeater's text
+        if (times > 0)
         {
-            buddy.append(repeater);
-            if (i < times-1) {
-                buddy.append(" ");
-            }
+            buddy = buddy.concat(repeater).concat(Rope.of(" ").concat(repeater).repeat(times-1));
         }
 
         // Add the trailer, if it exists
         if (trailer != null)
         {
-            buddy.append(trailer);
+            buddy = buddy.concat(trailer);
         }
 
-        // Create the new Pattern and return it
-        this.setMusicString(buddy.toString());
+        this.musicString = buddy;
     }
 
     /* (non-Javadoc)
@@ -378,8 +478,7 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
 	 */
     public PatternInterface getSubPattern(int beginIndex)
     {
-    	String[] tokens = getTokens();
-    	return getSubPattern(beginIndex, tokens.length);
+    	return getSubPattern(beginIndex, getTokenCount());
     }
 
     /* (non-Javadoc)
@@ -387,20 +486,56 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
 	 */
     public PatternInterface getSubPattern(int beginIndex, int endIndex)
     {
-    	String[] tokens = getTokens();
-    	if (endIndex >= tokens.length) {
+    	TokenIndex tokens = getTokenIndex();
+    	if (endIndex >= tokens.size()) {
     		throw new ArrayIndexOutOfBoundsException("endIndex is greater than the number of tokens in this Pattern");
     	}
     	
+        return new Pattern(joinTokens(tokens, beginIndex, endIndex));
+    }
+
+    /**
+     * Returns the tokens from <code>beginIndex</code> to <code>endIndex - 1</code>, separated
+     * by single spaces.  When the music string already separates them that way, the
+     * result is a view of this pattern's music string rather than a copy.
+     */
+    private static Rope joinTokens(TokenIndex tokens, int beginIndex, int endIndex)
+    {
+    	if (tokens.isSingleSpaced(beginIndex, endIndex)) {
+    		return Rope.of(tokens.getRange(beginIndex, endIndex));
+    	}
     	StringBuilder buddy = new StringBuilder();
     	for (int i = beginIndex; i < endIndex; i++) {
-    		buddy.append(tokens[i]);
+    		buddy.append(tokens.getToken(i));
     		if (i < endIndex-1) { 
     			buddy.append(" ");
     		}
     	}
-    	
-        return new Pattern(buddy.toString());
+    	return Rope.of(buddy);
+    }
+
+    /**
+     * Returns this pattern's tokens with those from <code>beginIndex</code> to <code>endIndex - 1</code>
+     * replaced by the given tokens, all separated by single spaces.
+     */
+    private Pattern replaceTokens(TokenIndex tokens, int beginIndex, int endIndex, String... newTokens)
+    {
+    	Rope buddy = joinTokens(tokens, 0, beginIndex);
+    	int count = beginIndex;
+    	for (String newToken : newTokens) {
+    		if (count > 0) {
+    			buddy = buddy.concat(" ");
+    		}
+    		buddy = buddy.concat(newToken);
+    		count++;
+    	}
+    	if (endIndex < tokens.size()) {
+    		if (count > 0) {
+    			buddy = buddy.concat(" ");
+    		}
+    		buddy = buddy.concat(joinTokens(tokens, endIndex, tokens.size()));
+    	}
+    	return new Pattern(buddy);
     }
 
     /* (non-Javadoc)
@@ -408,33 +543,19 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
 	 */
     public PatternInterface replace(int index, String newToken)
     {
-    	StringBuilder buddy = new StringBuilder();
-    	String[] tokens = getTokens();
-    	for (int i = 0; i < tokens.length; i++) {
-    		if (i == index) {
-    			buddy.append(newToken);
-    		} else {
-    			buddy.append(tokens[i]);
-    		}
-    		if (i < tokens.length - 1) {
-    			buddy.append(" ");
-    		}
+    	TokenIndex tokens = getTokenIndex();
+    	if ((index < 0) || (index >= tokens.size())) {
+    		return new Pattern(joinTokens(tokens, 0, tokens.size()));
     	}
-    	
-    	return new Pattern(buddy.toString());
+    	return replaceTokens(tokens, index, index + 1, newToken);
     }
 
     /* (non-Javadoc)
 	 * @see java.lang.Object#hashCode()
 	 */
 	public int hashCode() {
-		final int prime = 31;
-		int result = 1;
-		result = prime * result
-				+ ((musicString == null) ? 0 : musicString.toString().hashCode());
-		result = prime * result
-				+ ((properties == null) ? 0 : getPropertiesAsSentence().hashCode());
-		return result;
+		long fingerprint = fingerprint();
+		return (int)(fingerprint ^ (fingerprint >>> 32));
 	}
 
 	/* (non-Javadoc)
@@ -447,7 +568,12 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
 			return false;
 		if (!(obj instanceof Pattern))
 			return false;
-		return hashCode() == obj.hashCode();
+		Pattern other = (Pattern)obj;
+		// The fingerprints tell almost every pair of different patterns apart;
+		// the contents are compared only when they match
+		return (fingerprint() == other.fingerprint())
+				&& getMusicRope().contentEquals(other.getMusicRope())
+				&& getProperties().equals(other.getProperties());
 	}
 
 	/* (non-Javadoc)
@@ -455,26 +581,16 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
 	 */
     public PatternInterface replace(int startingIndex, String... newTokens)
     {
-    	String[] tokens = getTokens();
-    	if (startingIndex + newTokens.length > tokens.length) {
+    	TokenIndex tokens = getTokenIndex();
+    	if (startingIndex + newTokens.length > tokens.size()) {
     		throw new ArrayIndexOutOfBoundsException("startingIndex plus the number of newTokens is greater than the number of tokens in this Pattern");
     	}
     	
-    	StringBuilder buddy = new StringBuilder();
-    	int counter = 0;
-    	for (int i = 0; i < tokens.length; i++) {
-    		if ((i >= startingIndex) && (i < startingIndex + newTokens.length)) {
-    			buddy.append(newTokens[counter]);
-    			counter++;
-    		} else {
-    			buddy.append(tokens[i]);
-    		}
-    		if (i < tokens.length - 1) {
-    			buddy.append(" ");
-    		}
-    	}
-    	
-    	return new Pattern(buddy.toString());
+    	int beginIndex = Math.max(startingIndex, 0);
+    	int endIndex = Math.max(startingIndex + newTokens.length, beginIndex);
+    	String[] replacements = new String[endIndex - beginIndex];
+    	System.arraycopy(newTokens, 0, replacements, 0, replacements.length);
+    	return replaceTokens(tokens, beginIndex, endIndex, replacements);
     }
 
     /* (non-Javadoc)
@@ -482,14 +598,7 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
 	 */
     public boolean isValid()
     {
-        try {
-            MusicStringParser parser = new MusicStringParser();
-            parser.parse(this);
-        } catch (JFugueException e)
-        {
-            return false;
-        }
-        return true;
+        return MusicStringParser.isValid(this);
     }
 
     //
@@ -527,8 +636,11 @@ public class Pattern extends AbstractPattern implements JFugueElement, PatternIn
     //
 
     /** Tells all PatternListener interfaces that a fragment has been added. */
-    private void fireFragmentAdded(PatternInterface fragment)
+    protected void fireFragmentAdded(PatternInterface fragment)
     {
+        if (listenerList == null) {
+            return;
+        }
         Object[] listeners = getEventListenerList().getListenerList ();
         for (int i = listeners.length - 2; i >= 0; i -= 2) {
             if (listeners[i] == PatternListener.class) {
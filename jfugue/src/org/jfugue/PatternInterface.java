@@ -243,6 +243,14 @@ public interface PatternInterface extends JFugueElement {
 	 */
 	public abstract String[] getTokens();
 
+	/**
+	 * Returns a read-only view of the music string kept by this pattern, without
+	 * copying it.  Parsers use this to walk the tokens in place.  The view reflects
+	 * later changes to the pattern, so it should not be held onto.
+	 * @return the music string as a <code>CharSequence</code>
+	 */
+	public abstract CharSequence getMusicCharSequence();
+
 	/**
 	 * Indicates whether this pattern is composed of valid elements
 	 * that can be parsed by the MusicStringParser.
@@ -188,9 +188,14 @@ public class PatternTransformer extends PatternTool<PatternInterface> {
 		getResult().addElement(note);
 	}
 
+	/**
+	 * Starts the result as an {@link ElementPattern}, so that the elements added
+	 * by this transformer can be parsed, or transformed again, without rendering
+	 * and parsing their music strings.
+	 */
 	@Override
 	protected PatternInterface initResult(PatternInterface pattern) {
-		PatternInterface nPattern = new Pattern();
+		PatternInterface nPattern = new ElementPattern();
 		for (Map.Entry<String, String> entries: pattern.getProperties().entrySet()) {
 			nPattern.setProperty(entries.getKey(), entries.getValue());
 		}
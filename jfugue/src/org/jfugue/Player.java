@@ -48,7 +48,23 @@ import org.jfugue.parsers.Parser;
  * Prepares a pattern to be turned into music by the Renderer.  This class
  * also handles saving the sequence derived from a pattern as a MIDI file.
  *
+ * <p>
+ * A Player doesn't obtain a sequencer from <code>MidiSystem</code> until it is
+ * first asked to play, so a Player that is only used for getSequence() or saveMidi()
+ * never opens a MIDI device.  To render music without a Player at all, use a
+ * {@link MidiExporter}.
+ * </p>
+ *
+ * <p>
+ * A Player renders every pattern with the same parser and renderer, so that
+ * listeners added to {@link #getParser()} hear every pattern.  Patterns rendered
+ * through one Player from several threads are therefore rendered one at a time.
+ * A <code>MidiExporter</code> renders each pattern with a parser and renderer of
+ * its own, and can render many patterns at once.
+ * </p>
+ *
  *@see MidiRenderer
+ *@see MidiExporter
  *@see Pattern
  *@author David Koelle
  *@version 2.0
@@ -56,9 +72,12 @@ import org.jfugue.parsers.Parser;
 public class Player
 {
     private Sequencer sequencer;
+    private boolean connected = true;
     private Synthesizer synth;
     private MusicStringParser parser;
     private MidiRenderer renderer;
+    /** Held while the parser and renderer are in use, so that renders don't run into each other */
+    private final Object renderLock = new Object();
     private float sequenceTiming = Sequence.PPQ;
     private int resolution = 128;
     private volatile boolean paused = false;
@@ -96,16 +115,11 @@ public class Player
      * Pass false when you do not want to copy a live synthesizer - for example,
      * if your Player is on a server, and you don't want to create new synthesizers every time
      * the constructor is called. 
+     * The sequencer isn't obtained until the Player first needs it.
      */
     public Player(boolean connected)
     {
-        try {
-            // Get default sequencer.
-            setSequencer(MidiSystem.getSequencer(connected)); // use non connected sequencer so no copy of live synthesizer will be created.
-        } catch (MidiUnavailableException e)
-        {
-            throw new JFugueException(JFugueException.SEQUENCER_DEVICE_NOT_SUPPORTED_WITH_EXCEPTION + e.getMessage());
-        }
+        this.connected = connected;
         initParser();
     }
 
@@ -228,6 +242,17 @@ public class Player
         play(sequence);
     }
 
+    /**
+     * Plays a pattern that has already been parsed into a {@link CompiledPattern}.
+     * @param compiledPattern the compiled pattern to play
+     * @see CompiledPattern
+     */
+    public void play(CompiledPattern compiledPattern)
+    {
+        Sequence sequence = getSequence(compiledPattern);
+        play(sequence);
+    }
+
     /**
      * Appends together and plays all of the patterns passed in.
      * @param patterns the patterns to play
@@ -437,6 +462,9 @@ public class Player
      */
     public void close()
     {
+        if (!hasSequencer()) {
+            return;  // Nothing has been played, so no MIDI resources were opened
+        }
         if(softClose == true) {
             //System.out.println("softClose");
             Sequencer seq = getSequencer();
@@ -484,7 +512,7 @@ public class Player
 
     public boolean isPlaying()
     {
-        return getSequencer().isRunning();
+        return hasSequencer() && getSequencer().isRunning();
     }
 
     public boolean isPaused()
@@ -509,8 +537,10 @@ public class Player
     public synchronized void stop()
     {
         paused = false;
-        getSequencer().stop();
-        getSequencer().setMicrosecondPosition(0);
+        if (hasSequencer()) {
+            getSequencer().stop();
+            getSequencer().setMicrosecondPosition(0);
+        }
     }
 
     public void jumpTo(long microseconds)
@@ -529,18 +559,18 @@ public class Player
     }
 
     /**
-     * Saves the MIDI data from a pattern into a file.
+     * Saves the MIDI data from a pattern into a file.  The file is written straight
+     * from the renderer's track buffers, without building a <code>Sequence</code>.
      * @param pattern the pattern to save
      * @param file the File to save the pattern to.  Should include file extension, such as .mid
      */
     public void saveMidi(PatternInterface pattern, File file) throws IOException
     {
-        Sequence sequence = getSequence(pattern);
-
-        int[] writers = MidiSystem.getMidiFileTypes(sequence);
-        if (writers.length == 0) return;
-
-        MidiSystem.write(sequence, writers[0], file);
+        synchronized (this.renderLock) {
+            this.renderer.reset();
+            this.parser.parse(pattern);
+            this.renderer.writeMidiFile(file);
+        }
     }
 
     /**
@@ -621,14 +651,32 @@ public class Player
     }
 
     /**
-     * Returns the sequencer containing the MIDI data from a pattern that has been parsed.
-     * @return the Sequencer from the pattern that was recently parsed
+     * Returns the sequencer that plays this Player's music.  Unless one was given to
+     * the constructor, it is obtained from <code>MidiSystem</code> the first time it
+     * is asked for.
+     * @return the Sequencer that plays this Player's music
+     * @throws JFugueException if the MIDI system can't provide a sequencer
      */
-    public Sequencer getSequencer()
+    public synchronized Sequencer getSequencer()
     {
+        if (this.sequencer == null) {
+            try {
+                // Use a non-connected sequencer if asked, so no copy of the live synthesizer will be created.
+                setSequencer(MidiSystem.getSequencer(this.connected));
+            } catch (MidiUnavailableException e)
+            {
+                throw new JFugueException(JFugueException.SEQUENCER_DEVICE_NOT_SUPPORTED_WITH_EXCEPTION + e.getMessage());
+            }
+        }
         return this.sequencer;
     }
 
+    /** Returns true if this Player has a sequencer, either given to it or obtained to play music */
+    private synchronized boolean hasSequencer()
+    {
+        return this.sequencer != null;
+    }
+
     private void setSequencer(Sequencer sequencer)
     {
         this.sequencer = sequencer;
@@ -641,10 +689,61 @@ public class Player
      */
     public Sequence getSequence(PatternInterface pattern)
     {
-        this.renderer.reset();
-        this.parser.parse(pattern);
-        Sequence sequence = this.renderer.getSequence();
-        return sequence;
+        synchronized (this.renderLock) {
+            this.renderer.reset();
+            this.parser.parse(pattern);
+            Sequence sequence = this.renderer.getSequence();
+            return sequence;
+        }
+    }
+
+    /**
+     * Returns the sequence containing the MIDI data from the given measures of a pattern,
+     * starting at time zero.  Only those measures are parsed: the pattern's
+     * {@link org.jfugue.parsers.MeasureIndex} supplies the tempo, key signature, instruments and other state
+     * in effect at the first measure.
+     * @param pattern the pattern to render
+     * @param firstMeasure the first measure to render, counting from 1
+     * @param lastMeasure the last measure to render
+     * @return the Sequence from the given measures
+     * @see MusicStringParser#parseMeasures(PatternInterface, int, int)
+     */
+    public Sequence getSequence(PatternInterface pattern, int firstMeasure, int lastMeasure)
+    {
+        synchronized (this.renderLock) {
+            this.renderer.reset();
+            this.parser.parseMeasures(pattern, firstMeasure, lastMeasure);
+            Sequence sequence = this.renderer.getSequence();
+            return sequence;
+        }
+    }
+
+    /**
+     * Plays the given measures of a pattern, without parsing the measures before them.
+     * @param pattern the pattern to play
+     * @param firstMeasure the first measure to play, counting from 1
+     * @param lastMeasure the last measure to play
+     * @see #getSequence(PatternInterface, int, int)
+     */
+    public void play(PatternInterface pattern, int firstMeasure, int lastMeasure)
+    {
+        play(getSequence(pattern, firstMeasure, lastMeasure));
+    }
+
+    /**
+     * Returns the sequence containing the MIDI data from the given compiled pattern.
+     * The compiled events are sent to the listeners of this Player's parser, 
+     * so the pattern is not parsed again.
+     * @return the Sequence from the given compiled pattern
+     */
+    public Sequence getSequence(CompiledPattern compiledPattern)
+    {
+        synchronized (this.renderLock) {
+            this.renderer.reset();
+            compiledPattern.replay(this.parser);
+            Sequence sequence = this.renderer.getSequence();
+            return sequence;
+        }
     }
 
     /**
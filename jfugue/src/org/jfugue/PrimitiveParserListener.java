@@ -0,0 +1,72 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue;
+
+/**
+ * A <code>ParserListener</code> that can also take notes as plain values, so that
+ * no <code>Note</code> object needs to be created for it.  When every listener on a
+ * parser is a PrimitiveParserListener, the parser calls the methods below for notes
+ * instead of the <code>Note</code> methods of <code>ParserListener</code>.  If any
+ * listener only takes <code>Note</code>s, every listener is given <code>Note</code>s.
+ *
+ * <p>
+ * The values match those of the <code>Note</code> that would otherwise have been
+ * passed.  The <code>flags</code> are a combination of <code>EventBlock.REST</code>,
+ * <code>EventBlock.START_OF_TIE</code>, <code>EventBlock.END_OF_TIE</code> and
+ * <code>EventBlock.ACCOMPANYING_NOTES</code>.
+ * </p>
+ *
+ * @see MidiRenderer
+ * @see EventBlock
+ * @author David Koelle
+ * @version 4.1
+ */
+public interface PrimitiveParserListener extends ParserListener
+{
+    /**
+     * Called when the parser encounters an initial note event.
+     * @param value the value of the note; 0 for a rest
+     * @param duration the duration of the note, in pulses
+     * @param decimalDuration the duration of the note, as a decimal fraction of a whole note
+     * @param attackVelocity the attack velocity of the note
+     * @param decayVelocity the decay velocity of the note
+     * @param flags the note's flags
+     * @see ParserListener#noteEvent(org.jfugue.elements.Note)
+     */
+    public void noteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags);
+
+    /**
+     * Called when the parser encounters a sequential note event.
+     * @see #noteEvent(int, long, double, byte, byte, int)
+     * @see ParserListener#sequentialNoteEvent(org.jfugue.elements.Note)
+     */
+    public void sequentialNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags);
+
+    /**
+     * Called when the parser encounters a parallel note event.
+     * @see #noteEvent(int, long, double, byte, byte, int)
+     * @see ParserListener#parallelNoteEvent(org.jfugue.elements.Note)
+     */
+    public void parallelNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags);
+}
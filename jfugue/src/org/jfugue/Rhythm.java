@@ -27,6 +27,7 @@ import java.util.HashMap;
 import java.util.Map;
 
 import org.jfugue.elements.Note;
+import org.jfugue.util.Rope;
 
 /**
  * Provides the ability to build a rhythm using a simple strings in which
@@ -155,33 +156,42 @@ public class Rhythm implements Serializable
     }
 
     public String generateMusicString()
+    {
+        return generateMusicRope().toString();
+    }
+
+    /**
+     * Builds the music string as a rope in which the percussion track and the
+     * offset rhythm are each kept once, with the number of times they repeat.
+     */
+    private Rope generateMusicRope()
     {
         StringBuffer buffy = new StringBuffer();
 
-        for (int u=0; u < 1 + voiceOffset; u++) {
-            // Start by adding the percussion track
-            buffy.append("V9 ");
-            for (int i=0; i < MAX_LAYERS; i++)
-            {
-                String rhythmString = getLayer(i);
-                if (rhythmString != null) {
-                    buffy.append("L");
-                    buffy.append(i);
-                    buffy.append(" ");
-                    for (int r=0; r < rhythmString.length(); r++)
-                    {
-                        char ch = rhythmString.charAt(r);
-                        String substitution = getSubstitution(ch);
-                        if (substitution != null) {
-                            buffy.append(substitution);
-                            buffy.append(" ");
-                        }
+        // Start by adding the percussion track
+        buffy.append("V9 ");
+        for (int i=0; i < MAX_LAYERS; i++)
+        {
+            String rhythmString = getLayer(i);
+            if (rhythmString != null) {
+                buffy.append("L");
+                buffy.append(i);
+                buffy.append(" ");
+                for (int r=0; r < rhythmString.length(); r++)
+                {
+                    char ch = rhythmString.charAt(r);
+                    String substitution = getSubstitution(ch);
+                    if (substitution != null) {
+                        buffy.append(substitution);
+                        buffy.append(" ");
                     }
                 }
             }
         }
+        Rope rope = Rope.of(buffy).repeat(1 + voiceOffset);
     
-        for (int i=0; i < voiceOffset; i++) {
+        if (voiceOffset > 0) {
+            buffy = new StringBuffer();
             for (int v=0; v < MAX_VOICES; v++) {
                 buffy.append("V");
                 buffy.append(v);
@@ -196,9 +206,11 @@ public class Rhythm implements Serializable
                     }
                 }
             }
+            rope = rope.concat(Rope.of(buffy).repeat(voiceOffset));
         }
         
         // Add the voices
+        buffy = new StringBuffer();
         for (int i=0; i < MAX_VOICES; i++)
         {
             boolean voiceCommandAdded = false;
@@ -231,7 +243,7 @@ public class Rhythm implements Serializable
             }
         }
 
-        return buffy.toString();
+        return rope.concat(buffy);
     }
 
     public String getMusicString()
@@ -241,7 +253,7 @@ public class Rhythm implements Serializable
     
     public PatternInterface getPattern()
     {
-        return new Pattern(generateMusicString());
+        return new Pattern(generateMusicRope());
     }
 
     public PatternInterface getPatternWithInterval(PatternInterface pattern)
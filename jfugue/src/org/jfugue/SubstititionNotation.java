@@ -30,6 +30,10 @@ import java.util.Map;
  * is complete with duration and other information (such as attack/decay). A set of substitutions
  * is passed in, which then render the MusicString.
  *
+ * The MusicString is compiled into a {@link CompiledTemplate} the first time it is used, so
+ * rendering it with many sets of substitutions only scans it once.  A marker with no
+ * substitution is left in the MusicString as it was.
+ *
  * TODO: This and IntervalNotation share similar capabilities. Determine if/how they should be combined.
  *
  * @author David Koelle
@@ -38,6 +42,7 @@ import java.util.Map;
 public class SubstititionNotation
 {
     private String musicStringWithSubstitutionMarkers;
+    private volatile CompiledTemplate template;
 
     public SubstititionNotation(String musicStringWithSubstitutionMarkers)
     {
@@ -47,6 +52,7 @@ public class SubstititionNotation
     public void setMusicStringWithSubstitutionMarkers(String musicStringWithSubstitutionMarkers)
     {
         this.musicStringWithSubstitutionMarkers = musicStringWithSubstitutionMarkers;
+        this.template = null;
     }
 
     public String getMusicStringWithSubstitutionMarkers()
@@ -56,40 +62,13 @@ public class SubstititionNotation
 
     public PatternInterface getPatternForSubstitutions(Map<String, String> substitutions)
     {
-        StringBuilder buddy = new StringBuilder();
-        String[] tokens = getMusicStringWithSubstitutionMarkers().split(" ");
-
-        // Go through the Pattern, and replace intervals specified within < and > with the root note plus the interval value, minus 1
-        for (int i=0; i < tokens.length; i++)
-        {
-            int lastAngleBracketPosition = -1;
-            boolean leftAngleBracketExists = (tokens[i].indexOf('<') != -1);
-
-            if (leftAngleBracketExists) {
-                while (leftAngleBracketExists)
-                {
-                    int start = tokens[i].indexOf('<', lastAngleBracketPosition);
-                    int end = tokens[i].indexOf('>', start);
-                    String markerKey = tokens[i].substring(start+1, end);
-                    String markerValue = substitutions.get(markerKey);
-                    buddy.append(markerValue);
-
-                    lastAngleBracketPosition = end;
-                    int nextLeftAngleBracketPosition = tokens[i].indexOf('<', lastAngleBracketPosition-1);
-                    if (nextLeftAngleBracketPosition == -1) {
-                        buddy.append(tokens[i].substring(end+1, tokens[i].length())); // Add the rest of the token
-                        leftAngleBracketExists = false;
-                    } else {
-                        buddy.append(tokens[i].substring(end+1, nextLeftAngleBracketPosition)); // Add the rest of the token up to the next angle
-                        leftAngleBracketExists = true;
-                    }
-                }
-            } else {
-                buddy.append(tokens[i]);
-            }
-            buddy.append(" ");
+        CompiledTemplate t = this.template;
+        if (t == null) {
+            t = CompiledTemplate.compile(getMusicStringWithSubstitutionMarkers().trim(), '<', '>');
+            this.template = t;
         }
 
-        return new Pattern(buddy.toString());
+        // Replace the markers specified within < and > with their substitutions
+        return new Pattern(t.fill(CompiledTemplate.resolverFor(substitutions)) + " ");
     }
 }
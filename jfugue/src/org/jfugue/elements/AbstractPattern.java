@@ -12,13 +12,10 @@ import java.io.OutputStream;
 import java.io.OutputStreamWriter;
 import java.io.Reader;
 import java.io.Writer;
-import java.util.ArrayList;
 import java.util.Collections;
 import java.util.EventListener;
 import java.util.HashMap;
-import java.util.List;
 import java.util.Map;
-import java.util.StringTokenizer;
 
 import javax.swing.event.EventListenerList;
 
@@ -26,6 +23,8 @@ import org.jfugue.Pattern;
 import org.jfugue.PatternInterface;
 import org.jfugue.PatternListener;
 import org.jfugue.extras.ReversePatternTransformer;
+import org.jfugue.parsers.MeasureIndex;
+import org.jfugue.util.Rope;
 
 @SuppressWarnings("serial")
 public abstract class AbstractPattern implements PatternInterface {
@@ -54,9 +53,9 @@ public abstract class AbstractPattern implements PatternInterface {
 	    Pattern pattern = new Pattern();
 	
 	    BufferedReader bread = new BufferedReader(reader);
-	    while (bread.ready()) {
-	        String s = bread.readLine();
-	        if ((s != null) && (s.length() > 1)) {
+	    String s;
+	    while ((s = bread.readLine()) != null) {
+	        if (s.length() > 1) {
 	            if (s.charAt(0) != '#') {
 	                buddy.append(" ");
 	                buddy.append(s);
@@ -174,15 +173,16 @@ public abstract class AbstractPattern implements PatternInterface {
 //	        out.write("\n");
 	    }
 	    String musicString = getMusicString();
-	    while (musicString.length() > 0) {
-	        if ((musicString.length() > 80) && (musicString.indexOf(' ', 80) > -1)) {
-	            int indexOf80ColumnSpace = musicString.indexOf(' ', 80);
-	            out.write(musicString.substring(0, indexOf80ColumnSpace));
+	    int start = 0;
+	    while (start < musicString.length()) {
+	        int indexOf80ColumnSpace = (musicString.length() - start > 80) ? musicString.indexOf(' ', start + 80) : -1;
+	        if (indexOf80ColumnSpace > -1) {
+	            out.write(musicString, start, indexOf80ColumnSpace - start);
 	            out.newLine();
-	            musicString = musicString.substring(indexOf80ColumnSpace, musicString.length());
+	            start = indexOf80ColumnSpace;
 	        } else {
-	            out.write(musicString);
-	            musicString = "";
+	            out.write(musicString, start, musicString.length() - start);
+	            start = musicString.length();
 	        }
 	    }
 	    out.close();
@@ -197,21 +197,94 @@ public abstract class AbstractPattern implements PatternInterface {
 	}
 
 	public String[] getTokens() {
-	    StringTokenizer strtok = new StringTokenizer(getMusicString()," \n\t");
-	
-	    List<String> list = new ArrayList<String>();
-	    while (strtok.hasMoreTokens()) {
-	        String token = strtok.nextToken();
-	        if (token != null) {
-	            list.add(token);
-	        }
+	    TokenIndex index = getTokenIndex();
+	    String[] retVal = new String[index.size()];
+	    for (int i = 0; i < retVal.length; i++) {
+	        retVal[i] = index.getToken(i).toString();
 	    }
-	
-	    String[] retVal = new String[list.size()];
-	    list.toArray(retVal);
 	    return retVal;
 	}
 
+	/** The index of the music string's tokens, kept until the music string changes */
+	private transient TokenIndex tokenIndex;
+
+	/**
+	 * Returns the index of the tokens in this pattern's music string.  The index
+	 * is built the first time it is needed and kept for as long as
+	 * {@link #getMusicCharSequence()} returns the same sequence, so a pattern
+	 * whose music string is replaced whenever it changes, like <code>Pattern</code>,
+	 * only breaks its music string into tokens once between changes.
+	 */
+	public TokenIndex getTokenIndex() {
+	    CharSequence source = getMusicCharSequence();
+	    TokenIndex index = tokenIndex;
+	    if ((index == null) || (index.getSource() != source)) {
+	        index = new TokenIndex(source);
+	        tokenIndex = index;
+	    }
+	    return index;
+	}
+
+	/** The index of the music string's measures, kept until the music string changes */
+	private transient MeasureIndex measureIndex;
+
+	/**
+	 * Returns the index of the measures in this pattern's music string, which lets
+	 * part of the pattern be parsed without parsing what comes before it.  Like
+	 * the token index, it is built when first needed and kept for as long as
+	 * {@link #getMusicCharSequence()} returns the same sequence.
+	 */
+	public MeasureIndex getMeasureIndex() {
+	    CharSequence source = getMusicCharSequence();
+	    MeasureIndex index = measureIndex;
+	    if ((index == null) || (index.getSource() != source)) {
+	        index = MeasureIndex.build(this);
+	        measureIndex = index;
+	    }
+	    return index;
+	}
+
+	/**
+	 * Returns the number of tokens in this pattern's music string.
+	 */
+	public int getTokenCount() {
+	    return getTokenIndex().size();
+	}
+
+	public CharSequence getMusicCharSequence() {
+	    return getMusicString();
+	}
+
+	/**
+	 * Returns a 64-bit fingerprint of this pattern's music string and properties.
+	 * Patterns with the same music string and properties have the same fingerprint,
+	 * however they were built.  The music string's part is kept up to date by the
+	 * {@link Rope} that holds it, so after the pattern has been fingerprinted once,
+	 * adding to it and fingerprinting it again only costs time for the new part.
+	 * The properties are fingerprinted each time, in time proportional to their size.
+	 *
+	 * <p>
+	 * Patterns with different contents are very unlikely to share a fingerprint, but
+	 * they can; <code>equals()</code> compares the contents when fingerprints match.
+	 * </p>
+	 */
+	public long fingerprint() {
+	    long result = Rope.fingerprint(getMusicCharSequence());
+	    long properties = 0;
+	    for (Map.Entry<String, String> entry : getProperties().entrySet()) {
+	        // Summed, so that the order of the properties doesn't matter
+	        properties += mix(Rope.fingerprint(entry.getKey()) * 31 + ((entry.getValue() == null) ? 0 : Rope.fingerprint(entry.getValue())));
+	    }
+	    return mix(result) ^ properties;
+	}
+
+	/** Spreads the bits of a fingerprint, so that similar fingerprints combine into different ones */
+	private static long mix(long h) {
+	    h = (h ^ (h >>> 33)) * 0xFF51AFD7ED558CCDL;
+	    h = (h ^ (h >>> 33)) * 0xC4CEB9FE1A85EC53L;
+	    return h ^ (h >>> 33);
+	}
+
 	public Class<ReversePatternTransformer> getReversePatternTransformerClass() {
 	    return ReversePatternTransformer.class;
 	}
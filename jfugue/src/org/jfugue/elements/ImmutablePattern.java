@@ -1,23 +1,51 @@
 package org.jfugue.elements;
 
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.Map;
 
 import org.jfugue.Pattern;
 import org.jfugue.PatternInterface;
+import org.jfugue.util.PersistentMap;
+import org.jfugue.util.Rope;
 
+/**
+ * A pattern that can't be changed.  The music string is kept as a {@link Rope} and the
+ * properties as a {@link PersistentMap}, both of which are immutable and share their
+ * pieces, so an ImmutablePattern may be shared between threads and cached without
+ * defensive copies.
+ *
+ * <p>
+ * Instead of changing the pattern, {@link #append(String)}, {@link #concat(PatternInterface)},
+ * {@link #withProperty(String, String)} and their relatives return a new ImmutablePattern
+ * that shares everything it can with this one, in O(log n) time and memory.  The methods
+ * inherited from <code>Pattern</code> that would change the pattern throw
+ * <code>UnsupportedOperationException</code>.
+ * </p>
+ *
+ * <pre>
+ *  ImmutablePattern theme = new ImmutablePattern("T120 V0 I[Flute] C5q D5q E5q");
+ *  ImmutablePattern withCoda = theme.append("G5h C6w").withTitle("Theme with coda");
+ * </pre>
+ *
+ * @version 4.1 - Persistent music string and properties
+ */
 public class ImmutablePattern extends Pattern {
 
 	private static final long serialVersionUID = 1L;
 
+	private final Rope rope;
+	private final PersistentMap<String, String> immutableProperties;
+
+	/** The music string as a String, made the first time it is asked for */
+	private transient volatile String string;
+
+	private ImmutablePattern(Rope rope, PersistentMap<String, String> properties) {
+		super(rope);
+		this.rope = rope;
+		this.immutableProperties = properties;
+	}
+
     public ImmutablePattern(String musicString, Map<String, String> properties) {
-    	this.musicString = new StringBuilder(musicString);
-    	if (properties == null) {
-    		this.properties = Collections.emptyMap();
-    	} else {
-    		this.properties = Collections.unmodifiableMap(new HashMap<String, String>(properties));
-    	}
+    	this(Rope.of(musicString), PersistentMap.of(properties));
     }
 	
     public ImmutablePattern(String musicString)
@@ -30,34 +58,146 @@ public class ImmutablePattern extends Pattern {
 	}
     
     public ImmutablePattern(String... strings) {
-		this();
+		this(join(strings), PersistentMap.<String, String>empty());
+	}
+    
+    public ImmutablePattern(JFugueElement... elements) {
+    	this(join(elements), PersistentMap.<String, String>empty());
+    }
+    
+    /**
+     * Makes an immutable pattern with the music string and properties of the given pattern.
+     * The pattern's music string is shared rather than copied.
+     */
+	public ImmutablePattern(Pattern pattern) {
+		this(Rope.of(pattern.getMusicCharSequence()), PersistentMap.of(pattern.getProperties()));
+	}
+
+	private static Rope join(String... strings) {
+		Rope rope = Rope.EMPTY;
 		boolean first = true;
 		for (String string : strings) {
 			if (first)
 				first = false;
 			else
-				musicString.append(' ');
-			musicString.append(string);
+				rope = rope.concat(" ");
+			rope = rope.concat(string);
 		}
+		return rope;
 	}
-    
-    public ImmutablePattern(JFugueElement... elements) {
-    	this();
-    	boolean first = true;
+
+	private static Rope join(JFugueElement... elements) {
+		Rope rope = Rope.EMPTY;
+		boolean first = true;
 		for (JFugueElement element : elements) {
 			String elemStr = element.getMusicString();
 			if (first)
 				first = false;
 			else if (elemStr.charAt(0) != '+' && elemStr.charAt(0) != '_')
-				musicString.append(' ');
-			musicString.append(elemStr);
+				rope = rope.concat(" ");
+			rope = rope.concat(elemStr);
 		}
-    }
-    
-	public ImmutablePattern(Pattern pattern) {
-		this(pattern.getMusicString(), pattern.getProperties());
+		return rope;
 	}
-	
+
+	/** Joins two music strings with a space, unless either is empty */
+	private static Rope append(Rope rope, CharSequence musicString) {
+		if (musicString.length() == 0) {
+			return rope;
+		}
+		if (rope.length() == 0) {
+			return Rope.of(musicString);
+		}
+		return rope.concat(" ").concat(musicString);
+	}
+
+	//
+	// Deriving new patterns
+	//
+
+	/**
+	 * Returns an ImmutablePattern with this pattern's music string followed by the given one,
+	 * and this pattern's properties.  This pattern is not changed.
+	 */
+	public ImmutablePattern append(String musicString) {
+		return new ImmutablePattern(append(rope, musicString), immutableProperties);
+	}
+
+	/**
+	 * Returns an ImmutablePattern with this pattern's music string followed by that of the
+	 * given pattern, and this pattern's properties.  If the given pattern keeps its music
+	 * string as a rope, the rope is shared rather than copied.  This pattern is not changed.
+	 */
+	public ImmutablePattern concat(PatternInterface pattern) {
+		return new ImmutablePattern(append(rope, Rope.of(pattern.getMusicCharSequence())), immutableProperties);
+	}
+
+	/**
+	 * Returns an ImmutablePattern with the given music string followed by this pattern's,
+	 * and this pattern's properties.  This pattern is not changed.
+	 */
+	public ImmutablePattern prepend(String musicString) {
+		return new ImmutablePattern(append(Rope.of(musicString), rope), immutableProperties);
+	}
+
+	/**
+	 * Returns an ImmutablePattern with this pattern's music string and properties,
+	 * with the given property set.  This pattern is not changed.
+	 */
+	public ImmutablePattern withProperty(String key, String value) {
+		return new ImmutablePattern(rope, immutableProperties.plus(key, value));
+	}
+
+	/**
+	 * Returns an ImmutablePattern with this pattern's music string and properties,
+	 * without the given property.  This pattern is not changed.
+	 */
+	public ImmutablePattern withoutProperty(String key) {
+		return new ImmutablePattern(rope, immutableProperties.minus(key));
+	}
+
+	/**
+	 * Returns an ImmutablePattern with this pattern's music string and properties,
+	 * and the given title.  This pattern is not changed.
+	 */
+	public ImmutablePattern withTitle(String title) {
+		return withProperty(TITLE, title);
+	}
+
+	//
+	// Reading
+	//
+
+	@Override
+	protected Rope getMusicRope() {
+		return rope;
+	}
+
+	@Override
+	public CharSequence getMusicCharSequence() {
+		return rope;
+	}
+
+	@Override
+	public String getMusicString() {
+		String s = string;
+		if (s == null) {
+			s = rope.toString();
+			string = s;
+		}
+		return s;
+	}
+
+	@Override
+	public String getProperty(String key) {
+		return immutableProperties.get(key);
+	}
+
+	@Override
+	public Map<String, String> getProperties() {
+		return immutableProperties;
+	}
+
 	public void setMusicString(String musicString)
     {
         throw new UnsupportedOperationException("This is an ImmutablePattern");
@@ -118,11 +258,6 @@ public class ImmutablePattern extends Pattern {
     	throw new UnsupportedOperationException("This is an ImmutablePattern");
     }
 
-    public Map<String, String> getProperties()
-    {
-        return Collections.unmodifiableMap(super.getProperties());
-    }
-
     public void offset(long offsetTime)
     {
     	throw new UnsupportedOperationException("This is an ImmutablePattern");
@@ -147,6 +147,42 @@ public final class KeySignature implements JFugueElement
     	visitor.visit(this);
     }
 
+    /**
+     * The number of halfsteps by which each note in the octave is raised or lowered
+     * by each key signature, indexed by [keySig + 7][semitone within the octave].
+     */
+    private static final byte[][] ADJUSTMENTS = new byte[15][12];
+
+    static {
+        // Flats are added to the key signature in the order B, E, A, D, G, C, F,
+        // and sharps in the order F, C, G, D, A, E, B
+        int[] flats = { 11, 4, 9, 2, 7, 0, 5 };
+        int[] sharps = { 5, 0, 7, 2, 9, 4, 11 };
+        for (int k = 1; k <= 7; k++) {
+            for (int i = 0; i < k; i++) {
+                ADJUSTMENTS[7 - k][flats[i]] = -1;
+                ADJUSTMENTS[7 + k][sharps[i]] = +1;
+            }
+        }
+    }
+
+    /**
+     * Returns the number of halfsteps by which the given key signature raises (+1)
+     * or lowers (-1) a note, or 0 if the note is not changed.  Key signatures beyond
+     * seven flats or seven sharps are treated as seven.
+     * @param keySig the key signature, from -7 to +7
+     * @param semitone the note within its octave, from 0 (C) to 11 (B)
+     * @return the adjustment, or 0 if <code>semitone</code> is outside 0 to 11
+     */
+    public static int getAdjustment(int keySig, int semitone)
+    {
+        if ((semitone < 0) || (semitone > 11)) {
+            return 0;
+        }
+        int row = (keySig < -7) ? 0 : (keySig > 7) ? 14 : keySig + 7;
+        return ADJUSTMENTS[row][semitone];
+    }
+
     private static final String[] majorSigs = new String[] { "Cb", "Gb", "Db", "Ab", "Eb", "Bb", "F", "C", "G", "D", "A", "E", "B", "F#", "C#" };
     private static final String[] minorSigs = new String[] { "Ab", "Eb", "Bb", "F", "C", "G", "D", "A", "E", "B", "F#", "C#", "G#", "D#", "A#" };
 
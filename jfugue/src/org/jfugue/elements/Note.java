@@ -160,6 +160,10 @@ public class Note extends AbstractNote {
 		setRest(note.isRest());
 		setStartOfTie(note.isStartOfTie());
 		setType(note.getType());
+		// Keep both durations exactly; setting one recalculates the other
+		this.msDuration = note.msDuration;
+		this.decimalDuration = note.decimalDuration;
+		this.isNatural = note.isNatural;
 //		if (getChord() != null)
 //			setChord(this.new Chord(note.getChord()));
 	}
@@ -204,24 +208,15 @@ public class Note extends AbstractNote {
         
         byte noteNumber = note.getSemitoneWithinOctave();
         byte octaveNumber = note.getOctave();
-    	Logger.getRootLogger().trace("Before adjustment: Octave = " + octaveNumber +  ",  note = " + noteNumber);
-        // TODO Is there a prettier way?
+        Logger logger = Logger.getRootLogger();
+        if (logger.isTraceEnabled())
+            logger.trace("Before adjustment: Octave = " + octaveNumber +  ",  note = " + noteNumber);
         // Adjust for Key Signature
-            if ((keySig <= -1) && (noteNumber == 11)) noteNumber = 10;
-            if ((keySig <= -2) && (noteNumber == 4)) noteNumber = 3;
-            if ((keySig <= -3) && (noteNumber == 9)) noteNumber = 8;
-            if ((keySig <= -4) && (noteNumber == 2)) noteNumber = 1;
-            if ((keySig <= -5) && (noteNumber == 7)) noteNumber = 6;
-            if ((keySig <= -6) && (noteNumber == 0)) { noteNumber = 11; octaveNumber--; }
-            if ((keySig <= -7) && (noteNumber == 5)) noteNumber = 4;
-            if ((keySig >= +1) && (noteNumber == 5)) noteNumber = 6;
-            if ((keySig >= +2) && (noteNumber == 0)) noteNumber = 1;
-            if ((keySig >= +3) && (noteNumber == 7)) noteNumber = 8;
-            if ((keySig >= +4) && (noteNumber == 2)) noteNumber = 3;
-            if ((keySig >= +5) && (noteNumber == 9)) noteNumber = 10;
-            if ((keySig >= +6) && (noteNumber == 4)) noteNumber = 5;
-            if ((keySig >= +7) && (noteNumber == 11)) { noteNumber = 0; octaveNumber++; }
-	    Logger.getRootLogger().trace("Adjustment made: New Octave = " + octaveNumber +  ",  New Note = " + noteNumber);
+        noteNumber += KeySignature.getAdjustment(keySig, noteNumber);
+        if (noteNumber < 0) { noteNumber = 11; octaveNumber--; }
+        if (noteNumber > 11) { noteNumber = 0; octaveNumber++; }
+        if (logger.isTraceEnabled())
+            logger.trace("Adjustment made: New Octave = " + octaveNumber +  ",  New Note = " + noteNumber);
         int intNoteNumber = (octaveNumber * 12) + noteNumber;
         if ( intNoteNumber > 127) {
         	// TODO Something else - maybe we need a NoteError class
@@ -0,0 +1,165 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue.elements;
+
+/**
+ * Records where each token of a music string begins and ends, so that a
+ * pattern can find its <i>n</i>th token, or a run of tokens, without
+ * breaking the whole music string into tokens again.  Tokens are separated
+ * by spaces, newlines and tabs, as in {@link org.jfugue.PatternInterface#getTokens()}.
+ *
+ * <p>
+ * An index is built in one pass over the music string and describes that
+ * sequence only.  {@link AbstractPattern#getTokenIndex()} keeps the index
+ * of a pattern's current music string, and builds a new one when the music
+ * string is replaced.  The tokens and ranges it returns are views of the
+ * music string, taken with <code>subSequence()</code>.
+ * </p>
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class TokenIndex
+{
+    private final CharSequence source;
+    private final int[] bounds;
+    private final int size;
+    private final boolean singleSpaced;
+
+    /**
+     * Builds the index of the given music string.
+     * @param source the music string to index
+     */
+    public TokenIndex(CharSequence source)
+    {
+        this.source = source;
+        int[] bounds = new int[32];
+        int size = 0;
+        boolean singleSpaced = true;
+        int length = source.length();
+        int i = 0;
+        while (i < length) {
+            int gapStart = i;
+            while ((i < length) && isDelimiter(source.charAt(i))) {
+                i++;
+            }
+            if (i == length) {
+                break;
+            }
+            if ((size > 0) && ((i - gapStart != 1) || (source.charAt(gapStart) != ' '))) {
+                singleSpaced = false;
+            }
+            if (2 * size + 2 > bounds.length) {
+                int[] larger = new int[bounds.length * 2];
+                System.arraycopy(bounds, 0, larger, 0, 2 * size);
+                bounds = larger;
+            }
+            bounds[2 * size] = i;
+            while ((i < length) && !isDelimiter(source.charAt(i))) {
+                i++;
+            }
+            bounds[2 * size + 1] = i;
+            size++;
+        }
+        this.bounds = bounds;
+        this.size = size;
+        this.singleSpaced = singleSpaced;
+    }
+
+    private static boolean isDelimiter(char ch)
+    {
+        return (ch == ' ') || (ch == '\n') || (ch == '\t');
+    }
+
+    /** Returns the music string this index describes */
+    public CharSequence getSource()
+    {
+        return source;
+    }
+
+    /** Returns the number of tokens in the music string */
+    public int size()
+    {
+        return size;
+    }
+
+    /** Returns the offset of the first character of the given token */
+    public int getStart(int index)
+    {
+        checkIndex(index);
+        return bounds[2 * index];
+    }
+
+    /** Returns the offset just past the last character of the given token */
+    public int getEnd(int index)
+    {
+        checkIndex(index);
+        return bounds[2 * index + 1];
+    }
+
+    /** Returns the given token, as a view of the music string */
+    public CharSequence getToken(int index)
+    {
+        return source.subSequence(getStart(index), getEnd(index));
+    }
+
+    /**
+     * Returns the music string from the start of token <code>beginIndex</code> to the
+     * end of token <code>endIndex - 1</code>, with the whitespace between them as it is
+     * in the music string, as a view of the music string.
+     */
+    public CharSequence getRange(int beginIndex, int endIndex)
+    {
+        if (beginIndex >= endIndex) {
+            return "";
+        }
+        return source.subSequence(getStart(beginIndex), getEnd(endIndex - 1));
+    }
+
+    /**
+     * Returns true if the tokens from <code>beginIndex</code> to <code>endIndex - 1</code>
+     * are each separated by exactly one space, so that {@link #getRange(int, int)} reads
+     * the same as the tokens joined with spaces.
+     */
+    public boolean isSingleSpaced(int beginIndex, int endIndex)
+    {
+        if (singleSpaced) {
+            return true;
+        }
+        for (int i = beginIndex + 1; i < endIndex; i++) {
+            int gapStart = bounds[2 * i - 1];
+            if ((bounds[2 * i] - gapStart != 1) || (source.charAt(gapStart) != ' ')) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    private void checkIndex(int index)
+    {
+        if ((index < 0) || (index >= size)) {
+            throw new ArrayIndexOutOfBoundsException(index);
+        }
+    }
+}
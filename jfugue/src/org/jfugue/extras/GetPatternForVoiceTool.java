@@ -23,7 +23,7 @@
 package org.jfugue.extras;
 
 import org.jfugue.ParserListenerAdapter;
-import org.jfugue.Pattern;
+import org.jfugue.ElementPattern;
 import org.jfugue.PatternInterface;
 import org.jfugue.elements.ChannelPressure;
 import org.jfugue.elements.Controller;
@@ -60,7 +60,7 @@ public class GetPatternForVoiceTool extends ParserListenerAdapter
     
     public void reset()
     {
-        pattern = new Pattern();
+        pattern = new ElementPattern();
         activeVoice = 0;
     }
     
@@ -2,14 +2,13 @@ package org.jfugue.factories;
 
 import java.io.IOException;
 import java.util.Arrays;
-import java.util.Collections;
-import java.util.HashMap;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Map;
 import java.util.regex.Matcher;
 import java.util.regex.Pattern;
 
+import org.jfugue.ChordTable;
 import org.jfugue.JFugueException;
 import org.jfugue.Messages;
 import org.jfugue.elements.AbstractNote.NoteTypes;
@@ -64,53 +63,16 @@ public final class NoteFactory extends JFugueElementFactory<Note> {
 
 	public static final Pattern NOTE_PAT;
 
-	private static Map<String, byte[]> chordMap = new HashMap<String, byte[]>();
-
+	/**
+	 * Adds a chord type to the {@link ChordTable}. Chord types added after
+	 * this class has been loaded are not part of {@link #CHORDS_MAP}.
+	 */
 	protected static void addChord(String name, int... is) {
-		byte[] bs = new byte[is.length];
-		for (int i = 0; i < bs.length; i++) {
-			bs[i] = (byte) is[i];
-		}
-		chordMap.put(name.toUpperCase(), bs);
+		ChordTable.register(name, is);
 	}
 
 	static {
-		// Build the chord map
-		addChord("MAJ", 4, 7); //$NON-NLS-1$
-		addChord("MIN", 3, 7); //$NON-NLS-1$
-		addChord("AUG", 4, 8); //$NON-NLS-1$
-		addChord("DIM", 3, 6); //$NON-NLS-1$
-
-		addChord("DOM7", 4, 7, 10); //$NON-NLS-1$
-		addChord("MAJ7", 4, 7, 11); //$NON-NLS-1$
-		addChord("MIN7", 3, 7, 10); //$NON-NLS-1$
-		addChord("SUS4", 5, 7); //$NON-NLS-1$
-		addChord("SUS2", 2, 7); //$NON-NLS-1$
-		addChord("MAJ6", 4, 7, 9); //$NON-NLS-1$
-		addChord("MIN6", 3, 7, 9); //$NON-NLS-1$
-		addChord("DOM9", 4, 7, 10, 14); //$NON-NLS-1$
-		addChord("MAJ9", 4, 7, 11, 14); //$NON-NLS-1$
-		addChord("MIN9", 3, 7, 10, 14); //$NON-NLS-1$
-		addChord("DIM7", 3, 6, 9); //$NON-NLS-1$
-		addChord("ADD9", 4, 7, 14); //$NON-NLS-1$
-		addChord("DAVE", 7, 14, 21); //$NON-NLS-1$
-
-		addChord("MIN11", 7, 10, 14, 15, 17); //$NON-NLS-1$
-		addChord("DOM11", 7, 10, 14, 17); //$NON-NLS-1$
-		addChord("DOM13", 7, 10, 14, 16, 21); //$NON-NLS-1$
-		addChord("MIN13", 7, 10, 14, 15, 21); //$NON-NLS-1$
-		addChord("MAJ13", 7, 11, 14, 16, 21); //$NON-NLS-1$
-		addChord("DOM7<5", 4, 6, 10); //$NON-NLS-1$
-		addChord("DOM7>5", 4, 8, 10); //$NON-NLS-1$
-		addChord("MAJ7<5", 4, 6, 11); //$NON-NLS-1$
-		addChord("MAJ7>5", 4, 8, 11); //$NON-NLS-1$
-		addChord("MINMAJ7", 3, 7, 11); //$NON-NLS-1$
-		addChord("DOM7<5<9", 4, 6, 10, 13); //$NON-NLS-1$
-		addChord("DOM7<5>9", 4, 6, 10, 15); //$NON-NLS-1$
-		addChord("DOM7>5<9", 4, 8, 10, 13); //$NON-NLS-1$
-		addChord("DOM7>5>9", 4, 8, 10, 15); //$NON-NLS-1$
-
-		CHORDS_MAP = Collections.unmodifiableMap(chordMap);
+		CHORDS_MAP = ChordTable.getBuiltInChords();
 
 		StringBuilder sb = new StringBuilder();
 		sb.append("(?:("); //$NON-NLS-1$
@@ -0,0 +1,64 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package org.jfugue.parsers;
+
+import org.jfugue.elements.JFugueElement;
+import org.jfugue.elements.Note;
+
+/**
+ * The <code>ParseTracer</code> that every parser starts with.  It ignores
+ * everything, and tells parsers not to bother building detail messages.
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class DummyParseTracer implements ParseTracer
+{
+    /** The one instance that all parsers share */
+    public static final DummyParseTracer INSTANCE = new DummyParseTracer();
+
+    private DummyParseTracer()
+    {
+    }
+
+    public void tokenStarted(String token)
+    {
+    }
+
+    public void elementDecoded(JFugueElement element)
+    {
+    }
+
+    public void noteFired(Note note)
+    {
+    }
+
+    public boolean isDetailEnabled()
+    {
+        return false;
+    }
+
+    public void detail(String message)
+    {
+    }
+}
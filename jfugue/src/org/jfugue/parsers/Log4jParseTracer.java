@@ -0,0 +1,86 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package org.jfugue.parsers;
+
+import org.apache.log4j.Logger;
+import org.jfugue.elements.JFugueElement;
+import org.jfugue.elements.Note;
+
+/**
+ * A <code>ParseTracer</code> that writes everything a parser does to a
+ * log4j <code>Logger</code> at the TRACE level.  This is the output that
+ * parsers used to produce on their own.
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public class Log4jParseTracer implements ParseTracer
+{
+    private final Logger logger;
+
+    /** Creates a tracer that writes to the root logger */
+    public Log4jParseTracer()
+    {
+        this(Logger.getRootLogger());
+    }
+
+    /**
+     * Creates a tracer that writes to the given logger.
+     * @param logger the logger to write to
+     */
+    public Log4jParseTracer(Logger logger)
+    {
+        this.logger = logger;
+    }
+
+    public void tokenStarted(String token)
+    {
+        if (logger.isTraceEnabled()) {
+            logger.trace("--------Processing Token: " + token);
+        }
+    }
+
+    public void elementDecoded(JFugueElement element)
+    {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Element decoded: " + element.getVerifyString());
+        }
+    }
+
+    public void noteFired(Note note)
+    {
+        if (logger.isTraceEnabled()) {
+            logger.trace("Note fired: " + note.getVerifyString());
+        }
+    }
+
+    public boolean isDetailEnabled()
+    {
+        return logger.isTraceEnabled();
+    }
+
+    public void detail(String message)
+    {
+        logger.trace(message);
+    }
+}
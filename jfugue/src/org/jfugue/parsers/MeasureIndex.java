@@ -0,0 +1,499 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue.parsers;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import org.jfugue.ParserListenerAdapter;
+import org.jfugue.PatternInterface;
+import org.jfugue.PrimitiveParserListener;
+import org.jfugue.elements.AbstractPattern;
+import org.jfugue.elements.Instrument;
+import org.jfugue.elements.KeySignature;
+import org.jfugue.elements.Layer;
+import org.jfugue.elements.Measure;
+import org.jfugue.elements.Note;
+import org.jfugue.elements.Tempo;
+import org.jfugue.elements.Time;
+import org.jfugue.elements.Voice;
+
+/**
+ * Finds where each measure of a music string begins, and what the parser's
+ * state is at that point, so that part of a long pattern can be parsed or
+ * rendered without parsing everything before it.
+ *
+ * <p>
+ * The index is built in one pass of a <code>MusicStringParser</code> over the
+ * pattern.  Measure 1 begins at the start of the music string; each measure bar
+ * ( | ) begins the next one.  For each measure, the index keeps a {@link Checkpoint}
+ * with the offset of the measure in the music string, the current voice, each voice's
+ * layer and instrument, the tempo, the key signature, and the time that each voice
+ * and layer has reached, in the same pulses that the <code>MidiRenderer</code> uses.
+ * The index also remembers where dictionary words are defined, so that the words
+ * are known when parsing starts partway through.
+ * </p>
+ *
+ * <pre>
+ *  MeasureIndex index = MeasureIndex.of(pattern);
+ *  parser.parseMeasures(pattern, 300, 310);
+ *  parser.parse(pattern, index.getCheckpointAtTime(0, 96000), null);
+ * </pre>
+ *
+ * <p>
+ * {@link AbstractPattern#getMeasureIndex()} keeps a pattern's index until the
+ * pattern's music string changes.
+ * </p>
+ *
+ * @see MusicStringParser#parse(PatternInterface, Checkpoint, Checkpoint)
+ * @see MusicStringParser#parseMeasures(PatternInterface, int, int)
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class MeasureIndex
+{
+    private static final int VOICES = 16;
+    private static final int LAYERS = 16;
+
+    private final CharSequence source;
+    private final Checkpoint[] checkpoints;
+    private final int[] definitionOffsets;
+
+    private MeasureIndex(CharSequence source, Checkpoint[] checkpoints, int[] definitionOffsets)
+    {
+        this.source = source;
+        this.checkpoints = checkpoints;
+        this.definitionOffsets = definitionOffsets;
+    }
+
+    /**
+     * Returns the index of the given pattern, using the one the pattern keeps if it is
+     * an <code>AbstractPattern</code>, and building a new one otherwise.
+     */
+    public static MeasureIndex of(PatternInterface pattern)
+    {
+        if (pattern instanceof AbstractPattern) {
+            return ((AbstractPattern)pattern).getMeasureIndex();
+        }
+        return build(pattern);
+    }
+
+    /**
+     * Parses the given pattern once, and builds its index.
+     * @param pattern the pattern to index
+     * @return the index of the pattern's music string
+     */
+    public static MeasureIndex build(PatternInterface pattern)
+    {
+        CharSequence source = pattern.getMusicCharSequence();
+        MusicStringParser parser = new MusicStringParser();
+        Tracker tracker = new Tracker();
+        parser.addParserListener(tracker);
+
+        List<Checkpoint> checkpoints = new ArrayList<Checkpoint>();
+        int[] definitionOffsets = new int[0];
+        int definitionCount = 0;
+
+        TokenCursor tokens = new TokenCursor(source);
+        boolean more = tokens.next();
+        if (more) {
+            parser.fireDefaultTempo(tokens);
+        }
+        checkpoints.add(tracker.checkpoint(1, 0, parser.getKeySigState()));
+        while (more) {
+            if (tokens.charAt(0) == '$') {
+                if (definitionCount == definitionOffsets.length) {
+                    int[] larger = new int[definitionCount * 2 + 4];
+                    System.arraycopy(definitionOffsets, 0, larger, 0, definitionCount);
+                    definitionOffsets = larger;
+                }
+                definitionOffsets[definitionCount++] = tokens.offset();
+            }
+            parser.parseToken(tokens);
+            if (tracker.measureSeen) {
+                tracker.measureSeen = false;
+                checkpoints.add(tracker.checkpoint(checkpoints.size() + 1, tokens.offset() + tokens.length(), parser.getKeySigState()));
+            }
+            more = tokens.next();
+        }
+
+        int[] definitions = new int[definitionCount];
+        System.arraycopy(definitionOffsets, 0, definitions, 0, definitionCount);
+        return new MeasureIndex(source, checkpoints.toArray(new Checkpoint[checkpoints.size()]), definitions);
+    }
+
+    /** Returns the music string this index describes */
+    public CharSequence getSource()
+    {
+        return source;
+    }
+
+    /** Returns the number of measures in the music string, which is one more than the number of measure bars */
+    public int getMeasureCount()
+    {
+        return checkpoints.length;
+    }
+
+    /**
+     * Returns the checkpoint at the start of the given measure.
+     * @param measure the measure number, starting from 1
+     * @throws IllegalArgumentException if there is no such measure
+     */
+    public Checkpoint getCheckpoint(int measure)
+    {
+        if ((measure < 1) || (measure > checkpoints.length)) {
+            throw new IllegalArgumentException("There is no measure " + measure + "; the pattern has " + checkpoints.length + " measures");
+        }
+        return checkpoints[measure - 1];
+    }
+
+    /**
+     * Returns the checkpoint of the last measure that begins at or before the given time in the
+     * given voice.  The search assumes that the voice's time doesn't go backwards from one
+     * measure to the next, which is true unless the music string uses time ( @ ) tokens to
+     * move it back.
+     * @param voice the voice, from 0 to 15
+     * @param time the time, in pulses
+     */
+    public Checkpoint getCheckpointAtTime(int voice, long time)
+    {
+        int low = 0;
+        int high = checkpoints.length - 1;
+        while (low < high) {
+            int middle = (low + high + 1) >>> 1;
+            if (checkpoints[middle].getTime(voice) <= time) {
+                low = middle;
+            } else {
+                high = middle - 1;
+            }
+        }
+        return checkpoints[low];
+    }
+
+    /**
+     * Returns the offsets of the dictionary definitions ( $ ) that appear before
+     * the given offset in the music string.
+     */
+    int[] getDefinitionOffsetsBefore(int offset)
+    {
+        int count = 0;
+        while ((count < definitionOffsets.length) && (definitionOffsets[count] < offset)) {
+            count++;
+        }
+        int[] offsets = new int[count];
+        System.arraycopy(definitionOffsets, 0, offsets, 0, count);
+        return offsets;
+    }
+
+    /**
+     * The parser's state at the start of a measure.
+     */
+    public static final class Checkpoint
+    {
+        private final int measure;
+        private final int offset;
+        private final byte voice;
+        private final byte[] layers;
+        private final int[] instruments;
+        private final int tempo;
+        private final KeySignature keySignature;
+        private final byte keySigState;
+        private final short[] timeSlots;
+        private final long[] times;
+
+        private Checkpoint(int measure, int offset, byte voice, byte[] layers, int[] instruments, int tempo,
+                KeySignature keySignature, byte keySigState, short[] timeSlots, long[] times)
+        {
+            this.measure = measure;
+            this.offset = offset;
+            this.voice = voice;
+            this.layers = layers;
+            this.instruments = instruments;
+            this.tempo = tempo;
+            this.keySignature = keySignature;
+            this.keySigState = keySigState;
+            this.timeSlots = timeSlots;
+            this.times = times;
+        }
+
+        /** Returns the number of the measure that begins at this checkpoint, starting from 1 */
+        public int getMeasure()
+        {
+            return measure;
+        }
+
+        /** Returns the offset in the music string at which the measure begins */
+        public int getOffset()
+        {
+            return offset;
+        }
+
+        /** Returns the voice that is current at the start of the measure */
+        public byte getVoice()
+        {
+            return voice;
+        }
+
+        /** Returns the layer that is current in the given voice */
+        public byte getLayer(int voice)
+        {
+            return layers[voice];
+        }
+
+        /** Returns the instrument last chosen in the given voice, or -1 if none has been */
+        public int getInstrument(int voice)
+        {
+            return instruments[voice];
+        }
+
+        /** Returns the tempo in beats per minute, or 0 if no tempo has been set */
+        public int getTempo()
+        {
+            return tempo;
+        }
+
+        /** Returns the key signature in effect, or <code>null</code> if none has been set */
+        public KeySignature getKeySignature()
+        {
+            return keySignature;
+        }
+
+        byte getKeySigState()
+        {
+            return keySigState;
+        }
+
+        /** Returns the time reached by the current layer of the current voice, in pulses */
+        public long getTime()
+        {
+            return getTime(voice, layers[voice]);
+        }
+
+        /** Returns the time reached by the given layer of the given voice, in pulses */
+        public long getTime(int voice, int layer)
+        {
+            int slot = voice * LAYERS + layer;
+            for (int i = 0; i < timeSlots.length; i++) {
+                if (timeSlots[i] == slot) {
+                    return times[i];
+                }
+            }
+            return 0;
+        }
+
+        /** Returns the latest time reached by any layer of the given voice, in pulses */
+        public long getTime(int voice)
+        {
+            long latest = 0;
+            for (int i = 0; i < timeSlots.length; i++) {
+                if (timeSlots[i] / LAYERS == voice) {
+                    latest = Math.max(latest, times[i]);
+                }
+            }
+            return latest;
+        }
+
+        /** Returns true if anything has been played or chosen in the given voice */
+        boolean isVoiceUsed(int voice)
+        {
+            if ((instruments[voice] >= 0) || (layers[voice] != 0)) {
+                return true;
+            }
+            for (int i = 0; i < timeSlots.length; i++) {
+                if (timeSlots[i] / LAYERS == voice) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        /** Returns the layers of the given voice that have a time */
+        byte[] getTimedLayers(int voice)
+        {
+            int count = 0;
+            for (int i = 0; i < timeSlots.length; i++) {
+                if (timeSlots[i] / LAYERS == voice) {
+                    count++;
+                }
+            }
+            byte[] result = new byte[count];
+            count = 0;
+            for (int i = 0; i < timeSlots.length; i++) {
+                if (timeSlots[i] / LAYERS == voice) {
+                    result[count++] = (byte)(timeSlots[i] % LAYERS);
+                }
+            }
+            return result;
+        }
+
+        public String toString()
+        {
+            return "Checkpoint[measure=" + measure + ", offset=" + offset + ", voice=" + voice + ", time=" + getTime() + "]";
+        }
+    }
+
+    /**
+     * Follows the parser's events, keeping track of the state that a checkpoint records.
+     * Times are kept the way the <code>MidiEventManager</code> keeps them.  The arrays
+     * that checkpoints share are copied before they are changed.
+     */
+    private static final class Tracker extends ParserListenerAdapter implements PrimitiveParserListener
+    {
+        private byte voice = 0;
+        private byte[] layers = new byte[VOICES];
+        private int[] instruments = newInstruments();
+        private int tempo = 0;
+        private KeySignature keySignature = null;
+        private final long[][] time = new long[VOICES][LAYERS];
+        private short[] timeSlots = new short[0];
+        private long initialNoteTime = 0;
+        boolean measureSeen = false;
+
+        private static int[] newInstruments()
+        {
+            int[] instruments = new int[VOICES];
+            Arrays.fill(instruments, -1);
+            return instruments;
+        }
+
+        Checkpoint checkpoint(int measure, int offset, byte keySigState)
+        {
+            long[] times = new long[timeSlots.length];
+            for (int i = 0; i < timeSlots.length; i++) {
+                times[i] = time[timeSlots[i] / LAYERS][timeSlots[i] % LAYERS];
+            }
+            return new Checkpoint(measure, offset, voice, layers, instruments, tempo, keySignature, keySigState, timeSlots, times);
+        }
+
+        private void setTime(long newTime)
+        {
+            byte layer = layers[voice];
+            short slot = (short)(voice * LAYERS + layer);
+            boolean known = false;
+            for (int i = 0; i < timeSlots.length; i++) {
+                if (timeSlots[i] == slot) {
+                    known = true;
+                    break;
+                }
+            }
+            if (!known) {
+                short[] slots = new short[timeSlots.length + 1];
+                System.arraycopy(timeSlots, 0, slots, 0, timeSlots.length);
+                slots[timeSlots.length] = slot;
+                timeSlots = slots;
+            }
+            time[voice][layer] = newTime;
+        }
+
+        private long getTime()
+        {
+            return time[voice][layers[voice]];
+        }
+
+        @Override
+        public void voiceEvent(Voice voice)
+        {
+            this.voice = voice.getVoice();
+        }
+
+        @Override
+        public void layerEvent(Layer layer)
+        {
+            if (layers[voice] != layer.getLayer()) {
+                layers = layers.clone();
+                layers[voice] = layer.getLayer();
+            }
+        }
+
+        @Override
+        public void instrumentEvent(Instrument instrument)
+        {
+            if (instruments[voice] != instrument.getInstrument()) {
+                instruments = instruments.clone();
+                instruments[voice] = instrument.getInstrument();
+            }
+        }
+
+        @Override
+        public void tempoEvent(Tempo tempo)
+        {
+            this.tempo = tempo.getTempo();
+        }
+
+        @Override
+        public void keySignatureEvent(KeySignature keySig)
+        {
+            this.keySignature = keySig;
+        }
+
+        @Override
+        public void timeEvent(Time time)
+        {
+            setTime(time.getTime());
+        }
+
+        @Override
+        public void measureEvent(Measure measure)
+        {
+            measureSeen = true;
+        }
+
+        @Override
+        public void noteEvent(Note note)
+        {
+            noteEvent(0, note.getMillisDuration(), 0, (byte)0, (byte)0, 0);
+        }
+
+        @Override
+        public void sequentialNoteEvent(Note note)
+        {
+            sequentialNoteEvent(0, note.getMillisDuration(), 0, (byte)0, (byte)0, 0);
+        }
+
+        @Override
+        public void parallelNoteEvent(Note note)
+        {
+            parallelNoteEvent(0, note.getMillisDuration(), 0, (byte)0, (byte)0, 0);
+        }
+
+        public void noteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+        {
+            initialNoteTime = getTime();
+            if (duration != 0) {
+                setTime(getTime() + duration);
+            }
+        }
+
+        public void sequentialNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+        {
+            setTime(getTime() + duration);
+        }
+
+        public void parallelNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+        {
+            setTime(initialNoteTime + duration);
+        }
+    }
+}
@@ -42,7 +42,6 @@ import org.jfugue.elements.Tempo;
 import org.jfugue.elements.Time;
 import org.jfugue.elements.Voice;
 
-import org.apache.log4j.Logger;
 
 /**
  * Parses MIDI data, whether from a file, a connected device, or some other stream.
@@ -92,7 +91,7 @@ public final class MidiParser extends Parser
         
         if (sequence.getDivisionType() == Sequence.PPQ) { 
         	this.tempo = resolution;
-            Logger.getRootLogger().trace("PPQ with Tempo = " + resolution);
+            if (tracer.isDetailEnabled()) tracer.detail("PPQ with Tempo = " + resolution);
         }
         else this.tempo = DEFAULT_TEMPO;
         
@@ -105,6 +104,7 @@ public final class MidiParser extends Parser
         }
         
         // And now to parse the MIDI!
+        try {
         for (int t = 0; t < tracks.length; t++)
         {
             int trackSize = tracks[t].size();
@@ -120,7 +120,7 @@ public final class MidiParser extends Parser
                     MidiEvent event = tracks[t].get(ev);
                     MidiMessage message = event.getMessage();
                     
-                    Logger.getRootLogger().trace("Message received: " + message);
+                    if (tracer.isDetailEnabled()) tracer.detail("Message received: " + message);
                     
                     // *** ISSUE 55 MARKUP ***
                     // (Remove when the issue is resolved - but replace with some descriptive comments!)
@@ -140,9 +140,13 @@ public final class MidiParser extends Parser
                     // The Resolution of hiphopBb4.mid is 120, the MIDI File Type is 1, and
                     // the Division Type is PPQ.
                     parse(message, (int)(event.getTick() / (resolution / 120.0)));   
+                    batchBoundary();
                 }
             }
         }
+        } finally {
+            finishBatch();
+        }
     }
 
     /** 
@@ -179,7 +183,7 @@ public final class MidiParser extends Parser
         switch (message.getCommand())
         {
             case ShortMessage.PROGRAM_CHANGE :                  // 0xC0, 192
-                Logger.getRootLogger().trace("Program change to " + message.getData1());
+                if (tracer.isDetailEnabled()) tracer.detail("Program change to " + message.getData1());
                 Instrument instrument = new Instrument((byte)message.getData1());
                 fireTimeEvent(new Time(timestamp));
                 fireVoiceEvent(new Voice((byte)track));
@@ -187,7 +191,7 @@ public final class MidiParser extends Parser
                 break;
                 
             case ShortMessage.CONTROL_CHANGE :                  // 0xB0, 176
-                Logger.getRootLogger().trace("Controller change to " + message.getData1() + ", value = " + message.getData2());                                    
+                if (tracer.isDetailEnabled()) tracer.detail("Controller change to " + message.getData1() + ", value = " + message.getData2());
                 Controller controller = new Controller((byte)message.getData1(), (byte)message.getData2());
                 fireTimeEvent(new Time(timestamp));
                 fireVoiceEvent(new Voice((byte)track));
@@ -205,35 +209,35 @@ public final class MidiParser extends Parser
                 noteOffEvent(timestamp, track, message.getData1(), message.getData2());
                 break;
             case ShortMessage.CHANNEL_PRESSURE :                // 0xD0, 208
-                Logger.getRootLogger().trace("Channel pressure, pressure = " + message.getData1());                                    
+                if (tracer.isDetailEnabled()) tracer.detail("Channel pressure, pressure = " + message.getData1());
                 ChannelPressure pressure = new ChannelPressure((byte)message.getData1());
                 fireTimeEvent(new Time(timestamp));
                 fireVoiceEvent(new Voice((byte)track));
                 fireChannelPressureEvent(pressure);
                 break;
             case ShortMessage.POLY_PRESSURE :                   // 0xA0, 160
-                Logger.getRootLogger().trace("Poly pressure on key " + message.getData1() + ", pressure = " + message.getData2());                                    
+                if (tracer.isDetailEnabled()) tracer.detail("Poly pressure on key " + message.getData1() + ", pressure = " + message.getData2());
                 PolyphonicPressure poly = new PolyphonicPressure((byte)message.getData1(), (byte)message.getData2());
                 fireTimeEvent(new Time(timestamp));
                 fireVoiceEvent(new Voice((byte)track));
                 firePolyphonicPressureEvent(poly);
                 break;
             case ShortMessage.PITCH_BEND :                      // 0xE0, 224
-                Logger.getRootLogger().trace("Pitch Bend, data1= " + message.getData1() + ", data2= " + message.getData2());
+                if (tracer.isDetailEnabled()) tracer.detail("Pitch Bend, data1= " + message.getData1() + ", data2= " + message.getData2());
                 PitchBend bend = new PitchBend((byte)message.getData1(),  (byte)message.getData2());
                 fireTimeEvent(new Time(timestamp));
                 fireVoiceEvent(new Voice((byte)track));
                 firePitchBendEvent(bend);
                 break;
             default : 
-                Logger.getRootLogger().trace("Unparsed message: " + message.getCommand());
+                if (tracer.isDetailEnabled()) tracer.detail("Unparsed message: " + message.getCommand());
                 break;
         }
     }
 
     private void noteOnEvent(long timestamp, int track, int data1, int data2)
     {
-        Logger.getRootLogger().trace("Note on " + data1 + " - attack is " + data2);
+        if (tracer.isDetailEnabled()) tracer.detail("Note on " + data1 + " - attack is " + data2);
         tempNoteRegistry[track][data1] = timestamp;
         tempNoteAttackRegistry[track][data1] = (byte)data2;
 
@@ -247,7 +251,7 @@ public final class MidiParser extends Parser
     private void noteOffEvent(long timestamp, int track, int data1, int data2)
     {
         long time = tempNoteRegistry[track][data1];
-        Logger.getRootLogger().trace("Note off " + data1 + " - decay is " + data2 + ". Duration is " + (timestamp - time)+"ms");
+        if (tracer.isDetailEnabled()) tracer.detail("Note off " + data1 + " - decay is " + data2 + ". Duration is " + (timestamp - time)+"ms");
 
         fireTimeEvent(new Time(time));
         fireVoiceEvent(new Voice((byte)track));
@@ -282,12 +286,12 @@ public final class MidiParser extends Parser
         switch (message.getType())
         {
           case 0x51 : parseTempo(message, timestamp); break;
-          case 0x59 : Logger.getRootLogger().trace("KeySignature received but not parsed by JFugue (doesn't use them)");
+          case 0x59 : if (tracer.isDetailEnabled()) tracer.detail("KeySignature received but not parsed by JFugue (doesn't use them)");
            // Even though we care about Key Signatures, we don't want to read one in from a MIDI file,
            // because the notes that we'll receive will already be adjusted for the key signature.
            // MIDI's Key Signature is more about notating sheet music that influencing the played notes.
           default : 
-              Logger.getRootLogger().trace("MetaMessage " + message.getType() + " (0x" + Integer.toHexString(message.getType()) + ") received but not parsed by JFugue (doesn't use them)");
+              if (tracer.isDetailEnabled()) tracer.detail("MetaMessage " + message.getType() + " (0x" + Integer.toHexString(message.getType()) + ") received but not parsed by JFugue (doesn't use them)");
               break;
         }
     }
@@ -295,7 +299,7 @@ public final class MidiParser extends Parser
     private void parseTempo(MetaMessage message, long timestamp)
     {
         int beatsPerMinute = (int)(TimeFactor.convertMicrosecondsPerBeatToBPM(TimeFactor.parseMicrosecondsPerBeat(message)) * 4.0);
-        Logger.getRootLogger().trace("Tempo Event, bpm = " + beatsPerMinute);
+        if (tracer.isDetailEnabled()) tracer.detail("Tempo Event, bpm = " + beatsPerMinute);
         fireTimeEvent(new Time(timestamp));
         fireTempoEvent(new Tempo(beatsPerMinute));
         this.tempo = beatsPerMinute;
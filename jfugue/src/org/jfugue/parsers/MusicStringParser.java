@@ -22,19 +22,29 @@
 
 package org.jfugue.parsers;
 
+import java.util.ArrayList;
 import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
 import java.util.StringTokenizer;
 
-import org.apache.log4j.Logger;
+import org.jfugue.ChordTable;
+import org.jfugue.CompiledPattern;
+import org.jfugue.ElementPattern;
+import org.jfugue.EventBlock;
 import org.jfugue.JFugueDefinitions;
 import org.jfugue.JFugueException;
 import org.jfugue.ParserListener;
 import org.jfugue.ParserListenerAdapter;
 import org.jfugue.Pattern;
 import org.jfugue.PatternInterface;
+import org.jfugue.PrimitiveParserListener;
 import org.jfugue.elements.ChannelPressure;
 import org.jfugue.elements.Controller;
+import org.jfugue.elements.DictAdd;
 import org.jfugue.elements.Instrument;
+import org.jfugue.elements.JFugueElement;
 import org.jfugue.elements.KeySignature;
 import org.jfugue.elements.Layer;
 import org.jfugue.elements.Measure;
@@ -45,6 +55,9 @@ import org.jfugue.elements.SystemExclusive;
 import org.jfugue.elements.Tempo;
 import org.jfugue.elements.Time;
 import org.jfugue.elements.Voice;
+import org.jfugue.util.Rope;
+import org.jfugue.visitors.DefaultElementVisitor;
+import org.jfugue.visitors.ElementVisitor;
 
 
 /**
@@ -66,6 +79,7 @@ public final class MusicStringParser extends Parser
 //    private Map<String, String> dictionaryMap;
     private byte keySig = 0;
     private boolean defaultTempoEnabled = true;
+    private TokenCache tokenCache = null;
     
     /**
      * Creates a new Parser object, and populates the dictionary with initial entries.
@@ -79,10 +93,32 @@ public final class MusicStringParser extends Parser
 //        dictionaryMap = dict;
     }
 
-    private static void trace(String string)
+    /**
+     * Creates a new Parser object whose dictionary starts out with the words in the
+     * given map instead of those of <code>JFugueDefinitions</code>.  Parsers that are
+     * given the same map and version can share a <code>TokenCache</code>.
+     * @param dictionary the base dictionary, keyed by upper-case word; it is shared, not copied
+     * @param dictionaryVersion the version of the map, from <code>Environment.newDictionaryVersion()</code>
+     */
+    public MusicStringParser(Map<String, String> dictionary, int dictionaryVersion)
     {
-        Logger.getRootLogger().trace(string);
-        //System.out.println(string);
+        super(dictionary, dictionaryVersion);
+    }
+
+    /**
+     * Passes a detail message to the tracer.  Messages that are put together
+     * from several parts should only be built when isTracing() is true.
+     */
+    private void trace(String string)
+    {
+        if (tracer.isDetailEnabled()) {
+            tracer.detail(string);
+        }
+    }
+
+    private boolean isTracing()
+    {
+        return tracer.isDetailEnabled();
     }
     
     /**
@@ -112,6 +148,30 @@ public final class MusicStringParser extends Parser
         this.defaultTempoEnabled = defaultTempoEnabled;
     }
 
+    /**
+     * Returns the cache of recently parsed tokens, or <code>null</code> if tokens
+     * are not being cached.
+     */
+    public TokenCache getTokenCache()
+    {
+        return tokenCache;
+    }
+
+    /**
+     * Sets a cache in which to remember the events fired for each token.  When a
+     * token is found in the cache, its events are fired again without parsing the
+     * token.  Key signature and dictionary definition tokens are always parsed,
+     * since they change how the tokens after them are understood.
+     *
+     * <p>Caching is off by default.  Pass <code>null</code> to turn it off again.
+     *
+     * @param tokenCache the cache to use, or <code>null</code> to parse every token
+     */
+    public void setTokenCache(TokenCache tokenCache)
+    {
+        this.tokenCache = tokenCache;
+    }
+
 
 
     /**
@@ -130,33 +190,368 @@ public final class MusicStringParser extends Parser
      * and the open-bracket character ( [ ), then the token will be ignored.
      * </p>
      *
+     * <p>
+     * A section that the pattern repeats (see {@link Pattern#repeat(int)}) is parsed
+     * once, and the events it fired are replayed for the other repetitions, so the
+     * time spent parsing depends on how much distinct music there is rather than on
+     * how often it is repeated.
+     * </p>
+     *
+     * <p>
+     * An {@link ElementPattern} that is still made of elements isn't parsed at all:
+     * an event is fired for a copy of each of its elements.
+     * </p>
+     *
      * @param pattern the <code>Pattern</code> to parse
      * @throws Exception if there is an error parsing the pattern
      */
     public void parse(PatternInterface pattern) throws JFugueException
     {
-        String[] tokens = pattern.getTokens();
+        if ((pattern instanceof ElementPattern) && ((ElementPattern)pattern).isElementBacked()) {
+            parseElements(((ElementPattern)pattern).getElements());
+            return;
+        }
+
+        CharSequence source = pattern.getMusicCharSequence();
+        TokenCursor tokens = new TokenCursor(source);
+        if (!tokens.next()) {
+            return;
+        }
+
+        try {
+            // If the user hasn't specified a tempo as the first token, use the default of 120
+            if (requiresDefaultTempo(tokens)) {
+                parseTempoElement("T120");
+            }
+
+            if ((source instanceof Rope) && ((Rope)source).containsRepetition()) {
+                Rope rope = (Rope)source;
+                parseRope(rope, 0, hasParserProgressListeners() ? rope.length() : 0);
+            } else {
+                parseTokens(tokens);
+            }
+        } finally {
+            finishBatch();
+        }
+    }
+
+    /**
+     * Fires an event for a copy of each element, as though the music string of the
+     * elements had been parsed.  Copies are fired so that listeners which change
+     * the elements they are given, as many transformers do, don't change the pattern.
+     */
+    private void parseElements(List<JFugueElement> elements)
+    {
+        if (elements.isEmpty()) {
+            return;
+        }
+        try {
+            if (isDefaultTempoEnabled() && !(elements.get(0) instanceof Tempo)) {
+                parseTempoElement("T120");
+            }
+            int whole = hasParserProgressListeners() ? elements.size() : 0;
+            int t = 0;
+            for (JFugueElement element : elements) {
+                element.acceptVisitor(elementFirer);
+                batchBoundary();
+                t++;
+                if (whole > 0) {
+                    fireProgressReported("Parsing elements...", t, whole);
+                }
+            }
+        } finally {
+            finishBatch();
+        }
+    }
+
+    /** Fires an event for a copy of each element it visits */
+    private final ElementVisitor elementFirer = new DefaultElementVisitor() {
+        public void visit(Voice voice) { fireVoiceEvent(new Voice(voice.getVoice())); }
+        public void visit(Tempo tempo) { fireTempoEvent(new Tempo(tempo.getTempo())); }
+        public void visit(Instrument instrument) { fireInstrumentEvent(new Instrument(instrument.getInstrument())); }
+        public void visit(Layer layer) { fireLayerEvent(new Layer(layer.getLayer())); }
+        public void visit(Time time) { fireTimeEvent(new Time(time.getTime())); }
+        public void visit(Measure measure) { fireMeasureEvent(new Measure()); }
+        public void visit(SystemExclusive sysex) { fireSystemExclusiveEvent(new SystemExclusive(sysex.getBytes().clone())); }
+        public void visit(Controller controller) { fireControllerEvent(new Controller(controller.getIndex(), controller.getValue())); }
+        public void visit(ChannelPressure pressure) { fireChannelPressureEvent(new ChannelPressure(pressure.getPressure())); }
+        public void visit(PolyphonicPressure pressure) { firePolyphonicPressureEvent(new PolyphonicPressure(pressure.getKey(), pressure.getPressure())); }
+        public void visit(PitchBend pitchBend) { firePitchBendEvent(new PitchBend(pitchBend.getBend()[0], pitchBend.getBend()[1])); }
+
+        public void visit(KeySignature keySig)
+        {
+            fireKeySignatureEvent(new KeySignature(keySig.getKeySig(), keySig.getScale()));
+            MusicStringParser.this.keySig = keySig.getKeySig();
+        }
+
+        public void visit(DictAdd dictAdd)
+        {
+            addDict(dictAdd.getKey().toUpperCase(), dictAdd.getValue());
+        }
+
+        public void visit(Note note)
+        {
+            switch (note.getType()) {
+                case SEQUENTIAL : fireSequentialNoteEvent(new Note(note)); break;
+                case PARALLEL : fireParallelNoteEvent(new Note(note)); break;
+                default : fireNoteEvent(new Note(note)); break;
+            }
+        }
+    };
 
-        // If the user hasn't specified a tempo as the first token, use the default of 120
+    private boolean requiresDefaultTempo(TokenCursor tokens) {
+        return isDefaultTempoEnabled() && tokens.upperCharAt(0) != 'T';
+    }
+
+    /** Fires the default tempo if the music string doesn't start with one; the cursor is on the first token */
+    void fireDefaultTempo(TokenCursor tokens)
+    {
         if (requiresDefaultTempo(tokens)) {
             parseTempoElement("T120");
         }
+    }
+
+    /** Returns the key signature that is applied to notes, as the number of sharps (positive) or flats (negative) */
+    byte getKeySigState()
+    {
+        return keySig;
+    }
+
+    /**
+     * Takes on the key of the key signature token under the cursor, without firing
+     * an event.  A parser that parses one voice uses this for the key signatures
+     * of the other voices, which change the notes of every voice that follows.
+     * @see VoiceSplitter
+     */
+    void applyKeySignature(TokenCursor token) throws JFugueException
+    {
+        this.keySig = KeySignature.keyNameToMIDIKey(token.toUpperCaseString().substring(1));
+    }
+
+    /**
+     * Parses part of a pattern: the music from the <code>from</code> checkpoint of the
+     * pattern's {@link MeasureIndex} up to the <code>to</code> checkpoint.  Before
+     * parsing, the state at <code>from</code> is restored: the dictionary words defined
+     * earlier in the pattern are defined again, and events are fired for the tempo, the key
+     * signature, and each voice's instrument and layer.  Time starts again from zero:
+     * a layer that was ahead of the current voice at <code>from</code> is given a time
+     * event that keeps it that far ahead.  Time ( @ ) tokens within the range are
+     * passed on as they are.
+     *
+     * @param pattern the pattern to parse
+     * @param from the checkpoint at which to start
+     * @param to the checkpoint at which to stop, or <code>null</code> to parse to the end
+     * @see MeasureIndex
+     */
+    public void parse(PatternInterface pattern, MeasureIndex.Checkpoint from, MeasureIndex.Checkpoint to) throws JFugueException
+    {
+        MeasureIndex index = MeasureIndex.of(pattern);
+        CharSequence source = pattern.getMusicCharSequence();
+        int end = (to == null) ? source.length() : to.getOffset();
+        try {
+            for (int offset : index.getDefinitionOffsetsBefore(from.getOffset())) {
+                TokenCursor definition = new TokenCursor(source, offset, source.length());
+                definition.next();
+                parseToken(definition);
+            }
+            restoreState(from);
+            TokenCursor tokens = new TokenCursor(source, from.getOffset(), end);
+            while (tokens.next()) {
+                parseToken(tokens);
+                batchBoundary();
+            }
+        } finally {
+            finishBatch();
+        }
+    }
+
+    /**
+     * Parses the measures from <code>firstMeasure</code> to <code>lastMeasure</code>, inclusive,
+     * of a pattern, as described in {@link #parse(PatternInterface, MeasureIndex.Checkpoint, MeasureIndex.Checkpoint)}.
+     * Measures are numbered from 1, and each measure bar ( | ) begins a new measure.
+     *
+     * @param pattern the pattern to parse
+     * @param firstMeasure the first measure to parse
+     * @param lastMeasure the last measure to parse
+     * @throws IllegalArgumentException if the pattern has no measure numbered <code>firstMeasure</code>
+     */
+    public void parseMeasures(PatternInterface pattern, int firstMeasure, int lastMeasure) throws JFugueException
+    {
+        MeasureIndex index = MeasureIndex.of(pattern);
+        MeasureIndex.Checkpoint to = (lastMeasure < index.getMeasureCount()) ? index.getCheckpoint(lastMeasure + 1) : null;
+        parse(pattern, index.getCheckpoint(firstMeasure), to);
+    }
+
+    /** Fires the events that bring listeners to the state recorded in a checkpoint */
+    private void restoreState(MeasureIndex.Checkpoint checkpoint)
+    {
+        this.keySig = checkpoint.getKeySigState();
+        if (checkpoint.getTempo() > 0) {
+            fireTempoEvent(new Tempo(checkpoint.getTempo()));
+        }
+        if (checkpoint.getKeySignature() != null) {
+            fireKeySignatureEvent(checkpoint.getKeySignature());
+        }
+        long base = checkpoint.getTime();
+        boolean voiceChanged = false;
+        for (byte voice = 0; voice < 16; voice++) {
+            if (!checkpoint.isVoiceUsed(voice)) {
+                continue;
+            }
+            fireVoiceEvent(new Voice(voice));
+            voiceChanged = true;
+            if (checkpoint.getInstrument(voice) >= 0) {
+                fireInstrumentEvent(new Instrument((byte)checkpoint.getInstrument(voice)));
+            }
+            for (byte layer : checkpoint.getTimedLayers(voice)) {
+                long time = checkpoint.getTime(voice, layer) - base;
+                if (time > 0) {
+                    fireLayerEvent(new Layer(layer));
+                    fireTimeEvent(new Time(time));
+                }
+            }
+            fireLayerEvent(new Layer(checkpoint.getLayer(voice)));
+        }
+        if (voiceChanged || (checkpoint.getVoice() != 0)) {
+            fireVoiceEvent(new Voice(checkpoint.getVoice()));
+        }
+    }
+
+    /**
+     * Parses the token the cursor is on, and every token after it.  The total number
+     * of tokens is only counted when someone is listening for progress.
+     */
+    private void parseTokens(TokenCursor tokens) {
+        int whole = hasParserProgressListeners() ? tokens.countRemaining() + 1 : 0;
+        int t = 0;
+        do {
+            parseToken(tokens);
+            batchBoundary();
+            t++;
+            if (whole > 0) {
+                fireProgressReported("Parsing music string...", t, whole);
+            }
+        } while (tokens.next());
+    }
+
+    /**
+     * Parses a music string that contains repetitions.  Each repetition that begins
+     * and ends between tokens is handed to <code>parseRepetition()</code>; the text
+     * around them, and any repetition that would split a token, is parsed token by token.
+     * Progress is reported in characters, since counting the tokens would mean
+     * reading every repetition; each copy of a repetition reports its own progress,
+     * so a repeated pattern reports as often as the same pattern written out.
+     *
+     * @param base the offset of <code>source</code> within the whole music string
+     * @param whole the length of the whole music string, or 0 if no one is listening for progress
+     */
+    private void parseRope(Rope source, int base, int whole)
+    {
+        int position = 0;
+        for (Map.Entry<Integer, Rope.Repetition> entry : source.getRepetitions().entrySet()) {
+            int offset = entry.getKey();
+            Rope.Repetition repetition = entry.getValue();
+            if (!isBetweenTokens(source, offset, repetition)) {
+                continue;
+            }
+            parseRange(source, position, offset, base, whole);
+            parseRepetition(repetition, base + offset, whole);
+            position = offset + repetition.length();
+        }
+        parseRange(source, position, source.length(), base, whole);
+    }
 
-        parseTokens(tokens);
+    /** Parses the tokens between two character offsets of a music string */
+    private void parseRange(Rope source, int start, int end, int base, int whole)
+    {
+        TokenCursor tokens = new TokenCursor(source, start, end);
+        while (tokens.next()) {
+            parseToken(tokens);
+            batchBoundary();
+            if (whole > 0) {
+                fireProgressReported("Parsing music string...", base + tokens.offset() + tokens.length(), whole);
+            }
+        }
     }
 
-    private boolean requiresDefaultTempo(String[] tokl) {
-        return isDefaultTempoEnabled() && tokl.length > 0 && tokl[0].toUpperCase().charAt(0) != 'T';
+    /**
+     * Returns true if no token runs into, out of, or across the copies of the given repetition.
+     */
+    private static boolean isBetweenTokens(Rope source, int offset, Rope.Repetition repetition)
+    {
+        Rope body = repetition.getBody();
+        boolean startsWithDelimiter = TokenCursor.isDelimiter(body.charAt(0));
+        boolean endsWithDelimiter = TokenCursor.isDelimiter(body.charAt(body.length() - 1));
+        int end = offset + repetition.length();
+        return (startsWithDelimiter || endsWithDelimiter)
+                && (startsWithDelimiter || (offset == 0) || TokenCursor.isDelimiter(source.charAt(offset - 1)))
+                && (endsWithDelimiter || (end == source.length()) || TokenCursor.isDelimiter(source.charAt(end)));
     }
 
-    private void parseTokens(String [] tokl) {
-        for (int t=0; t < tokl.length; t++)
+    /**
+     * Parses the body of a repetition once for each state the parser is in when a
+     * copy begins, and replays the recorded events for the other copies.  The state
+     * is the key signature and the version of the dictionary: a body that changes the
+     * key ends in a different state than it started in, and so gets parsed again
+     * for the new key, while a body that defines dictionary words is parsed every time.
+     */
+    private void parseRepetition(Rope.Repetition repetition, int base, int whole)
+    {
+        Map<Long, RecordedBody> recordings = new HashMap<Long, RecordedBody>();
+        int bodyLength = repetition.getBody().length();
+        for (int i = 0; i < repetition.getCount(); i++) {
+            int copyBase = base + i * bodyLength;
+            Long state = Long.valueOf(((long)environment.getDictionaryVersion() << 8) | (keySig & 0xFF));
+            RecordedBody recording = recordings.get(state);
+            if (recording != null) {
+                recording.events.replay(cachedEventForwarder);
+                keySig = recording.endKeySig;
+                batchBoundary();
+                if (whole > 0) {
+                    fireProgressReported("Parsing music string...", copyBase + bodyLength, whole);
+                }
+                continue;
+            }
+
+            CompiledPattern.Recorder recorder = CompiledPattern.newRecorder();
+            addParserListener(recorder);
+            try {
+                parseRope(repetition.getBody(), copyBase, whole);
+            } finally {
+                removeParserListener(recorder);
+            }
+            recordings.put(state, new RecordedBody(recorder.getCompiledPattern(), keySig));
+        }
+    }
+
+    /** The events fired by one parse of a repetition's body, and the key signature it left behind */
+    private static final class RecordedBody
+    {
+        final CompiledPattern events;
+        final byte endKeySig;
+
+        RecordedBody(CompiledPattern events, byte endKeySig)
         {
-            parseToken(tokl[t]);
-            fireProgressReported("Parsing music string...", t + 1, tokl.length);
-        }        
+            this.events = events;
+            this.endKeySig = endKeySig;
+        }
     }
 
+    /**
+     * Dispatches the token under the cursor.  Tokens that don't start with a
+     * recognized character are skipped without being copied out of the music string.
+     */
+    void parseToken(TokenCursor token) throws JFugueException
+    {
+        if (ELEMENT_START_CHARACTERS.indexOf(token.upperCharAt(0)) == -1) {
+            return;  // Unknown characters are okay
+        }
+        parseUpperCaseToken(token.toUpperCaseString());
+    }
+
+    /** The characters that parseToken() recognizes at the start of a token */
+    private static final String ELEMENT_START_CHARACTERS = "VTILKX@*+&|$^(ABCDEFGR0123456789[";
+
     /**
      * This method takes a single token, and distributes it to a specific
      * element parser based on the first character in the string.
@@ -173,8 +568,54 @@ public final class MusicStringParser extends Parser
             throw new ParserError(ParserError.PARSER_SPACES_EXC,s,s);
         }
 
-        s = s.toUpperCase();
-        trace("--------Processing Token: " + s);
+        parseUpperCaseToken(s.toUpperCase());
+    }
+
+    private void parseUpperCaseToken(String s) throws JFugueException
+    {
+        if ((tokenCache != null) && isCacheable(s)) {
+            parseCachedToken(s);
+        } else {
+            dispatchToken(s);
+        }
+    }
+
+    /**
+     * Key signatures and dictionary definitions change the parser's state rather
+     * than just firing events, so they must always be parsed.
+     */
+    private static boolean isCacheable(String s)
+    {
+        char ch = s.charAt(0);
+        return (ch != 'K') && (ch != '$');
+    }
+
+    /**
+     * Fires the events remembered for this token, or parses the token and remembers
+     * the events it fires.  A token that fails to parse is not remembered.
+     */
+    private void parseCachedToken(String s) throws JFugueException
+    {
+        int dictionaryVersion = environment.getDictionaryVersion();
+        CompiledPattern events = tokenCache.get(s, keySig, dictionaryVersion);
+        if (events != null) {
+            events.replay(cachedEventForwarder);
+            return;
+        }
+
+        CompiledPattern.Recorder recorder = CompiledPattern.newRecorder();
+        addParserListener(recorder);
+        try {
+            dispatchToken(s);
+        } finally {
+            removeParserListener(recorder);
+        }
+        tokenCache.put(s, keySig, dictionaryVersion, recorder.getCompiledPattern());
+    }
+
+    private void dispatchToken(String s) throws JFugueException
+    {
+        tracer.tokenStarted(s);
 
         switch(s.charAt(0))
         {
@@ -226,7 +667,7 @@ public final class MusicStringParser extends Parser
         if ((voiceNumber < 0) || (voiceNumber > 15)) {
             throw new JFugueException(JFugueException.VOICE_EXC, Byte.toString(voiceNumber), s);
         }
-        trace("Voice element: voice = " + voiceNumber);
+        if (isTracing()) trace("Voice element: voice = " + voiceNumber);
         fireVoiceEvent(new Voice(voiceNumber));
     }
     
@@ -253,7 +694,7 @@ public final class MusicStringParser extends Parser
     {
         String tempoNumberString = s.substring(1,s.length());
         int tempoNumber = getIntFromDictionary(tempoNumberString);
-        trace("Tempo element: tempo = " + tempoNumber);
+        if (isTracing()) trace("Tempo element: tempo = " + tempoNumber);
         fireTempoEvent(new Tempo(tempoNumber));
     }
 
@@ -265,7 +706,7 @@ public final class MusicStringParser extends Parser
     private void parseInstrumentElement(String s) throws JFugueException
     {
         byte instrumentNumber = getByteValueOfToken(s);
-        trace("Instrument element: instrument = " + instrumentNumber);
+        if (isTracing()) trace("Instrument element: instrument = " + instrumentNumber);
         fireInstrumentEvent(new Instrument(instrumentNumber));
     }
 
@@ -280,7 +721,7 @@ public final class MusicStringParser extends Parser
         if ((layerNumber < 0) || (layerNumber > 15)) {
             throw new JFugueException(JFugueException.LAYER_EXC, Byte.toString(layerNumber), s);
         }
-        trace("Layer element: layer = " + layerNumber);
+        if (isTracing()) trace("Layer element: layer = " + layerNumber);
         fireLayerEvent(new Layer(layerNumber));
     }
 
@@ -292,7 +733,7 @@ public final class MusicStringParser extends Parser
     private void parseTimeElement(String s) throws JFugueException
     {
         long timeNumber = getLongValueOfToken(s);
-        trace("Time element: time = " + timeNumber);
+        if (isTracing()) trace("Time element: time = " + timeNumber);
         fireTimeEvent(new Time(timeNumber));
     }
 
@@ -315,7 +756,7 @@ public final class MusicStringParser extends Parser
         }
         
         byte[] data = parseSystemExclusiveData(s.substring(indexOfColon+1,s.length()), radix);
-        trace("Sysex element: bytes = " + Arrays.toString(data));
+        if (isTracing()) trace("Sysex element: bytes = " + Arrays.toString(data));
         fireSystemExclusiveEvent(new SystemExclusive(data));
     }
 
@@ -347,11 +788,11 @@ public final class MusicStringParser extends Parser
      */
     private void parseKeySignatureElement(String s) throws JFugueException
     {
-        trace("Key signature element: "+ s.substring(1));
+        if (isTracing()) trace("Key signature element: "+ s.substring(1));
 
         int scale = getMIDIKeySignatureScale(s);
         int key = KeySignature.keyNameToMIDIKey(s.substring(1));
-        trace("Key signature: sig=" + key + " scale=" + scale);
+        if (isTracing()) trace("Key signature: sig=" + key + " scale=" + scale);
         fireKeySignatureEvent(new KeySignature((byte)key, (byte)scale));
         this.keySig = (byte)key;
     }
@@ -439,12 +880,12 @@ public final class MusicStringParser extends Parser
 
             byte coarseValue = (byte)(controlValue / 128);
             byte fineValue = (byte)(controlValue % 128);
-            trace("Combined controller element: coarse-index = " + coarseIndex + ", coarse-value = " + coarseValue + "; fine-index = " + fineIndex + ", fine-value = " + fineValue);
+            if (isTracing()) trace("Combined controller element: coarse-index = " + coarseIndex + ", coarse-value = " + coarseValue + "; fine-index = " + fineIndex + ", fine-value = " + fineValue);
             fireControllerEvent(new Controller(coarseIndex, coarseValue));
             fireControllerEvent(new Controller(fineIndex, fineValue));
         } else {
             byte controlValue = getByteFromDictionary(controlValueString);
-            trace("Controller element: index = " + controlIndex + ", value = " +controlValue);
+            if (isTracing()) trace("Controller element: index = " + controlIndex + ", value = " +controlValue);
             fireControllerEvent(new Controller(controlIndex, controlValue));
         }
     }
@@ -463,7 +904,7 @@ public final class MusicStringParser extends Parser
 
         byte pressureNumber = getByteValueOfToken(s);
 
-        trace("ChannelPressure element: pressure = " + pressureNumber);
+        if (isTracing()) trace("ChannelPressure element: pressure = " + pressureNumber);
         fireChannelPressureEvent(new ChannelPressure(pressureNumber));
     }
 
@@ -481,7 +922,7 @@ public final class MusicStringParser extends Parser
         byte keyNumber = getPolyPressureKey(s);
         byte pressureNumber = getPolyPressurePressure(s);
 
-        trace("PolyphonicPressure element: key = " + keyNumber+ ", pressure = " + pressureNumber);
+        if (isTracing()) trace("PolyphonicPressure element: key = " + keyNumber+ ", pressure = " + pressureNumber);
         firePolyphonicPressureEvent(new PolyphonicPressure(keyNumber, pressureNumber));
     }
 
@@ -514,7 +955,7 @@ public final class MusicStringParser extends Parser
             bytes = intStringToOctets(valueStrings[0]);
 	}
 
-        trace("PitchBend element: byte1 = " + bytes[0] + ", byte2 = " + bytes[1]);
+        if (isTracing()) trace("PitchBend element: byte1 = " + bytes[0] + ", byte2 = " + bytes[1]);
         firePitchBendEvent(new PitchBend(bytes[0], bytes[1]));
     }
 
@@ -560,7 +1001,7 @@ public final class MusicStringParser extends Parser
         // MusicString has already been tokenized.
         definition.replace('~', ' ');
         word = word.toUpperCase();
-        trace("Dictionary Definition element: word = " + word + ", value = " + definition);
+        if (isTracing()) trace("Dictionary Definition element: word = " + word + ", value = " + definition);
         addDict(word, definition);
     }
 
@@ -586,15 +1027,35 @@ public final class MusicStringParser extends Parser
         long duration                   = 0L;
         byte attackVelocity             = Note.DEFAULT_VELOCITY;
         byte decayVelocity              = Note.DEFAULT_VELOCITY;
-        String chordName                = null;
 
-        public NoteContext() {
-            for (int i=0; i < 5; i++) {
-                halfsteps[i] = 0;
-            }
+        /** Sets every field back to its starting value, so the context can be used for another token */
+        void reset() {
+            isRest = false;
+            isNumericNote = false;
+            isChord = false;
+            isFirstNote = true;
+            isSequentialNote = false;
+            isParallelNote = false;
+            isNatural = false;
+            existAnotherNote = true;
+            anotherNoteIsSequential = false;
+            anotherNoteIsParallel = false;
+            isStartOfTie = false;
+            isEndOfTie = false;
+            Arrays.fill(halfsteps, (byte)0);
+            numHalfsteps = 0;
+            noteNumber = 0;
+            octaveNumber = 0;
+            decimalDuration = 0.0;
+            duration = 0L;
+            attackVelocity = Note.DEFAULT_VELOCITY;
+            decayVelocity = Note.DEFAULT_VELOCITY;
         }
     }
 
+    /** Reused for each note token, since a parser only parses one token at a time */
+    private final NoteContext noteContext = new NoteContext();
+
     /** 
      * Parses a collected note element - one in which the tones all have the
      * same duration, attack, and decay.  For example, (C+E+G)q
@@ -640,10 +1101,11 @@ public final class MusicStringParser extends Parser
      * @throws JFugueException if there is a problem parsing the element
      */
     private void parseNoteElement(String s) throws JFugueException {
-        NoteContext context = new NoteContext();
+        NoteContext context = noteContext;
+        context.reset();
 
         while (context.existAnotherNote) {
-            trace("--Parsing note from token " + s);
+            if (isTracing()) trace("--Parsing note from token " + s);
             int startChord, startChordInversion;
             context.isRest = false;
             context.isStartOfTie = false;
@@ -660,13 +1122,11 @@ public final class MusicStringParser extends Parser
                 trace("No octave spec found, setting default octave");
                 setDefaultOctave(context);
             }
-            trace("Octave: " + context.octaveNumber);
+            if (isTracing()) trace("Octave: " + context.octaveNumber);
 
             computeNoteValue(context);
             index = parseNoteChordInversion(s, slen, startChordInversion,
                     context);
-            if (context.isChord)
-                context.chordName = s.substring(startChord, index);
             index = parseNoteDuration(s, slen, index, context);
             index = parseNoteVelocity(s, slen, index, context);
             s = parseNoteConnector(s, slen, index, context);
@@ -731,7 +1191,7 @@ public final class MusicStringParser extends Parser
     	context.noteNumber =  Byte.parseByte(numericNoteString);
         context.isNumericNote = true;
 
-        trace("This note is a numeric note with value " + context.noteNumber);
+        if (isTracing()) trace("This note is a numeric note with value " + context.noteNumber);
         return c;
     }
     
@@ -742,7 +1202,7 @@ public final class MusicStringParser extends Parser
         context.noteNumber = getByteFromDictionary(stringInBrackets);
         context.isNumericNote = true;
 
-        trace("This note is a numeric note with value " + context.noteNumber);
+        if (isTracing()) trace("This note is a numeric note with value " + context.noteNumber);
         return indexOfEndBracket+1;
     }
 
@@ -787,7 +1247,7 @@ public final class MusicStringParser extends Parser
              }
          }
 
-        trace("Note number within an octave (C=0, B=11): " +  context.noteNumber);
+        if (isTracing()) trace("Note number within an octave (C=0, B=11): " +  context.noteNumber);
         return index;
     }
 
@@ -817,10 +1277,10 @@ public final class MusicStringParser extends Parser
             if ((possibleOctave2 >= '0') && (possibleOctave2 <= '9')) {
                 definiteOctaveLength = 2;
             }
-	    trace("Octave is " + definiteOctaveLength + " digits long");
+	    if (isTracing()) trace("Octave is " + definiteOctaveLength + " digits long");
 
             String octaveNumberString = s.substring(index, index+definiteOctaveLength);
-	    trace("Octave spec is " + octaveNumberString);
+	    if (isTracing()) trace("Octave spec is " + octaveNumberString);
             try {
                 context.octaveNumber = Byte.parseByte(octaveNumberString);
             } catch (NumberFormatException e) {
@@ -841,116 +1301,24 @@ public final class MusicStringParser extends Parser
             return index;
         }
 
-        String possibleChord3 = null;
-        String possibleChord4 = null;
-        String possibleChord5 = null;
-        String possibleChord6 = null;
-        String possibleChord7 = null;
-        String possibleChord8 = null;
-        try {
-            possibleChord3 = s.substring(index, index+3);
-            possibleChord4 = s.substring(index, index+4);
-            possibleChord5 = s.substring(index, index+5);
-            possibleChord6 = s.substring(index, index+6);
-            possibleChord7 = s.substring(index, index+7);
-            possibleChord8 = s.substring(index, index+8);
-        } catch (IndexOutOfBoundsException e)
-        {
-            // Nothing to do... just needed to catch
+        // The longest chord name that matches wins, so 'min' can be overridden by 'minmaj7', or 'maj' by 'maj7', for example.
+        ChordTable.Entry chord = ChordTable.match(s, index);
+        if (chord == null) {
+            return index;
         }
 
-        int lengthOfChordString = 0;  // This represents the length of the string, not the number of halfsteps
+        int numHalfsteps = chord.getHalfstepCount();
+        if (numHalfsteps > context.halfsteps.length) {
+            context.halfsteps = new byte[numHalfsteps];
+        }
+        for (int i = 0; i < numHalfsteps; i++) {
+            context.halfsteps[i] = chord.getHalfstep(i);
+        }
+        context.numHalfsteps = (byte)numHalfsteps;
+        context.isChord = true;
+        if (isTracing()) trace("Chord: " + chord.getName() + ", chordLength=" + chord.getNameLength());
 
-        // Below, 'chordLength' refers to the size of the text for the chord (for example, "min"=3, "dim7"=4),
-        // and 'numHalfsteps' refers to the number of elements in the halfsteps array.
-        // This must be done in order from smaller to larger strings, so the longer string names
-        // take effect.  This means 'min' can be overwritten by 'minmaj7', or 'maj' by 'maj7', for example.
-        
-        if (possibleChord3 != null) {
-            if (possibleChord3.equals("MAJ"))
-                { lengthOfChordString = 3; context.numHalfsteps = 2; context.halfsteps[0] = 4; context.halfsteps[1] = 7; }
-            else if (possibleChord3.equals("MIN"))
-                { lengthOfChordString = 3; context.numHalfsteps = 2; context.halfsteps[0] = 3; context.halfsteps[1] = 7; }
-            else if (possibleChord3.equals("AUG"))
-                { lengthOfChordString = 3; context.numHalfsteps = 2; context.halfsteps[0] = 4; context.halfsteps[1] = 8; }
-            else if (possibleChord3.equals("DIM"))
-                { lengthOfChordString = 3; context.numHalfsteps = 2; context.halfsteps[0] = 3; context.halfsteps[1] = 6; }
-        }
-        if (possibleChord4 != null) {
-            if (possibleChord4.equalsIgnoreCase("DOM7"))
-                { lengthOfChordString = 4; context.numHalfsteps = 3; context.halfsteps[0] = 4; context.halfsteps[1] = 7; context.halfsteps[2] = 10; }
-            else if (possibleChord4.equalsIgnoreCase("MAJ7"))
-                { lengthOfChordString = 4; context.numHalfsteps = 3; context.halfsteps[0] = 4; context.halfsteps[1] = 7; context.halfsteps[2] = 11; }
-            else if (possibleChord4.equalsIgnoreCase("MIN7"))
-                { lengthOfChordString = 4; context.numHalfsteps = 3; context.halfsteps[0] = 3; context.halfsteps[1] = 7; context.halfsteps[2] = 10; }
-            else if (possibleChord4.equalsIgnoreCase("SUS4"))
-                { lengthOfChordString = 4; context.numHalfsteps = 2; context.halfsteps[0] = 5; context.halfsteps[1] = 7; }
-            else if (possibleChord4.equalsIgnoreCase("SUS2"))
-                { lengthOfChordString = 4; context.numHalfsteps = 2; context.halfsteps[0] = 2; context.halfsteps[1] = 7; }
-            else if (possibleChord4.equalsIgnoreCase("MAJ6"))
-                { lengthOfChordString = 4; context.numHalfsteps = 3; context.halfsteps[0] = 4; context.halfsteps[1] = 7; context.halfsteps[2] = 9; }
-            else if (possibleChord4.equalsIgnoreCase("MIN6"))
-                { lengthOfChordString = 4; context.numHalfsteps = 3; context.halfsteps[0] = 3; context.halfsteps[1] = 7; context.halfsteps[2] = 9; }
-            else if (possibleChord4.equalsIgnoreCase("DOM9"))
-                { lengthOfChordString = 4; context.numHalfsteps = 4; context.halfsteps[0] = 4; context.halfsteps[1] = 7; context.halfsteps[2] = 10; context.halfsteps[3] = 14; }
-            else if (possibleChord4.equalsIgnoreCase("MAJ9"))
-                { lengthOfChordString = 4; context.numHalfsteps = 4; context.halfsteps[0] = 4; context.halfsteps[1] = 7; context.halfsteps[2] = 11; context.halfsteps[3] = 14; }
-            else if (possibleChord4.equalsIgnoreCase("MIN9"))
-                { lengthOfChordString = 4; context.numHalfsteps = 4; context.halfsteps[0] = 3; context.halfsteps[1] = 7; context.halfsteps[2] = 10; context.halfsteps[3] = 14; }
-            else if (possibleChord4.equalsIgnoreCase("DIM7"))
-                { lengthOfChordString = 4; context.numHalfsteps = 3; context.halfsteps[0] = 3; context.halfsteps[1] = 6; context.halfsteps[2] = 9; }
-            else if (possibleChord4.equalsIgnoreCase("ADD9"))
-                { lengthOfChordString = 4; context.numHalfsteps = 3; context.halfsteps[0] = 4; context.halfsteps[1] = 7; context.halfsteps[2] = 14; }
-            else if (possibleChord4.equalsIgnoreCase("DAVE"))
-                { lengthOfChordString = 4; context.numHalfsteps = 3; context.halfsteps[0] = 7; context.halfsteps[1] = 14; context.halfsteps[2] = 21;}
-        }
-
-        if (possibleChord5 != null) {
-            if (possibleChord5.equalsIgnoreCase("MIN11"))
-                { lengthOfChordString = 5; context.numHalfsteps = 5; context.halfsteps[0] = 7; context.halfsteps[1] = 10; context.halfsteps[2] = 14; context.halfsteps[3] = 15; context.halfsteps[4] = 17; }
-            else if (possibleChord5.equalsIgnoreCase("DOM11"))
-                { lengthOfChordString = 5; context.numHalfsteps = 4; context.halfsteps[0] = 7; context.halfsteps[1] = 10; context.halfsteps[2] = 14; context.halfsteps[3] = 17; }
-            else if (possibleChord5.equalsIgnoreCase("DOM13"))
-                { lengthOfChordString = 5; context.numHalfsteps = 5; context.halfsteps[0] = 7; context.halfsteps[1] = 10; context.halfsteps[2] = 14; context.halfsteps[3] = 16; context.halfsteps[4] = 21; }
-            else if (possibleChord5.equalsIgnoreCase("MIN13"))
-                { lengthOfChordString = 5; context.numHalfsteps = 5; context.halfsteps[0] = 7; context.halfsteps[1] = 10; context.halfsteps[2] = 14; context.halfsteps[3] = 15; context.halfsteps[4] = 21; }
-            else if (possibleChord5.equalsIgnoreCase("MAJ13"))
-                { lengthOfChordString = 5; context.numHalfsteps = 5; context.halfsteps[0] = 7; context.halfsteps[1] = 11; context.halfsteps[2] = 14; context.halfsteps[3] = 16; context.halfsteps[4] = 21; }
-        }
-
-        if (possibleChord6 != null) {
-            if (possibleChord6.equalsIgnoreCase("DOM7<5"))
-                { lengthOfChordString = 6; context.numHalfsteps = 3; context.halfsteps[0] = 4; context.halfsteps[1] = 6; context.halfsteps[2] = 10; }
-            else if (possibleChord6.equalsIgnoreCase("DOM7>5"))
-                { lengthOfChordString = 6; context.numHalfsteps = 3; context.halfsteps[0] = 4; context.halfsteps[1] = 8; context.halfsteps[2] = 10; }
-            else if (possibleChord6.equalsIgnoreCase("MAJ7<5"))
-                { lengthOfChordString = 6; context.numHalfsteps = 3; context.halfsteps[0] = 4; context.halfsteps[1] = 6; context.halfsteps[2] = 11; }
-            else if (possibleChord6.equalsIgnoreCase("MAJ7>5"))
-                { lengthOfChordString = 6; context.numHalfsteps = 3; context.halfsteps[0] = 4; context.halfsteps[1] = 8; context.halfsteps[2] = 11; }
-        }
-
-        if (possibleChord7 != null) {
-            if (possibleChord7.equalsIgnoreCase("minmaj7"))
-                { lengthOfChordString = 7; context.numHalfsteps = 3; context.halfsteps[0] = 3; context.halfsteps[1] = 7; context.halfsteps[2] = 11; }
-        }
-
-        if (possibleChord8 != null) {
-            if (possibleChord8.equalsIgnoreCase("DOM7<5<9"))
-                { lengthOfChordString = 8; context.numHalfsteps = 4; context.halfsteps[0] = 4; context.halfsteps[1] = 6; context.halfsteps[2] = 10; context.halfsteps[3] = 13; }
-            else if (possibleChord8.equalsIgnoreCase("DOM7<5>9"))
-                { lengthOfChordString = 8; context.numHalfsteps = 4; context.halfsteps[0] = 4; context.halfsteps[1] = 6; context.halfsteps[2] = 10; context.halfsteps[3] = 15; }
-            else if (possibleChord8.equalsIgnoreCase("DOM7>5<9"))
-                { lengthOfChordString = 8; context.numHalfsteps = 4; context.halfsteps[0] = 4; context.halfsteps[1] = 8; context.halfsteps[2] = 10; context.halfsteps[3] = 13; }
-            else if (possibleChord8.equalsIgnoreCase("DOM7>5>9"))
-                { lengthOfChordString = 8; context.numHalfsteps = 4; context.halfsteps[0] = 4; context.halfsteps[1] = 8; context.halfsteps[2] = 10; context.halfsteps[3] = 15; }
-        }
-
-        if (lengthOfChordString > 0) {
-            context.isChord = true;
-            trace("Chord: chordLength=" +  lengthOfChordString + ", so chord is one of the following: [ 3=" + possibleChord3 + " 4=" + possibleChord4 + " 5=" +  possibleChord5 + " 6=" +  possibleChord6 + " 7=" + possibleChord7+ " 8=" + possibleChord8 + " ]");
-        }
-
-        return index+lengthOfChordString;
+        return index+chord.getNameLength();
     }
 
     /** This method does a variety of calculations to get the actual value of the note. */
@@ -964,21 +1332,14 @@ public final class MusicStringParser extends Parser
 
         // Adjust for Key Signature
         if ((keySig != 0) && (!context.isNatural)) {
-            if ((keySig <= -1) && (context.noteNumber == 11)) context.noteNumber = 10;
-            if ((keySig <= -2) && (context.noteNumber == 4)) context.noteNumber = 3;
-            if ((keySig <= -3) && (context.noteNumber == 9)) context.noteNumber = 8;
-            if ((keySig <= -4) && (context.noteNumber == 2)) context.noteNumber = 1;
-            if ((keySig <= -5) && (context.noteNumber == 7)) context.noteNumber = 6;
-            if ((keySig <= -6) && (context.noteNumber == 0)) { context.noteNumber = 11; context.octaveNumber--; }
-            if ((keySig <= -7) && (context.noteNumber == 5)) context.noteNumber = 4;
-            if ((keySig >= +1) && (context.noteNumber == 5)) context.noteNumber = 6;
-            if ((keySig >= +2) && (context.noteNumber == 0)) context.noteNumber = 1;
-            if ((keySig >= +3) && (context.noteNumber == 7)) context.noteNumber = 8;
-            if ((keySig >= +4) && (context.noteNumber == 2)) context.noteNumber = 3;
-            if ((keySig >= +5) && (context.noteNumber == 9)) context.noteNumber = 10;
-            if ((keySig >= +6) && (context.noteNumber == 4)) context.noteNumber = 5;
-            if ((keySig >= +7) && (context.noteNumber == 11)) { context.noteNumber = 0; context.octaveNumber++; }
-            trace("After adjusting for Key Signature, noteNumber=" + context.noteNumber +" octave=" +  context.octaveNumber);
+            int adjustment = KeySignature.getAdjustment(keySig, context.noteNumber);
+            if (adjustment != 0) {
+                int semitone = context.noteNumber + adjustment;
+                if (semitone < 0) { semitone = 11; context.octaveNumber--; }
+                if (semitone > 11) { semitone = 0; context.octaveNumber++; }
+                context.noteNumber = (byte)semitone;
+            }
+            if (isTracing()) trace("After adjusting for Key Signature, noteNumber=" + context.noteNumber +" octave=" +  context.octaveNumber);
         }
 
         // Compute the actual note number, based on octave and note
@@ -989,7 +1350,7 @@ public final class MusicStringParser extends Parser
                 throw new JFugueException(JFugueException.NOTE_OCTAVE_EXC, Integer.toString(intNoteNumber), "");
             }
             context.noteNumber = (byte)intNoteNumber;
-            trace("Computed note number: " +  context.noteNumber);
+            if (isTracing()) trace("Computed note number: " +  context.noteNumber);
         }
     }
 
@@ -1117,12 +1478,12 @@ public final class MusicStringParser extends Parser
             if (inversionRootNote == -1) {
                 // The root is determined by a number of carets.  Increase each half-step
                 // before the inversion by 12, the number of notes in an octave.
-                trace("Inversion is base on count: " + inversionCount);
-                trace("Inverting " + context.noteNumber + " to be " + (context.noteNumber+12));
+                if (isTracing()) trace("Inversion is base on count: " + inversionCount);
+                if (isTracing()) trace("Inverting " + context.noteNumber + " to be " + (context.noteNumber+12));
                 context.noteNumber += 12;
                 for (int i=inversionCount-1; i < context.numHalfsteps; i++)
                 {
-                    trace("Inverting " + context.halfsteps[i] + " to be " + (context.halfsteps[i]-12));
+                    if (isTracing()) trace("Inverting " + context.halfsteps[i] + " to be " + (context.halfsteps[i]-12));
                     context.halfsteps[i] -= 12;
                 }
             } else {
@@ -1137,18 +1498,18 @@ public final class MusicStringParser extends Parser
                 }
                 // Otherwise, inversionRootNote is a numeric note value, like [60]
 
-                trace("Inversion is base on note: "+inversionRootNote);
+                if (isTracing()) trace("Inversion is base on note: "+inversionRootNote);
 
                 if ((inversionRootNote > context.noteNumber + context.halfsteps[context.numHalfsteps-1]) || (inversionRootNote < context.noteNumber)) {
                     throw new ParserError(ParserError.INVERSION_EXC);
                 }
 
-                trace("Inverting "+context.noteNumber+" to be "+(context.noteNumber+12));
+                if (isTracing()) trace("Inverting "+context.noteNumber+" to be "+(context.noteNumber+12));
                 context.noteNumber += 12;
                 for (int i=0; i < context.numHalfsteps; i++)
                 {
                     if (context.noteNumber + context.halfsteps[i] >= inversionRootNote + 12) {
-                        trace("Inverting "+context.halfsteps[i]+" to be "+(context.halfsteps[i]-12));
+                        if (isTracing()) trace("Inverting "+context.halfsteps[i]+" to be "+(context.halfsteps[i]-12));
                         context.halfsteps[i]-=12;
                     }
                 }
@@ -1199,8 +1560,8 @@ public final class MusicStringParser extends Parser
 //        double ppw = ppq * 4.0; // 4 quarter notes in a whole note
 //        context.duration = (long)(ppw * context.decimalDuration) / 4000; 
 
-        trace("Decimal duration is " + context.decimalDuration);
-        trace("Actual duration is " + context.duration);
+        if (isTracing()) trace("Decimal duration is " + context.decimalDuration);
+        if (isTracing()) trace("Actual duration is " + context.duration);
 
         return index;
     }
@@ -1280,7 +1641,7 @@ public final class MusicStringParser extends Parser
             index = endingIndex;
         }
 
-        trace("Decimal duration is " + context.decimalDuration);
+        if (isTracing()) trace("Decimal duration is " + context.decimalDuration);
         return index;
     }
     
@@ -1340,10 +1701,10 @@ public final class MusicStringParser extends Parser
                     numerator = Double.parseDouble(s.substring(indexOfUnitsToMatch, indexOfNumNotes-1));
                     denominator = Double.parseDouble(s.substring(indexOfNumNotes, index));
                 }
-                trace("Tuplet ratio is "+numerator+":"+denominator);
+                if (isTracing()) trace("Tuplet ratio is "+numerator+":"+denominator);
                 double tupletRatio = numerator / denominator;
                 context.decimalDuration = context.decimalDuration * tupletRatio;
-                trace("Decimal duration after tuplet is " +  context.decimalDuration);
+                if (isTracing()) trace("Decimal duration after tuplet is " +  context.decimalDuration);
             }
         }
 
@@ -1366,7 +1727,7 @@ public final class MusicStringParser extends Parser
             char velocityChar = s.charAt(index);
             int lengthOfByte = 0;
             if ((velocityChar == '+') || (velocityChar == '_')) break;
-            trace("Identified Velocity character " + velocityChar);
+            if (isTracing()) trace("Identified Velocity character " + velocityChar);
             boolean byteDone = false;
             while (!byteDone && (index + lengthOfByte+1 < slen)) {
                 char possibleByteChar = s.charAt(index + lengthOfByte+1);
@@ -1394,7 +1755,7 @@ public final class MusicStringParser extends Parser
             }
             index = endPoint;
         }
-        trace("Attack velocity = " + context.attackVelocity +  "; Decay velocity = " +  context.decayVelocity);
+        if (isTracing()) trace("Attack velocity = " + context.attackVelocity +  "; Decay velocity = " +  context.decayVelocity);
         return index;
     }
 
@@ -1404,7 +1765,7 @@ public final class MusicStringParser extends Parser
         context.existAnotherNote = false;
         // See if there's another note to process
         if ((index < slen) && ((s.charAt(index) == '+') || (s.charAt(index) == '_'))) {
-            trace("Another note: string = " + s.substring(index, s.length()-1));
+            if (isTracing()) trace("Another note: string = " + s.substring(index, s.length()-1));
             if (s.charAt(index) == '_') {
                 context.anotherNoteIsSequential = true;
                 trace("Next note will be sequential");
@@ -1419,62 +1780,135 @@ public final class MusicStringParser extends Parser
         return null;
     }
 
+    /**
+     * Fires the note, and the other notes of its chord, if it has any.  The notes are
+     * passed to the listeners as plain values, so when every listener takes notes that
+     * way, no <code>Note</code> objects are created.
+     */
     private void fireNoteEvents(NoteContext context)
     {
         // Set up the note
-        Note note = new Note();
+        int value = 0;
+        byte attackVelocity = 0;                        // turn off sound for rest notes
+        byte decayVelocity = 0;
+        int flags = 0;
 
         if (context.isRest) {
-            note.setRest(true);
-            note.setMillisDuration(context.duration);
-            note.setDecimalDuration(context.decimalDuration);
-            note.setAttackVelocity( (byte)0 );          // turn off sound for rest notes
-            note.setDecayVelocity( (byte)0 );
+            flags |= EventBlock.REST;
         } else {
-            note.setValue(context.noteNumber);
-            note.setMillisDuration(context.duration);
-            note.setStartOfTie(context.isStartOfTie);
-            note.setEndOfTie(context.isEndOfTie);
-            note.setDecimalDuration(context.decimalDuration);
-            note.setAttackVelocity(context.attackVelocity);
-            note.setDecayVelocity(context.decayVelocity);
+            value = context.noteNumber;
+            attackVelocity = context.attackVelocity;
+            decayVelocity = context.decayVelocity;
+            if (context.isStartOfTie) flags |= EventBlock.START_OF_TIE;
+            if (context.isEndOfTie) flags |= EventBlock.END_OF_TIE;
+        }
+        if (context.existAnotherNote || context.isChord) {
+            flags |= EventBlock.ACCOMPANYING_NOTES;
         }
-        note.setAccompanyingNotes(context.existAnotherNote || context.isChord);
 
         // Fire note events
         if (context.isFirstNote) {
-            note.setType(Note.FIRST);
             trace("Firing first note event");
-            fireNoteEvent(note);
+            fireNoteEvent(value, context.duration, context.decimalDuration, attackVelocity, decayVelocity, flags);
         } else if (context.isSequentialNote) {
-            note.setType(Note.SEQUENTIAL);
             trace("Firing sequential note event");
-            fireSequentialNoteEvent(note);
+            fireSequentialNoteEvent(value, context.duration, context.decimalDuration, attackVelocity, decayVelocity, flags);
         } else if (context.isParallelNote) {
-            note.setType(Note.PARALLEL);
             trace("Firing parallel note event");
-            fireParallelNoteEvent(note);
+            fireParallelNoteEvent(value, context.duration, context.decimalDuration, attackVelocity, decayVelocity, flags);
         }
 
         if (context.isChord) {
-        	note.setChord(context.chordName, Arrays.copyOf(context.halfsteps, context.numHalfsteps));
             for (int i=0; i < context.numHalfsteps; i++) {
-                Note chordNote = new Note((byte)(context.noteNumber+context.halfsteps[i]), context.duration);
-                chordNote.setDecimalDuration(context.decimalDuration); // This won't have any effect on the note, but it's good bookkeeping to have it around.
-                chordNote.setType(Note.PARALLEL);
-                trace("Chord note number: " + (context.noteNumber+context.halfsteps[i]));
-                if (i == context.numHalfsteps-1) {
-                    chordNote.setAccompanyingNotes(context.existAnotherNote);
-                } else {
-                    chordNote.setAccompanyingNotes(context.existAnotherNote || context.isChord);
+                byte chordNoteValue = (byte)(context.noteNumber+context.halfsteps[i]);
+                if (isTracing()) trace("Chord note number: " + (context.noteNumber+context.halfsteps[i]));
+                int chordNoteFlags = 0;
+                if (context.existAnotherNote || (i < context.numHalfsteps-1)) {
+                    chordNoteFlags |= EventBlock.ACCOMPANYING_NOTES;
                 }
-                fireParallelNoteEvent(chordNote);
+                fireParallelNoteEvent(chordNoteValue, context.duration, context.decimalDuration, Note.DEFAULT_VELOCITY, Note.DEFAULT_VELOCITY, chordNoteFlags);
             }
         }
         context.isFirstNote = false;
     }
 
 
+    /**
+     * Fires remembered token events through this parser, so they reach listeners
+     * the same way as events from a freshly parsed token.
+     */
+    private final ParserListener cachedEventForwarder = new PrimitiveParserListener() {
+        public void voiceEvent(Voice voice) { fireVoiceEvent(voice); }
+        public void tempoEvent(Tempo tempo) { fireTempoEvent(tempo); }
+        public void instrumentEvent(Instrument instrument) { fireInstrumentEvent(instrument); }
+        public void layerEvent(Layer layer) { fireLayerEvent(layer); }
+        public void measureEvent(Measure measure) { fireMeasureEvent(measure); }
+        public void timeEvent(Time time) { fireTimeEvent(time); }
+        public void keySignatureEvent(KeySignature keySig) { fireKeySignatureEvent(keySig); }
+        public void systemExclusiveEvent(SystemExclusive sysex) { fireSystemExclusiveEvent(sysex); }
+        public void controllerEvent(Controller controller) { fireControllerEvent(controller); }
+        public void channelPressureEvent(ChannelPressure channelPressure) { fireChannelPressureEvent(channelPressure); }
+        public void polyphonicPressureEvent(PolyphonicPressure polyphonicPressure) { firePolyphonicPressureEvent(polyphonicPressure); }
+        public void pitchBendEvent(PitchBend pitchBend) { firePitchBendEvent(pitchBend); }
+        public void noteEvent(Note note) { fireNoteEvent(note); }
+        public void sequentialNoteEvent(Note note) { fireSequentialNoteEvent(note); }
+        public void parallelNoteEvent(Note note) { fireParallelNoteEvent(note); }
+        public void noteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags) {
+            fireNoteEvent(value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+        }
+        public void sequentialNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags) {
+            fireSequentialNoteEvent(value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+        }
+        public void parallelNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags) {
+            fireParallelNoteEvent(value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+        }
+    };
+
+    /**
+     * Checks a pattern for errors, without sending any events.  Unlike <code>parse()</code>,
+     * this doesn't stop at the first error: every token is checked, and an error is
+     * returned for each token that fails.  Dictionary definitions and key signatures
+     * in the pattern are taken into account for the tokens that follow them.
+     *
+     * @param pattern the pattern to check
+     * @return the errors found, in the order of the tokens in which they were found;
+     *      empty if the pattern is valid
+     * @see ParserError#getTokenOffset()
+     * @see PatternValidator
+     */
+    public static List<ParserError> validate(PatternInterface pattern)
+    {
+        return new MusicStringParser().collectErrors(pattern, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Returns true if every token in the given pattern can be parsed.  Stops at the
+     * first error.
+     * @param pattern the pattern to check
+     */
+    public static boolean isValid(PatternInterface pattern)
+    {
+        return new MusicStringParser().collectErrors(pattern, 1).isEmpty();
+    }
+
+    /**
+     * Parses each token of the pattern, catching errors rather than letting them
+     * stop the parse.  This parser must not have any listeners, so nothing is fired.
+     */
+    private List<ParserError> collectErrors(PatternInterface pattern, int limit)
+    {
+        List<ParserError> errors = new ArrayList<ParserError>();
+        TokenCursor tokens = new TokenCursor(pattern.getMusicCharSequence());
+        while ((errors.size() < limit) && tokens.next()) {
+            try {
+                parseToken(tokens);
+            } catch (RuntimeException e) {
+                errors.add(ParserError.from(e).atToken(tokens.toString(), tokens.offset()));
+            }
+        }
+        return errors;
+    }
+
     /**
      * Checks whether a token is valid.  This method is provided for testing purposes,
      * and is not used during normal operation.
@@ -1556,12 +1990,12 @@ public final class MusicStringParser extends Parser
     private static void verifyTokenParsing()
     {
         MusicStringParser parser = new MusicStringParser();
-        //parser.setTracing(MusicStringParser.TRACING_ON);
+        parser.setParseTracer(new Log4jParseTracer());
         try {
             long startTime = System.currentTimeMillis();
 
             parser.parseToken("Cw+Dq_Rq_Dq_Rq");
-            trace("(**********************************************)");
+            parser.trace("(**********************************************)");
             
             parser.parseToken("Cwhqistxo");
 
@@ -1651,7 +2085,7 @@ public final class MusicStringParser extends Parser
             parser.parseToken("45/0.5");
 
             long endTime = System.currentTimeMillis();
-            trace("Time taken: "+(endTime-startTime)+"ms");
+            parser.trace("Time taken: "+(endTime-startTime)+"ms");
 
         } catch (Exception e) {
             e.printStackTrace();
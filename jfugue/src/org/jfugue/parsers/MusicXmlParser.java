@@ -51,7 +51,6 @@ import org.jfugue.elements.Note;
 import org.jfugue.elements.Tempo;
 import org.jfugue.elements.Voice;
 
-import org.apache.log4j.Logger;
 
 //	helper class
 class XMLpart extends Object
@@ -252,8 +251,13 @@ public final class MusicXmlParser extends Parser
 				parsePartHeader(parts.get(p), partHeaders[p]);
 			}
 			parts = root.getChildElements("part");
-			for (int p = 0; p < parts.size(); ++p)
-			{	parsePart(p, parts.get(p), partHeaders);
+			try
+			{	for (int p = 0; p < parts.size(); ++p)
+				{	parsePart(p, parts.get(p), partHeaders);
+				}
+			}
+			finally
+			{	finishBatch();
 			}
 		}
 	}
@@ -792,7 +796,7 @@ public final class MusicXmlParser extends Parser
         catch (NumberFormatException e)
         {	instrumentNumber = getByteFromDictionary(inst);
         }
-        Logger.getRootLogger().trace("Instrument element: inst = " + inst);
+        if (tracer.isDetailEnabled()) tracer.detail("Instrument element: inst = " + inst);
         if (instrumentNumber > -1)
         	fireInstrumentEvent(new Instrument(instrumentNumber));
     }
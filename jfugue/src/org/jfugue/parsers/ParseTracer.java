@@ -0,0 +1,83 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package org.jfugue.parsers;
+
+import org.jfugue.elements.JFugueElement;
+import org.jfugue.elements.Note;
+
+/**
+ * Receives a running account of what a parser is doing, for debugging.
+ * Every <code>Parser</code> has a tracer; the default one, {@link DummyParseTracer},
+ * does nothing and costs nothing.  To see the parser's work in the log4j
+ * log, as earlier versions of JFugue always did, use a {@link Log4jParseTracer}:
+ *
+ * <pre>
+ * parser.setParseTracer(new Log4jParseTracer());
+ * </pre>
+ *
+ * <p>
+ * The typed callbacks are passed objects the parser already has, so calling
+ * them never builds a string.  Free-form messages about the inner workings
+ * of the parser are only put together when {@link #isDetailEnabled()} returns true.
+ * </p>
+ *
+ * @see Parser#setParseTracer(ParseTracer)
+ * @author David Koelle
+ * @version 4.1
+ */
+public interface ParseTracer
+{
+    /**
+     * Called when a parser starts work on a token of a music string.
+     * @param token the token, in upper case
+     */
+    public void tokenStarted(String token);
+
+    /**
+     * Called when a parser has decoded an element other than a note, just
+     * before the element is sent to the <code>ParserListener</code>s.
+     * @param element the element that was decoded
+     */
+    public void elementDecoded(JFugueElement element);
+
+    /**
+     * Called when a parser fires a note, just before the note is sent to the
+     * <code>ParserListener</code>s.  The note's type tells whether it is the
+     * first note, a sequential note, or a parallel note.
+     * @param note the note that is about to be fired
+     */
+    public void noteFired(Note note);
+
+    /**
+     * Returns true if this tracer wants the parser's free-form detail messages.
+     * Parsers check this before building a message for {@link #detail(String)}.
+     */
+    public boolean isDetailEnabled();
+
+    /**
+     * Receives a free-form message about the inner workings of the parser.
+     * Only called when {@link #isDetailEnabled()} returns true.
+     * @param message the message
+     */
+    public void detail(String message);
+}
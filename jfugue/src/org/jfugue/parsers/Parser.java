@@ -22,16 +22,20 @@
 
 package org.jfugue.parsers;
 
-import java.util.HashMap;
+
+import java.util.Map;
 
 import javax.swing.event.EventListenerList;
 
+import org.jfugue.BatchParserListener;
 import org.jfugue.Environment;
 import org.jfugue.Environment.Error;
+import org.jfugue.EventBlock;
 import org.jfugue.JFugueDefinitions;
 import org.jfugue.JFugueException;
 import org.jfugue.ParserListener;
 import org.jfugue.ParserProgressListener;
+import org.jfugue.PrimitiveParserListener;
 import org.jfugue.elements.ChannelPressure;
 import org.jfugue.elements.Controller;
 import org.jfugue.elements.Instrument;
@@ -45,6 +49,7 @@ import org.jfugue.elements.SystemExclusive;
 import org.jfugue.elements.Tempo;
 import org.jfugue.elements.Time;
 import org.jfugue.elements.Voice;
+import org.jfugue.elements.AbstractNote.NoteTypes;
 
 /**
  * You may notice that there is no parse() method in the Parser class!
@@ -59,14 +64,47 @@ public abstract class Parser
 {
     public Parser() 
     { 
+        this(JFugueDefinitions.DICT_MAP, 0);
+    }
+
+    /**
+     * Creates a parser whose dictionary starts out with the words in the given map,
+     * which has the given version.  The map is shared, not copied, and its keys must
+     * be upper case.
+     * @see Environment#Environment(Map, int, FireEventProxy)
+     */
+    protected Parser(Map<String, String> dictionary, int dictionaryVersion)
+    {
         progressListenerList = new EventListenerList();
         listenerList = new EventListenerList ();
-        environment = new org.jfugue.Environment(new HashMap<String, String>(JFugueDefinitions.DICT_MAP),
+        environment = new org.jfugue.Environment(dictionary, dictionaryVersion,
         		eventProxy);
         // The Parser could add itself as a ParserProgressListener.
     }
  
     protected Environment environment;
+
+    /** Receives an account of the parser's work; never null */
+    protected ParseTracer tracer = DummyParseTracer.INSTANCE;
+
+    /**
+     * Sets the <code>ParseTracer</code> that is told what this parser is doing.
+     * By default, nothing is traced.
+     * @param tracer the tracer to use, or <code>null</code> to stop tracing
+     * @see Log4jParseTracer
+     */
+    public void setParseTracer(ParseTracer tracer)
+    {
+        this.tracer = (tracer == null) ? DummyParseTracer.INSTANCE : tracer;
+    }
+
+    /**
+     * Returns the <code>ParseTracer</code> that is told what this parser is doing.
+     */
+    public ParseTracer getParseTracer()
+    {
+        return tracer;
+    }
     
     
     
@@ -143,15 +181,31 @@ public abstract class Parser
     /** List of ParserProgressListeners */
     protected EventListenerList progressListenerList;
 
+    /** The listeners in progressListenerList, as of the last add or remove */
+    private volatile ParserProgressListener[] progressListeners = new ParserProgressListener[0];
+
+    /** The most progress reports to send during one parse, not counting the last one */
+    public static final int DEFAULT_PROGRESS_REPORT_LIMIT = 100;
+
+    private int progressReportLimit = DEFAULT_PROGRESS_REPORT_LIMIT;
+    private long progressReportInterval = 0L;
+    private long lastProgressReportTime = 0L;
+
+    /** The work being reported on, and the part of it that the next report is due at */
+    private long progressWhole = -1L;
+    private long lastProgressPart = 0L;
+    private long nextProgressReportAt = 0L;
+
     /**
      * Adds a <code>ParserListener</code>.  The listener will receive events when the parser
      * interprets music string tokens.
      *
      * @param listener the listener that is to be notified of parser events
      */
-    public void addParserProgressListener(ParserProgressListener listener) 
+    public synchronized void addParserProgressListener(ParserProgressListener listener) 
     {
         progressListenerList.add(ParserProgressListener.class, listener);
+        progressListeners = progressListenerList.getListeners(ParserProgressListener.class);
     }
 
     /**
@@ -159,9 +213,10 @@ public abstract class Parser
      *
      * @param listener the listener to remove
      */
-    public void removeParserProgressListener(ParserProgressListener listener) 
+    public synchronized void removeParserProgressListener(ParserProgressListener listener) 
     {
         progressListenerList.remove(ParserProgressListener.class, listener);
+        progressListeners = progressListenerList.getListeners(ParserProgressListener.class);
     }
 
     /**
@@ -171,30 +226,118 @@ public abstract class Parser
      */
     public ParserProgressListener[] getParserProgressListeners()
     {
-        ParserProgressListener[] listeners =  progressListenerList.getListeners(ParserProgressListener.class);
-        return listeners;
+        return progressListeners.clone();
     }
     
     /**
      * Removes all of the <code>ParserProgressListener</code>s.
      */
-    protected void clearParserProgressListeners() 
+    protected synchronized void clearParserProgressListeners() 
     {
-        ParserProgressListener[] listeners = listenerList.getListeners(ParserProgressListener.class);
+        ParserProgressListener[] listeners = progressListenerList.getListeners(ParserProgressListener.class);
         for (ParserProgressListener listener : listeners) { 
              progressListenerList.remove(ParserProgressListener.class, listener);
         }
+        progressListeners = progressListenerList.getListeners(ParserProgressListener.class);
+    }
+
+    /**
+     * Returns true if at least one <code>ParserProgressListener</code> is registered, so
+     * that parsers can skip the work of measuring progress when nobody is listening.
+     */
+    protected boolean hasParserProgressListeners()
+    {
+        return progressListeners.length > 0;
+    }
+
+    /**
+     * Sets the most progress reports that <code>ParserProgressListener</code>s receive
+     * during one parse.  Progress is reported at even steps through the work, and the
+     * end of the work is always reported.  Short patterns, with no more parts than the
+     * limit, have every part reported.  The default is <code>DEFAULT_PROGRESS_REPORT_LIMIT</code>.
+     *
+     * @param limit the most reports per parse, or 0 to report every part
+     */
+    public void setProgressReportLimit(int limit)
+    {
+        this.progressReportLimit = limit;
+    }
+
+    /**
+     * Returns the most progress reports that are sent during one parse,
+     * or 0 if every part is reported.
+     */
+    public int getProgressReportLimit()
+    {
+        return progressReportLimit;
+    }
+
+    /**
+     * Sets the least time between two progress reports.  Reports that come sooner are
+     * skipped, except for the report of the end of the work.  The default is 0, which
+     * doesn't skip any reports based on time.
+     *
+     * @param millis the least number of milliseconds between reports
+     */
+    public void setProgressReportInterval(long millis)
+    {
+        this.progressReportInterval = millis;
+    }
+
+    /**
+     * Returns the least number of milliseconds between two progress reports.
+     */
+    public long getProgressReportInterval()
+    {
+        return progressReportInterval;
     }
 
     /** Tells all ParserProgressListener interfaces that progress has occurred. */
     protected void fireProgressReported(String description, long partCompleted, long whole)
     {
-        ParserProgressListener[] listeners = getParserProgressListeners();
+        ParserProgressListener[] listeners = progressListeners;
+        if ((listeners.length == 0) || !isProgressReportDue(partCompleted, whole)) {
+            return;
+        }
         for (ParserProgressListener listener : listeners) {
             listener.progressReported(description, partCompleted, whole);
         }
     }
 
+    private boolean isProgressReportDue(long partCompleted, long whole)
+    {
+        if ((whole != progressWhole) || (partCompleted < lastProgressPart)) {
+            // A new parse has begun, so its reports are counted afresh
+            progressWhole = whole;
+            nextProgressReportAt = 0L;
+            lastProgressReportTime = 0L;
+        }
+        lastProgressPart = partCompleted;
+        if (partCompleted >= whole) {
+            return true;
+        }
+        if ((progressReportLimit > 0) && (whole > progressReportLimit)) {
+            // Report once each time a threshold is crossed; the step is rounded up so
+            // that whole/step thresholds never exceed the limit
+            long step = (whole + progressReportLimit - 1) / progressReportLimit;
+            if (nextProgressReportAt == 0L) {
+                nextProgressReportAt = step;
+            }
+            if (partCompleted < nextProgressReportAt) {
+                return false;
+            }
+            nextProgressReportAt = (partCompleted / step + 1) * step;
+        }
+        if (progressReportInterval > 0) {
+            long now = System.currentTimeMillis();
+            if (now - lastProgressReportTime < progressReportInterval) {
+                return false;
+            }
+            lastProgressReportTime = now;
+        }
+        return true;
+    }
+
     //
     // ParserListener methods
     /////////////////////////////////////////////////////////////////////////
@@ -202,15 +345,25 @@ public abstract class Parser
     /** List of ParserListeners */
     protected EventListenerList listenerList;
 
+    /** The listeners in listenerList, as of the last add or remove */
+    private volatile ParserListener[] parserListeners = new ParserListener[0];
+
+    /** The only listener, if there is exactly one, so that it can be called directly */
+    private volatile ParserListener soleParserListener = null;
+
+    /** The listeners, if every one of them takes notes as primitives; otherwise null */
+    private volatile PrimitiveParserListener[] primitiveParserListeners = new PrimitiveParserListener[0];
+
     /**
      * Adds a <code>ParserListener</code>.  The listener will receive events when the parser
      * interprets music string tokens.
      *
      * @param listener the listener that is to be notified of parser events
      */
-    public void addParserListener(ParserListener listener) 
+    public synchronized void addParserListener(ParserListener listener) 
     {
         listenerList.add(ParserListener.class, listener);
+        updateParserListeners();
     }
 
     /**
@@ -218,9 +371,10 @@ public abstract class Parser
      *
      * @param listener the listener to remove
      */
-    public void removeParserListener(ParserListener listener) 
+    public synchronized void removeParserListener(ParserListener listener) 
     {
         listenerList.remove(ParserListener.class, listener);
+        updateParserListeners();
     }
 
     /**
@@ -228,28 +382,199 @@ public abstract class Parser
      * 
      * @return array of all <code>ParserListener</code>s
      */
-    public ParserListener[] getParserListeners()
+    public synchronized ParserListener[] getParserListeners()
     {
-        ParserListener[] listeners = listenerList.getListeners(ParserListener.class);
-        return listeners;
+        return listenerList.getListeners(ParserListener.class);
     }
     
     /**
      * Removes all of the <code>ParserListener</code>s.
      */
-    protected void clearParserListeners() 
+    protected synchronized void clearParserListeners() 
     {
         ParserListener[] listeners = listenerList.getListeners(ParserListener.class);
         for (ParserListener listener : listeners) { 
             listenerList.remove(ParserListener.class, listener);
         }
+        updateParserListeners();
+    }
+
+    /**
+     * Takes a new snapshot of the listeners.  The fire methods read the snapshot
+     * without copying it, so adding or removing a listener while events are being
+     * fired doesn't disturb the event in progress.  While there are batch listeners,
+     * the snapshot also includes the block that collects events for them.
+     */
+    private void updateParserListeners()
+    {
+        ParserListener[] listeners = listenerList.getListeners(ParserListener.class);
+        if (batchListeners.length > 0) {
+            ParserListener[] withBatch = new ParserListener[listeners.length + 1];
+            System.arraycopy(listeners, 0, withBatch, 0, listeners.length);
+            withBatch[listeners.length] = batch;
+            listeners = withBatch;
+        }
+        soleParserListener = (listeners.length == 1) ? listeners[0] : null;
+        PrimitiveParserListener[] primitives = new PrimitiveParserListener[listeners.length];
+        for (int i = 0; i < listeners.length; i++) {
+            if (!(listeners[i] instanceof PrimitiveParserListener)) {
+                primitives = null;
+                break;
+            }
+            primitives[i] = (PrimitiveParserListener)listeners[i];
+        }
+        primitiveParserListeners = primitives;
+        parserListeners = listeners;
+    }
+
+    //
+    // BatchParserListener methods
+    /////////////////////////////////////////////////////////////////////////
+
+    /** The number of events in a block if no batch size is given */
+    public static final int DEFAULT_BATCH_SIZE = 256;
+
+    /** The listeners in listenerList that want events a block at a time, as of the last add or remove */
+    private volatile BatchParserListener[] batchListeners = new BatchParserListener[0];
+
+    /** Collects events for the batch listeners */
+    private final EventBlock batch = new EventBlock(DEFAULT_BATCH_SIZE);
+
+    private int batchSize = DEFAULT_BATCH_SIZE;
+    private boolean batchPerMeasure = false;
+
+    /**
+     * Adds a <code>BatchParserListener</code>.  The listener will receive the parsed
+     * events in blocks.
+     *
+     * @param listener the listener that is to be notified of parser events
+     */
+    public synchronized void addBatchParserListener(BatchParserListener listener)
+    {
+        listenerList.add(BatchParserListener.class, listener);
+        batchListeners = listenerList.getListeners(BatchParserListener.class);
+        updateParserListeners();
+    }
+
+    /**
+     * Removes a <code>BatchParserListener</code>.
+     *
+     * @param listener the listener to remove
+     */
+    public synchronized void removeBatchParserListener(BatchParserListener listener)
+    {
+        listenerList.remove(BatchParserListener.class, listener);
+        batchListeners = listenerList.getListeners(BatchParserListener.class);
+        updateParserListeners();
+    }
+
+    /**
+     * Returns an array of all <code>BatchParserListener</code>s.
+     *
+     * @return array of all <code>BatchParserListener</code>s
+     */
+    public BatchParserListener[] getBatchParserListeners()
+    {
+        return batchListeners.clone();
+    }
+
+    /**
+     * Sets the number of events that are collected before they are handed to the
+     * <code>BatchParserListener</code>s.  A block may run a little over this size,
+     * because a block is only handed over between tokens.  A size of 1 hands over
+     * the events of each token as soon as it is parsed.  The default is
+     * <code>DEFAULT_BATCH_SIZE</code>.
+     *
+     * @param events the number of events in a block
+     */
+    public void setBatchSize(int events)
+    {
+        if (events < 1) {
+            throw new IllegalArgumentException("Batch size must be at least 1, not " + events);
+        }
+        this.batchSize = events;
+    }
+
+    /**
+     * Returns the number of events that are collected before they are handed to the
+     * <code>BatchParserListener</code>s.
+     */
+    public int getBatchSize()
+    {
+        return batchSize;
+    }
+
+    /**
+     * Sets whether a block is also handed over at each measure, even if it isn't full.
+     * This suits batch listeners that work a measure at a time.  The default is false.
+     */
+    public void setBatchPerMeasure(boolean batchPerMeasure)
+    {
+        this.batchPerMeasure = batchPerMeasure;
+    }
+
+    /**
+     * Returns true if a block is handed over at each measure.
+     */
+    public boolean isBatchPerMeasure()
+    {
+        return batchPerMeasure;
+    }
+
+    /**
+     * Called by parsers between tokens, where it is safe to hand a block to the
+     * <code>BatchParserListener</code>s.  Hands the block over if it is full,
+     * or if it ends with a measure and blocks are handed over per measure.
+     */
+    protected void batchBoundary()
+    {
+        int size = batch.size();
+        if ((size >= batchSize) || (batchPerMeasure && (size > 0) && (batch.getKinds()[size - 1] == EventBlock.MEASURE_EVENT))) {
+            flushBatch();
+        }
+    }
+
+    /**
+     * Hands any events that have been collected to the <code>BatchParserListener</code>s.
+     * Parsers call this at the end of each parse.
+     */
+    protected void flushBatch()
+    {
+        if (batch.isEmpty()) {
+            return;
+        }
+        try {
+            for (BatchParserListener listener : batchListeners) {
+                listener.eventsParsed(batch);
+            }
+        } finally {
+            batch.clear();
+        }
+    }
+
+    /**
+     * Hands any events that have been collected to the <code>BatchParserListener</code>s,
+     * and forgets the voice and layer, ready for the next parse.
+     */
+    protected void finishBatch()
+    {
+        try {
+            flushBatch();
+        } finally {
+            batch.reset();
+        }
     }
 
     /** Tells all ParserListeners that a voice event has been parsed. */
     protected void fireVoiceEvent(Voice event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.voiceEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.voiceEvent(event);
         }
     }
@@ -257,8 +582,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a tempo event has been parsed. */
     protected void fireTempoEvent(Tempo event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.tempoEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.tempoEvent(event);
         }
     }
@@ -266,8 +596,13 @@ public abstract class Parser
     /** Tells all ParserListeners that an instrument event has been parsed. */
     protected void fireInstrumentEvent(Instrument event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.instrumentEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.instrumentEvent(event);
         }
     }
@@ -275,8 +610,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a layer event has been parsed. */
     protected void fireLayerEvent(Layer event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.layerEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.layerEvent(event);
         }
     }
@@ -284,8 +624,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a time event has been parsed. */
     protected void fireTimeEvent(Time event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.timeEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.timeEvent(event);
         }
     }
@@ -293,8 +638,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a time event has been parsed. */
     protected void fireSystemExclusiveEvent(SystemExclusive event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.systemExclusiveEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.systemExclusiveEvent(event);
         }
     }
@@ -302,8 +652,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a key signature event has been parsed. */
     protected void fireKeySignatureEvent(KeySignature event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.keySignatureEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.keySignatureEvent(event);
         }
     }
@@ -311,8 +666,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a measure event has been parsed. */
     protected void fireMeasureEvent(Measure event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.measureEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.measureEvent(event);
         }
     }
@@ -320,8 +680,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a controller event has been parsed. */
     protected void fireControllerEvent(Controller event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.controllerEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.controllerEvent(event);
         }
     }
@@ -329,8 +694,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a controller event has been parsed. */
     protected void fireChannelPressureEvent(ChannelPressure event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.channelPressureEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.channelPressureEvent(event);
         }
     }
@@ -338,8 +708,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a controller event has been parsed. */
     protected void firePolyphonicPressureEvent(PolyphonicPressure event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.polyphonicPressureEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.polyphonicPressureEvent(event);
         }
     }
@@ -347,8 +722,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a controller event has been parsed. */
     protected void firePitchBendEvent(PitchBend event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.elementDecoded(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.pitchBendEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.pitchBendEvent(event);
         }
     }
@@ -356,8 +736,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a note event has been parsed. */
     protected void fireNoteEvent(Note event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.noteFired(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.noteEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.noteEvent(event);
         }
     }
@@ -365,8 +750,13 @@ public abstract class Parser
     /** Tells all ParserListeners that a sequential note event has been parsed. */
     protected void fireSequentialNoteEvent(Note event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.noteFired(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.sequentialNoteEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.sequentialNoteEvent(event);
         }
     }
@@ -374,12 +764,94 @@ public abstract class Parser
     /** Tells all ParserListeners that a parallel note event has been parsed. */
     protected void fireParallelNoteEvent(Note event)
     {
-        ParserListener[] listeners = getParserListeners();
-        for (ParserListener listener : listeners) {
+        tracer.noteFired(event);
+        ParserListener sole = soleParserListener;
+        if (sole != null) {
+            sole.parallelNoteEvent(event);
+            return;
+        }
+        for (ParserListener listener : parserListeners) {
             listener.parallelNoteEvent(event);
         }
     }
 
+    /**
+     * Returns the listeners if notes can be given to them as primitives: that is,
+     * if every listener is a <code>PrimitiveParserListener</code> and nobody is
+     * tracing notes.  Otherwise returns null.
+     */
+    private PrimitiveParserListener[] getPrimitiveParserListeners()
+    {
+        return (tracer == DummyParseTracer.INSTANCE) ? primitiveParserListeners : null;
+    }
+
+    /**
+     * Tells all ParserListeners that a note event has been parsed.  If every listener
+     * is a <code>PrimitiveParserListener</code>, no <code>Note</code> is created.
+     * @param flags a combination of the note flags in <code>EventBlock</code>
+     */
+    protected void fireNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+    {
+        PrimitiveParserListener[] listeners = getPrimitiveParserListeners();
+        if (listeners == null) {
+            fireNoteEvent(createNote(Note.FIRST, value, duration, decimalDuration, attackVelocity, decayVelocity, flags));
+            return;
+        }
+        for (PrimitiveParserListener listener : listeners) {
+            listener.noteEvent(value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+        }
+    }
+
+    /**
+     * Tells all ParserListeners that a sequential note event has been parsed.  If every
+     * listener is a <code>PrimitiveParserListener</code>, no <code>Note</code> is created.
+     * @param flags a combination of the note flags in <code>EventBlock</code>
+     */
+    protected void fireSequentialNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+    {
+        PrimitiveParserListener[] listeners = getPrimitiveParserListeners();
+        if (listeners == null) {
+            fireSequentialNoteEvent(createNote(Note.SEQUENTIAL, value, duration, decimalDuration, attackVelocity, decayVelocity, flags));
+            return;
+        }
+        for (PrimitiveParserListener listener : listeners) {
+            listener.sequentialNoteEvent(value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+        }
+    }
+
+    /**
+     * Tells all ParserListeners that a parallel note event has been parsed.  If every
+     * listener is a <code>PrimitiveParserListener</code>, no <code>Note</code> is created.
+     * @param flags a combination of the note flags in <code>EventBlock</code>
+     */
+    protected void fireParallelNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+    {
+        PrimitiveParserListener[] listeners = getPrimitiveParserListeners();
+        if (listeners == null) {
+            fireParallelNoteEvent(createNote(Note.PARALLEL, value, duration, decimalDuration, attackVelocity, decayVelocity, flags));
+            return;
+        }
+        for (PrimitiveParserListener listener : listeners) {
+            listener.parallelNoteEvent(value, duration, decimalDuration, attackVelocity, decayVelocity, flags);
+        }
+    }
+
+    private static Note createNote(NoteTypes type, int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags)
+    {
+        Note note = new Note();
+        note.setValue(value);
+        note.setMillisDuration(duration);
+        note.setDecimalDuration(decimalDuration);
+        note.setAttackVelocity(attackVelocity);
+        note.setDecayVelocity(decayVelocity);
+        note.setRest((flags & EventBlock.REST) != 0);
+        note.setStartOfTie((flags & EventBlock.START_OF_TIE) != 0);
+        note.setEndOfTie((flags & EventBlock.END_OF_TIE) != 0);
+        note.setAccompanyingNotes((flags & EventBlock.ACCOMPANYING_NOTES) != 0);
+        note.setType(type);
+        return note;
+    }
+
     //
     // End ParserListener methods
     /////////////////////////////////////////////////////////////////////////
@@ -19,6 +19,9 @@ public class ParserError extends JFugueException {
 	public static final String PATTERN_NOT_MATCH = "Regex failed: %s";
 	public static final String PATTERN_NOT_MATCH_ON = "Regex '%s' failed to match '%s'";
 
+	private String token = null;
+	private int tokenOffset = -1;
+
 	public static final String EXPECTED_BYTE   = "The parser expected a byte.";
     public static final String EXPECTED_LONG   = "The parser expected a long.";
     public static final String EXPECTED_INT    = "The parser expected an int.";
@@ -51,6 +54,40 @@ public class ParserError extends JFugueException {
 	public ParserError(Throwable cause) {
 		super(cause);
 	}
+
+	/**
+	 * Returns the given exception if it is a ParserError, or a ParserError caused by it.
+	 */
+	public static ParserError from(RuntimeException e) {
+		return (e instanceof ParserError) ? (ParserError)e : new ParserError(e);
+	}
+
+	/**
+	 * Records the token in which this error was found.
+	 * @param token the token
+	 * @param offset the character offset of the token within the music string
+	 * @return this error
+	 */
+	public ParserError atToken(String token, int offset) {
+		this.token = token;
+		this.tokenOffset = offset;
+		return this;
+	}
+
+	/**
+	 * Returns the token in which this error was found, or <code>null</code> if it isn't known.
+	 */
+	public String getToken() {
+		return token;
+	}
+
+	/**
+	 * Returns the character offset, within the music string, of the token in which
+	 * this error was found, or -1 if it isn't known.
+	 */
+	public int getTokenOffset() {
+		return tokenOffset;
+	}
 	
 	
 //	public ParserError() {
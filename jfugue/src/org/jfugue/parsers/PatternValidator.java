@@ -0,0 +1,131 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue.parsers;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import org.jfugue.JFugueException;
+import org.jfugue.PatternInterface;
+
+/**
+ * Checks many patterns at once, spreading the work over several threads.
+ * Each pattern is checked with {@link MusicStringParser#validate(PatternInterface)},
+ * on a parser of its own, so a dictionary definition or key signature in one
+ * pattern has no effect on another.
+ *
+ * <pre>
+ *  List&lt;List&lt;ParserError&gt;&gt; errors = PatternValidator.validateAll(patterns);
+ *  for (int i = 0; i &lt; patterns.size(); i++) {
+ *      for (ParserError error : errors.get(i)) {
+ *          System.out.println(i + " at " + error.getTokenOffset() + ": " + error.getMessage());
+ *      }
+ *  }
+ * </pre>
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class PatternValidator
+{
+    /** The number of patterns each thread checks before taking more work */
+    private static final int PATTERNS_PER_TASK = 64;
+
+    private PatternValidator()
+    {
+    }
+
+    /**
+     * Checks the given patterns using one thread per available processor.
+     * @param patterns the patterns to check
+     * @return the errors for each pattern, in the same order as the patterns;
+     *      the list for a valid pattern is empty
+     */
+    public static List<List<ParserError>> validateAll(List<? extends PatternInterface> patterns)
+    {
+        int threads = Math.max(1, Math.min(Runtime.getRuntime().availableProcessors(), patterns.size() / PATTERNS_PER_TASK));
+        if (threads == 1) {
+            return validateRange(patterns, 0, patterns.size());
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        try {
+            return validateAll(patterns, executor);
+        } finally {
+            executor.shutdown();
+        }
+    }
+
+    /**
+     * Checks the given patterns on the threads of the given executor.  The executor
+     * is not shut down.
+     * @param patterns the patterns to check
+     * @param executor the executor to run the checks on
+     * @return the errors for each pattern, in the same order as the patterns;
+     *      the list for a valid pattern is empty
+     * @throws JFugueException if the work is interrupted
+     */
+    public static List<List<ParserError>> validateAll(final List<? extends PatternInterface> patterns, ExecutorService executor)
+    {
+        List<Callable<List<List<ParserError>>>> tasks = new ArrayList<Callable<List<List<ParserError>>>>();
+        for (int start = 0; start < patterns.size(); start += PATTERNS_PER_TASK) {
+            final int from = start;
+            final int to = Math.min(start + PATTERNS_PER_TASK, patterns.size());
+            tasks.add(new Callable<List<List<ParserError>>>() {
+                public List<List<ParserError>> call()
+                {
+                    return validateRange(patterns, from, to);
+                }
+            });
+        }
+
+        List<List<ParserError>> results = new ArrayList<List<ParserError>>(patterns.size());
+        try {
+            for (Future<List<List<ParserError>>> future : executor.invokeAll(tasks)) {
+                results.addAll(future.get());
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new JFugueException(e);
+        } catch (ExecutionException e) {
+            throw new JFugueException(e.getCause());
+        }
+        return results;
+    }
+
+    private static List<List<ParserError>> validateRange(List<? extends PatternInterface> patterns, int from, int to)
+    {
+        List<List<ParserError>> results = new ArrayList<List<ParserError>>(to - from);
+        for (int i = from; i < to; i++) {
+            List<ParserError> errors = MusicStringParser.validate(patterns.get(i));
+            results.add(errors.isEmpty() ? Collections.<ParserError>emptyList() : errors);
+        }
+        return results;
+    }
+}
@@ -0,0 +1,207 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package org.jfugue.parsers;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.jfugue.ChordTable;
+import org.jfugue.CompiledPattern;
+
+/**
+ * Remembers the events that the <code>MusicStringParser</code> fired for recently
+ * parsed tokens, so that a token that appears again can be answered without
+ * being decoded again.  Music strings tend to repeat the same few tokens
+ * ("C5q", "V9", "Rw") many times, which makes this worthwhile for long patterns.
+ *
+ * <p>
+ * An entry depends on the token itself, the key signature in effect (which
+ * changes the values of notes), and the version of the parser's dictionary (which
+ * changes the meaning of bracketed words).  Registering a new chord type with
+ * the {@link ChordTable} empties the cache.  When the cache is full, the least
+ * recently used entry is dropped.
+ * </p>
+ *
+ * <p>
+ * The hit and miss counts can be used to choose a capacity for a particular
+ * body of music.  A cache may be shared by several parsers, including parsers
+ * on different threads.
+ * </p>
+ *
+ * @see MusicStringParser#setTokenCache(TokenCache)
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class TokenCache
+{
+    /** The number of tokens a cache holds if no capacity is given */
+    public static final int DEFAULT_CAPACITY = 1024;
+
+    private final int capacity;
+    private final Map<Key, CompiledPattern> entries;
+    private long hitCount;
+    private long missCount;
+    private int chordTableVersion = ChordTable.getVersion();
+
+    /**
+     * Creates a cache that holds up to <code>DEFAULT_CAPACITY</code> tokens.
+     */
+    public TokenCache()
+    {
+        this(DEFAULT_CAPACITY);
+    }
+
+    /**
+     * Creates a cache that holds up to the given number of tokens.
+     * @param capacity the maximum number of tokens to remember
+     */
+    public TokenCache(final int capacity)
+    {
+        if (capacity < 1) {
+            throw new IllegalArgumentException("Token cache capacity must be at least 1, not " + capacity);
+        }
+        this.capacity = capacity;
+        this.entries = new LinkedHashMap<Key, CompiledPattern>(16, 0.75f, true) {
+            private static final long serialVersionUID = 1L;
+
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<Key, CompiledPattern> eldest)
+            {
+                return size() > TokenCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the events recorded for the given token under the given parse state,
+     * or <code>null</code> if the token has not been seen under that state.
+     */
+    synchronized CompiledPattern get(String token, byte keySig, int dictionaryVersion)
+    {
+        if (chordTableVersion != ChordTable.getVersion()) {
+            entries.clear();
+            chordTableVersion = ChordTable.getVersion();
+        }
+        CompiledPattern events = entries.get(new Key(token, keySig, dictionaryVersion));
+        if (events == null) {
+            missCount++;
+        } else {
+            hitCount++;
+        }
+        return events;
+    }
+
+    /**
+     * Records the events fired for the given token under the given parse state.
+     */
+    synchronized void put(String token, byte keySig, int dictionaryVersion, CompiledPattern events)
+    {
+        if (chordTableVersion != ChordTable.getVersion()) {
+            return;
+        }
+        entries.put(new Key(token, keySig, dictionaryVersion), events);
+    }
+
+    /** Returns the maximum number of tokens this cache holds */
+    public int getCapacity()
+    {
+        return capacity;
+    }
+
+    /** Returns the number of tokens this cache currently holds */
+    public synchronized int size()
+    {
+        return entries.size();
+    }
+
+    /** Returns the number of tokens that were answered from this cache */
+    public synchronized long getHitCount()
+    {
+        return hitCount;
+    }
+
+    /** Returns the number of tokens that had to be parsed because they were not in this cache */
+    public synchronized long getMissCount()
+    {
+        return missCount;
+    }
+
+    /**
+     * Returns the fraction of lookups that were answered from this cache,
+     * or 0 if there have not been any lookups.
+     */
+    public synchronized double getHitRatio()
+    {
+        long lookups = hitCount + missCount;
+        return (lookups == 0) ? 0.0 : (double)hitCount / lookups;
+    }
+
+    /** Sets the hit and miss counts back to zero, without removing any tokens */
+    public synchronized void resetStatistics()
+    {
+        hitCount = 0;
+        missCount = 0;
+    }
+
+    /** Removes every token from this cache and sets the hit and miss counts back to zero */
+    public synchronized void clear()
+    {
+        entries.clear();
+        resetStatistics();
+    }
+
+    public synchronized String toString()
+    {
+        return "TokenCache[size=" + entries.size() + ", capacity=" + capacity + ", hits=" + hitCount + ", misses=" + missCount + "]";
+    }
+
+    private static final class Key
+    {
+        private final String token;
+        private final byte keySig;
+        private final int dictionaryVersion;
+
+        Key(String token, byte keySig, int dictionaryVersion)
+        {
+            this.token = token;
+            this.keySig = keySig;
+            this.dictionaryVersion = dictionaryVersion;
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return (token.hashCode() * 31 + keySig) * 31 + dictionaryVersion;
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key)obj;
+            return (keySig == other.keySig) && (dictionaryVersion == other.dictionaryVersion) && token.equals(other.token);
+        }
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package org.jfugue.parsers;
+
+/**
+ * Walks the tokens of a music string in place.  Unlike
+ * {@link org.jfugue.PatternInterface#getTokens()}, the cursor never builds an
+ * array of tokens: it keeps only the offset and length of the current token
+ * within the underlying <code>CharSequence</code>, and is itself a
+ * <code>CharSequence</code> view of that token.
+ *
+ * <p>
+ * Tokens are separated by the same characters that <code>getTokens()</code>
+ * uses: spaces, newlines and tabs.
+ * </p>
+ *
+ * <p>
+ * The cursor reads the source lazily, so the source must not be modified while
+ * the cursor is in use.
+ * </p>
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class TokenCursor implements CharSequence
+{
+    private final CharSequence source;
+    private final int end;
+    private int position;
+    private int tokenStart;
+    private int tokenLength;
+
+    /**
+     * Creates a cursor positioned before the first token of the given music string.
+     * @param source the music string to walk
+     */
+    public TokenCursor(CharSequence source)
+    {
+        this(source, 0, source.length());
+    }
+
+    /**
+     * Creates a cursor positioned before the first token found between
+     * <code>start</code> (inclusive) and <code>end</code> (exclusive).
+     * @param source the music string to walk
+     * @param start the character offset at which to start looking for tokens
+     * @param end the character offset at which to stop
+     */
+    public TokenCursor(CharSequence source, int start, int end)
+    {
+        this.source = source;
+        this.end = end;
+        this.position = start;
+        this.tokenStart = start;
+        this.tokenLength = 0;
+    }
+
+    /**
+     * Returns true if the given character separates tokens in a music string.
+     */
+    public static boolean isDelimiter(char ch)
+    {
+        return (ch == ' ') || (ch == '\n') || (ch == '\t');
+    }
+
+    /**
+     * Advances the cursor to the next token.
+     * @return true if a token was found; false if the end of the music string was reached
+     */
+    public boolean next()
+    {
+        int i = position;
+        while ((i < end) && isDelimiter(source.charAt(i))) {
+            i++;
+        }
+        if (i >= end) {
+            position = end;
+            tokenStart = end;
+            tokenLength = 0;
+            return false;
+        }
+        tokenStart = i;
+        while ((i < end) && !isDelimiter(source.charAt(i))) {
+            i++;
+        }
+        tokenLength = i - tokenStart;
+        position = i;
+        return true;
+    }
+
+    /**
+     * Counts the tokens that have not been visited yet, without moving the cursor.
+     * @return the number of tokens after the current one
+     */
+    public int countRemaining()
+    {
+        int count = 0;
+        boolean inToken = false;
+        for (int i = position; i < end; i++) {
+            if (isDelimiter(source.charAt(i))) {
+                inToken = false;
+            } else if (!inToken) {
+                inToken = true;
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Returns the character offset of the current token within the music string.
+     */
+    public int offset()
+    {
+        return tokenStart;
+    }
+
+    public int length()
+    {
+        return tokenLength;
+    }
+
+    public char charAt(int index)
+    {
+        if ((index < 0) || (index >= tokenLength)) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        return source.charAt(tokenStart + index);
+    }
+
+    /**
+     * Returns the upper-case form of a character of the current token.  This
+     * lets callers dispatch on a token without upper-casing the whole token first.
+     */
+    public char upperCharAt(int index)
+    {
+        return Character.toUpperCase(charAt(index));
+    }
+
+    public CharSequence subSequence(int start, int end)
+    {
+        if ((start < 0) || (end > tokenLength) || (start > end)) {
+            throw new IndexOutOfBoundsException(start + "," + end);
+        }
+        return source.subSequence(tokenStart + start, tokenStart + end);
+    }
+
+    /**
+     * Returns the current token as an upper-case String, built with a single copy.
+     */
+    public String toUpperCaseString()
+    {
+        char[] chars = new char[tokenLength];
+        for (int i = 0; i < tokenLength; i++) {
+            chars[i] = Character.toUpperCase(source.charAt(tokenStart + i));
+        }
+        return new String(chars);
+    }
+
+    public String toString()
+    {
+        return source.subSequence(tokenStart, tokenStart + tokenLength).toString();
+    }
+}
@@ -0,0 +1,255 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue.parsers;
+
+import org.jfugue.JFugueException;
+import org.jfugue.PatternInterface;
+
+/**
+ * Splits a music string into one stream of tokens for each voice, so that the
+ * voices can be parsed separately, and at the same time, by parsers of their own.
+ *
+ * <p>
+ * A token fires its events into the voice that is current when it is parsed, so
+ * a voice's stream is made of the tokens that follow each V token selecting that
+ * voice, up to the next V token.  Two kinds of token change how the tokens after
+ * them are parsed in every voice: key signatures, which change the values of notes,
+ * and dictionary definitions.  A dictionary definition is put into every stream.
+ * A key signature fires its event in its own voice; the other voices just take on
+ * the new key, without an event.  Parsing every stream therefore fires, for each
+ * voice, exactly the events that parsing the whole music string fires while that
+ * voice is current.
+ * </p>
+ *
+ * <p>
+ * The split is made by looking at the first character of each token, without
+ * parsing the tokens.  A voice that is named with a dictionary word, as in
+ * <code>V[Bass]</code>, can't be known without parsing the definitions before
+ * it, so {@link #split(PatternInterface)} returns <code>null</code> for such a
+ * music string, and for one that names a voice out of range, so that it can be
+ * parsed (and any error reported) in the usual way.
+ * </p>
+ *
+ * @see org.jfugue.ParallelMidiRenderer
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class VoiceSplitter
+{
+    private static final int VOICES = 16;
+
+    private final CharSequence source;
+    private final Stream[] streams = new Stream[VOICES];
+
+    /** The key signatures and dictionary definitions so far, for voices that haven't started yet */
+    private final Stream shared = new Stream();
+
+    private VoiceSplitter(CharSequence source)
+    {
+        this.source = source;
+    }
+
+    /**
+     * Splits the music string of the given pattern by voice.
+     * @param pattern the pattern to split
+     * @return the split pattern, or <code>null</code> if the voices can't be told apart without parsing
+     */
+    public static VoiceSplitter split(PatternInterface pattern)
+    {
+        VoiceSplitter splitter = new VoiceSplitter(pattern.getMusicCharSequence());
+        return splitter.scan() ? splitter : null;
+    }
+
+    private boolean scan()
+    {
+        TokenCursor tokens = new TokenCursor(source);
+        if (!tokens.next()) {
+            return true;
+        }
+        int voice = 0;
+        startStream(0);
+        do {
+            int start = tokens.offset();
+            int end = start + tokens.length();
+            switch (tokens.upperCharAt(0)) {
+                case 'V' :
+                    voice = getVoice(tokens);
+                    if (voice < 0) {
+                        return false;
+                    }
+                    startStream(voice).add(start, end);
+                    break;
+                case 'K' :
+                    for (int i = 0; i < VOICES; i++) {
+                        if (streams[i] != null) {
+                            streams[i].add((i == voice) ? start : -1 - start, end);
+                        }
+                    }
+                    shared.add(-1 - start, end);
+                    break;
+                case '$' :
+                    for (Stream stream : streams) {
+                        if (stream != null) {
+                            stream.add(start, end);
+                        }
+                    }
+                    shared.add(start, end);
+                    break;
+                default :
+                    streams[voice].add(start, end);
+                    break;
+            }
+        } while (tokens.next());
+        return true;
+    }
+
+    /**
+     * Returns the number in a V token, or -1 if it isn't a plain number from 0 to 15.
+     */
+    private static int getVoice(TokenCursor token)
+    {
+        int length = token.length();
+        if ((length < 2) || (length > 4)) {
+            return -1;
+        }
+        int voice = 0;
+        for (int i = 1; i < length; i++) {
+            char ch = token.charAt(i);
+            if ((ch < '0') || (ch > '9')) {
+                return -1;
+            }
+            voice = voice * 10 + (ch - '0');
+        }
+        return (voice < VOICES) ? voice : -1;
+    }
+
+    /** Returns the stream of a voice, starting it with the shared tokens so far if it is new */
+    private Stream startStream(int voice)
+    {
+        if (streams[voice] == null) {
+            streams[voice] = shared.copy();
+        }
+        return streams[voice];
+    }
+
+    /** Returns the music string that was split */
+    public CharSequence getSource()
+    {
+        return source;
+    }
+
+    /** Returns true if any of the music string is parsed while the given voice is current */
+    public boolean isVoiceUsed(int voice)
+    {
+        return streams[voice] != null;
+    }
+
+    /** Returns the number of voices that are used */
+    public int getVoiceCount()
+    {
+        int count = 0;
+        for (Stream stream : streams) {
+            if (stream != null) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Parses the stream of one voice, firing the events that parsing the whole music
+     * string would fire while that voice is current.  Voice 0 is given the default
+     * tempo, if the parser uses one and the music string doesn't begin with a tempo.
+     * The parser should not have parsed anything before, so that its key signature
+     * and dictionary are those of a new parser.
+     * @param voice the voice to parse
+     * @param parser the parser to fire the events from
+     * @throws JFugueException if there is a problem parsing one of the voice's tokens
+     */
+    public void parse(int voice, MusicStringParser parser) throws JFugueException
+    {
+        Stream stream = streams[voice];
+        if (stream == null) {
+            return;
+        }
+        try {
+            if (voice == 0) {
+                TokenCursor first = new TokenCursor(source);
+                first.next();
+                parser.fireDefaultTempo(first);
+            }
+            for (int i = 0; i < stream.size; i++) {
+                int start = stream.starts[i];
+                TokenCursor token = new TokenCursor(source, (start < 0) ? -1 - start : start, stream.ends[i]);
+                token.next();
+                if (start < 0) {
+                    parser.applyKeySignature(token);
+                } else {
+                    parser.parseToken(token);
+                    parser.batchBoundary();
+                }
+            }
+        } finally {
+            parser.finishBatch();
+        }
+    }
+
+    /**
+     * The tokens of one voice, as character offsets into the music string.  The start
+     * of a key signature that only changes the key is stored as <code>-1 - start</code>.
+     */
+    private static final class Stream
+    {
+        int[] starts = new int[16];
+        int[] ends = new int[16];
+        int size;
+
+        void add(int start, int end)
+        {
+            if (size == starts.length) {
+                starts = grow(starts);
+                ends = grow(ends);
+            }
+            starts[size] = start;
+            ends[size] = end;
+            size++;
+        }
+
+        Stream copy()
+        {
+            Stream copy = new Stream();
+            copy.starts = starts.clone();
+            copy.ends = ends.clone();
+            copy.size = size;
+            return copy;
+        }
+
+        private static int[] grow(int[] array)
+        {
+            int[] bigger = new int[array.length * 2];
+            System.arraycopy(array, 0, bigger, 0, array.length);
+            return bigger;
+        }
+    }
+}
@@ -0,0 +1,105 @@
+package org.jfugue.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import javax.sound.midi.Sequence;
+
+import org.jfugue.BatchParserListener;
+import org.jfugue.BatchToListenerAdaptor;
+import org.jfugue.EventBlock;
+import org.jfugue.MidiRenderer;
+import org.jfugue.Pattern;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.visitors.ListenerToVisitorAdaptor;
+import org.jfugue.visitors.LoggingVisitor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BatchParserListenerTest {
+
+	private static final String MUSIC = "V0 I[Piano] Cmaj5q F5q | V1 L1 Rq Bb4h_E5w | T160 X[Volume]=10000 Gw+Bw+D6w";
+
+	@Test
+	public void testAdaptorMatchesDirectListener() throws Exception {
+		MusicStringParser parser = new MusicStringParser();
+		LoggingVisitor direct = new LoggingVisitor();
+		LoggingVisitor batched = new LoggingVisitor();
+		parser.addParserListener(new ListenerToVisitorAdaptor(direct));
+		parser.addBatchParserListener(new BatchToListenerAdaptor(new ListenerToVisitorAdaptor(batched)));
+		parser.setBatchSize(3);
+		parser.parse(new Pattern(MUSIC));
+		assertEquals(direct.toString(), batched.toString());
+	}
+
+	@Test
+	public void testBatchesAreHandedOverBetweenTokens() throws Exception {
+		MusicStringParser parser = new MusicStringParser();
+		final List<Integer> sizes = new ArrayList<Integer>();
+		parser.addBatchParserListener(new BatchParserListener() {
+			public void eventsParsed(EventBlock block) {
+				sizes.add(block.size());
+			}
+		});
+		parser.setBatchSize(2);
+		parser.parse(new Pattern("T120 C D Cmaj E"));
+		// T120 C, then D and the three notes of Cmaj, then E at the end
+		assertEquals("[2, 4, 1]", sizes.toString());
+	}
+
+	@Test
+	public void testBatchPerMeasure() throws Exception {
+		MusicStringParser parser = new MusicStringParser();
+		final List<Integer> sizes = new ArrayList<Integer>();
+		parser.addBatchParserListener(new BatchParserListener() {
+			public void eventsParsed(EventBlock block) {
+				sizes.add(block.size());
+			}
+		});
+		parser.setBatchPerMeasure(true);
+		parser.parse(new Pattern("T120 C D | E | F"));
+		assertEquals("[4, 2, 1]", sizes.toString());
+	}
+
+	@Test
+	public void testVoiceIsKeptAcrossBatches() throws Exception {
+		MusicStringParser parser = new MusicStringParser();
+		final List<Byte> voices = new ArrayList<Byte>();
+		parser.addBatchParserListener(new BatchParserListener() {
+			public void eventsParsed(EventBlock block) {
+				for (int i = 0; i < block.size(); i++) {
+					if (block.getKind(i) == EventBlock.NOTE_EVENT) {
+						voices.add(block.getVoice(i));
+					}
+				}
+			}
+		});
+		parser.setBatchSize(1);
+		parser.parse(new Pattern("V3 C D V0 E"));
+		assertEquals("[3, 3, 0]", voices.toString());
+	}
+
+	@Test
+	public void testMidiRendererBatchPathMatchesListenerPath() throws Exception {
+		MusicStringParser parser = new MusicStringParser();
+		MidiRenderer listenerRenderer = new MidiRenderer(Sequence.PPQ, 120);
+		parser.addParserListener(listenerRenderer);
+		parser.parse(new Pattern(MUSIC));
+
+		MusicStringParser batchParser = new MusicStringParser();
+		MidiRenderer batchRenderer = new MidiRenderer(Sequence.PPQ, 120);
+		batchParser.addBatchParserListener(batchRenderer);
+		batchParser.setBatchSize(4);
+		batchParser.parse(new Pattern(MUSIC));
+
+		assertArrayEquals(TestCaseHelpers.toBytes(listenerRenderer.getSequence()), TestCaseHelpers.toBytes(batchRenderer.getSequence()));
+	}
+
+	@Test
+	public void testBatchListenerIsNotAParserListener() throws Exception {
+		MusicStringParser parser = new MusicStringParser();
+		parser.addBatchParserListener(new BatchToListenerAdaptor());
+		assertEquals(0, parser.getParserListeners().length);
+		assertEquals(1, parser.getBatchParserListeners().length);
+	}
+}
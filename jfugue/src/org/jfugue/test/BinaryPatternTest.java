@@ -0,0 +1,140 @@
+package org.jfugue.test;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.RandomAccessFile;
+
+import org.jfugue.BinaryPattern;
+import org.jfugue.CompiledPattern;
+import org.jfugue.Pattern;
+import org.jfugue.PatternInterface;
+import org.jfugue.elements.AbstractPattern;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class BinaryPatternTest {
+
+	private static File tempFile(String suffix) throws Exception {
+		File file = File.createTempFile("jfugue", suffix);
+		file.deleteOnExit();
+		return file;
+	}
+
+	private static Pattern createPattern() {
+		Pattern pattern = new Pattern("T100 V0 I[Flute] C5q D5q | X[Volume]=10000 E5h+G5h | V1 Cmaj5w | V0 +100 F5w");
+		pattern.setTitle("Test étude");
+		pattern.setProperty("Composer", "Nobody");
+		return pattern;
+	}
+
+	@Test
+	public void testRoundTrip() throws Exception {
+		Pattern pattern = createPattern();
+		File file = tempFile(BinaryPattern.FILE_EXTENSION);
+		BinaryPattern.save(pattern, file);
+
+		BinaryPattern loaded = BinaryPattern.load(file);
+		assertEquals("Test étude", loaded.getProperties().get(Pattern.TITLE));
+		assertEquals("Nobody", loaded.getProperties().get("Composer"));
+		assertEquals(pattern.getMusicString(), loaded.getPattern().getMusicString());
+		assertEquals("Nobody", loaded.getPattern().getProperty("Composer"));
+
+		CompiledPattern expected = CompiledPattern.compile(pattern);
+		CompiledPattern actual = loaded.getCompiledPattern();
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getKind(i), actual.getKind(i));
+			assertEquals(expected.getVoice(i), actual.getVoice(i));
+			assertEquals(expected.getValue(i), actual.getValue(i));
+			assertEquals(expected.getData(i), actual.getData(i));
+			assertEquals(expected.getDuration(i), actual.getDuration(i));
+			assertEquals(expected.getDecimalDuration(i), actual.getDecimalDuration(i), 0.0);
+			assertEquals(expected.getFlags(i), actual.getFlags(i));
+		}
+	}
+
+	@Test
+	public void testIndexes() throws Exception {
+		Pattern pattern = createPattern();
+		File file = tempFile(BinaryPattern.FILE_EXTENSION);
+		BinaryPattern.save(pattern, file);
+		BinaryPattern loaded = BinaryPattern.load(file);
+		CompiledPattern events = loaded.getCompiledPattern();
+
+		assertEquals(4, loaded.getMeasureCount());
+		assertEquals(0, loaded.getMeasureEventIndex(1));
+		for (int measure = 2; measure <= 4; measure++) {
+			assertEquals(CompiledPattern.MEASURE_EVENT, events.getKind(loaded.getMeasureEventIndex(measure) - 1));
+		}
+		assertEquals(pattern.getMusicString().indexOf("V1"), loaded.getMeasureOffset(3) + 1);
+
+		int[] runs = loaded.getVoiceRuns(1);
+		assertTrue(runs.length >= 2);
+		for (int r = 0; r < runs.length; r += 2) {
+			for (int i = runs[r]; i < runs[r + 1]; i++) {
+				assertEquals(1, events.getVoice(i));
+			}
+		}
+		assertEquals(0, loaded.getVoiceRuns(5).length);
+	}
+
+	@Test
+	public void testConverters() throws Exception {
+		Pattern pattern = createPattern();
+		File text = tempFile(".jfugue");
+		pattern.savePattern(text);
+		File binary = tempFile(BinaryPattern.FILE_EXTENSION);
+		BinaryPattern.convertToBinary(text, binary);
+		File back = tempFile(".jfugue");
+		BinaryPattern.convertToText(binary, back);
+
+		PatternInterface original = AbstractPattern.loadPattern(text);
+		PatternInterface reloaded = AbstractPattern.loadPattern(back);
+		assertEquals(original.getMusicString(), reloaded.getMusicString());
+		assertEquals(original.getTitle(), reloaded.getTitle());
+	}
+
+	@Test
+	public void testNotABinaryFile() throws Exception {
+		File file = tempFile(BinaryPattern.FILE_EXTENSION);
+		FileOutputStream out = new FileOutputStream(file);
+		out.write("C5q D5q".getBytes());
+		out.close();
+		try {
+			BinaryPattern.load(file);
+			fail();
+		} catch (java.io.IOException e) {
+		}
+	}
+
+	@Test
+	public void testCorruptedCountIsReportedAsDamage() throws Exception {
+		File file = tempFile(BinaryPattern.FILE_EXTENSION);
+		BinaryPattern.save(createPattern(), file);
+		RandomAccessFile in = new RandomAccessFile(file, "r");
+		byte[] bytes = new byte[(int)in.length()];
+		in.readFully(bytes);
+		in.close();
+
+		// Every count in the file is somewhere among these ints; a huge count must not
+		// be allocated before it is found to be damaged
+		File damaged = tempFile(BinaryPattern.FILE_EXTENSION);
+		for (int hugeCount : new int[] { 0x08000000, 0x7FFFFFF0, -1 }) {
+			for (int offset = 8; offset + 4 <= bytes.length; offset++) {
+				byte[] copy = bytes.clone();
+				copy[offset] = (byte)(hugeCount >>> 24);
+				copy[offset + 1] = (byte)(hugeCount >>> 16);
+				copy[offset + 2] = (byte)(hugeCount >>> 8);
+				copy[offset + 3] = (byte)hugeCount;
+				FileOutputStream out = new FileOutputStream(damaged);
+				out.write(copy);
+				out.close();
+				try {
+					BinaryPattern.load(damaged);
+					assertTrue("The property count at offset 8 should be found damaged", offset != 8);
+				} catch (java.io.IOException e) {
+				}
+			}
+		}
+	}
+}
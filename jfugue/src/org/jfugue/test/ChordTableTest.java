@@ -0,0 +1,79 @@
+package org.jfugue.test;
+
+import static org.junit.Assert.*;
+
+import org.jfugue.ChordTable;
+import org.jfugue.Pattern;
+import org.jfugue.factories.NoteFactory;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.visitors.ListenerToVisitorAdaptor;
+import org.jfugue.visitors.LoggingVisitor;
+import org.junit.After;
+import org.junit.Test;
+
+public class ChordTableTest {
+
+	@Test
+	public void testLongestNameWins() {
+		assertEquals("MAJ", ChordTable.match("CMAJQ", 1).getName());
+		assertEquals("MAJ7", ChordTable.match("CMAJ7Q", 1).getName());
+		assertEquals("DOM7<5", ChordTable.match("Cdom7<5q", 1).getName());
+		assertEquals("DOM7<5<9", ChordTable.match("Cdom7<5<9", 1).getName());
+		assertEquals("MINMAJ7", ChordTable.match("minmaj7", 0).getName());
+	}
+
+	@Test
+	public void testNoChord() {
+		assertNull(ChordTable.match("C5Q", 1));
+		assertNull(ChordTable.match("CMA", 1));
+		assertNull(ChordTable.match("C", 1));
+	}
+
+	@Test
+	public void testSharedWithNoteFactory() {
+		assertEquals(ChordTable.getBuiltInChords().keySet(), NoteFactory.CHORDS_MAP.keySet());
+		assertArrayEquals(new byte[] { 4, 7, 10, 14 }, ChordTable.match("DOM9", 0).getHalfsteps());
+	}
+
+	@After
+	public void tearDown() {
+		ChordTable.unregister("TestPower");
+		ChordTable.unregister("Maj");
+	}
+
+	@Test
+	public void testRegisteredChordIsParsed() {
+		ChordTable.register("TestPower", 7, 12);
+		assertArrayEquals(new byte[] { 7, 12 }, ChordTable.match("TESTPOWER", 0).getHalfsteps());
+		assertFalse(ChordTable.getBuiltInChords().containsKey("TESTPOWER"));
+
+		MusicStringParser parser = new MusicStringParser();
+		LoggingVisitor loggingVisitor = new LoggingVisitor();
+		parser.addParserListener(new ListenerToVisitorAdaptor(loggingVisitor));
+		parser.parse(new Pattern("T120 E3testpowerq"));
+		assertEquals("[visitTempo(T120), visitNote(E3q), visitNote(+B3q), visitNote(+E4q)]", loggingVisitor.toString());
+	}
+
+	@Test
+	public void testUnregisteredChordIsForgotten() {
+		ChordTable.register("TestPower", 7, 12);
+		int version = ChordTable.getVersion();
+		ChordTable.unregister("TestPower");
+		assertTrue(version != ChordTable.getVersion());
+		assertFalse(ChordTable.getChords().containsKey("TESTPOWER"));
+		assertNull(ChordTable.match("TESTPOWER", 0));
+	}
+
+	@Test
+	public void testUnregisteringBuiltInChordRestoresIt() {
+		ChordTable.register("Maj", 4, 7, 12);
+		ChordTable.unregister("Maj");
+		assertArrayEquals(new byte[] { 4, 7 }, ChordTable.match("MAJ", 0).getHalfsteps());
+		assertTrue(ChordTable.getChords().containsKey("MAJ"));
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testNameMustBePrintable() {
+		ChordTable.register("with space", 4, 7);
+	}
+}
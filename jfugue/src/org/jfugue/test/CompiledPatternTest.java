@@ -0,0 +1,45 @@
+package org.jfugue.test;
+
+import org.jfugue.CompiledPattern;
+import org.jfugue.Pattern;
+import org.jfugue.visitors.ListenerToVisitorAdaptor;
+import org.jfugue.visitors.LoggingVisitor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompiledPatternTest {
+
+	@Test
+	public void testReplayMatchesParse() throws Exception {
+		CompiledPattern compiled = CompiledPattern.compile(new Pattern("Cmaj C D | T160 V1 A B C"));
+		LoggingVisitor loggingVisitor = new LoggingVisitor();
+		compiled.replay(new ListenerToVisitorAdaptor(loggingVisitor));
+		assertEquals("[visitTempo(T120), visitNote(C3q), visitNote(+E3q), visitNote(+G3q), visitNote(C5q), visitNote(D5q), visitMeasure(|), visitTempo(T160), visitVoice(V1), visitNote(A5q), visitNote(B5q), visitNote(C5q)]", loggingVisitor.toString());
+	}
+
+	@Test
+	public void testReplayIsRepeatable() throws Exception {
+		CompiledPattern compiled = CompiledPattern.compile(new Pattern("V0 C D E V1 Rw"));
+		LoggingVisitor first = new LoggingVisitor();
+		LoggingVisitor second = new LoggingVisitor();
+		compiled.replay(new ListenerToVisitorAdaptor(first));
+		compiled.replay(new ListenerToVisitorAdaptor(second));
+		assertEquals(first.toString(), second.toString());
+	}
+
+	@Test
+	public void testRecordedVoiceAndFlags() throws Exception {
+		CompiledPattern compiled = CompiledPattern.compile(new Pattern("T120 V2 C5q Rh"));
+		assertEquals(4, compiled.size());
+		assertEquals(CompiledPattern.NOTE_EVENT, compiled.getKind(2));
+		assertEquals(2, compiled.getVoice(2));
+		assertEquals(60, compiled.getValue(2));
+		assertEquals(0.25, compiled.getDecimalDuration(2), 0.0);
+		assertEquals(CompiledPattern.REST, compiled.getFlags(3) & CompiledPattern.REST);
+	}
+
+	@Test(expected=IndexOutOfBoundsException.class)
+	public void testIndexOutOfRange() throws Exception {
+		CompiledPattern.compile(new Pattern("C")).getKind(5);
+	}
+}
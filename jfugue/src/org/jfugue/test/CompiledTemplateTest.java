@@ -0,0 +1,160 @@
+package org.jfugue.test;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jfugue.CompiledTemplate;
+import org.jfugue.IntervalNotation;
+import org.jfugue.JFugueException;
+import org.jfugue.MicrotoneNotation;
+import org.jfugue.Pattern;
+import org.jfugue.SubstititionNotation;
+import org.jfugue.elements.Note;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class CompiledTemplateTest {
+
+	@Test
+	public void testCompileSplitsLiteralsAndSlots() {
+		CompiledTemplate template = CompiledTemplate.compile("V0 {a}q {b} Cdom7<5<9", '{', '}');
+		assertEquals(2, template.getSlotCount());
+		assertEquals("V0 ", template.getLiteral(0));
+		assertEquals("a", template.getKey(0));
+		assertEquals("q ", template.getLiteral(1));
+		assertEquals("b", template.getKey(1));
+		assertEquals(" Cdom7<5<9", template.getLiteral(2));
+	}
+
+	@Test
+	public void testUnclosedMarkerIsLiteral() {
+		CompiledTemplate template = CompiledTemplate.compile("Cdom7<5<9 C<3 D>", '<', '>');
+		assertEquals(0, template.getSlotCount());
+		assertEquals("Cdom7<5<9 C<3 D>", template.fill(new CharSequence[0]));
+	}
+
+	@Test
+	public void testFillLeavesUnknownKeysAlone() {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("a", "C5");
+		CompiledTemplate template = CompiledTemplate.compile("{a}q {b}h", '{', '}');
+		assertEquals("C5q {b}h", template.fill(CompiledTemplate.resolverFor(values)));
+		assertEquals("C5q D5h", template.fill(new CharSequence[] { "C5", "D5" }));
+		assertEquals("C5q {b}h", template.fill(new CharSequence[] { "C5", null }));
+	}
+
+	@Test
+	public void testFillDoesNotExpandValues() {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("a", "{b}");
+		values.put("b", "C");
+		assertEquals("{b}", CompiledTemplate.compile("{a}", '{', '}').fill(CompiledTemplate.resolverFor(values)));
+		assertEquals("C", CompiledTemplate.compile("{a}", '{', '}').expand(CompiledTemplate.resolverFor(values)));
+	}
+
+	@Test
+	public void testExpandIsRecursive() {
+		Map<String, Pattern> context = new HashMap<String, Pattern>();
+		context.put("riff", new Pattern("C5q E5q"));
+		context.put("verse", new Pattern("{riff} {riff} G5h"));
+		context.put("song", new Pattern("{verse} Rw {verse}"));
+		assertEquals("C5q E5q C5q E5q G5h Rw C5q E5q C5q E5q G5h ",
+				Pattern.createPattern(context, new Pattern("{song}")).getMusicString());
+	}
+
+	@Test
+	public void testCreatePatternJoinsTokensWithSingleSpaces() {
+		Map<String, Pattern> context = new HashMap<String, Pattern>();
+		context.put("a", new Pattern("C5q D5q"));
+		assertEquals("C5q D5q F C5q D5q G ",
+				Pattern.createPattern(context, new Pattern("{a} F  {a}\tG")).getMusicString());
+		assertEquals("C5q D5q F  C5q D5q\tG",
+				Pattern.createPattern(context, CompiledTemplate.compile("{a} F  {a}\tG", '{', '}')).getMusicString());
+	}
+
+	@Test
+	public void testCreatePatternOnlyReplacesWholeTokens() {
+		Map<String, Pattern> context = new HashMap<String, Pattern>();
+		context.put("a", new Pattern("C5q D5q"));
+		assertEquals("X{a}Y C5q D5q ", Pattern.createPattern(context, new Pattern("X{a}Y {a}")).getMusicString());
+	}
+
+	@Test
+	public void testNestedKeys() {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("n", "2");
+		values.put("chord2", "Cmaj");
+		values.put("inner", "{n}");
+		CompiledTemplate template = CompiledTemplate.compile("{chord{n}}w {chord{inner}}h", '{', '}');
+		assertEquals(2, template.getSlotCount());
+		assertEquals("chord{n}", template.getKey(0));
+		assertEquals("Cmajw {chord{inner}}h", template.fill(CompiledTemplate.resolverFor(values)));
+		assertEquals("Cmajw Cmajh", template.expand(CompiledTemplate.resolverFor(values)));
+	}
+
+	@Test
+	public void testCycleIsReported() {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("a", "C {b}");
+		values.put("b", "D {c}");
+		values.put("c", "E {a}");
+		try {
+			CompiledTemplate.compile("{a}", '{', '}').expand(CompiledTemplate.resolverFor(values));
+			fail("Expected a JFugueException");
+		} catch (JFugueException e) {
+			assertTrue(e.getMessage(), e.getMessage().contains("a -> b -> c -> a"));
+		}
+	}
+
+	@Test
+	public void testRepeatedKeyIsNotACycle() {
+		Map<String, String> values = new HashMap<String, String>();
+		values.put("a", "C");
+		values.put("b", "{a} {a}");
+		assertEquals("C C C C", CompiledTemplate.compile("{b} {b}", '{', '}').expand(CompiledTemplate.resolverFor(values)));
+	}
+
+	@Test
+	public void testCompileByTokenKeepsSuffix() {
+		CompiledTemplate template = CompiledTemplate.compileByToken("<a>q C<b>h <c>", '<', '>');
+		assertEquals(2, template.getSlotCount());
+		assertEquals("a", template.getKey(0));
+		assertEquals("q", template.getSuffix(0));
+		assertEquals(" C<b>h ", template.getLiteral(1));
+		assertEquals("c", template.getKey(1));
+		assertEquals("", template.getSuffix(1));
+	}
+
+	@Test
+	public void testIntervalNotation() {
+		IntervalNotation riff = new IntervalNotation("<1>q <5>q <8>q <1>majh");
+		assertEquals("[60]q [64]q [67]q [60]majh ", riff.getPatternForRootNote("C5").getMusicString());
+		assertEquals("[62]q [66]q [69]q [62]majh ", riff.getPatternForRootNote(new Note((byte)62)).getMusicString());
+	}
+
+	@Test(expected=JFugueException.class)
+	public void testIntervalNotationNeedsNumbers() {
+		new IntervalNotation("<x>q").getPatternForRootNote("C5");
+	}
+
+	@Test
+	public void testSubstitutionNotation() {
+		SubstititionNotation notation = new SubstititionNotation("<root>q <third>q+<fifth>q");
+		Map<String, String> substitutions = new HashMap<String, String>();
+		substitutions.put("root", "C5");
+		substitutions.put("third", "E5");
+		substitutions.put("fifth", "G5");
+		assertEquals("C5q E5q+G5q ", notation.getPatternForSubstitutions(substitutions).getMusicString());
+		substitutions.put("root", "D5");
+		assertEquals("D5q E5q+G5q ", notation.getPatternForSubstitutions(substitutions).getMusicString());
+	}
+
+	@Test
+	public void testMicrotoneNotation() {
+		MicrotoneNotation microtone = new MicrotoneNotation();
+		microtone.put("Be", 400.0);
+		String be = MicrotoneNotation.convertFrequencyToMusicString(400.0);
+		assertEquals(be + "q" + MicrotoneNotation.getResetPitchWheelString() + " <Unknown>q C5h ",
+				microtone.getPattern("<Be>q <Unknown>q C5h").getMusicString());
+	}
+}
@@ -0,0 +1,127 @@
+package org.jfugue.test;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.Track;
+
+import org.jfugue.ElementPattern;
+import org.jfugue.MidiRenderer;
+import org.jfugue.Pattern;
+import org.jfugue.PatternTransformer;
+import org.jfugue.elements.Instrument;
+import org.jfugue.elements.Note;
+import org.jfugue.elements.Voice;
+import org.jfugue.extras.IntervalPatternTransformer;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.visitors.ListenerToVisitorAdaptor;
+import org.jfugue.visitors.LoggingVisitor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ElementPatternTest {
+
+	private static final String MUSIC_STRING = "T100 V0 I[Flute] C5q D5q+F5q | KGmaj F5h_A5h | V1 X[Volume]=100 Cmaj5w @480 Rq";
+
+	private String parse(Pattern pattern) {
+		MusicStringParser parser = new MusicStringParser();
+		LoggingVisitor loggingVisitor = new LoggingVisitor();
+		parser.addParserListener(new ListenerToVisitorAdaptor(loggingVisitor));
+		parser.parse(pattern);
+		return loggingVisitor.toString();
+	}
+
+	private ElementPattern elementsOf(String musicString) {
+		return (ElementPattern)new PatternTransformer().transform(new Pattern(musicString));
+	}
+
+	@Test
+	public void testElementsAreKeptAndRenderedLikePattern() {
+		ElementPattern elements = new ElementPattern();
+		Pattern pattern = new Pattern();
+		Note note = new Note((byte)60, 0.25);
+		Note parallel = new Note((byte)64, 0.25);
+		parallel.setType(Note.NoteTypes.PARALLEL);
+		elements.addElement(new Voice((byte)1));
+		pattern.addElement(new Voice((byte)1));
+		elements.addElement(new Instrument((byte)73));
+		pattern.addElement(new Instrument((byte)73));
+		elements.addElement(note);
+		pattern.addElement(note);
+		elements.addElement(parallel);
+		pattern.addElement(parallel);
+
+		assertTrue(elements.isElementBacked());
+		assertEquals(4, elements.getElements().size());
+		assertSame(note, elements.getElements().get(2));
+		assertEquals(pattern.getMusicString(), elements.getMusicString());
+
+		elements.addElement(new Voice((byte)2));
+		pattern.addElement(new Voice((byte)2));
+		assertEquals(pattern.getMusicString(), elements.getMusicString());
+	}
+
+	@Test
+	public void testParsingElementsMatchesParsingMusicString() {
+		ElementPattern elements = elementsOf(MUSIC_STRING);
+		assertTrue(elements.isElementBacked());
+		assertEquals(parse(new Pattern(MUSIC_STRING)), parse(elements));
+		assertEquals(parse(new Pattern(elements.getMusicString())), parse(elements));
+	}
+
+	@Test
+	public void testTransformerChainLeavesEarlierStagesAlone() {
+		ElementPattern elements = elementsOf("C5q D5q E5q");
+		String before = elements.getMusicString();
+		Pattern up = (Pattern)new IntervalPatternTransformer(2).transform(elements);
+		Pattern upAgain = (Pattern)new IntervalPatternTransformer(2).transform(up);
+		assertEquals(before, elements.getMusicString());
+		assertEquals(parse(new Pattern("T120 E5q F#5q G#5q")), parse(upAgain));
+	}
+
+	@Test
+	public void testMusicStringChangesDetachTheElements() {
+		ElementPattern elements = elementsOf("C5q D5q");
+		elements.add("E5q");
+		assertFalse(elements.isElementBacked());
+		assertEquals(parse(new Pattern("C5q D5q E5q")), parse(elements));
+
+		ElementPattern text = new ElementPattern("C5q");
+		assertFalse(text.isElementBacked());
+		assertTrue(new ElementPattern().isElementBacked());
+	}
+
+	@Test
+	public void testAddingElementPatternsKeepsTheElements() {
+		ElementPattern elements = elementsOf("C5q D5q");
+		ElementPattern more = elementsOf("E5q");
+		String expected = parse(new Pattern(elements.getMusicString() + " " + more.getMusicString()));
+		elements.add(more);
+		assertTrue(elements.isElementBacked());
+		assertEquals(expected, parse(elements));
+	}
+
+	@Test
+	public void testMidiRendererRendersElementsDirectly() {
+		ElementPattern elements = elementsOf(MUSIC_STRING);
+
+		MidiRenderer parsed = new MidiRenderer(Sequence.PPQ, 120);
+		MusicStringParser parser = new MusicStringParser();
+		parser.addParserListener(parsed);
+		parser.parse(new Pattern(MUSIC_STRING));
+
+		Sequence expected = parsed.getSequence();
+		Sequence actual = new MidiRenderer(Sequence.PPQ, 120).render(elements);
+		assertEquals(expected.getTracks().length, actual.getTracks().length);
+		for (int t = 0; t < expected.getTracks().length; t++) {
+			Track expectedTrack = expected.getTracks()[t];
+			Track actualTrack = actual.getTracks()[t];
+			assertEquals(expectedTrack.size(), actualTrack.size());
+			for (int e = 0; e < expectedTrack.size(); e++) {
+				MidiEvent expectedEvent = expectedTrack.get(e);
+				MidiEvent actualEvent = actualTrack.get(e);
+				assertEquals(expectedEvent.getTick(), actualEvent.getTick());
+				assertArrayEquals(expectedEvent.getMessage().getMessage(), actualEvent.getMessage().getMessage());
+			}
+		}
+	}
+}
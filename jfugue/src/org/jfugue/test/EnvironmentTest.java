@@ -0,0 +1,67 @@
+package org.jfugue.test;
+
+import static org.junit.Assert.*;
+
+import java.util.HashMap;
+import java.util.Map;
+
+import org.jfugue.Environment;
+import org.jfugue.JFugueDefinitions;
+import org.jfugue.parsers.DummyParserEventProxy;
+import org.junit.Test;
+
+public class EnvironmentTest {
+
+	@Test
+	public void testBaseDictionaryIsShared() {
+		Environment environment = new Environment();
+		environment.addToDict("Piano", "5");
+		assertEquals("5", environment.dictionaryLookup("[piano]"));
+		assertEquals("0", JFugueDefinitions.DICT_MAP.get("PIANO"));
+		assertEquals("0", new Environment().dictionaryLookup("[Piano]"));
+	}
+
+	@Test
+	public void testDefinitionChains() {
+		Environment environment = new Environment();
+		environment.addToDict("Lead", "flute");
+		environment.addToDict("Melody", "lead");
+		assertEquals("73", environment.dictionaryLookup("[Melody]"));
+		environment.addToDict("Lead", "Violin");
+		assertEquals("40", environment.dictionaryLookup("[Melody]"));
+	}
+
+	@Test
+	public void testUndefinedWordsThatAreNumbers() {
+		Environment environment = new Environment();
+		assertEquals("60", environment.dictionaryLookup("[60]"));
+		assertEquals("0.25", environment.dictionaryLookup("[0.25]"));
+	}
+
+	@Test(expected=Environment.Error.class)
+	public void testUndefinedWord() {
+		new Environment().dictionaryLookup("[NoSuchWord]");
+	}
+
+	@Test
+	public void testDictionaryVersionChangesWhenWordsAreAdded() {
+		Environment environment = new Environment();
+		assertEquals(0, environment.getDictionaryVersion());
+		environment.addToDict("Foo", "1");
+		int version = environment.getDictionaryVersion();
+		assertTrue(version != 0);
+		environment.addToDict("Bar", "2");
+		assertTrue(version != environment.getDictionaryVersion());
+	}
+
+	@Test
+	public void testOtherBaseDictionariesHaveVersionsOfTheirOwn() {
+		Map<String, String> words = new HashMap<String, String>();
+		words.put("PIANO", "5");
+		Environment first = new Environment(words, new DummyParserEventProxy());
+		Environment second = new Environment(words, new DummyParserEventProxy());
+		assertTrue(first.getDictionaryVersion() != 0);
+		assertTrue(first.getDictionaryVersion() != second.getDictionaryVersion());
+		assertEquals("5", first.dictionaryLookup("[Piano]"));
+	}
+}
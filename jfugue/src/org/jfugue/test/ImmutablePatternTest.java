@@ -1,6 +1,8 @@
 package org.jfugue.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertSame;
 
 import java.util.HashMap;
 import java.util.Map;
@@ -146,4 +148,45 @@ public class ImmutablePatternTest {
 		tryMutatingPattern(p);
 	}
 
+	@Test
+	public void testPropertiesAreKept() {
+		Pattern pattern = new Pattern(MUSIC_STRING);
+		pattern.setTitle("Title");
+		pattern.setProperty(BLAH, "value");
+		ImmutablePattern p = new ImmutablePattern(pattern);
+		assertEquals("Title", p.getTitle());
+		assertEquals("value", p.getProperty(BLAH));
+		assertEquals(pattern.getProperties(), p.getProperties());
+		assertEquals(pattern, p);
+	}
+
+	@Test
+	public void testMusicStringIsShared() {
+		Pattern pattern = new Pattern(MUSIC_STRING);
+		ImmutablePattern p = new ImmutablePattern(pattern);
+		assertSame(pattern.getMusicCharSequence(), p.getMusicCharSequence());
+	}
+
+	@Test
+	public void testDerivedPatternsLeaveTheOriginalAlone() {
+		ImmutablePattern p = new ImmutablePattern(MUSIC_STRING);
+		ImmutablePattern coda = p.append("E F");
+		ImmutablePattern twice = p.concat(p);
+		ImmutablePattern intro = p.prepend("T120");
+		ImmutablePattern titled = coda.withTitle("Title").withProperty(BLAH, BLAH);
+		ImmutablePattern untitled = titled.withoutProperty(Pattern.TITLE);
+
+		assertEquals(MUSIC_STRING, p.getMusicString());
+		assertEquals(MUSIC_STRING + " E F", coda.getMusicString());
+		assertEquals(MUSIC_STRING + " " + MUSIC_STRING, twice.getMusicString());
+		assertEquals("T120 " + MUSIC_STRING, intro.getMusicString());
+		assertEquals("Title", titled.getTitle());
+		assertEquals(BLAH, titled.getProperty(BLAH));
+		assertNull(coda.getTitle());
+		assertNull(untitled.getTitle());
+		assertEquals(BLAH, untitled.getProperty(BLAH));
+		assertEquals(MUSIC_STRING, new ImmutablePattern().append(MUSIC_STRING).getMusicString());
+		tryMutatingPattern(titled);
+	}
+
 }
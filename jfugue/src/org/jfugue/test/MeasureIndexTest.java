@@ -0,0 +1,104 @@
+package org.jfugue.test;
+
+import org.jfugue.CompiledPattern;
+import org.jfugue.Pattern;
+import org.jfugue.parsers.MeasureIndex;
+import org.jfugue.parsers.MusicStringParser;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MeasureIndexTest {
+
+	private static final String MUSIC = "T100 V0 I[Flute] C5q D5q | KGmaj F5q G5q | V1 I[Piano] L1 A5h | V0 F5w";
+
+	private static CompiledPattern parseMeasures(Pattern pattern, int first, int last) {
+		MusicStringParser parser = new MusicStringParser();
+		CompiledPattern.Recorder recorder = CompiledPattern.newRecorder();
+		parser.addParserListener(recorder);
+		parser.parseMeasures(pattern, first, last);
+		return recorder.getCompiledPattern();
+	}
+
+	private static int count(CompiledPattern compiled, byte kind, int value) {
+		int count = 0;
+		for (int i = 0; i < compiled.size(); i++) {
+			if ((compiled.getKind(i) == kind) && (compiled.getValue(i) == value)) {
+				count++;
+			}
+		}
+		return count;
+	}
+
+	@Test
+	public void testCheckpoints() throws Exception {
+		Pattern pattern = new Pattern(MUSIC);
+		MeasureIndex index = pattern.getMeasureIndex();
+		assertSame(index, pattern.getMeasureIndex());
+		assertEquals(4, index.getMeasureCount());
+
+		long quarter = MusicStringParser.getNote("C5q").getMillisDuration();
+		MeasureIndex.Checkpoint second = index.getCheckpoint(2);
+		assertEquals(MUSIC.indexOf('|') + 1, second.getOffset());
+		assertEquals(100, second.getTempo());
+		assertEquals(73, second.getInstrument(0));
+		assertEquals(-1, second.getInstrument(1));
+		assertEquals(2 * quarter, second.getTime());
+		assertNull(second.getKeySignature());
+
+		MeasureIndex.Checkpoint fourth = index.getCheckpoint(4);
+		assertEquals(1, fourth.getVoice());
+		assertEquals(1, fourth.getLayer(1));
+		assertEquals(0, fourth.getInstrument(1));
+		assertEquals(4 * quarter, fourth.getTime(0));
+		assertEquals(2 * quarter, fourth.getTime(1));
+		assertNotNull(fourth.getKeySignature());
+
+		assertSame(second, index.getCheckpointAtTime(0, 3 * quarter));
+		assertSame(index.getCheckpoint(4), index.getCheckpointAtTime(0, 4 * quarter));
+		assertSame(index.getCheckpoint(1), index.getCheckpointAtTime(0, quarter));
+
+		pattern.add("| C5q");
+		assertNotSame(index, pattern.getMeasureIndex());
+		assertEquals(5, pattern.getMeasureIndex().getMeasureCount());
+	}
+
+	@Test
+	public void testParseRestoresState() throws Exception {
+		CompiledPattern last = parseMeasures(new Pattern(MUSIC), 4, 4);
+		assertEquals(1, count(last, CompiledPattern.TEMPO_EVENT, 100));
+		assertEquals(1, count(last, CompiledPattern.INSTRUMENT_EVENT, 73));
+		assertEquals(1, count(last, CompiledPattern.KEY_SIGNATURE_EVENT, 1));
+		// F is sharp in G major, which was set two measures earlier
+		assertEquals(1, count(last, CompiledPattern.NOTE_EVENT, 66));
+		assertEquals(0, count(last, CompiledPattern.NOTE_EVENT, 69));
+
+		CompiledPattern middle = parseMeasures(new Pattern(MUSIC), 2, 2);
+		assertEquals(1, count(middle, CompiledPattern.NOTE_EVENT, 67));
+		assertEquals(0, count(middle, CompiledPattern.NOTE_EVENT, 69));
+	}
+
+	@Test
+	public void testWholePatternMatchesParse() throws Exception {
+		Pattern pattern = new Pattern(MUSIC);
+		CompiledPattern all = parseMeasures(pattern, 1, 4);
+		CompiledPattern expected = CompiledPattern.compile(pattern);
+		assertEquals(expected.size(), all.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getKind(i), all.getKind(i));
+			assertEquals(expected.getValue(i), all.getValue(i));
+		}
+	}
+
+	@Test
+	public void testDictionaryDefinitionsAreKept() throws Exception {
+		Pattern pattern = new Pattern("$MYINST=41 I[MyInst] C5q | I[MyInst] D5q");
+		CompiledPattern second = parseMeasures(pattern, 2, 2);
+		// Once to restore voice 0's instrument, and once for the token
+		assertEquals(2, count(second, CompiledPattern.INSTRUMENT_EVENT, 41));
+		try {
+			parseMeasures(pattern, 3, 3);
+			fail();
+		} catch (IllegalArgumentException e) {
+		}
+	}
+}
@@ -0,0 +1,105 @@
+package org.jfugue.test;
+
+import java.util.Random;
+
+import javax.sound.midi.MetaMessage;
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.jfugue.MidiEventManager;
+import org.jfugue.MidiTrackBuffer;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MidiEventManagerTest {
+
+	/**
+	 * Adds the same random events, jumping between channels and layers and back
+	 * in time, to a MidiEventManager and straight to the tracks of a Sequence,
+	 * and checks that both give the same MIDI file.
+	 */
+	@Test
+	public void testMatchesTrackInsertionOrder() throws Exception {
+		Random random = new Random(1234);
+		MidiEventManager manager = new MidiEventManager(Sequence.PPQ, 120);
+		Sequence expected = new Sequence(Sequence.PPQ, 120);
+		Track[] tracks = new Track[16];
+		for (int i = 0; i < 16; i++) {
+			tracks[i] = expected.createTrack();
+		}
+		int channel = 0;
+		for (int i = 0; i < 5000; i++) {
+			switch (random.nextInt(8)) {
+				case 0 :
+					channel = random.nextInt(16);
+					manager.setCurrentTrack((byte)channel);
+					break;
+				case 1 :
+					manager.setCurrentLayer((byte)random.nextInt(16));
+					break;
+				case 2 :
+					manager.setTrackTimer(random.nextInt(2000));
+					break;
+				case 3 :
+					byte[] tempo = new byte[] { 7, (byte)random.nextInt(128), 32 };
+					manager.addMetaMessage(0x51, tempo);
+					MetaMessage meta = new MetaMessage();
+					meta.setMessage(0x51, tempo, 3);
+					tracks[channel].add(new MidiEvent(meta, manager.getTrackTimer()));
+					break;
+				default :
+					int note = random.nextInt(128);
+					long duration = random.nextInt(4) * 30;
+					ShortMessage on = new ShortMessage();
+					on.setMessage(ShortMessage.NOTE_ON, channel, note, 64);
+					tracks[channel].add(new MidiEvent(on, manager.getTrackTimer()));
+					ShortMessage off = new ShortMessage();
+					off.setMessage(ShortMessage.NOTE_OFF, channel, note, 20);
+					tracks[channel].add(new MidiEvent(off, manager.getTrackTimer() + duration));
+					manager.addNoteEvent(note, 64, 20, duration, true, true);
+					break;
+			}
+		}
+		assertArrayEquals(TestCaseHelpers.toBytes(expected), TestCaseHelpers.toBytes(manager.getSequence()));
+	}
+
+	@Test
+	public void testSequenceIsRebuiltAfterMoreEvents() throws Exception {
+		MidiEventManager manager = new MidiEventManager(Sequence.PPQ, 120);
+		manager.addNoteEvent(60, 64, 64, 100, true, true);
+		Sequence first = manager.getSequence();
+		assertSame(first, manager.getSequence());
+		assertEquals(100, first.getTickLength());
+
+		manager.setCurrentLayer((byte)1);
+		manager.addNoteEvent(64, 64, 64, 300, true, true);
+		Sequence second = manager.getSequence();
+		assertNotSame(first, second);
+		assertEquals(100, first.getTickLength());
+		assertEquals(300, second.getTickLength());
+		assertEquals(5, second.getTracks()[0].size());
+	}
+
+	@Test
+	public void testLayersAreMergedInOrderOfTime() throws Exception {
+		MidiEventManager manager = new MidiEventManager(Sequence.PPQ, 120);
+		manager.setCurrentTrack((byte)2);
+		manager.addNoteEvent(60, 64, 64, 100, true, true);
+		manager.setCurrentLayer((byte)1);
+		manager.addNoteEvent(64, 64, 64, 50, true, true);
+		manager.setTrackTimer(0);
+		manager.addNoteEvent(67, 64, 64, 10, true, true);
+
+		MidiTrackBuffer track = manager.getTrackBuffers()[2];
+		assertEquals(6, track.size());
+		long[] ticks = new long[] { 0, 0, 0, 10, 50, 100 };
+		int[] notes = new int[] { 60, 64, 67, 67, 64, 60 };
+		for (int i = 0; i < 6; i++) {
+			assertEquals(ticks[i], track.getTick(i));
+			assertEquals(notes[i], track.getData1(i));
+		}
+		assertEquals(0, manager.getTrackBuffers()[0].size());
+	}
+}
@@ -0,0 +1,210 @@
+package org.jfugue.test;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+
+import org.jfugue.CompiledPattern;
+import org.jfugue.JFugueException;
+import org.jfugue.MidiExporter;
+import org.jfugue.MusicStringRenderer;
+import org.jfugue.Pattern;
+import org.jfugue.PatternInterface;
+import org.jfugue.Player;
+import org.jfugue.parsers.TokenCache;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MidiExporterTest {
+
+	private static final String MUSIC = "T160 KEbmaj V0 I[Piano] C5q D5q+F5q | E5h_G5h L1 Rq C6w | " +
+			"V1 I[Flute] X[Volume]=90 &12000 Cmaj7w | @100 Dmin | V9 [Bass_Drum]q Rq [Acoustic_Snare]q";
+
+	@Test
+	public void testMatchesPlayer() throws Exception {
+		Pattern pattern = new Pattern(MUSIC);
+		byte[] expected = TestCaseHelpers.toBytes(new Player().getSequence(pattern));
+
+		MidiExporter exporter = new MidiExporter();
+		assertArrayEquals(expected, TestCaseHelpers.toBytes(exporter.getSequence(pattern)));
+		assertArrayEquals(expected, exporter.toMidiBytes(pattern));
+	}
+
+	@Test
+	public void testMeasuresAndCompiledPatterns() throws Exception {
+		Pattern pattern = new Pattern(MUSIC);
+		Player player = new Player();
+		MidiExporter exporter = new MidiExporter();
+		assertArrayEquals(TestCaseHelpers.toBytes(player.getSequence(pattern, 2, 3)), TestCaseHelpers.toBytes(exporter.getSequence(pattern, 2, 3)));
+
+		CompiledPattern compiled = CompiledPattern.compile(pattern);
+		assertArrayEquals(TestCaseHelpers.toBytes(player.getSequence(compiled)), TestCaseHelpers.toBytes(exporter.getSequence(compiled)));
+	}
+
+	@Test
+	public void testSaveMidi() throws Exception {
+		MidiExporter exporter = new MidiExporter(Sequence.PPQ, 96);
+		File file = File.createTempFile("exporter", ".mid");
+		try {
+			exporter.saveMidi(MUSIC, file);
+			byte[] saved = new byte[(int)file.length()];
+			FileInputStream in = new FileInputStream(file);
+			try {
+				assertEquals(saved.length, in.read(saved));
+			} finally {
+				in.close();
+			}
+			assertArrayEquals(exporter.toMidiBytes(new Pattern(MUSIC)), saved);
+			assertEquals(96, MidiSystem.getMidiFileFormat(file).getResolution());
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testExportToOtherListeners() {
+		MusicStringRenderer renderer = new MusicStringRenderer();
+		new MidiExporter().export(new Pattern("V1 C5q D5h"), renderer);
+		assertTrue(renderer.getPattern().getMusicString().contains("V1"));
+	}
+
+	@Test
+	public void testPlayerRendersWithoutSequencer() throws Exception {
+		Player player = new Player(false);
+		File file = File.createTempFile("player", ".mid");
+		try {
+			player.saveMidi(MUSIC, file);
+			assertTrue(file.length() > 0);
+			assertFalse(player.isPlaying());
+			player.stop();
+			player.close();
+		} finally {
+			file.delete();
+		}
+	}
+
+	@Test
+	public void testRenderAllKeepsOrder() throws Exception {
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		for (int i = 0; i < 24; i++) {
+			patterns.add(new Pattern("V" + (i % 16) + " I" + i + " C" + (i % 8) + "q KDmaj F5h T" + (100 + i)));
+		}
+		MidiExporter exporter = new MidiExporter();
+		List<Sequence> sequences = exporter.renderAll(patterns);
+		assertEquals(patterns.size(), sequences.size());
+		for (int i = 0; i < patterns.size(); i++) {
+			assertArrayEquals(exporter.toMidiBytes(patterns.get(i)), TestCaseHelpers.toBytes(sequences.get(i)));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(3);
+		try {
+			List<Sequence> again = exporter.renderAll(patterns, executor);
+			for (int i = 0; i < patterns.size(); i++) {
+				assertArrayEquals(TestCaseHelpers.toBytes(sequences.get(i)), TestCaseHelpers.toBytes(again.get(i)));
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+
+	@Test
+	public void testRenderAllReportsErrors() {
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		patterns.add(new Pattern("C5q"));
+		patterns.add(new Pattern("I[NotAnInstrument]"));
+		try {
+			new MidiExporter().renderAll(patterns);
+			fail("Expected a JFugueException");
+		} catch (JFugueException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testDictionaryIsSharedButNotChanged() throws Exception {
+		Map<String, String> words = new HashMap<String, String>();
+		words.put("Melody", "60");
+		MidiExporter exporter = new MidiExporter();
+		exporter.setDictionary(words);
+		words.put("Melody", "72");
+		assertEquals("60", exporter.getDictionary().get("MELODY"));
+
+		byte[] expected = exporter.toMidiBytes(new Pattern("C5q"));
+		assertArrayEquals(expected, exporter.toMidiBytes(new Pattern("[Melody]q")));
+		assertFalse(Arrays.equals(expected, exporter.toMidiBytes(new Pattern("$Melody=62 [Melody]q"))));
+		assertArrayEquals(expected, exporter.toMidiBytes(new Pattern("[Melody]q")));
+		try {
+			exporter.getDictionary().put("Other", "1");
+			fail("The dictionary should not be changeable");
+		} catch (UnsupportedOperationException e) {
+			// Expected
+		}
+	}
+
+	@Test
+	public void testTokenCacheIsSharedWhenDictionaryIsSet() throws Exception {
+		Map<String, String> words = new HashMap<String, String>();
+		words.put("Melody", "60");
+		MidiExporter exporter = new MidiExporter();
+		exporter.setDictionary(words);
+		TokenCache cache = new TokenCache();
+		exporter.setTokenCache(cache);
+
+		byte[] expected = exporter.toMidiBytes(new Pattern("[Melody]q D5q"));
+		long misses = cache.getMissCount();
+		assertArrayEquals(expected, exporter.toMidiBytes(new Pattern("[Melody]q D5q")));
+		assertEquals(misses, cache.getMissCount());
+
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		patterns.add(new Pattern("[Melody]q D5q"));
+		patterns.add(new Pattern("D5q [Melody]q"));
+		exporter.renderAll(patterns);
+		assertEquals(misses, cache.getMissCount());
+	}
+
+	@Test
+	public void testPlayerRendersFromSeveralThreads() throws Exception {
+		final Player player = new Player(false);
+		final List<PatternInterface> patterns = new ArrayList<PatternInterface>();
+		List<byte[]> expected = new ArrayList<byte[]>();
+		for (int i = 0; i < 8; i++) {
+			StringBuilder music = new StringBuilder("V" + i);
+			for (int j = 0; j < 200; j++) {
+				music.append(" C").append(i).append("s D").append(i).append("i");
+			}
+			patterns.add(new Pattern(music.toString()));
+			expected.add(TestCaseHelpers.toBytes(player.getSequence(patterns.get(i))));
+		}
+
+		ExecutorService executor = Executors.newFixedThreadPool(4);
+		try {
+			List<Callable<byte[]>> tasks = new ArrayList<Callable<byte[]>>();
+			for (int round = 0; round < 4; round++) {
+				for (final PatternInterface pattern : patterns) {
+					tasks.add(new Callable<byte[]>() {
+						public byte[] call() throws Exception {
+							return TestCaseHelpers.toBytes(player.getSequence(pattern));
+						}
+					});
+				}
+			}
+			List<Future<byte[]>> results = executor.invokeAll(tasks);
+			for (int i = 0; i < results.size(); i++) {
+				assertArrayEquals(expected.get(i % patterns.size()), results.get(i).get());
+			}
+		} finally {
+			executor.shutdown();
+		}
+	}
+}
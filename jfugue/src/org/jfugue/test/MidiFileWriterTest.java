@@ -0,0 +1,114 @@
+package org.jfugue.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.nio.channels.FileChannel;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+
+import org.jfugue.MidiFileWriter;
+import org.jfugue.MidiRenderer;
+import org.jfugue.MidiTrackBuffer;
+import org.jfugue.Pattern;
+import org.jfugue.parsers.MusicStringParser;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MidiFileWriterTest {
+
+	private static final String MUSIC = "T160 KEbmaj V0 I[Piano] C5q D5q+F5q E5h_G5h L1 Rq C6w " +
+			"V1 I[Flute] X[Volume]=90 &12000 Cmaj7w @100 Dmin " +
+			"V9 [Bass_Drum]q Rq [Acoustic_Snare]q ^dec:240,126,127,9,1,247 " +
+			"V2 C4i Ci Ci Ci Dq";
+
+	@Test
+	public void testMatchesMidiSystemWrite() throws Exception {
+		MidiRenderer renderer = new MidiRenderer(Sequence.PPQ, 120);
+		MusicStringParser parser = new MusicStringParser();
+		parser.addParserListener(renderer);
+		parser.parse(new Pattern(MUSIC));
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		MidiSystem.write(renderer.getSequence(), 1, expected);
+
+		renderer.reset();
+		parser.parse(new Pattern(MUSIC));
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		renderer.writeMidiFile(actual);
+
+		assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+	}
+
+	@Test
+	public void testRunningStatusAndOutOfOrderEvents() throws Exception {
+		MidiTrackBuffer track = new MidiTrackBuffer();
+		track.addShortMessage(0, ShortMessage.NOTE_ON, 0, 60, 64);
+		track.addShortMessage(10, ShortMessage.NOTE_ON, 0, 60, 0);
+		track.addShortMessage(5, ShortMessage.NOTE_ON, 0, 64, 64);
+		track.addShortMessage(5, ShortMessage.PROGRAM_CHANGE, 0, 3, 99);
+		track.addShortMessage(5, ShortMessage.NOTE_ON, 0, 200, 64);  // Dropped, as ShortMessage would refuse it
+
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new MidiFileWriter(Sequence.PPQ, 96).write(new MidiTrackBuffer[] { track }, out);
+		byte[] bytes = out.toByteArray();
+		byte[] expectedTrack = new byte[] {
+				'M', 'T', 'r', 'k', 0, 0, 0, 18,
+				0, (byte)0x90, 60, 64,
+				5, 64, 64,
+				0, (byte)0xC0, 3,
+				5, (byte)0x90, 60, 0,
+				0, (byte)0xFF, 0x2F, 0 };
+		assertEquals(14 + expectedTrack.length, bytes.length);
+		for (int i = 0; i < expectedTrack.length; i++) {
+			assertEquals("byte " + i, expectedTrack[i], bytes[14 + i]);
+		}
+		assertEquals(96, bytes[13]);
+	}
+
+	@Test
+	public void testTypeZeroMergesTracks() throws Exception {
+		MidiRenderer renderer = new MidiRenderer(Sequence.PPQ, 120);
+		MusicStringParser parser = new MusicStringParser();
+		parser.addParserListener(renderer);
+		parser.parse(new Pattern(MUSIC));
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		new MidiFileWriter(0, Sequence.PPQ, 120).write(renderer.getTrackBuffers(), out);
+
+		Sequence merged = MidiSystem.getSequence(new ByteArrayInputStream(out.toByteArray()));
+		Sequence original = renderer.getSequence();
+		assertEquals(1, merged.getTracks().length);
+		int events = 0;
+		for (int i = 0; i < original.getTracks().length; i++) {
+			events += original.getTracks()[i].size() - 1;
+		}
+		assertEquals(events + 1, merged.getTracks()[0].size());
+		assertEquals(original.getTickLength(), merged.getTickLength());
+	}
+
+	@Test
+	public void testWriteToChannel() throws Exception {
+		MidiRenderer renderer = new MidiRenderer(Sequence.PPQ, 120);
+		MusicStringParser parser = new MusicStringParser();
+		parser.addParserListener(renderer);
+		parser.parse(new Pattern(MUSIC));
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		renderer.writeMidiFile(expected);
+
+		File file = File.createTempFile("jfugue", ".mid");
+		try {
+			FileChannel channel = new FileOutputStream(file).getChannel();
+			try {
+				new MidiFileWriter(Sequence.PPQ, 120).write(renderer.getTrackBuffers(), channel);
+			} finally {
+				channel.close();
+			}
+			assertEquals(expected.size(), file.length());
+			assertEquals(1, MidiSystem.getMidiFileFormat(file).getType());
+		} finally {
+			file.delete();
+		}
+	}
+}
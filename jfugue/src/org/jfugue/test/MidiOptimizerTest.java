@@ -0,0 +1,132 @@
+package org.jfugue.test;
+
+import javax.sound.midi.MidiEvent;
+import javax.sound.midi.Sequence;
+import javax.sound.midi.ShortMessage;
+import javax.sound.midi.Track;
+
+import org.jfugue.MidiOptimizer;
+import org.jfugue.MidiRenderer;
+import org.jfugue.MidiTrackBuffer;
+import org.jfugue.Pattern;
+import org.jfugue.parsers.MusicStringParser;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class MidiOptimizerTest {
+
+	private static MidiRenderer render(String musicString, MidiOptimizer optimizer) {
+		MidiRenderer renderer = new MidiRenderer(Sequence.PPQ, 120);
+		renderer.setOptimizer(optimizer);
+		MusicStringParser parser = new MusicStringParser();
+		parser.addParserListener(renderer);
+		parser.parse(new Pattern(musicString));
+		return renderer;
+	}
+
+	@Test
+	public void testRestsAreDroppedButTheTrackKeepsItsLength() {
+		MidiRenderer plain = render("C5q Rq D5q Rw", null);
+		MidiRenderer optimized = render("C5q Rq D5q Rw", new MidiOptimizer(MidiOptimizer.DROP_RESTS));
+		Sequence sequence = optimized.getSequence();
+		assertEquals(4, optimized.getLastOptimization().getRemovedRests());
+		assertEquals(4, optimized.getLastOptimization().getRemovedCount());
+		assertEquals(plain.getSequence().getTickLength(), sequence.getTickLength());
+		assertEquals(plain.getSequence().getTracks()[0].size() - 4, sequence.getTracks()[0].size());
+	}
+
+	@Test
+	public void testRedundantProgramsControllersAndTemposAreDropped() {
+		MidiRenderer renderer = render("T120 I0 C5q T120 I0 X[Volume]=100 D5q X[Volume]=100 I1 I1 T100 E5q", new MidiOptimizer());
+		renderer.getSequence();
+		MidiOptimizer.Result result = renderer.getLastOptimization();
+		assertEquals(2, result.getRemovedProgramChanges());
+		assertEquals(2, result.getRemovedControllers());
+		assertEquals(1, result.getRemovedTempos());
+		assertEquals(5, result.getRemovedCount());
+	}
+
+	@Test
+	public void testTempoRepeatingTheDefaultIsDropped() {
+		MidiRenderer renderer = render("C5q T120 D5q", new MidiOptimizer(MidiOptimizer.REDUNDANT_TEMPOS));
+		renderer.getSequence();
+		assertEquals(1, renderer.getLastOptimization().getRemovedTempos());
+	}
+
+	@Test
+	public void testBankChangeKeepsProgramChange() {
+		MidiTrackBuffer track = new MidiTrackBuffer();
+		track.addShortMessage(0, ShortMessage.PROGRAM_CHANGE, 0, 5, 0);
+		track.addShortMessage(10, ShortMessage.CONTROL_CHANGE, 0, 0, 1);
+		track.addShortMessage(10, ShortMessage.PROGRAM_CHANGE, 0, 5, 0);
+		track.addShortMessage(20, ShortMessage.CONTROL_CHANGE, 0, 6, 64);
+		track.addShortMessage(30, ShortMessage.CONTROL_CHANGE, 0, 6, 64);
+		MidiOptimizer.Result result = new MidiOptimizer().optimize(new MidiTrackBuffer[] { track });
+		assertEquals(0, result.getRemovedCount());
+		assertEquals(5, result.getTracks()[0].size());
+	}
+
+	@Test
+	public void testLsbIsKeptAfterMsbChanges() {
+		MidiRenderer renderer = render("X[Volume]=1000 C5q X[Volume]=1128 C5q X[Volume]=1128 C5q", new MidiOptimizer(MidiOptimizer.REDUNDANT_CONTROLLERS));
+		Track track = renderer.getSequence().getTracks()[0];
+		int lsbs = 0;
+		for (int i = 0; i < track.size(); i++) {
+			MidiEvent event = track.get(i);
+			if ((event.getMessage() instanceof ShortMessage) && (((ShortMessage)event.getMessage()).getData1() == 39)) {
+				lsbs++;
+			}
+		}
+		assertEquals(2, lsbs);
+		assertEquals(2, renderer.getLastOptimization().getRemovedControllers());
+	}
+
+	@Test
+	public void testResetAllControllersForgetsValues() {
+		MidiRenderer renderer = render("X7=100 X11=90 C5q X121=0 X7=100 X11=90 D5q X11=90 E5q", new MidiOptimizer(MidiOptimizer.REDUNDANT_CONTROLLERS));
+		renderer.getSequence();
+		assertEquals(1, renderer.getLastOptimization().getRemovedControllers());
+	}
+
+	@Test
+	public void testZeroLengthNotesAreCollapsed() {
+		MidiTrackBuffer track = new MidiTrackBuffer();
+		track.addShortMessage(0, ShortMessage.NOTE_ON, 1, 60, 64);
+		track.addShortMessage(0, ShortMessage.NOTE_OFF, 1, 60, 64);
+		track.addShortMessage(0, ShortMessage.NOTE_ON, 1, 62, 64);
+		track.addShortMessage(40, ShortMessage.NOTE_OFF, 1, 62, 64);
+		MidiOptimizer.Result result = new MidiOptimizer().optimize(new MidiTrackBuffer[] { track });
+		assertEquals(2, result.getRemovedZeroLengthNotes());
+		MidiTrackBuffer optimized = result.getTracks()[0];
+		assertEquals(2, optimized.size());
+		assertEquals(62, optimized.getData1(0));
+		assertEquals(40, optimized.getEndTick());
+		assertEquals(4, track.size());
+	}
+
+	@Test
+	public void testNoteOffsBecomeNoteOns() {
+		MidiRenderer renderer = render("C5q D5q", new MidiOptimizer(MidiOptimizer.ALL));
+		Track track = renderer.getSequence().getTracks()[0];
+		assertEquals(2, renderer.getLastOptimization().getConvertedNoteOffs());
+		for (int i = 0; i < track.size() - 1; i++) {
+			MidiEvent event = track.get(i);
+			if (event.getMessage() instanceof ShortMessage) {
+				assertEquals(ShortMessage.NOTE_ON, ((ShortMessage)event.getMessage()).getCommand());
+			}
+		}
+	}
+
+	@Test
+	public void testRestDoesNotEndARealNoteZero() {
+		MidiTrackBuffer track = new MidiTrackBuffer();
+		track.addShortMessage(0, ShortMessage.NOTE_ON, 0, 0, 90);
+		track.addShortMessage(10, ShortMessage.NOTE_OFF, 0, 0, 0);
+		track.addShortMessage(10, ShortMessage.NOTE_ON, 0, 0, 0);
+		track.addShortMessage(20, ShortMessage.NOTE_OFF, 0, 0, 0);
+		MidiOptimizer.Result result = new MidiOptimizer().optimize(new MidiTrackBuffer[] { track });
+		assertEquals(2, result.getRemovedRests());
+		assertEquals(2, result.getTracks()[0].size());
+		assertEquals(20, result.getTracks()[0].getEndTick());
+	}
+}
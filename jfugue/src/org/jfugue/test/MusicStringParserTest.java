@@ -11,6 +11,7 @@ import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verifyZeroInteractions;
 
 import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.Pattern;
 import org.jfugue.PatternInterface;
 import org.jfugue.ParserProgressListener;
 import org.jfugue.ParserListener;
@@ -80,6 +81,11 @@ public class MusicStringParserTest {
     private PatternInterface getMockPattern(String [] tokl) {
         PatternInterface pattern = mock(PatternInterface.class);
         when(pattern.getTokens()).thenReturn(tokl);
+        StringBuilder musicString = new StringBuilder();
+        for (String token : tokl) {
+            musicString.append(token).append(' ');
+        }
+        when(pattern.getMusicCharSequence()).thenReturn(musicString);
         return pattern;
     }
 
@@ -133,6 +139,24 @@ public class MusicStringParserTest {
         verify(listener).progressReported("Parsing music string...", 3, 3);
     }
 
+    @Test
+    public void testRepeatedPatternReportsProgressLikeAFlatOne(){
+        final int[] reports = new int[1];
+        final long[] lastPart = new long[1];
+        parser.addParserProgressListener(new ParserProgressListener() {
+            public void progressReported(String description, long partCompleted, long whole) {
+                reports[0]++;
+                lastPart[0] = partCompleted;
+            }
+        });
+        Pattern pattern = new Pattern("C D E F");
+        pattern.repeat(2500);
+        parser.parse(pattern);
+        assertTrue(reports[0] >= 50);
+        assertTrue(reports[0] <= MusicStringParser.DEFAULT_PROGRESS_REPORT_LIMIT);
+        assertEquals(pattern.getMusicString().length(), lastPart[0]);
+    }
+
     @Test
     //method exists for testing only, may be redundant
     public void testIsValidToken_Success() {
@@ -0,0 +1,158 @@
+package org.jfugue.test;
+
+import java.io.ByteArrayOutputStream;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+
+import org.jfugue.JFugueException;
+import org.jfugue.MidiOptimizer;
+import org.jfugue.MidiRenderer;
+import org.jfugue.ParallelMidiRenderer;
+import org.jfugue.Pattern;
+import org.jfugue.PatternInterface;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.parsers.VoiceSplitter;
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class ParallelMidiRendererTest {
+
+	private ExecutorService executor;
+
+	@Before
+	public void setUp() {
+		executor = Executors.newFixedThreadPool(4);
+	}
+
+	@After
+	public void tearDown() {
+		executor.shutdown();
+	}
+
+	@Test
+	public void testVoicesSwitchingBackAndForth() throws Exception {
+		assertSameAsSequential("V0 I[Piano] C5q D5q+F5q V1 I[Flute] X[Volume]=90 Cmaj7w " +
+				"V0 E5h_G5h V2 C4i Ci Ci V1 &12000 Dmin V0 Rq C6w V15 T80 Eq");
+	}
+
+	@Test
+	public void testKeySignatureChangesEveryVoice() throws Exception {
+		assertSameAsSequential("V1 C5q KGmaj F5q V0 F5q V2 F5q V1 KFmaj B5q V0 B5q V3 B5q");
+	}
+
+	@Test
+	public void testDictionaryDefinitionsReachEveryVoice() throws Exception {
+		assertSameAsSequential("$LOW=48 V2 [LOW]q V0 $HIGH=84 [HIGH]q V2 [HIGH]h V3 [LOW]w [HIGH]w");
+	}
+
+	@Test
+	public void testLayersAndTime() throws Exception {
+		assertSameAsSequential("V9 L0 [Bass_Drum]q Rq L1 [Hand_Clap]i Ri V0 C5w @200 D5q " +
+				"V9 L0 [Bass_Drum]q @400 L2 [Crash_Cymbal_1]w V0 L1 E5q");
+	}
+
+	@Test
+	public void testPressureBendAndSystemExclusive() throws Exception {
+		assertSameAsSequential("V3 +50 *60,70 &8192 C5q V4 ^dec:240,126,127,9,1,247 +20 D5q V3 +90 Eq");
+	}
+
+	@Test
+	public void testTempoFirstAndNoDefaultTempoVoice() throws Exception {
+		assertSameAsSequential("T160 V1 C5q V2 D5q");
+		assertSameAsSequential("V5 C5q V6 D5q");
+	}
+
+	@Test
+	public void testRepeatedPattern() throws Exception {
+		Pattern pattern = new Pattern("V0 C5q D5q V1 E5q KDmaj F5q");
+		pattern.repeat(4);
+		pattern.add("V2 F5w");
+		assertSameAsSequential(pattern);
+	}
+
+	@Test
+	public void testVoiceFromDictionaryIsRenderedSequentially() throws Exception {
+		Pattern pattern = new Pattern("$BASS=3 V[BASS] C3q V0 C5q");
+		assertNull(VoiceSplitter.split(pattern));
+		assertSameAsSequential(pattern);
+	}
+
+	@Test
+	public void testSplitCountsVoices() {
+		VoiceSplitter voices = VoiceSplitter.split(new Pattern("C5q V3 D5q V03 E5q V12 F5q"));
+		assertEquals(3, voices.getVoiceCount());
+		assertTrue(voices.isVoiceUsed(0));
+		assertTrue(voices.isVoiceUsed(3));
+		assertTrue(voices.isVoiceUsed(12));
+		assertFalse(voices.isVoiceUsed(1));
+		assertNull(VoiceSplitter.split(new Pattern("V16 C5q")));
+	}
+
+	@Test
+	public void testOptimizerIsApplied() throws Exception {
+		String music = "V0 I0 C5q I0 D5q V1 I0 E5q I0 F5q";
+		MidiRenderer renderer = new MidiRenderer(Sequence.PPQ, 120);
+		renderer.setOptimizer(new MidiOptimizer());
+		MusicStringParser parser = new MusicStringParser();
+		parser.addParserListener(renderer);
+		parser.parse(new Pattern(music));
+		ByteArrayOutputStream expected = new ByteArrayOutputStream();
+		renderer.writeMidiFile(expected);
+
+		ParallelMidiRenderer parallel = new ParallelMidiRenderer(Sequence.PPQ, 120);
+		parallel.setOptimizer(new MidiOptimizer());
+		ByteArrayOutputStream actual = new ByteArrayOutputStream();
+		parallel.writeMidiFile(new Pattern(music), actual);
+		assertArrayEquals(expected.toByteArray(), actual.toByteArray());
+	}
+
+	@Test
+	public void testErrorIsTheSequentialError() {
+		String music = "V1 C5q V2 I[NotAnInstrument] V3 Xq";
+		String expected = null;
+		try {
+			sequential(new Pattern(music));
+			fail("Expected a JFugueException");
+		} catch (Exception e) {
+			expected = e.getMessage();
+		}
+		try {
+			new ParallelMidiRenderer(Sequence.PPQ, 120).renderTracks(new Pattern(music), executor);
+			fail("Expected a JFugueException");
+		} catch (JFugueException e) {
+			assertEquals(expected, e.getMessage());
+		}
+	}
+
+	private void assertSameAsSequential(String music) throws Exception {
+		assertSameAsSequential(new Pattern(music));
+	}
+
+	private void assertSameAsSequential(PatternInterface pattern) throws Exception {
+		byte[] expected = sequential(pattern);
+		ParallelMidiRenderer renderer = new ParallelMidiRenderer(Sequence.PPQ, 120);
+
+		ByteArrayOutputStream file = new ByteArrayOutputStream();
+		renderer.writeMidiFile(pattern, file);
+		assertArrayEquals(expected, file.toByteArray());
+
+		ByteArrayOutputStream sequence = new ByteArrayOutputStream();
+		MidiSystem.write(renderer.render(pattern, executor), 1, sequence);
+		assertArrayEquals(expected, sequence.toByteArray());
+	}
+
+	private static byte[] sequential(PatternInterface pattern) throws Exception {
+		MidiRenderer renderer = new MidiRenderer(Sequence.PPQ, 120);
+		MusicStringParser parser = new MusicStringParser();
+		parser.addParserListener(renderer);
+		parser.parse(pattern);
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MidiSystem.write(renderer.getSequence(), 1, out);
+		return out.toByteArray();
+	}
+}
@@ -0,0 +1,57 @@
+package org.jfugue.test;
+
+import static org.junit.Assert.*;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jfugue.Pattern;
+import org.jfugue.elements.JFugueElement;
+import org.jfugue.elements.Note;
+import org.jfugue.parsers.DummyParseTracer;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.parsers.ParseTracer;
+import org.junit.Test;
+
+public class ParseTracerTest {
+
+	private static class RecordingTracer implements ParseTracer {
+		List<String> calls = new ArrayList<String>();
+		boolean detailEnabled;
+		int details;
+
+		public void tokenStarted(String token) { calls.add("token " + token); }
+		public void elementDecoded(JFugueElement element) { calls.add("element " + element.getVerifyString()); }
+		public void noteFired(Note note) { calls.add("note " + note.getMusicString()); }
+		public boolean isDetailEnabled() { return detailEnabled; }
+		public void detail(String message) { details++; }
+	}
+
+	@Test
+	public void testTypedCallbacks() {
+		RecordingTracer tracer = new RecordingTracer();
+		MusicStringParser parser = new MusicStringParser();
+		parser.setParseTracer(tracer);
+		parser.parse(new Pattern("V1 C5q"));
+		assertEquals("[element Tempo: tempo=120, token V1, element Voice: voice=1, token C5Q, note C5q]", tracer.calls.toString());
+		assertEquals(0, tracer.details);
+	}
+
+	@Test
+	public void testDetailOnlyWhenEnabled() {
+		RecordingTracer tracer = new RecordingTracer();
+		tracer.detailEnabled = true;
+		MusicStringParser parser = new MusicStringParser();
+		parser.setParseTracer(tracer);
+		parser.parse(new Pattern("C5q"));
+		assertTrue(tracer.details > 0);
+	}
+
+	@Test
+	public void testDefaultTracerDoesNothing() {
+		MusicStringParser parser = new MusicStringParser();
+		assertSame(DummyParseTracer.INSTANCE, parser.getParseTracer());
+		parser.setParseTracer(null);
+		assertSame(DummyParseTracer.INSTANCE, parser.getParseTracer());
+	}
+}
@@ -1,7 +1,9 @@
 package org.jfugue.test;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
 import static org.mockito.Mockito.verify;
 
 import org.jfugue.ParserListener;
@@ -25,9 +27,24 @@ import org.junit.*;
 
 public class ParserTest {
     public class TestParser extends Parser {
+        public void reportProgress(long partCompleted, long whole) {
+            fireProgressReported("Testing", partCompleted, whole);
+        }
 
+        public void fireVoice(Voice voice) {
+            fireVoiceEvent(voice);
+        }
 	}
 
+    private static class CountingProgressListener implements ParserProgressListener {
+        int reports = 0;
+        long lastPart = 0;
+        public void progressReported(String description, long partCompleted, long whole) {
+            reports++;
+            lastPart = partCompleted;
+        }
+    }
+
 	private Parser parser;
 
     @Before
@@ -448,4 +465,84 @@ public class ParserTest {
 	}
     }
 
+    @Test
+    public void testProgressReportsAreLimited() {
+        TestParser testParser = new TestParser();
+        CountingProgressListener listener = new CountingProgressListener();
+        testParser.addParserProgressListener(listener);
+        for (long part = 1; part <= 1000; part++) {
+            testParser.reportProgress(part, 1000);
+        }
+        assertEquals(Parser.DEFAULT_PROGRESS_REPORT_LIMIT, listener.reports);
+        assertEquals(1000, listener.lastPart);
+    }
+
+    @Test
+    public void testProgressReportsAreLimitedForUnevenWholes() {
+        TestParser testParser = new TestParser();
+        CountingProgressListener listener = new CountingProgressListener();
+        testParser.addParserProgressListener(listener);
+        for (long part = 1; part <= 151; part++) {
+            testParser.reportProgress(part, 151);
+        }
+        assertTrue(listener.reports <= Parser.DEFAULT_PROGRESS_REPORT_LIMIT);
+        assertEquals(151, listener.lastPart);
+    }
+
+    @Test
+    public void testProgressReportsStartAfreshForEachParse() {
+        TestParser testParser = new TestParser();
+        testParser.setProgressReportInterval(60000L);
+        CountingProgressListener listener = new CountingProgressListener();
+        testParser.addParserProgressListener(listener);
+        for (int parse = 0; parse < 2; parse++) {
+            for (long part = 1; part <= 50; part++) {
+                testParser.reportProgress(part, 50);
+            }
+        }
+        assertEquals(4, listener.reports);
+    }
+
+    @Test
+    public void testProgressReportLimitOfZeroReportsEveryPart() {
+        TestParser testParser = new TestParser();
+        testParser.setProgressReportLimit(0);
+        CountingProgressListener listener = new CountingProgressListener();
+        testParser.addParserProgressListener(listener);
+        for (long part = 1; part <= 1000; part++) {
+            testParser.reportProgress(part, 1000);
+        }
+        assertEquals(1000, listener.reports);
+    }
+
+    @Test
+    public void testProgressReportIntervalStillReportsTheEnd() {
+        TestParser testParser = new TestParser();
+        testParser.setProgressReportInterval(60000L);
+        CountingProgressListener listener = new CountingProgressListener();
+        testParser.addParserProgressListener(listener);
+        for (long part = 1; part <= 50; part++) {
+            testParser.reportProgress(part, 50);
+        }
+        assertEquals(2, listener.reports);
+        assertEquals(50, listener.lastPart);
+    }
+
+    @Test
+    public void testListenerAddedDuringEventMissesThatEvent() {
+        final TestParser testParser = new TestParser();
+        final ParserListener late = mock(ParserListener.class);
+        ParserListener adder = mock(ParserListener.class);
+        testParser.addParserListener(new org.jfugue.ParserListenerAdapter() {
+            public void voiceEvent(Voice voice) {
+                testParser.addParserListener(late);
+            }
+        });
+        testParser.addParserListener(adder);
+        Voice first = new Voice((byte)1);
+        testParser.fireVoice(first);
+        verify(adder).voiceEvent(first);
+        verify(late, never()).voiceEvent(first);
+    }
+
 }
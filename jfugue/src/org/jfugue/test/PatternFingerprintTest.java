@@ -0,0 +1,71 @@
+package org.jfugue.test;
+
+import org.jfugue.Pattern;
+import org.jfugue.elements.ImmutablePattern;
+import org.jfugue.util.Rope;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PatternFingerprintTest {
+
+	private static final String MUSIC_STRING = "T120 V0 I[Piano] C5q D5q E5q | V1 Cmajw";
+
+	@Test
+	public void testRopeFingerprintDependsOnlyOnTheCharacters() {
+		Rope built = Rope.of("T120 V0 ").concat("I[Piano] C5q").concat(" D5q E5q | V1 Cmajw");
+		Rope split = Rope.of(MUSIC_STRING).subSequence(0, 20).concat(Rope.of(MUSIC_STRING).subSequence(20, MUSIC_STRING.length()));
+		assertEquals(Rope.fingerprint(MUSIC_STRING), built.fingerprint());
+		assertEquals(Rope.fingerprint(MUSIC_STRING), split.fingerprint());
+		assertFalse(Rope.fingerprint(MUSIC_STRING) == Rope.fingerprint(MUSIC_STRING + " "));
+	}
+
+	@Test
+	public void testRepetitionFingerprintMatchesItsText() {
+		Rope body = Rope.of("C5q D5q ");
+		for (int count = 1; count < 40; count++) {
+			Rope repeated = body.repeat(count);
+			assertEquals(Rope.fingerprint(repeated.toString()), repeated.fingerprint());
+		}
+		Rope mixed = Rope.of("T100 ").concat(body.repeat(7)).concat("Rw");
+		assertEquals(Rope.fingerprint(mixed.toString()), mixed.fingerprint());
+	}
+
+	@Test
+	public void testFingerprintFollowsAppends() {
+		Pattern pattern = new Pattern("T120");
+		long before = pattern.fingerprint();
+		pattern.add("C5q");
+		assertFalse(before == pattern.fingerprint());
+		assertEquals(new Pattern("T120 C5q").fingerprint(), pattern.fingerprint());
+	}
+
+	@Test
+	public void testPropertiesArePartOfTheFingerprint() {
+		Pattern first = new Pattern(MUSIC_STRING);
+		Pattern second = new Pattern(MUSIC_STRING);
+		first.setProperty("Composer", "Bach");
+		first.setTitle("Inventio");
+		second.setTitle("Inventio");
+		assertFalse(first.fingerprint() == second.fingerprint());
+		assertFalse(first.equals(second));
+		second.setProperty("Composer", "Bach");
+		assertEquals(first.fingerprint(), second.fingerprint());
+		assertEquals(first, second);
+		assertEquals(first.hashCode(), second.hashCode());
+	}
+
+	@Test
+	public void testEqualPatternsBuiltDifferently() {
+		Pattern added = new Pattern("T120 V0 I[Piano]");
+		added.add("C5q D5q E5q | V1 Cmajw");
+		Pattern repeated = new Pattern("C5q");
+		repeated.repeat(3);
+		ImmutablePattern immutable = new ImmutablePattern(MUSIC_STRING);
+
+		assertEquals(new Pattern(MUSIC_STRING), added);
+		assertEquals(immutable, added);
+		assertEquals(immutable.hashCode(), added.hashCode());
+		assertEquals(new Pattern("C5q C5q C5q"), repeated);
+		assertFalse(new Pattern("C5q C5q D5q").equals(repeated));
+	}
+}
@@ -0,0 +1,131 @@
+package org.jfugue.test;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.ObjectInputStream;
+import java.io.ObjectOutputStream;
+import java.io.ObjectStreamClass;
+
+import org.jfugue.CompiledPattern;
+import org.jfugue.Pattern;
+import org.jfugue.Rhythm;
+import org.jfugue.elements.JFugueElement;
+import org.jfugue.elements.Note;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.parsers.ParseTracer;
+import org.jfugue.util.Rope;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PatternRepeatTest {
+
+	private static void assertSameEvents(CompiledPattern expected, CompiledPattern actual) {
+		assertEquals(expected.size(), actual.size());
+		for (int i = 0; i < expected.size(); i++) {
+			assertEquals(expected.getKind(i), actual.getKind(i));
+			assertEquals(expected.getVoice(i), actual.getVoice(i));
+			assertEquals(expected.getLayer(i), actual.getLayer(i));
+			assertEquals(expected.getValue(i), actual.getValue(i));
+			assertEquals(expected.getData(i), actual.getData(i));
+			assertEquals(expected.getDuration(i), actual.getDuration(i));
+			assertEquals(expected.getFlags(i), actual.getFlags(i));
+		}
+	}
+
+	private static void assertParsesLikeText(Pattern pattern) {
+		assertSameEvents(CompiledPattern.compile(new Pattern(pattern.getMusicString())), CompiledPattern.compile(pattern));
+	}
+
+	@Test
+	public void testSerialFormKeepsMusicStringAsStringBuilder() throws Exception {
+		assertEquals(StringBuilder.class, ObjectStreamClass.lookup(Pattern.class).getField("musicString").getType());
+
+		Pattern pattern = new Pattern("V0 C5q E5q");
+		pattern.repeat(3);
+		ByteArrayOutputStream bytes = new ByteArrayOutputStream();
+		ObjectOutputStream out = new ObjectOutputStream(bytes);
+		out.writeObject(pattern);
+		out.close();
+		Pattern copy = (Pattern)new ObjectInputStream(new ByteArrayInputStream(bytes.toByteArray())).readObject();
+		assertEquals(pattern.getMusicString(), copy.getMusicString());
+		copy.add("G5q");
+		assertEquals(pattern.getMusicString() + " G5q", copy.getMusicString());
+	}
+
+	@Test
+	public void testRepeatIsParsedLikeText() throws Exception {
+		Pattern pattern = new Pattern("V0 I[Piano] C5q E5q G5q | V1 Cmaj5h+E6q_G6q");
+		pattern.repeat(5);
+		assertTrue(pattern.getMusicCharSequence() instanceof Rope);
+		assertTrue(((Rope)pattern.getMusicCharSequence()).containsRepetition());
+		assertParsesLikeText(pattern);
+
+		Pattern added = new Pattern("T160");
+		added.add(new Pattern("L1 C5q D5q"), 4);
+		added.add("E5w");
+		assertParsesLikeText(added);
+	}
+
+	@Test
+	public void testRepeatThatChangesKeySignature() throws Exception {
+		Pattern pattern = new Pattern("F5q C5q KGmaj");
+		pattern.repeat(3);
+		assertParsesLikeText(pattern);
+	}
+
+	@Test
+	public void testRepeatWithDictionaryDefinition() throws Exception {
+		Pattern pattern = new Pattern("$INST=40 I[Inst] C5q $INST=41");
+		pattern.repeat(3);
+		assertParsesLikeText(pattern);
+	}
+
+	@Test
+	public void testNestedAndPartialRepeats() throws Exception {
+		Pattern inner = new Pattern("C5q D5q");
+		inner.repeat(3);
+		Pattern outer = new Pattern("V2");
+		outer.add(inner, 4);
+		outer.repeat(2);
+		assertParsesLikeText(outer);
+
+		// A repetition whose copies run into each other is parsed as text
+		Pattern partial = new Pattern("A5q") {
+			{ musicString = Rope.of("A5q B").concat(Rope.of("w").repeat(3)).concat(" C5w"); }
+		};
+		assertParsesLikeText(partial);
+	}
+
+	@Test
+	public void testBodyIsParsedOnce() throws Exception {
+		Pattern pattern = new Pattern("C5q D5q E5q F5q");
+		pattern.repeat(100000);
+		final int[] tokens = new int[1];
+		MusicStringParser parser = new MusicStringParser();
+		parser.setParseTracer(new ParseTracer() {
+			public void tokenStarted(String token) { tokens[0]++; }
+			public void elementDecoded(JFugueElement element) { }
+			public void noteFired(Note note) { }
+			public boolean isDetailEnabled() { return false; }
+			public void detail(String message) { }
+		});
+		CompiledPattern compiled = CompiledPattern.compile(pattern, parser);
+		assertEquals(400001, compiled.size());
+		assertEquals(4 + 4, tokens[0]);
+	}
+
+	@Test
+	public void testRhythmOffsetIsRepeated() throws Exception {
+		Rhythm rhythm = new Rhythm();
+		rhythm.setLayer(1, "O..oO...O..oOO..");
+		rhythm.setLayer(2, "..*...*...*...*.");
+		rhythm.addSubstitution('O', "[BASS_DRUM]i");
+		rhythm.addSubstitution('o', "Rs [BASS_DRUM]s");
+		rhythm.addSubstitution('*', "[HAND_CLAP]i");
+		rhythm.addSubstitution('.', "Ri");
+		rhythm.setVoiceOffset("....", 3);
+		Pattern pattern = (Pattern)rhythm.getPattern();
+		assertEquals(rhythm.getMusicString(), pattern.getMusicString());
+		assertParsesLikeText(pattern);
+	}
+}
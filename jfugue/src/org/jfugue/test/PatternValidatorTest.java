@@ -0,0 +1,49 @@
+package org.jfugue.test;
+
+import java.util.ArrayList;
+import java.util.List;
+
+import org.jfugue.Pattern;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.parsers.ParserError;
+import org.jfugue.parsers.PatternValidator;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PatternValidatorTest {
+
+	@Test
+	public void testValidPattern() throws Exception {
+		assertTrue(MusicStringParser.validate(new Pattern("T120 V0 I[Piano] C5q Cmaj5w | Rh")).isEmpty());
+		assertTrue(new Pattern("C D E").isValid());
+	}
+
+	@Test
+	public void testEveryErrorIsReported() throws Exception {
+		List<ParserError> errors = MusicStringParser.validate(new Pattern("C5q I[NotAnInstrument] D5q KHmaj E5q"));
+		assertEquals(2, errors.size());
+		assertEquals("I[NOTANINSTRUMENT]", errors.get(0).getToken().toUpperCase());
+		assertEquals(4, errors.get(0).getTokenOffset());
+		assertEquals(27, errors.get(1).getTokenOffset());
+		assertFalse(new Pattern("C5q I[NotAnInstrument]").isValid());
+	}
+
+	@Test
+	public void testDictionaryDefinitionsInPattern() throws Exception {
+		assertTrue(MusicStringParser.validate(new Pattern("$MYINST=41 I[MyInst] C")).isEmpty());
+		assertEquals(1, MusicStringParser.validate(new Pattern("I[MyInst] C")).size());
+	}
+
+	@Test
+	public void testValidateAll() throws Exception {
+		List<Pattern> patterns = new ArrayList<Pattern>();
+		for (int i = 0; i < 500; i++) {
+			patterns.add(new Pattern((i % 7 == 0) ? "C I[Nope] D" : "C D E"));
+		}
+		List<List<ParserError>> errors = PatternValidator.validateAll(patterns);
+		assertEquals(500, errors.size());
+		for (int i = 0; i < 500; i++) {
+			assertEquals(Integer.toString(i), (i % 7 == 0) ? 1 : 0, errors.get(i).size());
+		}
+	}
+}
@@ -0,0 +1,73 @@
+package org.jfugue.test;
+
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+import org.jfugue.util.PersistentMap;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PersistentMapTest {
+
+	@Test
+	public void testPlusAndMinusLeaveTheOriginalAlone() {
+		PersistentMap<String, String> empty = PersistentMap.empty();
+		PersistentMap<String, String> one = empty.plus("Title", "Inventio 13");
+		PersistentMap<String, String> two = one.plus("Composer", "Bach");
+		PersistentMap<String, String> changed = two.plus("Title", "Inventio 14");
+		PersistentMap<String, String> removed = changed.minus("Composer");
+
+		assertTrue(empty.isEmpty());
+		assertEquals(1, one.size());
+		assertEquals("Inventio 13", two.get("Title"));
+		assertEquals("Inventio 14", changed.get("Title"));
+		assertEquals("Bach", changed.get("Composer"));
+		assertFalse(removed.containsKey("Composer"));
+		assertEquals(1, removed.size());
+		assertSame(two, two.plus("Composer", "Bach"));
+		assertSame(two, two.minus("Missing"));
+	}
+
+	@Test
+	public void testMatchesTreeMap() {
+		Random random = new Random(17);
+		TreeMap<Integer, Integer> expected = new TreeMap<Integer, Integer>();
+		PersistentMap<Integer, Integer> map = PersistentMap.empty();
+		for (int i = 0; i < 2000; i++) {
+			int key = random.nextInt(300);
+			if (random.nextInt(3) == 0) {
+				expected.remove(key);
+				map = map.minus(key);
+			} else {
+				expected.put(key, i);
+				map = map.plus(key, i);
+			}
+		}
+		assertEquals(expected, map);
+		assertEquals(expected.hashCode(), map.hashCode());
+		Iterator<Integer> keys = map.keySet().iterator();
+		for (Integer key : expected.keySet()) {
+			assertEquals(key, keys.next());
+		}
+		assertFalse(keys.hasNext());
+	}
+
+	@Test
+	public void testOfCopiesOtherMaps() {
+		Map<String, String> properties = new HashMap<String, String>();
+		properties.put("Title", "Inventio 13");
+		PersistentMap<String, String> map = PersistentMap.of(properties);
+		properties.put("Title", "Changed");
+		assertEquals("Inventio 13", map.get("Title"));
+		assertSame(map, PersistentMap.of(map));
+		assertTrue(PersistentMap.of(null).isEmpty());
+	}
+
+	@Test(expected=UnsupportedOperationException.class)
+	public void testCannotBeChangedInPlace() {
+		PersistentMap.<String, String>empty().plus("Title", "Inventio 13").put("Title", "Changed");
+	}
+}
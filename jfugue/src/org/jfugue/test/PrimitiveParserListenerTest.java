@@ -0,0 +1,135 @@
+package org.jfugue.test;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+
+import org.jfugue.EventBlock;
+import org.jfugue.ParserListenerAdapter;
+import org.jfugue.Pattern;
+import org.jfugue.PrimitiveParserListener;
+import org.jfugue.elements.KeySignature;
+import org.jfugue.elements.Note;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.parsers.ParseTracer;
+import org.jfugue.elements.JFugueElement;
+import org.jfugue.visitors.ListenerToVisitorAdaptor;
+import org.jfugue.visitors.LoggingVisitor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class PrimitiveParserListenerTest {
+
+	private static class RecordingListener extends ParserListenerAdapter implements PrimitiveParserListener {
+		StringBuilder notes = new StringBuilder();
+		int objectNotes = 0;
+
+		public void noteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags) {
+			notes.append("F").append(value).append('/').append(duration).append('/').append(flags).append(' ');
+		}
+		public void sequentialNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags) {
+			notes.append("S").append(value).append('/').append(duration).append('/').append(flags).append(' ');
+		}
+		public void parallelNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags) {
+			notes.append("P").append(value).append('/').append(duration).append('/').append(flags).append(' ');
+		}
+		public void noteEvent(Note note) { objectNotes++; }
+		public void sequentialNoteEvent(Note note) { objectNotes++; }
+		public void parallelNoteEvent(Note note) { objectNotes++; }
+	}
+
+	@Test
+	public void testPrimitiveNotes() throws Exception {
+		MusicStringParser parser = new MusicStringParser();
+		RecordingListener listener = new RecordingListener();
+		parser.addParserListener(listener);
+		parser.parse(new Pattern("C5q- Rh D5q_C5majw"));
+		assertEquals(0, listener.objectNotes);
+		int ties = EventBlock.START_OF_TIE;
+		int chord = EventBlock.ACCOMPANYING_NOTES;
+		assertEquals("F60/32/" + ties + " F0/64/" + EventBlock.REST + " F62/32/" + chord + " S60/128/" + chord + " P64/128/" + chord + " P67/128/0 ",
+				listener.notes.toString());
+	}
+
+	@Test
+	public void testMixedListenersStillGetNotes() throws Exception {
+		String music = "KFmaj B5q Bn5q C5majw D5q+E5q";
+		LoggingVisitor expected = new LoggingVisitor();
+		MusicStringParser plain = new MusicStringParser();
+		plain.addParserListener(new ListenerToVisitorAdaptor(expected));
+		plain.parse(new Pattern(music));
+
+		LoggingVisitor actual = new LoggingVisitor();
+		MusicStringParser mixed = new MusicStringParser();
+		RecordingListener primitive = new RecordingListener();
+		mixed.addParserListener(new ListenerToVisitorAdaptor(actual));
+		mixed.addParserListener(primitive);
+		mixed.parse(new Pattern(music));
+
+		assertEquals(expected.toString(), actual.toString());
+		assertEquals(7, primitive.objectNotes);
+	}
+
+	@Test
+	public void testTracingUsesNotes() throws Exception {
+		MusicStringParser parser = new MusicStringParser();
+		RecordingListener listener = new RecordingListener();
+		parser.addParserListener(listener);
+		parser.setParseTracer(new ParseTracer() {
+			public void tokenStarted(String token) { }
+			public void elementDecoded(JFugueElement element) { }
+			public void noteFired(Note note) { }
+			public boolean isDetailEnabled() { return false; }
+			public void detail(String message) { }
+		});
+		parser.parse(new Pattern("C D"));
+		assertEquals(2, listener.objectNotes);
+	}
+
+	@Test
+	public void testKeySignatureAdjustments() throws Exception {
+		assertEquals(-1, KeySignature.getAdjustment(-1, 11));  // B-flat in F major
+		assertEquals(0, KeySignature.getAdjustment(-1, 4));
+		assertEquals(-1, KeySignature.getAdjustment(-6, 0));   // C-flat in G-flat major
+		assertEquals(+1, KeySignature.getAdjustment(2, 0));    // C-sharp in D major
+		assertEquals(+1, KeySignature.getAdjustment(9, 11));   // Beyond seven sharps is seven sharps
+		assertEquals(0, KeySignature.getAdjustment(3, 60));
+		assertEquals(70, MusicStringParser.getNote("KFmaj B5").getValue());
+	}
+
+	@Test
+	public void testPrimitivePathAllocatesLess() throws Exception {
+		ThreadMXBean threads = ManagementFactory.getThreadMXBean();
+		if (!(threads instanceof com.sun.management.ThreadMXBean)) {
+			return;
+		}
+		com.sun.management.ThreadMXBean allocations = (com.sun.management.ThreadMXBean)threads;
+		if (!allocations.isThreadAllocatedMemorySupported()) {
+			return;
+		}
+		StringBuilder music = new StringBuilder();
+		for (int i = 0; i < 1000; i++) {
+			music.append("C5q Emaj6h ");
+		}
+		Pattern pattern = new Pattern(music.toString());
+		long primitive = 0;
+		long objects = 0;
+		for (int run = 0; run < 3; run++) {
+			primitive = allocatedWhileParsing(allocations, pattern, new RecordingListener() {
+				public void noteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags) { }
+				public void parallelNoteEvent(int value, long duration, double decimalDuration, byte attackVelocity, byte decayVelocity, int flags) { }
+			});
+			objects = allocatedWhileParsing(allocations, pattern, new ParserListenerAdapter());
+		}
+		// 4000 notes, each of which needs a Note of well over 32 bytes on the object path
+		assertTrue(primitive + " vs " + objects, objects - primitive > 4000 * 32);
+	}
+
+	private static long allocatedWhileParsing(com.sun.management.ThreadMXBean allocations, Pattern pattern, ParserListenerAdapter listener) {
+		MusicStringParser parser = new MusicStringParser();
+		parser.addParserListener(listener);
+		long id = Thread.currentThread().getId();
+		long before = allocations.getThreadAllocatedBytes(id);
+		parser.parse(pattern);
+		return allocations.getThreadAllocatedBytes(id) - before;
+	}
+}
@@ -0,0 +1,86 @@
+package org.jfugue.test;
+
+import java.util.Random;
+
+import org.jfugue.Pattern;
+import org.jfugue.parsers.TokenCursor;
+import org.jfugue.util.Rope;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class RopeTest {
+
+	@Test
+	public void testConcatAndInsert() throws Exception {
+		Rope rope = Rope.of("C D").concat(" E").concat(Rope.of(" F"));
+		assertEquals("C D E F", rope.toString());
+		assertEquals("C D E F", rope.insert(0, "").toString());
+		assertEquals("C D G E F", rope.insert(3, " G").toString());
+		assertEquals("C D E F", rope.toString());
+		assertEquals(" E", rope.subSequence(3, 5).toString());
+	}
+
+	@Test
+	public void testMatchesStringBuilder() throws Exception {
+		Random random = new Random(42);
+		Rope rope = Rope.EMPTY;
+		StringBuilder expected = new StringBuilder();
+		for (int i = 0; i < 3000; i++) {
+			String piece = "X" + i + (i % 7 == 0 ? "abcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyzabcdefghijklmnopqrstuvwxyz0123456789012345678901234567890" : "");
+			int position = random.nextInt(expected.length() + 1);
+			if (i % 3 == 0) {
+				rope = rope.insert(position, piece);
+				expected.insert(position, piece);
+			} else {
+				rope = rope.concat(piece);
+				expected.append(piece);
+			}
+		}
+		assertEquals(expected.length(), rope.length());
+		assertEquals(expected.toString(), rope.toString());
+		for (int i = 0; i < expected.length(); i += 37) {
+			assertEquals(expected.charAt(i), rope.charAt(i));
+		}
+		assertEquals(expected.substring(1000, 5000), rope.subSequence(1000, 5000).toString());
+		assertTrue(rope.getDepth() < 40);
+	}
+
+	@Test
+	public void testRepeatSharesText() throws Exception {
+		Rope rope = Rope.of(" C5q D5q E5q F5q G5q A5q B5q C6q D6q E6q F6q G6q A6q B6q C7q D7q E7q F7q G7q A7q").repeat(1000000);
+		assertEquals(80000000, rope.length());
+		assertEquals('q', rope.charAt(79999999));
+		assertTrue(rope.getDepth() < 40);
+		assertEquals("", Rope.of("A").repeat(0).toString());
+		assertEquals("AAA", Rope.of("A").repeat(3).toString());
+	}
+
+	@Test
+	public void testPatternOperations() throws Exception {
+		Pattern pattern = new Pattern("A B");
+		pattern.add(new Pattern("C"));
+		pattern.insert("Z");
+		assertEquals("Z A B C", pattern.getMusicString());
+		pattern.add("D", 2);
+		assertEquals("Z A B C D D", pattern.getMusicString());
+		pattern.repeat(2);
+		assertEquals("Z A B C D D Z A B C D D", pattern.getMusicString());
+		pattern.repeat(0);
+		assertEquals("", pattern.getMusicString());
+	}
+
+	@Test
+	public void testTokenCursorOverRope() throws Exception {
+		Pattern pattern = new Pattern("C5q");
+		for (int i = 0; i < 500; i++) {
+			pattern.add("D5h E5w");
+		}
+		TokenCursor cursor = new TokenCursor(pattern.getMusicCharSequence());
+		int count = 0;
+		while (cursor.next()) {
+			count++;
+		}
+		assertEquals(1001, count);
+		assertTrue(pattern.getMusicCharSequence() instanceof Rope);
+	}
+}
@@ -2,9 +2,13 @@ package org.jfugue.test;
 
 import static org.junit.Assert.fail;
 
+import java.io.ByteArrayOutputStream;
 import java.lang.reflect.InvocationTargetException;
 import java.lang.reflect.Method;
 
+import javax.sound.midi.MidiSystem;
+import javax.sound.midi.Sequence;
+
 public class TestCaseHelpers {
 
 	protected static final void format(String format, Object... objects) {
@@ -28,4 +32,11 @@ public class TestCaseHelpers {
         return null;
     }
 
+	/** Returns the Standard MIDI File (type 1) that the given sequence is written as */
+	protected static byte[] toBytes(Sequence sequence) throws Exception {
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		MidiSystem.write(sequence, 1, out);
+		return out.toByteArray();
+	}
+
 }
@@ -0,0 +1,59 @@
+package org.jfugue.test;
+
+import org.jfugue.Pattern;
+import org.jfugue.parsers.MusicStringParser;
+import org.jfugue.parsers.TokenCache;
+import org.jfugue.visitors.ListenerToVisitorAdaptor;
+import org.jfugue.visitors.LoggingVisitor;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TokenCacheTest {
+
+	private String parse(String musicString, TokenCache cache) {
+		MusicStringParser parser = new MusicStringParser();
+		parser.setTokenCache(cache);
+		LoggingVisitor loggingVisitor = new LoggingVisitor();
+		parser.addParserListener(new ListenerToVisitorAdaptor(loggingVisitor));
+		parser.parse(new Pattern(musicString));
+		return loggingVisitor.toString();
+	}
+
+	@Test
+	public void testCachedParseMatchesUncachedParse() {
+		String musicString = "V0 I[Piano] C5q C5q Cmajw Cmajw C5q+E5q_G5q C5q+E5q_G5q | V1 Rw Rw X[Volume]=100 X[Volume]=100";
+		TokenCache cache = new TokenCache();
+		assertEquals(parse(musicString, null), parse(musicString, cache));
+		assertEquals(5, cache.getHitCount());
+		assertEquals(9, cache.getMissCount());
+	}
+
+	@Test
+	public void testKeySignatureIsPartOfTheKey() {
+		String musicString = "F5q KGmaj F5q KCmaj F5q";
+		TokenCache cache = new TokenCache();
+		assertEquals(parse(musicString, null), parse(musicString, cache));
+		assertEquals(1, cache.getHitCount());
+		assertEquals(2, cache.getMissCount());
+	}
+
+	@Test
+	public void testDictionaryChangeIsNotHiddenByCache() {
+		String musicString = "$MYNOTE=60 [MyNote]q $MYNOTE=62 [MyNote]q";
+		assertEquals(parse(musicString, null), parse(musicString, new TokenCache()));
+	}
+
+	@Test
+	public void testLeastRecentlyUsedTokenIsDropped() {
+		TokenCache cache = new TokenCache(2);
+		parse("T120 C D C E D", cache);
+		assertEquals(2, cache.size());
+		assertEquals(1, cache.getHitCount());
+		assertEquals(5, cache.getMissCount());
+	}
+
+	@Test(expected=IllegalArgumentException.class)
+	public void testCapacityMustBePositive() {
+		new TokenCache(0);
+	}
+}
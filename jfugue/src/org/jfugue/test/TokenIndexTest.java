@@ -0,0 +1,64 @@
+package org.jfugue.test;
+
+import org.jfugue.Pattern;
+import org.jfugue.elements.TokenIndex;
+import org.junit.Test;
+import static org.junit.Assert.*;
+
+public class TokenIndexTest {
+
+	@Test
+	public void testBoundaries() throws Exception {
+		TokenIndex index = new TokenIndex("  C5q\tD5q\n\nE5q ");
+		assertEquals(3, index.size());
+		assertEquals(2, index.getStart(0));
+		assertEquals(5, index.getEnd(0));
+		assertEquals("D5q", index.getToken(1).toString());
+		assertEquals("E5q", index.getToken(2).toString());
+		assertFalse(index.isSingleSpaced(0, 3));
+		assertEquals(0, new TokenIndex(" \t ").size());
+		try {
+			index.getToken(3);
+			fail();
+		} catch (ArrayIndexOutOfBoundsException e) {
+		}
+	}
+
+	@Test
+	public void testIndexIsKeptUntilPatternChanges() throws Exception {
+		Pattern pattern = new Pattern("A B C");
+		TokenIndex index = pattern.getTokenIndex();
+		assertSame(index, pattern.getTokenIndex());
+		pattern.add("D");
+		assertNotSame(index, pattern.getTokenIndex());
+		assertEquals(4, pattern.getTokenCount());
+		assertArrayEquals(new String[] { "A", "B", "C", "D" }, pattern.getTokens());
+	}
+
+	@Test
+	public void testSubPatternAndReplace() throws Exception {
+		Pattern pattern = new Pattern("T120 V0 C5q D5q E5q F5q");
+		assertEquals("V0 C5q D5q", pattern.getSubPattern(1, 4).getMusicString());
+		assertEquals("T120 V0 C5q D5q X F5q", pattern.replace(4, "X").getMusicString());
+		assertEquals("T120 V0 C5q D5q E5q F5q", pattern.replace(9, "X").getMusicString());
+		assertEquals("T120 X Y D5q E5q F5q", pattern.replace(1, "X", "Y").getMusicString());
+		assertEquals("T120 V0 C5q D5q X Y", pattern.replace(4, "X", "Y").getMusicString());
+
+		Pattern spaced = new Pattern("  T120\tV0   C5q\nD5q ");
+		assertEquals("V0 C5q", spaced.getSubPattern(1, 3).getMusicString());
+		assertEquals("T120 V0 X D5q", spaced.replace(2, "X").getMusicString());
+	}
+
+	@Test
+	public void testRepeatedEditsOfLongPattern() throws Exception {
+		Pattern pattern = new Pattern("C5q");
+		pattern.add("D5q", 20000);
+		Pattern edited = pattern;
+		for (int i = 0; i < 2000; i++) {
+			edited = (Pattern)edited.replace(i * 10, "E5q");
+		}
+		assertEquals(20001, edited.getTokenCount());
+		assertEquals("E5q", edited.getTokenIndex().getToken(19990).toString());
+		assertEquals("D5q", edited.getTokenIndex().getToken(19991).toString());
+	}
+}
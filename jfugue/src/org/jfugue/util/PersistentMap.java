@@ -0,0 +1,363 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+package org.jfugue.util;
+
+import java.io.Serializable;
+import java.util.AbstractMap;
+import java.util.AbstractSet;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+import java.util.Set;
+
+/**
+ * An immutable map, sorted by key, that is changed by making a new map.
+ * {@link #plus(Comparable, Object)} and {@link #minus(Comparable)} leave this map
+ * as it is and return a map that shares all but a logarithmic number of its
+ * entries with this one, so deriving one map from another costs O(log n) time
+ * and memory rather than a copy.
+ *
+ * <p>
+ * The entries are kept in a balanced tree whose nodes are never changed once made,
+ * so a map may be shared between threads freely.  The <code>Map</code> methods that
+ * would change the map throw <code>UnsupportedOperationException</code>.
+ * </p>
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public final class PersistentMap<K extends Comparable<? super K>, V> extends AbstractMap<K, V> implements Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    private static final PersistentMap<?, ?> EMPTY = new PersistentMap<String, Object>(null);
+
+    private final Node<K, V> root;
+
+    private PersistentMap(Node<K, V> root)
+    {
+        this.root = root;
+    }
+
+    /** Returns the map with no entries */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> PersistentMap<K, V> empty()
+    {
+        return (PersistentMap<K, V>)EMPTY;
+    }
+
+    /**
+     * Returns a map with the entries of the given map.  A PersistentMap is returned
+     * as it is; <code>null</code> gives the empty map.
+     */
+    @SuppressWarnings("unchecked")
+    public static <K extends Comparable<? super K>, V> PersistentMap<K, V> of(Map<K, V> map)
+    {
+        if (map instanceof PersistentMap) {
+            return (PersistentMap<K, V>)map;
+        }
+        PersistentMap<K, V> result = empty();
+        if (map != null) {
+            for (Map.Entry<K, V> entry : map.entrySet()) {
+                result = result.plus(entry.getKey(), entry.getValue());
+            }
+        }
+        return result;
+    }
+
+    /**
+     * Returns a map with the entries of this map, and the given key mapped to the given value.
+     * @throws NullPointerException if the key is null
+     */
+    public PersistentMap<K, V> plus(K key, V value)
+    {
+        if (key == null) {
+            throw new NullPointerException("A PersistentMap can't hold a null key");
+        }
+        Node<K, V> newRoot = plus(root, key, value);
+        return (newRoot == root) ? this : new PersistentMap<K, V>(newRoot);
+    }
+
+    /**
+     * Returns a map with the entries of this map, except for the given key.
+     */
+    public PersistentMap<K, V> minus(K key)
+    {
+        if (key == null) {
+            return this;
+        }
+        Node<K, V> newRoot = minus(root, key);
+        return (newRoot == root) ? this : new PersistentMap<K, V>(newRoot);
+    }
+
+    @Override
+    public V get(Object key)
+    {
+        Node<K, V> node = find(key);
+        return (node == null) ? null : node.value;
+    }
+
+    @Override
+    public boolean containsKey(Object key)
+    {
+        return find(key) != null;
+    }
+
+    @Override
+    public int size()
+    {
+        return size(root);
+    }
+
+    @Override
+    public boolean isEmpty()
+    {
+        return root == null;
+    }
+
+    @Override
+    public Set<Map.Entry<K, V>> entrySet()
+    {
+        return new AbstractSet<Map.Entry<K, V>>() {
+            @Override
+            public Iterator<Map.Entry<K, V>> iterator()
+            {
+                return new EntryIterator<K, V>(root);
+            }
+
+            @Override
+            public int size()
+            {
+                return PersistentMap.this.size();
+            }
+        };
+    }
+
+    @SuppressWarnings("unchecked")
+    private Node<K, V> find(Object key)
+    {
+        if (key == null) {
+            return null;
+        }
+        Node<K, V> node = root;
+        while (node != null) {
+            int comparison;
+            try {
+                comparison = ((Comparable<Object>)key).compareTo(node.key);
+            } catch (ClassCastException e) {
+                return null;
+            }
+            if (comparison == 0) {
+                return node;
+            }
+            node = (comparison < 0) ? node.left : node.right;
+        }
+        return null;
+    }
+
+    //
+    // Tree operations; each returns a new node, sharing the subtrees it didn't change
+    /////////////////////////////////////////////////////////////////////////
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> plus(Node<K, V> node, K key, V value)
+    {
+        if (node == null) {
+            return new Node<K, V>(key, value, null, null);
+        }
+        int comparison = key.compareTo(node.key);
+        if (comparison == 0) {
+            if ((value == null) ? (node.value == null) : value.equals(node.value)) {
+                return node;
+            }
+            return new Node<K, V>(key, value, node.left, node.right);
+        }
+        if (comparison < 0) {
+            Node<K, V> left = plus(node.left, key, value);
+            return (left == node.left) ? node : balance(node.key, node.value, left, node.right);
+        }
+        Node<K, V> right = plus(node.right, key, value);
+        return (right == node.right) ? node : balance(node.key, node.value, node.left, right);
+    }
+
+    private static <K extends Comparable<? super K>, V> Node<K, V> minus(Node<K, V> node, K key)
+    {
+        if (node == null) {
+            return null;
+        }
+        int comparison = key.compareTo(node.key);
+        if (comparison < 0) {
+            Node<K, V> left = minus(node.left, key);
+            return (left == node.left) ? node : balance(node.key, node.value, left, node.right);
+        }
+        if (comparison > 0) {
+            Node<K, V> right = minus(node.right, key);
+            return (right == node.right) ? node : balance(node.key, node.value, node.left, right);
+        }
+        if (node.left == null) {
+            return node.right;
+        }
+        if (node.right == null) {
+            return node.left;
+        }
+        Node<K, V> first = node.right;
+        while (first.left != null) {
+            first = first.left;
+        }
+        return balance(first.key, first.value, node.left, minus(node.right, first.key));
+    }
+
+    /** Makes a node whose subtrees' heights differ by at most two, rotating if they differ by two */
+    private static <K, V> Node<K, V> balance(K key, V value, Node<K, V> left, Node<K, V> right)
+    {
+        int leftHeight = height(left);
+        int rightHeight = height(right);
+        if (leftHeight > rightHeight + 1) {
+            if (height(left.left) >= height(left.right)) {
+                return new Node<K, V>(left.key, left.value, left.left, new Node<K, V>(key, value, left.right, right));
+            }
+            Node<K, V> inner = left.right;
+            return new Node<K, V>(inner.key, inner.value,
+                    new Node<K, V>(left.key, left.value, left.left, inner.left),
+                    new Node<K, V>(key, value, inner.right, right));
+        }
+        if (rightHeight > leftHeight + 1) {
+            if (height(right.right) >= height(right.left)) {
+                return new Node<K, V>(right.key, right.value, new Node<K, V>(key, value, left, right.left), right.right);
+            }
+            Node<K, V> inner = right.left;
+            return new Node<K, V>(inner.key, inner.value,
+                    new Node<K, V>(key, value, left, inner.left),
+                    new Node<K, V>(right.key, right.value, inner.right, right.right));
+        }
+        return new Node<K, V>(key, value, left, right);
+    }
+
+    private static int height(Node<?, ?> node)
+    {
+        return (node == null) ? 0 : node.height;
+    }
+
+    private static int size(Node<?, ?> node)
+    {
+        return (node == null) ? 0 : node.size;
+    }
+
+    private static final class Node<K, V> implements Map.Entry<K, V>, Serializable
+    {
+        private static final long serialVersionUID = 1L;
+        private final K key;
+        private final V value;
+        private final Node<K, V> left;
+        private final Node<K, V> right;
+        private final int height;
+        private final int size;
+
+        Node(K key, V value, Node<K, V> left, Node<K, V> right)
+        {
+            this.key = key;
+            this.value = value;
+            this.left = left;
+            this.right = right;
+            this.height = Math.max(height(left), height(right)) + 1;
+            this.size = size(left) + size(right) + 1;
+        }
+
+        public K getKey()
+        {
+            return key;
+        }
+
+        public V getValue()
+        {
+            return value;
+        }
+
+        public V setValue(V value)
+        {
+            throw new UnsupportedOperationException("A PersistentMap can't be changed");
+        }
+
+        @Override
+        public boolean equals(Object obj)
+        {
+            if (!(obj instanceof Map.Entry)) {
+                return false;
+            }
+            Map.Entry<?, ?> other = (Map.Entry<?, ?>)obj;
+            return key.equals(other.getKey()) && ((value == null) ? (other.getValue() == null) : value.equals(other.getValue()));
+        }
+
+        @Override
+        public int hashCode()
+        {
+            return key.hashCode() ^ ((value == null) ? 0 : value.hashCode());
+        }
+
+        @Override
+        public String toString()
+        {
+            return key + "=" + value;
+        }
+    }
+
+    /** Walks the tree in key order, keeping the path to the next node on a stack */
+    private static final class EntryIterator<K, V> implements Iterator<Map.Entry<K, V>>
+    {
+        private final List<Node<K, V>> stack = new ArrayList<Node<K, V>>();
+
+        EntryIterator(Node<K, V> root)
+        {
+            pushLeft(root);
+        }
+
+        private void pushLeft(Node<K, V> node)
+        {
+            while (node != null) {
+                stack.add(node);
+                node = node.left;
+            }
+        }
+
+        public boolean hasNext()
+        {
+            return !stack.isEmpty();
+        }
+
+        public Map.Entry<K, V> next()
+        {
+            if (stack.isEmpty()) {
+                throw new NoSuchElementException();
+            }
+            Node<K, V> node = stack.remove(stack.size() - 1);
+            pushLeft(node.right);
+            return node;
+        }
+
+        public void remove()
+        {
+            throw new UnsupportedOperationException("A PersistentMap can't be changed");
+        }
+    }
+}
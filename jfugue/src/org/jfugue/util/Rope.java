@@ -0,0 +1,595 @@
+/*
+ * JFugue - API for Music Programming
+ * Copyright (C) 2003-2008  David Koelle
+ *
+ * http://www.jfugue.org
+ *
+ * This library is free software; you can redistribute it and/or
+ * modify it under the terms of the GNU Lesser General Public
+ * License as published by the Free Software Foundation; either
+ * version 2.1 of the License, or any later version.
+ *
+ * This library is distributed in the hope that it will be useful,
+ * but WITHOUT ANY WARRANTY; without even the implied warranty of
+ * MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the GNU
+ * Lesser General Public License for more details.
+ *
+ * You should have received a copy of the GNU Lesser General Public
+ * License along with this library; if not, write to the Free Software
+ * Foundation, Inc., 51 Franklin Street, Fifth Floor, Boston, MA  02110-1301  USA
+ *
+ */
+
+
+package org.jfugue.util;
+
+import java.io.Serializable;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+/**
+ * An immutable string made of pieces that are shared rather than copied.
+ * Concatenating, inserting, taking a subsequence and repeating all take time
+ * proportional to the logarithm of the length, and leave the original rope
+ * unchanged, so a rope can be built up from thousands of fragments without
+ * the text ever being copied as a whole.
+ *
+ * <p>
+ * The pieces are kept in a balanced tree.  Short pieces that end up next to each
+ * other are joined into one, so a rope built from many small appends doesn't become
+ * a tree of tiny leaves.  A rope is a <code>CharSequence</code>, and reading its
+ * characters in order (as the parsers do) is close to the cost of reading a String,
+ * because each rope remembers the last piece that was read.
+ * </p>
+ *
+ * <p>
+ * A repeated rope is kept as a {@link Repetition}: the repeated text is stored
+ * once, along with the number of times it is repeated.  Code that understands
+ * what the text means, like the <code>MusicStringParser</code>, can find the
+ * repetitions with {@link #getRepetitions()} and deal with each repeated section
+ * once rather than once per copy.
+ * </p>
+ *
+ * @author David Koelle
+ * @version 4.1
+ */
+public abstract class Rope implements CharSequence, Serializable
+{
+    private static final long serialVersionUID = 1L;
+
+    /** Adjoining pieces shorter than this, together, are copied into a single piece */
+    private static final int MERGE_LENGTH = 128;
+
+    /** The rope with no characters */
+    public static final Rope EMPTY = new Leaf("", 0, 0);
+
+    /** The piece that charAt() last read, with the position of its first character */
+    private transient volatile LeafPosition lastLeaf;
+
+    /** The multiplier of the polynomial hash that fingerprints are made with */
+    private static final long FINGERPRINT_BASE = 0x100000001B3L;
+
+    /** This rope's fingerprint, and FINGERPRINT_BASE to the power of its length; valid once fingerprinted is set */
+    transient long fingerprint;
+    transient long fingerprintPower;
+    private transient volatile boolean fingerprinted;
+
+    private Rope()
+    {
+    }
+
+    /**
+     * Returns a rope with the characters of the given sequence.  A rope is returned
+     * as it is; anything else is copied into a String once.
+     */
+    public static Rope of(CharSequence s)
+    {
+        if (s instanceof Rope) {
+            return (Rope)s;
+        }
+        String string = s.toString();
+        return (string.length() == 0) ? EMPTY : new Leaf(string, 0, string.length());
+    }
+
+    /**
+     * Returns the height of the tree of pieces; 0 for a rope that is a single piece.
+     * A repetition counts as a single piece.
+     */
+    public abstract int getDepth();
+
+    /** Returns true if this rope is, or contains, a repetition */
+    public abstract boolean containsRepetition();
+
+    /**
+     * Returns the outermost repetitions in this rope, keyed by the offset at which
+     * each one begins.  Repetitions inside a repetition's body are not included.
+     * Only the parts of the tree that hold repetitions are visited.
+     */
+    public SortedMap<Integer, Repetition> getRepetitions()
+    {
+        SortedMap<Integer, Repetition> repetitions = new TreeMap<Integer, Repetition>();
+        collectRepetitions(this, 0, repetitions);
+        return repetitions;
+    }
+
+    private static void collectRepetitions(Rope rope, int offset, SortedMap<Integer, Repetition> repetitions)
+    {
+        if (!rope.containsRepetition()) {
+            return;
+        }
+        if (rope instanceof Repetition) {
+            repetitions.put(offset, (Repetition)rope);
+            return;
+        }
+        Node node = (Node)rope;
+        collectRepetitions(node.left, offset, repetitions);
+        collectRepetitions(node.right, offset + node.left.length(), repetitions);
+    }
+
+    /**
+     * Returns a 64-bit fingerprint of the characters in this rope: a polynomial hash
+     * that depends only on the characters, not on how the rope was put together, so
+     * ropes with the same text have the same fingerprint.  Each piece remembers its
+     * own fingerprint, so the fingerprint of a rope made by concatenating ropes that
+     * have been fingerprinted takes time proportional to the depth of the new pieces,
+     * and that of a repetition takes time proportional to the logarithm of its count.
+     */
+    public long fingerprint()
+    {
+        computeFingerprintIfNeeded();
+        return fingerprint;
+    }
+
+    /**
+     * Returns the fingerprint of a sequence of characters, which is the fingerprint
+     * of a rope with the same characters.  A rope's remembered fingerprint is used.
+     */
+    public static long fingerprint(CharSequence s)
+    {
+        if (s instanceof Rope) {
+            return ((Rope)s).fingerprint();
+        }
+        long hash = 0;
+        for (int i = 0; i < s.length(); i++) {
+            hash = hash * FINGERPRINT_BASE + s.charAt(i);
+        }
+        return hash;
+    }
+
+    private void computeFingerprintIfNeeded()
+    {
+        if (!fingerprinted) {
+            computeFingerprint();
+            fingerprinted = true;
+        }
+    }
+
+    /** Sets fingerprint and fingerprintPower */
+    abstract void computeFingerprint();
+
+    /**
+     * Returns true if this rope has the same characters as the given sequence.
+     * Ropes with different fingerprints are told apart without reading their characters.
+     */
+    public boolean contentEquals(CharSequence s)
+    {
+        if (s == this) {
+            return true;
+        }
+        int length = length();
+        if (s.length() != length) {
+            return false;
+        }
+        if ((s instanceof Rope) && (fingerprint() != ((Rope)s).fingerprint())) {
+            return false;
+        }
+        for (int i = 0; i < length; i++) {
+            if (charAt(i) != s.charAt(i)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns a rope with the characters of this rope followed by those of the given sequence.
+     */
+    public Rope concat(CharSequence s)
+    {
+        return join(this, of(s));
+    }
+
+    /**
+     * Returns a rope with the given sequence inserted before the character at <code>index</code>.
+     */
+    public Rope insert(int index, CharSequence s)
+    {
+        checkIndex(index, length());
+        Rope[] halves = split(this, index);
+        return join(join(halves[0], of(s)), halves[1]);
+    }
+
+    /**
+     * Returns a rope with this rope's characters repeated the given number of times.
+     * The characters are not copied: the result is a {@link Repetition} that refers
+     * to this rope, so it takes the same space however many times it repeats.
+     */
+    public Rope repeat(int times)
+    {
+        if (times < 0) {
+            throw new IllegalArgumentException("Can't repeat a rope " + times + " times");
+        }
+        if ((long)length() * times > Integer.MAX_VALUE) {
+            throw new IllegalArgumentException("A rope of " + length() + " characters repeated " + times + " times is too long");
+        }
+        if (this instanceof Repetition) {
+            Repetition repetition = (Repetition)this;
+            return repetitionOf(repetition.body, repetition.count * times);
+        }
+        return repetitionOf(this, times);
+    }
+
+    private static Rope repetitionOf(Rope body, int times)
+    {
+        if ((times == 0) || (body.length() == 0)) {
+            return EMPTY;
+        }
+        return (times == 1) ? body : new Repetition(body, times);
+    }
+
+    public char charAt(int index)
+    {
+        LeafPosition position = lastLeaf;
+        if ((position != null) && (index >= position.start) && (index < position.start + position.leaf.length())) {
+            return position.leaf.charAtInLeaf(index - position.start);
+        }
+        if ((index < 0) || (index >= length())) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+        Rope rope = this;
+        int start = 0;
+        while (!(rope instanceof Leaf)) {
+            if (rope instanceof Repetition) {
+                Repetition repetition = (Repetition)rope;
+                int bodyLength = repetition.body.length();
+                start += ((index - start) / bodyLength) * bodyLength;
+                rope = repetition.body;
+                continue;
+            }
+            Node node = (Node)rope;
+            if (index - start < node.left.length()) {
+                rope = node.left;
+            } else {
+                start += node.left.length();
+                rope = node.right;
+            }
+        }
+        Leaf leaf = (Leaf)rope;
+        lastLeaf = new LeafPosition(leaf, start);
+        return leaf.charAtInLeaf(index - start);
+    }
+
+    /**
+     * Returns the characters from <code>start</code> (inclusive) to <code>end</code>
+     * (exclusive) as a rope that shares this rope's pieces.
+     */
+    public Rope subSequence(int start, int end)
+    {
+        int length = length();
+        if ((start < 0) || (end > length) || (start > end)) {
+            throw new IndexOutOfBoundsException(start + "," + end);
+        }
+        if ((start == 0) && (end == length)) {
+            return this;
+        }
+        return split(split(this, end)[0], start)[1];
+    }
+
+    public String toString()
+    {
+        StringBuilder buddy = new StringBuilder(length());
+        appendTo(buddy);
+        return buddy.toString();
+    }
+
+    /** Appends the characters of this rope to the given StringBuilder */
+    public abstract void appendTo(StringBuilder buddy);
+
+    private static void checkIndex(int index, int length)
+    {
+        if ((index < 0) || (index > length)) {
+            throw new IndexOutOfBoundsException(Integer.toString(index));
+        }
+    }
+
+    //
+    // Tree operations
+    /////////////////////////////////////////////////////////////////////////
+
+    /** Joins two ropes, keeping the tree balanced */
+    private static Rope join(Rope left, Rope right)
+    {
+        if (left.length() == 0) {
+            return right;
+        }
+        if (right.length() == 0) {
+            return left;
+        }
+        int leftDepth = left.getDepth();
+        int rightDepth = right.getDepth();
+        if (leftDepth > rightDepth + 1) {
+            Node node = (Node)left;
+            return balance(node.left, join(node.right, right));
+        }
+        if (rightDepth > leftDepth + 1) {
+            Node node = (Node)right;
+            return balance(join(left, node.left), node.right);
+        }
+        if ((left instanceof Leaf) && (right instanceof Leaf) && (left.length() + right.length() <= MERGE_LENGTH)) {
+            return ((Leaf)left).merge((Leaf)right);
+        }
+        return new Node(left, right);
+    }
+
+    /** Makes a node of two ropes whose depths differ by at most two, rotating if they differ by two */
+    private static Rope balance(Rope left, Rope right)
+    {
+        int leftDepth = left.getDepth();
+        int rightDepth = right.getDepth();
+        if (leftDepth > rightDepth + 1) {
+            Node node = (Node)left;
+            if (node.left.getDepth() >= node.right.getDepth()) {
+                return new Node(node.left, new Node(node.right, right));
+            }
+            Node inner = (Node)node.right;
+            return new Node(new Node(node.left, inner.left), new Node(inner.right, right));
+        }
+        if (rightDepth > leftDepth + 1) {
+            Node node = (Node)right;
+            if (node.right.getDepth() >= node.left.getDepth()) {
+                return new Node(new Node(left, node.left), node.right);
+            }
+            Node inner = (Node)node.left;
+            return new Node(new Node(left, inner.left), new Node(inner.right, node.right));
+        }
+        return new Node(left, right);
+    }
+
+    /** Splits a rope into the characters before <code>index</code> and the characters from it on */
+    private static Rope[] split(Rope rope, int index)
+    {
+        if (index == 0) {
+            return new Rope[] { EMPTY, rope };
+        }
+        if (index == rope.length()) {
+            return new Rope[] { rope, EMPTY };
+        }
+        if (rope instanceof Leaf) {
+            Leaf leaf = (Leaf)rope;
+            return new Rope[] { leaf.slice(0, index), leaf.slice(index, leaf.length()) };
+        }
+        if (rope instanceof Repetition) {
+            Repetition repetition = (Repetition)rope;
+            int bodyLength = repetition.body.length();
+            int whole = index / bodyLength;
+            int rest = index % bodyLength;
+            if (rest == 0) {
+                return new Rope[] { repetitionOf(repetition.body, whole), repetitionOf(repetition.body, repetition.count - whole) };
+            }
+            Rope[] halves = split(repetition.body, rest);
+            return new Rope[] { join(repetitionOf(repetition.body, whole), halves[0]),
+                    join(halves[1], repetitionOf(repetition.body, repetition.count - whole - 1)) };
+        }
+        Node node = (Node)rope;
+        int leftLength = node.left.length();
+        if (index <= leftLength) {
+            Rope[] halves = split(node.left, index);
+            return new Rope[] { halves[0], join(halves[1], node.right) };
+        }
+        Rope[] halves = split(node.right, index - leftLength);
+        return new Rope[] { join(node.left, halves[0]), halves[1] };
+    }
+
+    //
+    // Pieces
+    /////////////////////////////////////////////////////////////////////////
+
+    /** A piece of a String; pieces made by splitting share the String they were cut from */
+    private static final class Leaf extends Rope
+    {
+        private static final long serialVersionUID = 1L;
+        private final String string;
+        private final int offset;
+        private final int length;
+
+        Leaf(String string, int offset, int length)
+        {
+            this.string = string;
+            this.offset = offset;
+            this.length = length;
+        }
+
+        public int length()
+        {
+            return length;
+        }
+
+        public int getDepth()
+        {
+            return 0;
+        }
+
+        public boolean containsRepetition()
+        {
+            return false;
+        }
+
+        char charAtInLeaf(int index)
+        {
+            return string.charAt(offset + index);
+        }
+
+        Leaf slice(int start, int end)
+        {
+            return new Leaf(string, offset + start, end - start);
+        }
+
+        Leaf merge(Leaf other)
+        {
+            StringBuilder buddy = new StringBuilder(length + other.length);
+            appendTo(buddy);
+            other.appendTo(buddy);
+            return new Leaf(buddy.toString(), 0, buddy.length());
+        }
+
+        public void appendTo(StringBuilder buddy)
+        {
+            buddy.append(string, offset, offset + length);
+        }
+
+        void computeFingerprint()
+        {
+            long hash = 0;
+            long power = 1;
+            for (int i = offset; i < offset + length; i++) {
+                hash = hash * FINGERPRINT_BASE + string.charAt(i);
+                power *= FINGERPRINT_BASE;
+            }
+            fingerprint = hash;
+            fingerprintPower = power;
+        }
+    }
+
+    /** Two ropes, one after the other */
+    private static final class Node extends Rope
+    {
+        private static final long serialVersionUID = 1L;
+        private final Rope left;
+        private final Rope right;
+        private final int length;
+        private final int depth;
+        private final boolean containsRepetition;
+
+        Node(Rope left, Rope right)
+        {
+            this.left = left;
+            this.right = right;
+            this.length = left.length() + right.length();
+            this.depth = Math.max(left.getDepth(), right.getDepth()) + 1;
+            this.containsRepetition = left.containsRepetition() || right.containsRepetition();
+        }
+
+        public int length()
+        {
+            return length;
+        }
+
+        public int getDepth()
+        {
+            return depth;
+        }
+
+        public boolean containsRepetition()
+        {
+            return containsRepetition;
+        }
+
+        public void appendTo(StringBuilder buddy)
+        {
+            left.appendTo(buddy);
+            right.appendTo(buddy);
+        }
+
+        void computeFingerprint()
+        {
+            left.computeFingerprintIfNeeded();
+            right.computeFingerprintIfNeeded();
+            fingerprint = left.fingerprint * right.fingerprintPower + right.fingerprint;
+            fingerprintPower = left.fingerprintPower * right.fingerprintPower;
+        }
+    }
+
+    /**
+     * A rope repeated a number of times.  The body is kept once, however many
+     * times it is repeated.
+     * @see Rope#repeat(int)
+     */
+    public static final class Repetition extends Rope
+    {
+        private static final long serialVersionUID = 1L;
+        private final Rope body;
+        private final int count;
+
+        private Repetition(Rope body, int count)
+        {
+            this.body = body;
+            this.count = count;
+        }
+
+        /** Returns the rope that is repeated */
+        public Rope getBody()
+        {
+            return body;
+        }
+
+        /** Returns the number of times the body is repeated */
+        public int getCount()
+        {
+            return count;
+        }
+
+        public int length()
+        {
+            return body.length() * count;
+        }
+
+        public int getDepth()
+        {
+            return 0;
+        }
+
+        public boolean containsRepetition()
+        {
+            return true;
+        }
+
+        public void appendTo(StringBuilder buddy)
+        {
+            for (int i = 0; i < count; i++) {
+                body.appendTo(buddy);
+            }
+        }
+
+        /** Doubles up copies of the body's fingerprint, as in exponentiation by squaring */
+        void computeFingerprint()
+        {
+            body.computeFingerprintIfNeeded();
+            long hash = 0;
+            long power = 1;
+            long copiesHash = body.fingerprint;
+            long copiesPower = body.fingerprintPower;
+            for (int n = count; n > 0; n >>= 1) {
+                if ((n & 1) != 0) {
+                    hash = hash * copiesPower + copiesHash;
+                    power *= copiesPower;
+                }
+                copiesHash = copiesHash * copiesPower + copiesHash;
+                copiesPower *= copiesPower;
+            }
+            fingerprint = hash;
+            fingerprintPower = power;
+        }
+    }
+
+    private static final class LeafPosition
+    {
+        final Leaf leaf;
+        final int start;
+
+        LeafPosition(Leaf leaf, int start)
+        {
+            this.leaf = leaf;
+            this.start = start;
+        }
+    }
+}